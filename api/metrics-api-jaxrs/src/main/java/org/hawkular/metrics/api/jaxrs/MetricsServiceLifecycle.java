@@ -38,8 +38,14 @@ import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.CASSANDRA_U
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.COMPRESSION_JOB_ENABLED;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.COMPRESSION_QUERY_PAGE_SIZE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.DEFAULT_TTL;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_BATCH_MAX_BYTES;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_BATCH_MAX_PARTITIONS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_BUFFER_MAX_POINTS;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_BUFFER_WINDOW;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_MAX_IN_FLIGHT;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_MAX_RETRIES;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_MAX_RETRY_DELAY;
+import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.INGEST_TARGET_LATENCY;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.PAGE_SIZE;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.VERSION_CHECK_DELAY;
 import static org.hawkular.metrics.api.jaxrs.config.ConfigurationKey.VERSION_CHECK_MAX_RETRIES;
@@ -90,6 +96,7 @@ import org.hawkular.metrics.core.service.DataAccessImpl;
 import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.core.service.MetricsServiceImpl;
 import org.hawkular.metrics.core.service.TempTablesCleaner;
+import org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer;
 import org.hawkular.metrics.core.util.GCGraceSecondsManager;
 import org.hawkular.metrics.model.CassandraStatus;
 import org.hawkular.metrics.scheduler.api.Scheduler;
@@ -232,6 +239,36 @@ public class MetricsServiceLifecycle {
     @ConfigurationProperty(INGEST_MAX_RETRY_DELAY)
     private String ingestMaxRetryDelay;
 
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_BUFFER_WINDOW)
+    private String ingestBufferWindow;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_BUFFER_MAX_POINTS)
+    private String ingestBufferMaxPoints;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_BATCH_MAX_BYTES)
+    private String ingestBatchMaxBytes;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_BATCH_MAX_PARTITIONS)
+    private String ingestBatchMaxPartitions;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_MAX_IN_FLIGHT)
+    private String ingestMaxInFlight;
+
+    @Inject
+    @Configurable
+    @ConfigurationProperty(INGEST_TARGET_LATENCY)
+    private String ingestTargetLatency;
+
     @Inject
     @Configurable
     @ConfigurationProperty(PAGE_SIZE)
@@ -369,7 +406,14 @@ public class MetricsServiceLifecycle {
 
             session.execute("USE " + keyspace);
 
-            dataAcces = new DataAccessImpl(session);
+            dataAcces = new DataAccessImpl(session,
+                    getIngestWriteSetting(ingestBatchMaxBytes, "batch max bytes",
+                            BoundBatchStatementTransformer.DEFAULT_MAX_BATCH_BYTES),
+                    getIngestWriteSetting(ingestBatchMaxPartitions, "batch max partitions",
+                            BoundBatchStatementTransformer.DEFAULT_MAX_BATCH_PARTITIONS),
+                    getIngestWriteSetting(ingestMaxInFlight, "max in flight", DataAccessImpl.DEFAULT_MAX_IN_FLIGHT),
+                    getIngestWriteSetting(ingestTargetLatency, "target latency",
+                            DataAccessImpl.DEFAULT_TARGET_LATENCY));
 
             configurationService = new ConfigurationService();
             configurationService.init(new RxSessionImpl(session));
@@ -554,6 +598,18 @@ public class MetricsServiceLifecycle {
         }
     }
 
+    private int getIngestWriteSetting(String value, String setting, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warnInvalidIngestWriteSetting(value, setting);
+            return defaultValue;
+        }
+    }
+
     private void initJobsService() {
 
         RxSession rxSession = new RxSessionImpl(session);
@@ -606,6 +662,22 @@ public class MetricsServiceLifecycle {
                 log.warnInvalidIngestMaxRetryDelay(ingestMaxRetryDelay);
             }
         }
+        if (ingestBufferWindow != null) {
+            try {
+                Long.parseLong(ingestBufferWindow);
+                properties.put("ingestion.buffer.window", ingestBufferWindow);
+            } catch (NumberFormatException e) {
+                log.warnInvalidIngestBufferSetting(ingestBufferWindow, "window");
+            }
+        }
+        if (ingestBufferMaxPoints != null) {
+            try {
+                Integer.parseInt(ingestBufferMaxPoints);
+                properties.put("ingestion.buffer.max-points", ingestBufferMaxPoints);
+            } catch (NumberFormatException e) {
+                log.warnInvalidIngestBufferSetting(ingestBufferMaxPoints, "max points");
+            }
+        }
         if (!properties.isEmpty()) {
             Configuration config = new Configuration("org.hawkular.metrics", properties);
             configurationService.save(config).toCompletable().await(10, SECONDS);
@@ -37,6 +37,8 @@ public class QueryRequest {
 
     private String tags;
 
+    private int concurrency;
+
     public List<String> getIds() {
         return ids;
     }
@@ -93,6 +95,17 @@ public class QueryRequest {
         this.tags = tags;
     }
 
+    /**
+     * @return the number of metrics read in parallel, 0 for the server default
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
     @Override public String toString() {
         return "QueryRequest{" +
                 "ids=" + ids +
@@ -102,6 +115,7 @@ public class QueryRequest {
                 ", limit=" + limit +
                 ", order=" + order +
                 ", tags=" + tags +
+                ", concurrency=" + concurrency +
                 '}';
     }
 }
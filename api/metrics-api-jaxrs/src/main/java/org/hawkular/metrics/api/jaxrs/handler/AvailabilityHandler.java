@@ -343,11 +343,30 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                         .sortOptions(query.getLimit(), query.getOrder())
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(), query.getConcurrency())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, AVAILABILITY));
     }
 
+    @POST
+    @Path("/latest/query")
+    @ApiOperation(value = "Fetch the latest data point of multiple metrics. This endpoint is experimental and may " +
+            "undergo non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that must include a list of metric ids or tags. " +
+                    "The other query parameters are ignored.")
+                    QueryRequest query) {
+        findLatestData(asyncResponse, query, AVAILABILITY);
+    }
+
     @Deprecated
     @POST
     @Path("/data")
@@ -508,7 +527,9 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Number of metrics read in parallel, defaults to the server setting")
+            @QueryParam("concurrency") Integer concurrency
     ) {
         metricsService.findMetricIdentifiersWithFilters(getTenant(), AVAILABILITY, tags)
                 .toList()
@@ -517,7 +538,8 @@ public class AvailabilityHandler extends MetricsServiceHandler implements IMetri
                         .sortOptions(limit, order)
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(),
+                                concurrency == null ? 0 : concurrency)
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, AVAILABILITY));
     }
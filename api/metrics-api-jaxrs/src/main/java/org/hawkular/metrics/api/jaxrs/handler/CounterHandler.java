@@ -314,11 +314,30 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                             .sortOptions(query.getLimit(), query.getOrder())
                             .toObservable()
                             .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                    p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                    p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(), query.getConcurrency())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
     }
 
+    @POST
+    @Path("/latest/query")
+    @ApiOperation(value = "Fetch the latest data point of multiple metrics. This endpoint is experimental and may " +
+            "undergo non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that must include a list of metric ids or tags. " +
+                    "The other query parameters are ignored.")
+                    QueryRequest query) {
+        findLatestData(asyncResponse, query, COUNTER);
+    }
+
     @POST
     @Path("/rate/query")
     @ApiOperation(value = "Fetch rate data points for multiple metrics. This endpoint is experimental and may " +
@@ -342,7 +361,7 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .sortOptions(query.getLimit(), query.getOrder())
                         .toObservable()
                         .flatMap(p -> metricsService.findRateData(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(), query.getConcurrency())
                             .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER_RATE));
     }
@@ -897,7 +916,9 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Number of metrics read in parallel, defaults to the server setting")
+            @QueryParam("concurrency") Integer concurrency
     ) {
         metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, tags)
                 .toList()
@@ -906,7 +927,8 @@ public class CounterHandler extends MetricsServiceHandler implements IMetricsHan
                         .sortOptions(limit, order)
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(),
+                                concurrency == null ? 0 : concurrency)
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, COUNTER));
     }
@@ -344,11 +344,30 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .sortOptions(query.getLimit(), query.getOrder())
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(), query.getConcurrency())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
     }
 
+    @POST
+    @Path("/latest/query")
+    @ApiOperation(value = "Fetch the latest data point of multiple metrics. This endpoint is experimental and may " +
+            "undergo non-backwards compatible changes in future releases.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched metric data points."),
+            @ApiResponse(code = 204, message = "Query was successful, but no data was found."),
+            @ApiResponse(code = 400, message = "No metric ids are specified", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error occurred while fetching metric data.",
+                    response = ApiError.class)
+    })
+    public void getLatestData(
+            @Suspended AsyncResponse asyncResponse,
+            @ApiParam(required = true, value = "Query parameters that must include a list of metric ids or tags. " +
+                    "The other query parameters are ignored.")
+                    QueryRequest query) {
+        findLatestData(asyncResponse, query, GAUGE);
+    }
+
     @POST
     @Path("/rate/query")
     @ApiOperation(value = "Fetch rate data points for multiple metrics. This endpoint is experimental and may " +
@@ -372,7 +391,7 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .sortOptions(query.getLimit(), query.getOrder())
                         .toObservable()
                         .flatMap(p -> metricsService.findRateData(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(), query.getConcurrency())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE_RATE));
     }
@@ -906,7 +925,9 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Number of metrics read in parallel, defaults to the server setting")
+            @QueryParam("concurrency") Integer concurrency
     ) {
         metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, tags)
                 .toList()
@@ -915,7 +936,8 @@ public class GaugeHandler extends MetricsServiceHandler implements IMetricsHandl
                         .sortOptions(limit, order)
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(),
+                                concurrency == null ? 0 : concurrency)
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, GAUGE));
     }
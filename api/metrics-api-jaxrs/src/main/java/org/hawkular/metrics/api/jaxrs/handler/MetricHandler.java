@@ -32,6 +32,8 @@ import static org.hawkular.metrics.model.MetricType.GAUGE;
 import static org.hawkular.metrics.model.MetricType.GAUGE_RATE;
 import static org.hawkular.metrics.model.MetricType.STRING;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
@@ -61,8 +63,10 @@ import org.hawkular.metrics.api.jaxrs.handler.observer.MetricCreatedObserver;
 import org.hawkular.metrics.api.jaxrs.param.DurationConverter;
 import org.hawkular.metrics.api.jaxrs.param.PercentilesConverter;
 import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
+import org.hawkular.metrics.api.jaxrs.util.DataPointColumnsCodec;
 import org.hawkular.metrics.api.jaxrs.util.Logged;
 import org.hawkular.metrics.api.jaxrs.util.MetricTypeTextConverter;
+import org.hawkular.metrics.core.service.DataPointColumns;
 import org.hawkular.metrics.core.service.Functions;
 import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.core.service.transformers.MinMaxTimestampTransformer;
@@ -73,6 +77,7 @@ import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.MixedMetricsRequest;
+import org.hawkular.metrics.model.NumericBucketPoint;
 import org.hawkular.metrics.model.Percentile;
 import org.hawkular.metrics.model.param.BucketConfig;
 import org.hawkular.metrics.model.param.Duration;
@@ -301,6 +306,39 @@ public class MetricHandler {
                 );
     }
 
+    @POST
+    @Path("/raw")
+    @Consumes(DataPointColumnsCodec.MEDIA_TYPE)
+    @ApiOperation(value = "Add data points for multiple metrics in a single call, using the compact binary format " +
+            "of gauge, counter and availability data points described by " + DataPointColumnsCodec.MEDIA_TYPE + ".")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Adding data points succeeded."),
+            @ApiResponse(code = 400, message = "Missing or invalid payload.", response = ApiError.class),
+            @ApiResponse(code = 500, message = "Unexpected error happened while storing the data",
+                    response = ApiError.class)
+    })
+    public void addMetricsDataColumns(@Suspended final AsyncResponse asyncResponse, InputStream payload) {
+        List<DataPointColumns> columns;
+        try {
+            columns = DataPointColumnsCodec.decode(payload, getTenant());
+        } catch (IOException | IllegalArgumentException e) {
+            asyncResponse.resume(badRequest(new ApiError("Invalid binary payload: " + e.getMessage())));
+            return;
+        }
+        if (columns.isEmpty()) {
+            asyncResponse.resume(emptyPayload());
+            return;
+        }
+
+        metricsService.addDataPointColumns(Observable.from(columns))
+                .subscribe(
+                        aVoid -> {
+                        },
+                        t -> asyncResponse.resume(serverError(t)),
+                        () -> asyncResponse.resume(Response.ok().build())
+                );
+    }
+
     @POST
     @Path("/stats/query")
     public void findStats(@Suspended AsyncResponse asyncResponse, StatsQueryRequest query) {
@@ -365,11 +403,6 @@ public class MetricHandler {
         Observable<Map<String, List<? extends BucketPoint>>> gaugeRateStats = Observable.just(emptyMap());
         Observable<Map<String, List<? extends BucketPoint>>> counterRateStats = Observable.just(emptyMap());
 
-        // TODO Eliminate duplicate queries when fetching and rates
-        // When we return gauge and gauge rates and/or counter and counter rate data points we are doing extra queries
-        // that can be avoided. The code below can be optimized such that we fetch gauge/counter raw data, and then
-        // reuse that observable to compute stats and rate stats.
-
         if (!query.getMetrics().isEmpty() && (query.getMetrics().containsKey(GAUGE.getText()) ||
                 query.getMetrics().containsKey(COUNTER.getText()) ||
                 query.getMetrics().containsKey(AVAILABILITY.getText())
@@ -379,8 +412,10 @@ public class MetricHandler {
                     gaugeStats = getGaugeStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
                 } else if (types.contains(GAUGE_RATE)) {
                     if (types.contains(GAUGE)) {
-                        gaugeStats = getGaugeStats(query, bucketsConfig, percentiles);
-                        gaugeRateStats = getRateStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
+                        Observable<Map<MetricType<?>, Map<String, List<? extends BucketPoint>>>> stats =
+                                getStatsAndRateStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
+                        gaugeStats = stats.map(statsMap -> statsMap.getOrDefault(GAUGE, emptyMap()));
+                        gaugeRateStats = stats.map(statsMap -> statsMap.getOrDefault(GAUGE_RATE, emptyMap()));
                     } else {
                         gaugeRateStats = getRateStats(getMetricIds(query, GAUGE), bucketsConfig, percentiles);
                     }
@@ -394,8 +429,10 @@ public class MetricHandler {
                     counterStats = getCounterStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
                 } else if (types.contains(COUNTER_RATE)) {
                     if (types.contains(COUNTER)) {
-                        counterStats = getCounterStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
-                        counterRateStats = getRateStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
+                        Observable<Map<MetricType<?>, Map<String, List<? extends BucketPoint>>>> stats =
+                                getStatsAndRateStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
+                        counterStats = stats.map(statsMap -> statsMap.getOrDefault(COUNTER, emptyMap()));
+                        counterRateStats = stats.map(statsMap -> statsMap.getOrDefault(COUNTER_RATE, emptyMap()));
                     } else {
                         counterRateStats = getRateStats(getMetricIds(query, COUNTER), bucketsConfig, percentiles);
                     }
@@ -422,14 +459,11 @@ public class MetricHandler {
                 availabilityStats = getAvailabilityStatsFromTags(bucketsConfig, query.getTags());
             } else {
                 if (types.contains(GAUGE) && types.contains(GAUGE_RATE)) {
-                    gauges = metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, query.getTags()).cache();
-                    gaugeStats = gauges.flatMap(gauge ->
-                            metricsService.findGaugeStats(gauge, bucketsConfig, percentiles)
-                            .map(bucketPoints -> new NamedBucketPoints<>(gauge.getName(),
-                                            bucketPoints)))
-                            .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                                    statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-                    gaugeRateStats = getRateStats(gauges, bucketsConfig, percentiles);
+                    gauges = metricsService.findMetricIdentifiersWithFilters(getTenant(), GAUGE, query.getTags());
+                    Observable<Map<MetricType<?>, Map<String, List<? extends BucketPoint>>>> stats =
+                            getStatsAndRateStats(gauges, bucketsConfig, percentiles);
+                    gaugeStats = stats.map(statsMap -> statsMap.getOrDefault(GAUGE, emptyMap()));
+                    gaugeRateStats = stats.map(statsMap -> statsMap.getOrDefault(GAUGE_RATE, emptyMap()));
                 } else if (types.contains(GAUGE)) {
                     gaugeStats = getGaugeStatsFromTags(bucketsConfig, percentiles, query.getTags());
                 } else {
@@ -438,15 +472,11 @@ public class MetricHandler {
                 }
 
                 if (types.contains(COUNTER) && types.contains(COUNTER_RATE)) {
-                    counters = metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, query.getTags())
-                            .cache();
-                    counterStats = counters.flatMap(counter ->
-                            metricsService.findCounterStats(counter, bucketsConfig, percentiles)
-                                    .map(bucketPoints -> new NamedBucketPoints<>(counter.getName(),
-                                            bucketPoints)))
-                            .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                                    statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-                    counterRateStats = getRateStats(counters, bucketsConfig, percentiles);
+                    counters = metricsService.findMetricIdentifiersWithFilters(getTenant(), COUNTER, query.getTags());
+                    Observable<Map<MetricType<?>, Map<String, List<? extends BucketPoint>>>> stats =
+                            getStatsAndRateStats(counters, bucketsConfig, percentiles);
+                    counterStats = stats.map(statsMap -> statsMap.getOrDefault(COUNTER, emptyMap()));
+                    counterRateStats = stats.map(statsMap -> statsMap.getOrDefault(COUNTER_RATE, emptyMap()));
                 } else if (types.contains(COUNTER)) {
                     counterStats = getCounterStatsFromTags(bucketsConfig, percentiles, query.getTags());
                 } else {
@@ -530,18 +560,6 @@ public class MetricHandler {
         return availabilityStats;
     }
 
-    private Observable<Map<String, List<? extends BucketPoint>>> getGaugeStats(StatsQueryRequest query,
-            BucketConfig bucketsConfig, List<Percentile> percentiles) {
-        Observable<Map<String, List<? extends BucketPoint>>> gaugeStats;
-        gaugeStats = Observable.from(query.getMetrics().get("gauge"))
-                .flatMap(id -> metricsService.findGaugeStats(new MetricId<>(getTenant(), GAUGE, id),
-                        bucketsConfig, percentiles)
-                        .map(bucketPoints -> new NamedBucketPoints<>(id, bucketPoints)))
-                .collect(HashMap::new, (statsMap, namedBucketPoints) ->
-                        statsMap.put(namedBucketPoints.id, namedBucketPoints.bucketPoints));
-        return gaugeStats;
-    }
-
     private Observable<Map<String, List<? extends BucketPoint>>> getGaugeStats(Observable<MetricId<Double>> ids,
             BucketConfig bucketConfig, List<Percentile> percentiles) {
         return ids.flatMap(id -> metricsService.findGaugeStats(id, bucketConfig, percentiles)
@@ -582,6 +600,20 @@ public class MetricHandler {
                         namedBucketPoints.bucketPoints));
     }
 
+    /**
+     * Reads the data points of each metric once for both the stats and the rate stats. The result is cached so that
+     * the stats and the rate stats can be subscribed separately without reading the metrics again.
+     */
+    private <T extends Number> Observable<Map<MetricType<?>, Map<String, List<? extends BucketPoint>>>>
+            getStatsAndRateStats(Observable<MetricId<T>> ids, BucketConfig bucketConfig, List<Percentile> percentiles) {
+        return ids.flatMap(id -> metricsService.findStatsAndRateStats(id, bucketConfig, percentiles)
+                .map(stats -> new NamedStats(id.getName(), stats)))
+                .<Map<MetricType<?>, Map<String, List<? extends BucketPoint>>>>collect(HashMap::new,
+                        (statsMap, namedStats) -> namedStats.stats.forEach((type, bucketPoints) ->
+                                statsMap.computeIfAbsent(type, t -> new HashMap<>()).put(namedStats.id, bucketPoints)))
+                .cache();
+    }
+
     private <T> boolean isMetricsEmpty(StatsQueryRequest query, MetricType<T> type) {
         return query.getMetrics().get(type.getText()) == null || query.getMetrics().get(type.getText()).isEmpty();
     }
@@ -595,6 +627,16 @@ public class MetricHandler {
                 query.getMetrics().getOrDefault("availability", emptyList()).isEmpty();
     }
 
+    private class NamedStats {
+        public String id;
+        public Map<MetricType<?>, List<NumericBucketPoint>> stats;
+
+        public NamedStats(String id, Map<MetricType<?>, List<NumericBucketPoint>> stats) {
+            this.id = id;
+            this.stats = stats;
+        }
+    }
+
     private class NamedBucketPoints<T extends BucketPoint> {
         public String id;
         public List<T> bucketPoints;
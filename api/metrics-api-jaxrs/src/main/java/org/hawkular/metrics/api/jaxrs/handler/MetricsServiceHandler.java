@@ -27,6 +27,7 @@ import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 
+import org.hawkular.metrics.api.jaxrs.QueryRequest;
 import org.hawkular.metrics.api.jaxrs.handler.observer.NamedDataPointObserver;
 import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.model.Metric;
@@ -38,6 +39,7 @@ import org.hawkular.metrics.model.param.TimeRange;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import rx.Observable;
+import rx.schedulers.Schedulers;
 
 /**
  * @author jsanda
@@ -76,6 +78,17 @@ abstract class MetricsServiceHandler {
         return metricsService.findMetricIdentifiersWithFilters(getTenant(), type, tags);
     }
 
+    /**
+     * Fetches the latest data point of the metrics of the query, the other query parameters are ignored.
+     */
+    <T> void findLatestData(AsyncResponse asyncResponse, QueryRequest query, MetricType<T> type) {
+        findMetricsByNameOrTag(query.getIds(), query.getTags(), type)
+                .toList()
+                .flatMap(metricsService::findLatestDataPoints)
+                .observeOn(Schedulers.io())
+                .subscribe(createNamedDataPointObserver(asyncResponse, type));
+    }
+
     <T> Observable<TimeRange> findTimeRange(String start, String end, Boolean fromEarliest,
                                                     Collection<MetricId<T>> metricIds) {
         if (Boolean.TRUE.equals(fromEarliest)) {
@@ -312,7 +312,7 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                         .forString()
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(), query.getConcurrency())
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, STRING));
     }
@@ -370,7 +370,9 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
             @ApiParam(value = "Use data from earliest received, subject to retention period")
             @QueryParam("fromEarliest") Boolean fromEarliest,
             @ApiParam(value = "Limit the number of data points returned") @QueryParam("limit") Integer limit,
-            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order
+            @ApiParam(value = "Data point sort order, based on timestamp") @QueryParam("order") Order order,
+            @ApiParam(value = "Number of metrics read in parallel, defaults to the server setting")
+            @QueryParam("concurrency") Integer concurrency
     ) {
         metricsService.findMetricIdentifiersWithFilters(getTenant(), STRING, tags)
                 .toList()
@@ -380,7 +382,8 @@ public class StringHandler extends MetricsServiceHandler implements IMetricsHand
                         .forString()
                         .toObservable()
                         .flatMap(p -> metricsService.findDataPoints(metricIds, p.getTimeRange().getStart(),
-                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder())
+                                p.getTimeRange().getEnd(), p.getLimit(), p.getOrder(),
+                                concurrency == null ? 0 : concurrency)
                                 .observeOn(Schedulers.io())))
                 .subscribe(createNamedDataPointObserver(asyncResponse, STRING));
     }
@@ -16,14 +16,17 @@
  */
 package org.hawkular.metrics.api.jaxrs.handler.observer;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
-import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.hawkular.metrics.api.jaxrs.util.ApiUtils;
 import org.hawkular.metrics.model.AvailabilityType;
@@ -35,140 +38,158 @@ import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import rx.Completable;
+import rx.Notification;
 import rx.Subscriber;
+import rx.schedulers.Schedulers;
 
 /**
+ * Streams the data points to the response as they arrive. The response is resumed with the first data point and the
+ * JSON is written on an I/O thread while the query is still running. At most {@link #PREFETCH} data points are
+ * requested ahead of the writer, so a slow client slows down the reading instead of buffering the whole result.
+ *
  * @author jsanda
  */
 public class NamedDataPointObserver<T> extends Subscriber<NamedDataPoint<T>> {
     private static final Logger log = Logger.getLogger(NamedDataPointObserver.class);
 
+    static final int PREFETCH = 128;
+
     @FunctionalInterface
     private interface WriteValue<T> {
-        void call(NamedDataPoint<T> dataPoint) throws IOException;
+        void call(JsonGenerator generator, NamedDataPoint<T> dataPoint) throws IOException;
     }
 
     private final AsyncResponse response;
-    private final JsonGenerator generator;
+    private final ObjectMapper mapper;
     private final WriteValue<T> writeValue;
-    private final ByteArrayOutputStream jsonOutputStream;
+    private final BlockingQueue<Notification<NamedDataPoint<T>>> queue = new LinkedBlockingQueue<>();
 
-    private volatile String currentMetric;
+    private volatile boolean streaming;
 
     public NamedDataPointObserver(AsyncResponse response, ObjectMapper mapper, MetricType<T> type) {
         this.response = response;
-        jsonOutputStream = new ByteArrayOutputStream();
-        try {
-            this.generator = mapper.getFactory().createGenerator(jsonOutputStream, JsonEncoding.UTF8);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        this.mapper = mapper;
         if (type == MetricType.GAUGE || type == MetricType.GAUGE_RATE || type == MetricType.COUNTER_RATE) {
-            writeValue = dataPoint -> generator.writeNumberField("value", (Double) dataPoint.getValue());
+            writeValue = (generator, dataPoint) -> generator.writeNumberField("value", (Double) dataPoint.getValue());
         } else if (type == MetricType.COUNTER) {
-            writeValue = dataPoint -> generator.writeNumberField("value", (Long) dataPoint.getValue());
+            writeValue = (generator, dataPoint) -> generator.writeNumberField("value", (Long) dataPoint.getValue());
         } else if (type == MetricType.AVAILABILITY) {
-            writeValue = dataPoint -> {
+            writeValue = (generator, dataPoint) -> {
                 AvailabilityType availability = (AvailabilityType) dataPoint.getValue();
                 generator.writeStringField("value", availability.getText());
             };
         } else if (type == MetricType.STRING) {
-            writeValue = dataPoint -> generator.writeStringField("value", (String) dataPoint.getValue());
+            writeValue = (generator, dataPoint) -> generator.writeStringField("value", (String) dataPoint.getValue());
         } else {
             throw new IllegalArgumentException(type + " is not supported metric type. This class should be " +
                     "updated to add support for it!");
         }
     }
 
+    @Override
+    public void onStart() {
+        request(PREFETCH);
+    }
+
     @Override
     public void onNext(NamedDataPoint<T> dataPoint) {
+        queue.offer(Notification.createOnNext(dataPoint));
+        if (!streaming) {
+            streaming = true;
+            // Resuming writes the response on the calling thread, which must not be the thread emitting the data
+            Completable.fromAction(() -> {
+                boolean resumed = response.resume(Response.ok((StreamingOutput) this::write,
+                        MediaType.APPLICATION_JSON_TYPE).build());
+                if (!resumed) {
+                    // The request has already been completed, for example timed out
+                    unsubscribe();
+                }
+            })
+                    .subscribeOn(Schedulers.io())
+                    .subscribe();
+        }
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        log.trace("Fetching data failed", e);
+        if (streaming) {
+            queue.offer(Notification.createOnError(e));
+        } else {
+            response.resume(ApiUtils.serverError(e));
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        if (streaming) {
+            queue.offer(Notification.createOnCompleted());
+        } else {
+            response.resume(ApiUtils.noContent());
+        }
+    }
+
+    private void write(OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        String currentMetric = null;
+        int consumed = 0;
         try {
-            if (currentMetric == null) {
-                generator.writeStartArray();
-                generator.writeStartObject();
-                generator.writeStringField("id", dataPoint.getName());
-                generator.writeArrayFieldStart("data");
+            generator.writeStartArray();
+            while (true) {
+                Notification<NamedDataPoint<T>> notification = queue.take();
+                if (notification.isOnCompleted()) {
+                    break;
+                }
+                if (notification.isOnError()) {
+                    // The status has been sent already, failing the write aborts the response instead of leaving
+                    // a valid looking but incomplete document
+                    throw new IOException("Fetching data failed", notification.getThrowable());
+                }
 
-                generator.writeStartObject();
-                generator.writeNumberField("timestamp", dataPoint.getTimestamp());
-                writeValue.call(dataPoint);
-                if (!dataPoint.getTags().isEmpty()) {
-                    writeTags(dataPoint.getTags());
+                NamedDataPoint<T> dataPoint = notification.getValue();
+                if (!dataPoint.getName().equals(currentMetric)) {
+                    if (currentMetric != null) {
+                        generator.writeEndArray();
+                        generator.writeEndObject();
+                    }
+                    generator.writeStartObject();
+                    generator.writeStringField("id", dataPoint.getName());
+                    generator.writeArrayFieldStart("data");
+                    currentMetric = dataPoint.getName();
                 }
-                generator.writeEndObject();
-            } else if (currentMetric.equals(dataPoint.getName())) {
                 generator.writeStartObject();
                 generator.writeNumberField("timestamp", dataPoint.getTimestamp());
-                writeValue.call(dataPoint);
+                writeValue.call(generator, dataPoint);
                 if (!dataPoint.getTags().isEmpty()) {
-                    writeTags(dataPoint.getTags());
+                    writeTags(generator, dataPoint.getTags());
                 }
                 generator.writeEndObject();
-            } else {
-                generator.writeEndArray();
-                generator.writeEndObject();
-                generator.writeStartObject();
-                generator.writeStringField("id", dataPoint.getName());
-                generator.writeArrayFieldStart("data");
 
-                generator.writeStartObject();
-                generator.writeNumberField("timestamp", dataPoint.getTimestamp());
-                writeValue.call(dataPoint);
-                if (!dataPoint.getTags().isEmpty()) {
-                    writeTags(dataPoint.getTags());
+                if (++consumed == PREFETCH / 2) {
+                    consumed = 0;
+                    request(PREFETCH / 2);
                 }
-                generator.writeEndObject();
             }
-            currentMetric = dataPoint.getName();
-        } catch (IOException e) {
-            throw new RuntimeException("Streaming data to client failed", e);
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Streaming data to client was interrupted");
+        } finally {
+            // Stops reading if the client went away
+            unsubscribe();
         }
     }
 
-    private void writeTags(Map<String, String> tags) throws IOException {
+    private void writeTags(JsonGenerator generator, Map<String, String> tags) throws IOException {
         generator.writeObjectFieldStart("tags");
         for (Map.Entry<String, String> tag : tags.entrySet()) {
             generator.writeStringField(tag.getKey(), tag.getValue());
         }
         generator.writeEndObject();
     }
-
-    @Override
-    public void onError(Throwable e) {
-        log.trace("Fetching data failed", e);
-        try {
-            if (currentMetric == null) {
-                response.resume(ApiUtils.serverError(e));
-            } else {
-                generator.close();
-            }
-        } catch (IOException ignored) {
-        }
-    }
-
-    @Override
-    public void onCompleted() {
-        Response result = null;
-        try {
-            if (currentMetric == null) {
-                generator.close();
-                result = Response.ok().status(HttpServletResponse.SC_NO_CONTENT).build();
-            } else {
-                generator.writeEndArray();
-                generator.writeEndObject();
-                generator.writeEndArray();
-                generator.close();
-                result = Response.ok(new String(jsonOutputStream.toByteArray()), MediaType.APPLICATION_JSON_TYPE)
-                        .build();
-            }
-        } catch (IOException e) {
-            result = ApiUtils.serverError(e);
-            log.trace("Error while finishing streaming data", e);
-        } finally {
-            if (result == null) {
-                result = Response.serverError().build();
-            }
-            response.resume(result);
-        }
-    }
 }
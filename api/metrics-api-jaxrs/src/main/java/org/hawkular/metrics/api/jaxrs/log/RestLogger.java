@@ -114,4 +114,13 @@ public interface RestLogger extends BasicLogger {
     @Message(id = 200018, value = "Invalid value [%s] for ingestion max retry delay. The ingestion configuration " +
             "setting will not be updated")
     void warnInvalidIngestMaxRetryDelay(String maxRetries);
+
+    @LogMessage(level = WARN)
+    @Message(id = 200019, value = "Invalid value [%s] for ingestion buffer %s. The ingestion configuration setting " +
+            "will not be updated")
+    void warnInvalidIngestBufferSetting(String value, String setting);
+
+    @LogMessage(level = WARN)
+    @Message(id = 200020, value = "Invalid value [%s] for ingestion write %s. The default value will be used")
+    void warnInvalidIngestWriteSetting(String value, String setting);
 }
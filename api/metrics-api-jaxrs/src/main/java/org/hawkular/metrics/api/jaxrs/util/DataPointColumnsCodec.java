@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.util;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.DataPointColumns;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Reads and writes the compact binary format accepted by {@code POST /metrics/raw}. All numbers are big-endian:
+ * <pre>
+ * payload := version:byte metricCount:int metric*
+ * metric  := type:byte name:modified-UTF-8 count:int timestamp:long{count} value{count}
+ * value   := double (gauge) | long (counter) | byte (availability code)
+ * </pre>
+ * Timestamps and values are stored as columns so they can be read straight into primitive arrays.
+ */
+public final class DataPointColumnsCodec {
+
+    public static final String MEDIA_TYPE = "application/vnd.hawkular.metrics.columnar";
+
+    public static final byte VERSION = 1;
+
+    /**
+     * Upper bound on the points of a single metric, so that a corrupt count cannot make us allocate huge arrays.
+     */
+    static final int MAX_POINTS = 1 << 20;
+
+    public static List<DataPointColumns> decode(InputStream input, String tenantId) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported payload version " + version);
+        }
+        int metricCount = in.readInt();
+        if (metricCount < 0) {
+            throw new IllegalArgumentException("Invalid metric count " + metricCount);
+        }
+        List<DataPointColumns> columns = new ArrayList<>(Math.min(metricCount, 1024));
+        for (int m = 0; m < metricCount; m++) {
+            MetricType<?> type = MetricType.fromCode(in.readByte());
+            String name = in.readUTF();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_POINTS) {
+                throw new IllegalArgumentException("Invalid data point count " + count + " for " + name);
+            }
+            long[] timestamps = new long[count];
+            for (int i = 0; i < count; i++) {
+                timestamps[i] = in.readLong();
+            }
+            if (type == GAUGE) {
+                double[] values = new double[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = in.readDouble();
+                }
+                columns.add(DataPointColumns.gauge(new MetricId<>(tenantId, GAUGE, name), timestamps, values));
+            } else if (type == COUNTER) {
+                long[] values = new long[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = in.readLong();
+                }
+                columns.add(DataPointColumns.counter(new MetricId<>(tenantId, COUNTER, name), timestamps, values));
+            } else if (type == AVAILABILITY) {
+                byte[] values = new byte[count];
+                in.readFully(values);
+                columns.add(DataPointColumns.availability(new MetricId<>(tenantId, AVAILABILITY, name), timestamps,
+                        values));
+            } else {
+                throw new IllegalArgumentException(type.getText() + " metrics are not supported in binary payloads");
+            }
+        }
+        if (in.read() != -1) {
+            throw new IllegalArgumentException("Unexpected data after the last metric");
+        }
+        return columns;
+    }
+
+    public static void encode(List<DataPointColumns> columns, OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeByte(VERSION);
+        out.writeInt(columns.size());
+        for (DataPointColumns c : columns) {
+            MetricType<?> type = c.getType();
+            out.writeByte(type.getCode());
+            out.writeUTF(c.getMetricId().getName());
+            out.writeInt(c.size());
+            for (int i = 0; i < c.size(); i++) {
+                out.writeLong(c.getTimestamp(i));
+            }
+            for (int i = 0; i < c.size(); i++) {
+                if (type == GAUGE) {
+                    out.writeDouble(c.getDouble(i));
+                } else if (type == COUNTER) {
+                    out.writeLong(c.getLong(i));
+                } else {
+                    out.writeByte(c.getByte(i));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private DataPointColumnsCodec() {
+        // Utility class
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.handler.observer;
+
+import static java.util.Collections.emptyMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.NamedDataPoint;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import rx.Observable;
+
+public class NamedDataPointObserverTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void streamDataPointsWithBoundedPrefetch() throws Exception {
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        when(asyncResponse.resume(any(Response.class))).thenReturn(true);
+        AtomicInteger emitted = new AtomicInteger();
+
+        Observable.range(0, 1000)
+                .map(i -> new NamedDataPoint<>(i < 400 ? "A" : "B", (long) i, (double) i, emptyMap()))
+                .doOnNext(dataPoint -> emitted.incrementAndGet())
+                .subscribe(new NamedDataPointObserver<>(asyncResponse, mapper, MetricType.GAUGE));
+
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse, timeout(5000)).resume(captor.capture());
+        Response response = captor.getValue();
+        assertEquals(200, response.getStatus());
+
+        // Nothing has been written yet, so only the prefetched data points have been read
+        assertEquals(NamedDataPointObserver.PREFETCH, emitted.get());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        assertEquals(1000, emitted.get());
+
+        JsonNode json = mapper.readTree(out.toByteArray());
+        assertEquals(2, json.size());
+        assertEquals("A", json.get(0).get("id").asText());
+        assertEquals(400, json.get(0).get("data").size());
+        assertEquals("B", json.get(1).get("id").asText());
+        assertEquals(600, json.get(1).get("data").size());
+        assertEquals(999, json.get(1).get("data").get(599).get("timestamp").asLong());
+        assertEquals(999.0, json.get(1).get("data").get(599).get("value").asDouble(), 0.0);
+    }
+
+    @Test
+    public void noContentWithoutDataPoints() {
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        Observable.<NamedDataPoint<Double>>empty()
+                .subscribe(new NamedDataPointObserver<>(asyncResponse, mapper, MetricType.GAUGE));
+
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(captor.capture());
+        assertEquals(204, captor.getValue().getStatus());
+    }
+
+    @Test
+    public void errorBeforeDataPointsIsReturned() {
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        Observable.<NamedDataPoint<Double>>error(new RuntimeException("failed"))
+                .subscribe(new NamedDataPointObserver<>(asyncResponse, mapper, MetricType.GAUGE));
+
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse).resume(captor.capture());
+        assertTrue(captor.getValue().getStatus() >= 500);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.api.jaxrs.util;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.DataPointColumns;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+public class DataPointColumnsCodecTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<DataPointColumns> columns = asList(
+                DataPointColumns.gauge(new MetricId<>("t", GAUGE, "g1"), new long[]{1, 2, 3},
+                        new double[]{1.5, -2.25, Double.NaN}),
+                DataPointColumns.counter(new MetricId<>("t", COUNTER, "c1"), new long[]{10, 20},
+                        new long[]{Long.MAX_VALUE, 0}),
+                DataPointColumns.availability(new MetricId<>("t", AVAILABILITY, "a1"), new long[]{5},
+                        new byte[]{AvailabilityType.DOWN.getCode()}),
+                DataPointColumns.gauge(new MetricId<>("t", GAUGE, "empty"), new long[0], new double[0]));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataPointColumnsCodec.encode(columns, out);
+        List<DataPointColumns> decoded = DataPointColumnsCodec.decode(new ByteArrayInputStream(out.toByteArray()),
+                "other");
+
+        assertEquals(4, decoded.size());
+        assertEquals(new MetricId<>("other", GAUGE, "g1"), decoded.get(0).getMetricId());
+        assertEquals(3, decoded.get(0).size());
+        assertEquals(2, decoded.get(0).getTimestamp(1));
+        assertEquals(-2.25, decoded.get(0).getDouble(1), 0);
+        assertEquals(Double.NaN, decoded.get(0).getDouble(2), 0);
+        assertEquals(new MetricId<>("other", COUNTER, "c1"), decoded.get(1).getMetricId());
+        assertEquals(Long.MAX_VALUE, decoded.get(1).getLong(0));
+        assertEquals(20, decoded.get(1).getTimestamp(1));
+        assertEquals(AvailabilityType.DOWN.getCode(), decoded.get(2).getByte(0));
+        assertEquals(0, decoded.get(3).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectStringMetrics() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DataPointColumnsCodec.VERSION);
+        out.writeInt(1);
+        out.writeByte(4);
+        out.writeUTF("s1");
+        out.writeInt(0);
+        DataPointColumnsCodec.decode(new ByteArrayInputStream(bytes.toByteArray()), "t");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownAvailabilityCode() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DataPointColumnsCodec.VERSION);
+        out.writeInt(1);
+        out.writeByte(AVAILABILITY.getCode());
+        out.writeUTF("a1");
+        out.writeInt(1);
+        out.writeLong(1);
+        out.writeByte(42);
+        DataPointColumnsCodec.decode(new ByteArrayInputStream(bytes.toByteArray()), "t");
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectTruncatedPayload() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DataPointColumnsCodec.VERSION);
+        out.writeInt(1);
+        out.writeByte(GAUGE.getCode());
+        out.writeUTF("g1");
+        out.writeInt(2);
+        out.writeLong(1);
+        DataPointColumnsCodec.decode(new ByteArrayInputStream(bytes.toByteArray()), "t");
+    }
+}
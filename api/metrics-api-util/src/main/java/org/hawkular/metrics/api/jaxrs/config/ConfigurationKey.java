@@ -76,6 +76,13 @@ public enum ConfigurationKey {
 
     INGEST_MAX_RETRIES("hawkular.metrics.ingestion.retry.max-retries", null, "INGEST_MAX_RETRIES", false),
     INGEST_MAX_RETRY_DELAY("hawkular.metrics.ingestion.retry.max-delay", null, "INGEST_MAX_RETRY_DELAY", false),
+    INGEST_BUFFER_WINDOW("hawkular.metrics.ingestion.buffer.window", null, "INGEST_BUFFER_WINDOW", false),
+    INGEST_BUFFER_MAX_POINTS("hawkular.metrics.ingestion.buffer.max-points", null, "INGEST_BUFFER_MAX_POINTS", false),
+    INGEST_BATCH_MAX_BYTES("hawkular.metrics.ingestion.batch-max-bytes", null, "INGEST_BATCH_MAX_BYTES", false),
+    INGEST_BATCH_MAX_PARTITIONS("hawkular.metrics.ingestion.batch-max-partitions", null,
+            "INGEST_BATCH_MAX_PARTITIONS", false),
+    INGEST_MAX_IN_FLIGHT("hawkular.metrics.ingestion.max-in-flight", null, "INGEST_MAX_IN_FLIGHT", false),
+    INGEST_TARGET_LATENCY("hawkular.metrics.ingestion.target-latency", null, "INGEST_TARGET_LATENCY", false),
 
     VERSION_CHECK_DELAY("hawkular.metrics.version.check.delay-sec", "10", "VERSION_CHECK_DELAY_SEC", false),
     VERSION_CHECK_MAX_RETRIES("hawkular.metrics.version.check.max-retries", "30", "VERSION_CHECK_MAX_RETRIES", false),
@@ -21,6 +21,7 @@ import java.util.concurrent.TimeUnit;
 import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.datetime.DateTimeService;
 import org.hawkular.metrics.scheduler.api.JobDetails;
+import org.hawkular.metrics.scheduler.api.JobParameters;
 import org.hawkular.metrics.scheduler.api.Trigger;
 import org.hawkular.metrics.sysconfig.Configuration;
 import org.hawkular.metrics.sysconfig.ConfigurationService;
@@ -45,15 +46,19 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
     public static final String CONFIG_ID = JobsServiceImpl.CONFIG_PREFIX + JOB_NAME;
     public static final String CONFIG_PAGE_SIZE = "page-size";
     public static final String CONFIG_MAX_READ_CONCURRENCY = "concurrency.read.max";
+    public static final String CONFIG_TOKEN_SPLITS = "token.splits";
+    public static final String TOKEN_SPLITS = "compression.token.splits";
 
     private static final int DEFAULT_PAGE_SIZE = 1000;
     private static final int DEFAULT_READ_CONCURRENCY = 2;
+    private static final int DEFAULT_TOKEN_SPLITS = 0;
 
     private MetricsService metricsService;
 
     private int pageSize;
     private boolean enabled;
     private int maxReadConcurrency = DEFAULT_READ_CONCURRENCY;
+    private int tokenSplits = DEFAULT_TOKEN_SPLITS;
 
     public TempDataCompressor(MetricsService service, ConfigurationService configurationService) {
         metricsService = service;
@@ -68,6 +73,10 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
             maxReadConcurrency = Integer.parseInt(configuration.get(CONFIG_MAX_READ_CONCURRENCY));
         }
 
+        if(configuration.get(CONFIG_TOKEN_SPLITS) != null) {
+            tokenSplits = Integer.parseInt(configuration.get(CONFIG_TOKEN_SPLITS));
+        }
+
         String enabledConfig = configuration.get("enabled", "true");
         enabled = Boolean.parseBoolean(enabledConfig);
         logger.debugf("Job enabled? %b", enabled);
@@ -84,11 +93,31 @@ public class TempDataCompressor implements Func1<JobDetails, Completable> {
         DateTime timeSliceStart = DateTimeService.getTimeSlice(timeSliceInclusive, runtimeBlockSize);
         long startOfSlice = timeSliceStart.getMillis();
 
+        // Checkpoints of finished token ranges only match if the retried execution uses the same splits, so the
+        // amount of splits is stored with the execution until it completes
+        JobParameters parameters = jobDetails.getParameters();
+        Completable storeSplits = Completable.complete();
+        int splits;
+        if (parameters.containsKey(TOKEN_SPLITS)) {
+            splits = Integer.parseInt(parameters.get(TOKEN_SPLITS));
+            logger.infof("Resuming interrupted compression with %d token splits", splits);
+        } else {
+            splits = tokenSplits;
+            parameters.put(TOKEN_SPLITS, Integer.toString(splits));
+            storeSplits = parameters.save();
+        }
+
         Stopwatch stopwatch = Stopwatch.createStarted();
         logger.infof("Starting to process temp table for starting time of %s", timeSliceStart.toString());
 
-        // TODO Optimization - new worker per token - use parallelism in Cassandra (with configured parallelism)
-        return metricsService.compressBlock(startOfSlice, pageSize, maxReadConcurrency)
+        // Token ring is processed in splits, maxReadConcurrency splits are read concurrently from each host
+        return storeSplits
+                .andThen(metricsService.compressBlock(startOfSlice, pageSize, splits, maxReadConcurrency))
+                .andThen(Completable.defer(() -> {
+                    // Next execution picks up the current configuration
+                    parameters.remove(TOKEN_SPLITS);
+                    return parameters.save();
+                }))
                 .doOnError(t -> logger.errorf("Compression job failed: %s", t.getMessage()))
                 .doOnCompleted(() -> {
                     stopwatch.stop();
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.Objects;
+
+import org.hawkular.metrics.model.MetricId;
+
+/**
+ * Identifies the block of a metric starting at a time slice, in the caches of blocks.
+ */
+class BlockKey {
+
+    private final MetricId<?> metricId;
+    private final long timeslice;
+
+    BlockKey(MetricId<?> metricId, long timeslice) {
+        this.metricId = metricId;
+        this.timeslice = timeslice;
+    }
+
+    MetricId<?> getMetricId() {
+        return metricId;
+    }
+
+    long getTimeslice() {
+        return timeslice;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BlockKey blockKey = (BlockKey) o;
+        return timeslice == blockKey.timeslice && Objects.equals(metricId, blockKey.metricId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(metricId, timeslice);
+    }
+}
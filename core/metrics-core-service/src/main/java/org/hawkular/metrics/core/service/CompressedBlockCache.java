@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.compress.CompressedBlock;
+import org.hawkular.metrics.model.MetricId;
+
+import com.datastax.driver.core.Row;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Observable;
+
+/**
+ * Caches the blocks of data_compressed outside of the heap. Only final blocks are cached, that is blocks whose temp
+ * and write-ahead log tables have been dropped by the compression job: later points of their time slice go to the
+ * out-of-order table, so the blocks do not change anymore. Time slices without a block are cached too, a time range
+ * whose time slices are all cached is read without going to Cassandra.
+ * <p>
+ * The cache is bounded by the size of the blocks, the least recently used blocks are evicted first. Blocks also
+ * expire after a while, as Cassandra drops them once their data retention has passed.
+ * <p>
+ * Entries are only invalidated on the node that deletes a metric or rewrites one of its blocks. Other nodes keep
+ * serving their cached entries until they expire, so the time to live bounds how long a deleted metric may still be
+ * returned, or a recreated metric may look empty, on the other nodes.
+ */
+class CompressedBlockCache {
+
+    /**
+     * Ranges longer than this are read from Cassandra, the cache would be filled with empty time slices
+     */
+    private static final int MAX_CACHED_BLOCKS = 2048;
+
+    private static final CompressedBlock NO_BLOCK = new CompressedBlock(0, ByteBuffer.allocate(0), null);
+
+    private final DataAccess dataAccess;
+
+    private final long blockSize;
+
+    private final Cache<BlockKey, CompressedBlock> blocks;
+
+    /**
+     * @param blockSize Length of the compression blocks in milliseconds
+     * @param maxBytes  Memory the cached blocks may use, mostly outside of the heap
+     * @param ttl       Time after which a block is read again from Cassandra
+     */
+    CompressedBlockCache(DataAccess dataAccess, long blockSize, long maxBytes, long ttl, TimeUnit unit) {
+        this.dataAccess = dataAccess;
+        this.blockSize = blockSize;
+        blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((BlockKey key, CompressedBlock block) -> 64 + block.size())
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Finds the blocks that start inside the time range, in the requested order.
+     *
+     * @param start Start of a block
+     * @param limit Maximum number of blocks read from Cassandra, 0 for all of them
+     */
+    Observable<CompressedBlock> findBlocks(MetricId<?> id, long start, long end, int limit, Order order) {
+        long finalEnd = Math.max(start, Math.min(end, dataAccess.findFirstOpenTimeSlice()));
+        if ((finalEnd - start) / blockSize > MAX_CACHED_BLOCKS) {
+            return findCompressedData(id, start, end, limit, order);
+        }
+        Observable<CompressedBlock> finalBlocks = start < finalEnd ? findFinalBlocks(id, start, finalEnd, limit, order)
+                : Observable.empty();
+        Observable<CompressedBlock> openBlocks = finalEnd < end ? findCompressedData(id, finalEnd, end, limit, order)
+                : Observable.empty();
+        return order == ASC ? finalBlocks.concatWith(openBlocks) : openBlocks.concatWith(finalBlocks);
+    }
+
+    /**
+     * Called when a block is written, in case it is written again.
+     */
+    void invalidate(MetricId<?> id, long blockStart) {
+        blocks.invalidate(new BlockKey(id, blockStart));
+    }
+
+    void invalidate(MetricId<?> id) {
+        blocks.asMap().keySet().removeIf(key -> key.getMetricId().equals(id));
+    }
+
+    long size() {
+        return blocks.size();
+    }
+
+    private Observable<CompressedBlock> findFinalBlocks(MetricId<?> id, long start, long end, int limit,
+            Order order) {
+        List<CompressedBlock> cached = new ArrayList<>();
+        for (long timeslice = start; timeslice < end; timeslice += blockSize) {
+            CompressedBlock block = blocks.getIfPresent(new BlockKey(id, timeslice));
+            if (block == null) {
+                return readFinalBlocks(id, start, end, limit, order);
+            }
+            if (block != NO_BLOCK) {
+                cached.add(block);
+            }
+        }
+        if (order != ASC) {
+            Collections.reverse(cached);
+        }
+        return Observable.from(cached);
+    }
+
+    private Observable<CompressedBlock> readFinalBlocks(MetricId<?> id, long start, long end, int limit,
+            Order order) {
+        return Observable.defer(() -> {
+            Set<Long> found = new HashSet<>();
+            return findCompressedData(id, start, end, limit, order)
+                    .map(block -> {
+                        CompressedBlock offHeap = block.copyOffHeap();
+                        blocks.put(new BlockKey(id, offHeap.getBlockStart()), offHeap);
+                        found.add(offHeap.getBlockStart());
+                        return offHeap;
+                    })
+                    .doOnCompleted(() -> {
+                        // With a limit, the time slices after the last block may still have one
+                        if (limit <= 0) {
+                            for (long timeslice = start; timeslice < end; timeslice += blockSize) {
+                                if (!found.contains(timeslice)) {
+                                    blocks.put(new BlockKey(id, timeslice), NO_BLOCK);
+                                }
+                            }
+                        }
+                    });
+        });
+    }
+
+    private Observable<CompressedBlock> findCompressedData(MetricId<?> id, long start, long end, int limit,
+            Order order) {
+        return dataAccess.findCompressedData(id, start, end, limit, order)
+                .filter(row -> !row.isNull("c_value"))
+                .map(CompressedBlockCache::toBlock);
+    }
+
+    private static CompressedBlock toBlock(Row row) {
+        return new CompressedBlock(row.getTimestamp("time").getTime(), row.getBytes("c_value"),
+                row.getBytes("tags"));
+    }
+}
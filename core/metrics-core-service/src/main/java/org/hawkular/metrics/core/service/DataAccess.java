@@ -16,21 +16,29 @@
  */
 package org.hawkular.metrics.core.service;
 
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.function.Function;
 
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.rollup.RollupTier;
+import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.Tenant;
 
+import com.datastax.driver.core.Host;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TokenRange;
 
 import rx.Observable;
+import rx.functions.Func1;
 
 /**
  * @author John Sanda
@@ -67,6 +75,38 @@ public interface DataAccess {
 
     <T> Observable<Row> findMetricsInMetricsIndex(String tenantId, MetricType<T> type);
 
+    <T> Observable<ResultSet> insertIntoMetricsRegistry(MetricId<T> id, int ttl);
+
+    /**
+     * @return the ids of the metrics of the tenant registered on ingestion, column 0 is the metric name
+     */
+    <T> Observable<Row> findMetricsInMetricsRegistry(String tenantId, MetricType<T> type);
+
+    <T> Observable<ResultSet> deleteFromMetricsRegistry(MetricId<T> id);
+
+    /**
+     * Writes the data points as the latest of their metrics, a data point is ignored if a later one has been written.
+     * The writes are grouped in unlogged batches and limited like data point inserts.
+     *
+     * @param ttl data retention of a metric in seconds
+     * @return the number of data points of each written batch
+     */
+    Observable<Integer> insertLatestData(Map<MetricId<?>, DataPoint<?>> latest, Func1<MetricId<?>, Integer> ttl);
+
+    /**
+     * @return the latest data points of the metrics, columns are metric, time, value and tags
+     */
+    <T> Observable<Row> findLatestData(String tenantId, MetricType<T> type, List<String> metrics);
+
+    /**
+     * Deletes the latest data point of the metric. The rows are written with the timestamp of their data point as
+     * their write time, the delete uses the timestamp of the latest data point so that it does not hide the data
+     * points of a metric created again with the same id.
+     *
+     * @param timestamp timestamp of the latest data point
+     */
+    <T> Observable<ResultSet> deleteLatestData(MetricId<T> id, long timestamp);
+
     /*
     https://issues.apache.org/jira/browse/CASSANDRA-11143
     https://issues.apache.org/jira/browse/CASSANDRA-10699
@@ -78,12 +118,85 @@ public interface DataAccess {
 
     Observable<Observable<Row>> findAllDataFromBucket(long timestamp, int pageSize, int maxConcurrency);
 
+    Observable<Row> findAllDataFromBucket(long timestamp, TokenRange tokenRange, int pageSize);
+
+    Map<Host, List<TokenRange>> findTokenSplits(int splits);
+
     Observable<ResultSet> dropTempTable(long timestamp);
 
+    /**
+     * Creates the write-ahead log tables of the head blocks, one per compression block like the temp tables.
+     */
+    Observable<ResultSet> createWalTablesIfNotExists(Set<Long> timestamps);
+
+    /**
+     * @return Starting times of the temp tables that overlap with the time range, in ascending order. The table of
+     * out-of-order points is not included.
+     */
+    NavigableSet<Long> findTempTables(long startTime, long endTime);
+
+    /**
+     * @return Whether the write-ahead log table of the compression block starting at the timeslice exists
+     */
+    boolean hasWalTable(long timeslice);
+
+    /**
+     * @return Starting times of the write-ahead log tables that overlap with the time range, in ascending order
+     */
+    NavigableSet<Long> findWalTables(long startTime, long endTime);
+
+    /**
+     * @return Start of the oldest time slice that still has a temp or write-ahead log table, Long.MIN_VALUE when there
+     * is none
+     */
+    long findFirstOpenTimeSlice();
+
+    /**
+     * Appends a chunk of compressed data points to the write-ahead log of the compression block.
+     *
+     * @param chunk Compressed values and the optional data point tags of the chunk
+     */
+    <T> Observable<ResultSet> insertWalChunk(MetricId<T> id, long timeslice, int count, CompressedPointContainer chunk);
+
+    /**
+     * @return The chunks of the metric in the write-ahead log of the compression block, columns are count, value and
+     * tags
+     */
+    <T> Observable<Row> findWalChunks(MetricId<T> id, long timeslice);
+
+    /**
+     * Fetch all the chunks of a write-ahead log table that belong to the given token range, see
+     * {@link #findAllDataFromBucket(long, TokenRange, int)}. Columns are tenant_id, type, metric, time, count, value
+     * and tags.
+     */
+    Observable<Row> findAllWalChunks(long timeslice, TokenRange tokenRange, int pageSize);
+
+    Observable<ResultSet> dropWalTable(long timestamp);
+
+    Observable<TokenRange> findCompressionCheckpoints(long timestamp);
+
+    Observable<ResultSet> insertCompressionCheckpoint(long timestamp, TokenRange tokenRange);
+
+    Observable<ResultSet> deleteCompressionCheckpoints(long timestamp);
+
+    /**
+     * Records that the metric has a block summary in the day, so that the compression job rolls the day up.
+     */
+    Observable<ResultSet> insertDayRollupMetric(long day, MetricId<?> id);
+
+    /**
+     * Fetch the metrics which have block summaries in the day. Columns are tenant_id, type and metric.
+     */
+    Observable<Row> findDayRollupMetrics(long day, int pageSize);
+
+    Observable<ResultSet> deleteDayRollupMetrics(long day);
+
     Observable<Row> findAllMetricIdentifiersInData();
 
     <T> Observable<Integer> insertData(Observable<Metric<T>> metrics);
 
+    Observable<Integer> insertDataColumns(Observable<DataPointColumns> columns);
+
     Observable<Integer> insertStringDatas(Observable<Metric<String>> strings,
             Function<MetricId<String>, Integer> ttlFetcher, int maxSize);
 
@@ -94,9 +207,23 @@ public interface DataAccess {
     Observable<Row> findCompressedData(MetricId<?> id, long startTime, long endTime, int limit, Order
             order);
 
+    Observable<Row> findCompressedSummaries(MetricId<?> id, long startTime, long endTime);
+
     <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
                                      int pageSize);
 
+    /**
+     * Same as {@link #findTempData(MetricId, long, long, int, Order, int)}, without the out-of-order table.
+     */
+    <T> Observable<Row> findBlockTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
+            int pageSize);
+
+    /**
+     * Fetch the data points of the out-of-order table, which holds the points of blocks without a temp table.
+     */
+    <T> Observable<Row> findOutOfOrderData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
+            int pageSize);
+
     Observable<Row> findStringData(MetricId<String> id, long startTime, long endTime, int limit, Order order,
                                    int pageSize);
 
@@ -126,6 +253,13 @@ public interface DataAccess {
     <T> Observable<ResultSet> insertCompressedData(MetricId<T> id, long timeslice,
                                                    CompressedPointContainer cpc, int ttl);
 
+    /**
+     * Writes the summaries of a rollup tier, the keys of the map are the starts of the rollup intervals.
+     */
+    Observable<ResultSet> insertRollups(MetricId<?> id, RollupTier tier, Map<Long, BlockSummary> summaries, int ttl);
+
+    Observable<Row> findRollups(MetricId<?> id, RollupTier tier, long startTime, long endTime);
+
     <T> Observable<ResultSet> deleteAndInsertCompressedGauge(MetricId<T> id, long timeslice,
                                                              CompressedPointContainer cpc,
                                                              long sliceStart, long sliceEnd, int ttl);
@@ -20,6 +20,11 @@ import static java.time.ZoneOffset.UTC;
 import static java.util.stream.Collectors.toMap;
 
 import static org.hawkular.metrics.core.service.TimeUUIDUtils.getTimeUUID;
+import static org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer.DEFAULT_BATCH_SIZE;
+import static org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer.DEFAULT_BATCH_STATEMENT_FACTORY;
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
 import static org.hawkular.metrics.model.MetricType.STRING;
 
 import java.nio.ByteBuffer;
@@ -30,12 +35,18 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
@@ -46,9 +57,11 @@ import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.log.CoreLogger;
 import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.core.service.rollup.RollupTier;
 import org.hawkular.metrics.core.service.transformers.BatchStatementTransformer;
 import org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer;
 import org.hawkular.metrics.datetime.DateTimeService;
@@ -67,6 +80,7 @@ import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.CodecRegistry;
 import com.datastax.driver.core.FunctionMetadata;
+import com.datastax.driver.core.Host;
 import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.MaterializedViewMetadata;
 import com.datastax.driver.core.Metadata;
@@ -78,15 +92,17 @@ import com.datastax.driver.core.Row;
 import com.datastax.driver.core.SchemaChangeListener;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.TableMetadata;
-import com.datastax.driver.core.Token;
 import com.datastax.driver.core.TokenRange;
 import com.datastax.driver.core.UserType;
 import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.utils.UUIDs;
 
 import rx.Observable;
 import rx.exceptions.Exceptions;
+import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
 /**
@@ -100,6 +116,8 @@ public class DataAccessImpl implements DataAccess {
     public static final String OUT_OF_ORDER_TABLE_NAME = "data_0";
     public static final String TEMP_TABLE_NAME_PROTOTYPE = "data_temp_";
     public static final String TEMP_TABLE_NAME_FORMAT_STRING = TEMP_TABLE_NAME_PROTOTYPE + "%s";
+    public static final String WAL_TABLE_NAME_PROTOTYPE = "data_wal_";
+    public static final String WAL_TABLE_NAME_FORMAT_STRING = WAL_TABLE_NAME_PROTOTYPE + "%s";
 
     public static final long DPART = 0;
     private Session session;
@@ -112,11 +130,34 @@ public class DataAccessImpl implements DataAccess {
     // See getMapKey(byte, int)
     private NavigableMap<Long, Map<Integer, PreparedStatement>> prepMap;
 
+    // Statements of the write-ahead log tables of the head blocks, keyed like the prepMap
+    private NavigableMap<Long, Map<WalStatement, PreparedStatement>> walPrepMap = new ConcurrentSkipListMap<>();
+
+    // Kept up to date when tables are added or dropped, which happens once per compression cycle
+    private volatile long firstOpenTimeSlice = Long.MIN_VALUE;
+
     // TODO Move all of these to a new class (Cassandra specific temp table) to allow multiple implementations (such
     // as in-memory + WAL in Cassandra)
 
     private TemporaryTableStatementCreator tableCreator = null;
 
+    private final TokenRingRefresher tokenRingRefresher = new TokenRingRefresher();
+
+    /**
+     * Routing snapshot used to group writes by replicas, null when it has to be rebuilt from the cluster metadata.
+     */
+    private volatile TokenRing tokenRing;
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    public static final int DEFAULT_TARGET_LATENCY = 200;
+
+    private final int maxBatchBytes;
+
+    private final int maxBatchPartitions;
+
+    private final InFlightLimiter writeLimiter;
+
     private enum StatementType {
         READ, WRITE, SCAN, CREATE, DELETE
     }
@@ -133,7 +174,6 @@ public class DataAccessImpl implements DataAccess {
         INSERT_DATA(data, StatementType.WRITE),
         INSERT_DATA_WITH_TAGS(dataWithTags, StatementType.WRITE),
         CREATE_TABLE(TEMP_TABLE_BASE_CREATE, StatementType.CREATE),
-//        CREATE_WAL(TEMP_TABLE_WAL_CREATE, StatementType.CREATE);
         DELETE_DATA(DELETE_FROM_DATA_BASE, StatementType.DELETE);
 
         private final String statement;
@@ -153,6 +193,23 @@ public class DataAccessImpl implements DataAccess {
         }
     }
 
+    private enum WalStatement {
+        INSERT_CHUNK(insertWalChunkBase),
+        FIND_CHUNKS(findWalChunksBase),
+        SCAN_WITH_TOKEN_RANGES(scanWalTableBase),
+        DELETE_CHUNKS(deleteWalChunksBase);
+
+        private final String statement;
+
+        WalStatement(String st) {
+            statement = st;
+        }
+
+        public String getStatement() {
+            return statement;
+        }
+    }
+
     // Read statement prototypes
 
     private static String byDateRangeExclusiveBase =
@@ -195,20 +252,30 @@ public class DataAccessImpl implements DataAccess {
             "PRIMARY KEY ((tenant_id, type, metric), time)" +
             ") WITH CLUSTERING ORDER BY (time DESC)";
 
-    // For in-memory buffering
-    /*
-    private static String TEMP_TABLE_WAL_CREATE = "CREATE TABLE %s (" +
+    // For in-memory buffering, each row is a compressed chunk of the points appended to a head block. The time is
+    // a timeuuid as several nodes can append chunks of the same metric at the same time
+    private static String WAL_TABLE_CREATE = "CREATE TABLE %s (" +
             "tenant_id text, " +
             "type tinyint, " +
             "metric text, " +
-            "dpart bigint, " +
-            "time timestamp, " +
+            "time timeuuid, " +
             "count int, " +
             "value blob, " +
             "tags blob, " +
             "PRIMARY KEY ((tenant_id, type, metric), time) " +
-            ") WITH CLUSTERING ORDER BY (time DESC)";
-    */
+            ")";
+
+    private static String insertWalChunkBase = "INSERT INTO %s (tenant_id, type, metric, time, count, value, tags) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static String findWalChunksBase = "SELECT count, value, tags FROM %s " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ?";
+
+    private static String scanWalTableBase =
+            "SELECT tenant_id, type, metric, time, count, value, tags, token(tenant_id, type, metric) FROM %s " +
+                    "WHERE token(tenant_id, type, metric) > ? AND token(tenant_id, type, metric) <= ?";
+
+    private static String deleteWalChunksBase = "DELETE FROM %s WHERE tenant_id = ? AND type = ? AND metric = ?";
 
     // Insert statement prototypes
 
@@ -282,6 +349,12 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findCompressedDataByDateRangeExclusive;
 
+    private PreparedStatement findCompressedSummariesByDateRangeExclusive;
+
+    private PreparedStatement insertRollup;
+
+    private PreparedStatement findRollupsByDateRangeExclusive;
+
     private PreparedStatement findCompressedDataByDateRangeExclusiveWithLimit;
 
     private PreparedStatement findCompressedDataByDateRangeExclusiveASC;
@@ -312,6 +385,18 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement readMetricsIndex;
 
+    private PreparedStatement insertIntoMetricsRegistry;
+
+    private PreparedStatement readMetricsRegistry;
+
+    private PreparedStatement deleteFromMetricsRegistry;
+
+    private Map<MetricType<?>, PreparedStatement> insertLatestData;
+
+    private Map<MetricType<?>, PreparedStatement> findLatestData;
+
+    private PreparedStatement deleteLatestData;
+
     private PreparedStatement updateRetentionsIndex;
 
     private PreparedStatement findDataRetentions;
@@ -326,6 +411,18 @@ public class DataAccessImpl implements DataAccess {
 
     private PreparedStatement findSchemaVersions;
 
+    private PreparedStatement findCompressionCheckpoints;
+
+    private PreparedStatement insertCompressionCheckpoint;
+
+    private PreparedStatement deleteCompressionCheckpoints;
+
+    private PreparedStatement insertDayRollupMetric;
+
+    private PreparedStatement findDayRollupMetrics;
+
+    private PreparedStatement deleteDayRollupMetrics;
+
     private static DateTimeFormatter TEMP_TABLE_DATEFORMATTER = (new DateTimeFormatterBuilder())
             .appendValue(ChronoField.YEAR, 4)
             .appendValue(ChronoField.MONTH_OF_YEAR, 2)
@@ -336,7 +433,23 @@ public class DataAccessImpl implements DataAccess {
     private Metadata metadata;
 
     public DataAccessImpl(Session session) {
+        this(session, BoundBatchStatementTransformer.DEFAULT_MAX_BATCH_BYTES,
+                BoundBatchStatementTransformer.DEFAULT_MAX_BATCH_PARTITIONS, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_TARGET_LATENCY);
+    }
+
+    /**
+     * @param maxBatchBytes      upper bound of the serialized size of a write batch
+     * @param maxBatchPartitions upper bound of the partitions written by a batch
+     * @param maxInFlight        upper bound of the concurrent writes to each group of replicas
+     * @param targetLatency      write latency in milliseconds above which fewer writes are sent concurrently
+     */
+    public DataAccessImpl(Session session, int maxBatchBytes, int maxBatchPartitions, int maxInFlight,
+                          long targetLatency) {
         this.session = session;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchPartitions = maxBatchPartitions;
+        writeLimiter = new InFlightLimiter(maxInFlight, targetLatency, TimeUnit.MILLISECONDS);
         rxSession = new RxSessionImpl(session);
         loadBalancingPolicy = session.getCluster().getConfiguration().getPolicies().getLoadBalancingPolicy();
         codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
@@ -344,6 +457,7 @@ public class DataAccessImpl implements DataAccess {
 
         initPreparedStatements();
         initializeTemporaryTableStatements();
+        session.getCluster().register(tokenRingRefresher);
     }
 
     /**
@@ -412,27 +526,51 @@ public class DataAccessImpl implements DataAccess {
             statementMap.put(key, prepared);
         }
         prepMap.put(mapKey, statementMap);
+        updateFirstOpenTimeSlice();
+    }
+
+    void prepareWalStatements(String tableName, Long mapKey) {
+        Map<WalStatement, PreparedStatement> statementMap = new EnumMap<>(WalStatement.class);
+        for (WalStatement st : WalStatement.values()) {
+            statementMap.put(st, session.prepare(String.format(st.getStatement(), tableName)));
+        }
+        walPrepMap.put(mapKey, statementMap);
+        updateFirstOpenTimeSlice();
     }
 
     @Override
     public Observable<ResultSet> createTempTablesIfNotExists(final Set<Long> timestamps) {
+        return createTablesIfNotExists(timestamps, this::getTempTableName, TEMP_TABLE_NAME_PROTOTYPE)
+                .concatMap(this::createTemporaryTable);
+    }
+
+    @Override
+    public Observable<ResultSet> createWalTablesIfNotExists(Set<Long> timestamps) {
+        return createTablesIfNotExists(timestamps, this::getWalTableName, WAL_TABLE_NAME_PROTOTYPE)
+                .concatMap(t -> rxSession.execute(new SimpleStatement(String.format(WAL_TABLE_CREATE, t))));
+    }
+
+    /**
+     * @return Names of the missing tables, emitted at an interval to avoid schema disagreements
+     */
+    private Observable<String> createTablesIfNotExists(Set<Long> timestamps, Function<Long, String> tableName,
+                                                       String prototype) {
         return Observable.fromCallable(() -> {
             Set<String> tables = timestamps.stream()
-                    .map(this::getTempTableName)
+                    .map(tableName)
                     .collect(Collectors.toSet());
 
             // TODO This is an IO operation..
             metadata.getKeyspace(session.getLoggedKeyspace()).getTables().stream()
                     .map(AbstractTableMetadata::getName)
-                    .filter(t -> t.startsWith(TEMP_TABLE_NAME_PROTOTYPE))
+                    .filter(t -> t.startsWith(prototype))
                     .forEach(tables::remove);
 
             return tables;
         })
 
                 .flatMapIterable(s -> s)
-                .zipWith(Observable.interval(300, TimeUnit.MILLISECONDS), (st, l) -> st)
-                .concatMap(this::createTemporaryTable);
+                .zipWith(Observable.interval(300, TimeUnit.MILLISECONDS), (st, l) -> st);
     }
 
     Observable<ResultSet> createTemporaryTable(String tempTableName) {
@@ -453,6 +591,8 @@ public class DataAccessImpl implements DataAccess {
                 // Proceed to create the preparedStatements against this table
                 Long mapKey = tableToMapKey(table.getName());
                 prepareTempStatements(table.getName(), mapKey);
+            } else if(table.getName().startsWith(WAL_TABLE_NAME_PROTOTYPE)) {
+                prepareWalStatements(table.getName(), tableToMapKey(table.getName()));
             } else if(table.getName().equals(OUT_OF_ORDER_TABLE_NAME)) {
                 zeroTableExists = true;
             }
@@ -590,13 +730,13 @@ public class DataAccessImpl implements DataAccess {
         insertCompressedData = session.prepare(
                 "UPDATE data_compressed " +
                         "USING TTL ? " +
-                        "SET c_value = ? " +
+                        "SET c_value = ?, summary = ? " +
                         "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ");
 
         insertCompressedDataWithTags = session.prepare(
                 "UPDATE data_compressed " +
                         "USING TTL ? " +
-                        "SET c_value = ?, tags = ? " +
+                        "SET c_value = ?, summary = ?, tags = ? " +
                         "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time = ? ");
 
         insertStringData = session.prepare(
@@ -625,6 +765,21 @@ public class DataAccessImpl implements DataAccess {
                 "SELECT time, c_value, tags FROM data_compressed " +
                         "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?");
 
+        findCompressedSummariesByDateRangeExclusive = session.prepare(
+                "SELECT time, summary FROM data_compressed " +
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ?" +
+                        " AND time < ? ORDER BY time ASC");
+
+        insertRollup = session.prepare(
+                "UPDATE rollups " +
+                        "USING TTL ? " +
+                        "SET summary = ? " +
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND rollup = ? AND time = ?");
+
+        findRollupsByDateRangeExclusive = session.prepare(
+                "SELECT time, summary FROM rollups " +
+                        "WHERE tenant_id = ? AND type = ? AND metric = ? AND rollup = ? AND time >= ? AND time < ?");
+
         findCompressedDataByDateRangeExclusiveWithLimit = session.prepare(
                 "SELECT time, c_value, tags FROM data_compressed " +
                         " WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?" +
@@ -669,6 +824,29 @@ public class DataAccessImpl implements DataAccess {
             "DELETE FROM data " +
             "WHERE tenant_id = ? AND type = ? AND metric = ? AND dpart = ? AND time >= ? AND time < ?");
 
+        insertIntoMetricsRegistry = session.prepare(
+            "INSERT INTO metrics_registry (tenant_id, type, metric) VALUES (?, ?, ?) USING TTL ?");
+
+        readMetricsRegistry = session.prepare(
+            "SELECT metric " +
+            "FROM metrics_registry " +
+            "WHERE tenant_id = ? AND type = ?");
+
+        deleteFromMetricsRegistry = session.prepare(
+            "DELETE FROM metrics_registry " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+
+        // The write time is the timestamp of the data point, the latest data point wins
+        insertLatestData = new HashMap<>();
+        findLatestData = new HashMap<>();
+        prepareLatestDataStatements(GAUGE, "n_value");
+        prepareLatestDataStatements(COUNTER, "l_value");
+        prepareLatestDataStatements(AVAILABILITY, "availability");
+
+        deleteLatestData = session.prepare(
+            "DELETE FROM latest_data USING TIMESTAMP ? " +
+            "WHERE tenant_id = ? AND type = ? AND metric = ?");
+
         deleteFromMetricRetentionIndex = session.prepare(
             "DELETE FROM retentions_idx " +
             "WHERE tenant_id = ? AND type = ? AND metric = ?");
@@ -701,6 +879,24 @@ public class DataAccessImpl implements DataAccess {
                 "SELECT tenant_id, type, metric, tvalue " +
                 "FROM metrics_tags_idx " +
                 "WHERE tenant_id = ? AND tname = ? AND tvalue IN ?");
+
+        findCompressionCheckpoints = session.prepare(
+                "SELECT range_start, range_end FROM compression_checkpoints WHERE time_slice = ?");
+
+        insertCompressionCheckpoint = session.prepare(
+                "INSERT INTO compression_checkpoints (time_slice, range_start, range_end) VALUES (?, ?, ?)");
+
+        deleteCompressionCheckpoints = session.prepare(
+                "DELETE FROM compression_checkpoints WHERE time_slice = ?");
+
+        insertDayRollupMetric = session.prepare(
+                "INSERT INTO day_rollup_metrics (day, tenant_id, type, metric) VALUES (?, ?, ?, ?)");
+
+        findDayRollupMetrics = session.prepare(
+                "SELECT tenant_id, type, metric FROM day_rollup_metrics WHERE day = ?");
+
+        deleteDayRollupMetrics = session.prepare(
+                "DELETE FROM day_rollup_metrics WHERE day = ?");
     }
 
     @Override
@@ -814,6 +1010,69 @@ public class DataAccessImpl implements DataAccess {
         return rxSession.executeAndFetch(readMetricsIndex.bind(tenantId, type.getCode()));
     }
 
+    @Override
+    public <T> Observable<ResultSet> insertIntoMetricsRegistry(MetricId<T> id, int ttl) {
+        return rxSession.execute(insertIntoMetricsRegistry.bind(id.getTenantId(), id.getType().getCode(),
+                id.getName(), ttl))
+                .compose(applyInsertRetryPolicy());
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricsInMetricsRegistry(String tenantId, MetricType<T> type) {
+        return rxSession.executeAndFetch(readMetricsRegistry.bind(tenantId, type.getCode()));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromMetricsRegistry(MetricId<T> id) {
+        return rxSession
+                .execute(deleteFromMetricsRegistry.bind(id.getTenantId(), id.getType().getCode(), id.getName()));
+    }
+
+    private void prepareLatestDataStatements(MetricType<?> type, String valueColumn) {
+        insertLatestData.put(type, session.prepare(
+            "INSERT INTO latest_data (" + valueColumn + ", tenant_id, type, metric, time, tags) " +
+            "VALUES (?, ?, ?, ?, ?, ?) " +
+            "USING TTL ? AND TIMESTAMP ?"));
+        findLatestData.put(type, session.prepare(
+            "SELECT metric, time, " + valueColumn + ", tags " +
+            "FROM latest_data " +
+            "WHERE tenant_id = ? AND type = ? AND metric IN ?"));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Observable<Integer> insertLatestData(Map<MetricId<?>, DataPoint<?>> latest,
+            Func1<MetricId<?>, Integer> ttl) {
+        return Observable.from(latest.entrySet())
+                .map(entry -> bindLatestData((MetricId<Object>) entry.getKey(), (DataPoint<Object>) entry.getValue(),
+                        ttl.call(entry.getKey())))
+                .compose(applyMicroBatching());
+    }
+
+    private <T> BoundStatement bindLatestData(MetricId<T> id, DataPoint<T> dataPoint, int ttl) {
+        BoundStatement bs = insertLatestData.get(id.getType()).bind();
+        bindValue(bs, id.getType(), dataPoint);
+        bs.setString(1, id.getTenantId())
+                .setByte(2, id.getType().getCode())
+                .setString(3, id.getName())
+                .setTimestamp(4, new Date(dataPoint.getTimestamp()))
+                .setMap(5, dataPoint.getTags())
+                .setInt(6, ttl)
+                .setLong(7, TimeUnit.MILLISECONDS.toMicros(dataPoint.getTimestamp()));
+        return bs;
+    }
+
+    @Override
+    public <T> Observable<Row> findLatestData(String tenantId, MetricType<T> type, List<String> metrics) {
+        return rxSession.executeAndFetch(findLatestData.get(type).bind(tenantId, type.getCode(), metrics));
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteLatestData(MetricId<T> id, long timestamp) {
+        return rxSession.execute(deleteLatestData.bind(TimeUnit.MILLISECONDS.toMicros(timestamp), id.getTenantId(),
+                id.getType().getCode(), id.getName()));
+    }
+
     @Override
     public Set<Long> findExpiredTables(long startTime) {
         Long currentTableKey = prepMap.floorKey(startTime);
@@ -859,6 +1118,60 @@ public class DataAccessImpl implements DataAccess {
                                 .setFetchSize(pageSize)));
     }
 
+    /**
+     * Fetch all the data from a temporary table that belongs to the given token range. The token range must not
+     * wrap around, see {@link #findTokenSplits(int)}.
+     *
+     * @param timestamp A timestamp inside the wanted bucket (such as the previous starting row timestamp)
+     * @param tokenRange Unwrapped token range to scan
+     * @param pageSize How many rows to fetch each time
+     * @return Rows of the token range in token order
+     */
+    @Override
+    public Observable<Row> findAllDataFromBucket(long timestamp, TokenRange tokenRange, int pageSize) {
+        PreparedStatement ts =
+                getTempStatement(MetricType.UNDEFINED, TempStatement.SCAN_WITH_TOKEN_RANGES, timestamp);
+
+        if(ts == null || prepMap.floorKey(timestamp) == 0L) {
+            return Observable.empty();
+        }
+
+        return rxSession.executeAndFetch(ts
+                .bind()
+                .setToken(0, tokenRange.getStart())
+                .setToken(1, tokenRange.getEnd())
+                .setFetchSize(pageSize));
+    }
+
+    /**
+     * Splits the token ring to at least the requested amount of unwrapped token ranges and groups them by the
+     * primary replica owning them. Each split is contained inside a single vnode range, so all the partitions
+     * of a split are owned by the same set of replicas.
+     *
+     * @param splits Minimum amount of splits, values smaller than the amount of token ranges in the ring result in
+     *               one split per token range
+     * @return Token ranges per owning host
+     */
+    @Override
+    public Map<Host, List<TokenRange>> findTokenSplits(int splits) {
+        Set<TokenRange> ringRanges = metadata.getTokenRanges();
+        int splitsPerRange = Math.max(1, (int) Math.ceil((double) splits / ringRanges.size()));
+
+        Map<Host, List<TokenRange>> hostSplits = new HashMap<>();
+        for (TokenRange ringRange : ringRanges) {
+            Set<Host> replicas = metadata.getReplicas(session.getLoggedKeyspace(), ringRange);
+            Host owner = replicas.isEmpty() ? null : replicas.iterator().next();
+            List<TokenRange> ownedSplits = hostSplits.computeIfAbsent(owner, h -> new ArrayList<>());
+
+            List<TokenRange> rangeSplits =
+                    (splitsPerRange > 1) ? ringRange.splitEvenly(splitsPerRange) : Collections.singletonList(ringRange);
+            for (TokenRange split : rangeSplits) {
+                ownedSplits.addAll(split.unwrap());
+            }
+        }
+        return hostSplits;
+    }
+
     private Set<TokenRange> getTokenRanges() {
         Set<TokenRange> tokenRanges = new HashSet<>();
         for (TokenRange tokenRange : metadata.getTokenRanges()) {
@@ -874,6 +1187,128 @@ public class DataAccessImpl implements DataAccess {
         return rxSession.execute(dropCQL);
     }
 
+    @Override
+    public NavigableSet<Long> findTempTables(long startTime, long endTime) {
+        Long startKey = prepMap.floorKey(startTime);
+        // The out-of-order table is at key 0
+        if (startKey == null || startKey == 0L) {
+            startKey = Math.max(startTime, 1L);
+        }
+        return prepMap.navigableKeySet().subSet(startKey, true, Math.max(endTime, startKey), false);
+    }
+
+    @Override
+    public long findFirstOpenTimeSlice() {
+        return firstOpenTimeSlice;
+    }
+
+    private synchronized void updateFirstOpenTimeSlice() {
+        NavigableSet<Long> tempTables = findTempTables(1, Long.MAX_VALUE);
+        long first = tempTables.isEmpty() ? Long.MAX_VALUE : tempTables.first();
+        if (!walPrepMap.isEmpty()) {
+            first = Math.min(first, walPrepMap.firstKey());
+        }
+        firstOpenTimeSlice = first == Long.MAX_VALUE ? Long.MIN_VALUE : first;
+    }
+
+    @Override
+    public boolean hasWalTable(long timeslice) {
+        return walPrepMap.containsKey(timeslice);
+    }
+
+    @Override
+    public NavigableSet<Long> findWalTables(long startTime, long endTime) {
+        Long startKey = walPrepMap.floorKey(startTime);
+        return walPrepMap.navigableKeySet().subSet(startKey == null ? startTime : startKey, true, endTime, false);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> insertWalChunk(MetricId<T> id, long timeslice, int count,
+                                                   CompressedPointContainer chunk) {
+        Map<WalStatement, PreparedStatement> statements = walPrepMap.get(timeslice);
+        if (statements == null) {
+            return Observable.error(new IllegalStateException("No write-ahead log table for " + timeslice));
+        }
+        BoundStatement bs = statements.get(WalStatement.INSERT_CHUNK).bind(id.getTenantId(),
+                id.getType().getCode(), id.getName(), UUIDs.timeBased(), count, chunk.getValueBuffer(),
+                chunk.getTagsBuffer());
+
+        TokenRing ring = getTokenRing();
+        Object replicas = ring.getReplicaGroupCount() == 0 ? Collections.emptySet() : ring.getReplicas(
+                ring.getReplicaGroup(metadata.newToken(bs.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
+                        codecRegistry))));
+        return writeLimiter.limit(replicas, rxSession.execute(bs))
+                .compose(applyInsertRetryPolicy());
+    }
+
+    @Override
+    public <T> Observable<Row> findWalChunks(MetricId<T> id, long timeslice) {
+        Map<WalStatement, PreparedStatement> statements = walPrepMap.get(timeslice);
+        if (statements == null) {
+            return Observable.empty();
+        }
+        return rxSession.executeAndFetch(statements.get(WalStatement.FIND_CHUNKS).bind(id.getTenantId(),
+                id.getType().getCode(), id.getName()));
+    }
+
+    @Override
+    public Observable<Row> findAllWalChunks(long timeslice, TokenRange tokenRange, int pageSize) {
+        Map<WalStatement, PreparedStatement> statements = walPrepMap.get(timeslice);
+        if (statements == null) {
+            return Observable.empty();
+        }
+        return rxSession.executeAndFetch(statements.get(WalStatement.SCAN_WITH_TOKEN_RANGES)
+                .bind()
+                .setToken(0, tokenRange.getStart())
+                .setToken(1, tokenRange.getEnd())
+                .setFetchSize(pageSize));
+    }
+
+    @Override
+    public Observable<ResultSet> dropWalTable(long timestamp) {
+        return rxSession.execute(String.format("DROP TABLE IF EXISTS %s", getWalTableName(timestamp)));
+    }
+
+    /**
+     * Fetch the token ranges of the given temporary table that have already been compressed.
+     *
+     * @param timestamp Starting time of the temporary table
+     * @return Token ranges that do not need to be processed again
+     */
+    @Override
+    public Observable<TokenRange> findCompressionCheckpoints(long timestamp) {
+        return rxSession.executeAndFetch(findCompressionCheckpoints.bind(new Date(timestamp)))
+                .map(row -> metadata.newTokenRange(metadata.newToken(row.getString(0)),
+                        metadata.newToken(row.getString(1))));
+    }
+
+    @Override
+    public Observable<ResultSet> insertCompressionCheckpoint(long timestamp, TokenRange tokenRange) {
+        return rxSession.execute(insertCompressionCheckpoint.bind(new Date(timestamp),
+                tokenRange.getStart().toString(), tokenRange.getEnd().toString()));
+    }
+
+    @Override
+    public Observable<ResultSet> deleteCompressionCheckpoints(long timestamp) {
+        return rxSession.execute(deleteCompressionCheckpoints.bind(new Date(timestamp)));
+    }
+
+    @Override
+    public Observable<ResultSet> insertDayRollupMetric(long day, MetricId<?> id) {
+        return rxSession.execute(insertDayRollupMetric.bind(new Date(day), id.getTenantId(), id.getType().getCode(),
+                id.getName()));
+    }
+
+    @Override
+    public Observable<Row> findDayRollupMetrics(long day, int pageSize) {
+        return rxSession.executeAndFetch(findDayRollupMetrics.bind(new Date(day)).setFetchSize(pageSize));
+    }
+
+    @Override
+    public Observable<ResultSet> deleteDayRollupMetrics(long day) {
+        return rxSession.execute(deleteDayRollupMetrics.bind(new Date(day)));
+    }
+
     private Observable<PreparedStatement> getPrepForAllTempTables(TempStatement ts) {
         return Observable.from(prepMap.entrySet())
                 .map(Map.Entry::getValue)
@@ -889,28 +1324,66 @@ public class DataAccessImpl implements DataAccess {
     }
 
     /*
-     * Applies micro-batching capabilities by taking advantage of token ranges in the Cassandra
+     * Applies micro-batching capabilities by grouping the statements by the replicas owning their partitions, so that
+     * each batch can be coordinated by a node that owns all of its partitions. Batches are bounded in size and
+     * partitions, and the writes in flight per group of replicas are limited by the writeLimiter
      */
     private Observable.Transformer<BoundStatement, Integer> applyMicroBatching() {
-        return tObservable -> tObservable
-                .groupBy(b -> {
-                    ByteBuffer routingKey = b.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
-                            codecRegistry);
-                    Token token = metadata.newToken(routingKey);
-                    for (TokenRange tokenRange : session.getCluster().getMetadata().getTokenRanges()) {
-                        if (tokenRange.contains(token)) {
-                            return tokenRange;
-                        }
-                    }
-                    log.warn("Unable to find any Cassandra node to insert token " + token.toString());
-                    return session.getCluster().getMetadata().getTokenRanges().iterator().next();
-                })
-                .flatMap(g -> g.compose(new BoundBatchStatementTransformer()))
-                .flatMap(batch -> rxSession
-                        .execute(batch)
-                        .compose(applyInsertRetryPolicy())
-                        .map(resultSet -> batch.size())
-                );
+        return tObservable -> {
+            TokenRing ring = getTokenRing();
+            return tObservable
+                    .groupBy(b -> {
+                        ByteBuffer routingKey = b.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED,
+                                codecRegistry);
+                        return ring.getReplicaGroup(metadata.newToken(routingKey));
+                    })
+                    .flatMap(g -> {
+                        Object replicas = ring.getReplicaGroupCount() == 0 ? Collections.emptySet() :
+                                ring.getReplicas(g.getKey());
+                        return g
+                                .compose(new BoundBatchStatementTransformer(DEFAULT_BATCH_STATEMENT_FACTORY,
+                                        DEFAULT_BATCH_SIZE, maxBatchBytes, maxBatchPartitions, codecRegistry))
+                                .flatMap(batch -> writeLimiter.limit(replicas, rxSession.execute(batch))
+                                        .compose(applyInsertRetryPolicy())
+                                        .map(resultSet -> batch.size())
+                                );
+                    });
+        };
+    }
+
+    private TokenRing getTokenRing() {
+        TokenRing ring = tokenRing;
+        if (ring == null) {
+            ring = TokenRing.build(metadata, session.getLoggedKeyspace());
+            if (ring.getReplicaGroupCount() == 0) {
+                log.warn("Unable to find any Cassandra node owning the token ranges, writes will not be grouped");
+                // Do not cache it, the token map has not been received yet
+                return ring;
+            }
+            tokenRing = ring;
+        }
+        return ring;
+    }
+
+    /**
+     * Drops the routing snapshot whenever the ring topology changes.
+     */
+    private class TokenRingRefresher implements Host.StateListener {
+
+        @Override
+        public void onAdd(Host host) {
+            tokenRing = null;
+        }
+
+        @Override
+        public void onRemove(Host host) {
+            tokenRing = null;
+        }
+
+        @Override public void onUp(Host host) {}
+        @Override public void onDown(Host host) {}
+        @Override public void onRegister(Cluster cluster) {}
+        @Override public void onUnregister(Cluster cluster) {}
     }
 
     /*
@@ -936,14 +1409,23 @@ public class DataAccessImpl implements DataAccess {
     }
 
     Long tableToMapKey(String tableName) {
+        // The temp and write-ahead log tables share the date suffix
         LocalDateTime parsed = LocalDateTime
-                .parse(tableName.substring(TEMP_TABLE_NAME_PROTOTYPE.length()),
+                .parse(tableName.substring(tableName.lastIndexOf('_') + 1),
                         TEMP_TABLE_DATEFORMATTER);
         return Long.valueOf(parsed.toInstant(ZoneOffset.UTC).toEpochMilli());
     }
 
     String getTempTableName(long timestamp) {
-        return String.format(TEMP_TABLE_NAME_FORMAT_STRING,
+        return getTableName(TEMP_TABLE_NAME_FORMAT_STRING, timestamp);
+    }
+
+    String getWalTableName(long timestamp) {
+        return getTableName(WAL_TABLE_NAME_FORMAT_STRING, timestamp);
+    }
+
+    private String getTableName(String format, long timestamp) {
+        return String.format(format,
         ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), UTC)
                 .with(DateTimeService.startOfPreviousEvenHour())
                 .format(TEMP_TABLE_DATEFORMATTER));
@@ -968,6 +1450,15 @@ public class DataAccessImpl implements DataAccess {
                 .compose(applyMicroBatching());
     }
 
+    @Override
+    public Observable<Integer> insertDataColumns(Observable<DataPointColumns> columns) {
+        return columns
+                .flatMap(c -> Observable.range(0, c.size())
+                        .map(i -> bindColumnValue(bindTempInsert(c.getMetricId(), c.getTimestamp(i), null), c, i)))
+                .filter(Objects::nonNull)
+                .compose(applyMicroBatching());
+    }
+
     @SuppressWarnings("unchecked")
     private <T> Observable.Transformer<DataPoint<T>, BoundStatement> mapTempInsertStatement(Metric<T> metric) {
         MetricType<T> type = metric.getMetricId().getType();
@@ -975,36 +1466,63 @@ public class DataAccessImpl implements DataAccess {
 
         return tO -> tO
                 .map(dataPoint -> {
-                    BoundStatement bs;
-                    int i = 1;
-                    PreparedStatement st;
-                    if (dataPoint.getTags().isEmpty()) {
-                        st = getTempStatement(type, TempStatement.INSERT_DATA, dataPoint.getTimestamp());
+                    BoundStatement bs = bindTempInsert(metricId, dataPoint.getTimestamp(), dataPoint.getTags());
+                    if (bs != null) {
+                        bindValue(bs, type, dataPoint);
+                    }
+                    return bs;
+                })
+                .filter(Objects::nonNull);
+    }
 
-                        if(st == null) {
-                            return null;
-                        }
+    /**
+     * Binds everything but the value (always at index 0) of a temp table insert, or returns null if there is no
+     * temp table for the timestamp.
+     */
+    private BoundStatement bindTempInsert(MetricId<?> metricId, long timestamp, Map<String, String> tags) {
+        BoundStatement bs;
+        int i = 1;
+        PreparedStatement st;
+        if (tags == null || tags.isEmpty()) {
+            st = getTempStatement(metricId.getType(), TempStatement.INSERT_DATA, timestamp);
+
+            if(st == null) {
+                return null;
+            }
 
-                        bs = st.bind();
-                    } else {
-                        st = getTempStatement(type, TempStatement.INSERT_DATA_WITH_TAGS, dataPoint.getTimestamp());
+            bs = st.bind();
+        } else {
+            st = getTempStatement(metricId.getType(), TempStatement.INSERT_DATA_WITH_TAGS, timestamp);
 
-                        if(st == null) {
-                            return null;
-                        }
+            if(st == null) {
+                return null;
+            }
 
-                        bs = st.bind();
-                        bs.setMap(1, dataPoint.getTags());
-                        i++;
-                    }
-                    bindValue(bs, type, dataPoint);
-                    return bs
-                            .setString(i, metricId.getTenantId())
-                            .setByte(++i, metricId.getType().getCode())
-                            .setString(++i, metricId.getName())
-                            .setTimestamp(++i, new Date(dataPoint.getTimestamp()));
-                })
-                .filter(Objects::nonNull);
+            bs = st.bind();
+            bs.setMap(1, tags);
+            i++;
+        }
+        return bs
+                .setString(i, metricId.getTenantId())
+                .setByte(++i, metricId.getType().getCode())
+                .setString(++i, metricId.getName())
+                .setTimestamp(++i, new Date(timestamp));
+    }
+
+    private BoundStatement bindColumnValue(BoundStatement bs, DataPointColumns columns, int i) {
+        if (bs == null) {
+            return null;
+        }
+        switch(columns.getType().getCode()) {
+            case 0:
+                return bs.setDouble(0, columns.getDouble(i));
+            case 1:
+                return bs.setBytes(0, ByteBuffer.wrap(new byte[]{columns.getByte(i)}));
+            case 2:
+                return bs.setLong(0, columns.getLong(i));
+            default:
+                throw new IllegalArgumentException("Unsupported metricType");
+        }
     }
 
     private <T> void bindValue(BoundStatement bs, MetricType<T> type, DataPoint<T> dataPoint) {
@@ -1139,13 +1657,29 @@ public class DataAccessImpl implements DataAccess {
         }
     }
 
+    @Override
+    public Observable<Row> findCompressedSummaries(MetricId<?> id, long startTime, long endTime) {
+        return rxSession.executeAndFetch(findCompressedSummariesByDateRangeExclusive.bind(id.getTenantId(),
+                id.getType().getCode(), id.getName(), DPART, new Date(startTime), new Date(endTime)));
+    }
+
     private SortedMap<Long, Map<Integer, PreparedStatement>> subSetMap(long startTime, long endTime, Order order) {
-        Long startKey = prepMap.floorKey(startTime);
-        Long endKey = prepMap.floorKey(endTime);
+        return subSetMap(prepMap, startTime, endTime, order);
+    }
+
+    /**
+     * @return The tables from the one holding the start time to the one holding the last millisecond of the range, in
+     * the requested order. The table starting at the exclusive end time is left out.
+     */
+    static <V> SortedMap<Long, V> subSetMap(NavigableMap<Long, V> tables, long startTime, long endTime,
+                                            Order order) {
+        Long startKey = tables.floorKey(startTime);
+        // The end is exclusive, the table starting at the end time has no data in the range
+        Long endKey = tables.floorKey(Math.max(startTime, endTime - 1));
 
         // The start time is already compressed, start the request from earliest non-compressed
         if(startKey == null) {
-            startKey = prepMap.ceilingKey(startTime);
+            startKey = tables.ceilingKey(startTime);
         }
 
         // Just in case even the end is in the past
@@ -1154,13 +1688,13 @@ public class DataAccessImpl implements DataAccess {
         }
 
         // Depending on the order, these must be read in the correct order also..
-        SortedMap<Long, Map<Integer, PreparedStatement>> statementMap;
+        SortedMap<Long, V> statementMap;
         if(order == Order.ASC) {
-             statementMap = prepMap.subMap(startKey, true, endKey,
+             statementMap = tables.subMap(startKey, true, endKey,
                     true);
         } else {
             statementMap = new ConcurrentSkipListMap<>((var0, var2) -> var0 < var2?1:(var0 == var2?0:-1));
-            statementMap.putAll(prepMap.subMap(startKey, true, endKey, true));
+            statementMap.putAll(tables.subMap(startKey, true, endKey, true));
         }
 
         return statementMap;
@@ -1169,10 +1703,32 @@ public class DataAccessImpl implements DataAccess {
     @Override
     public <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
                                             int pageSize) {
-        MetricType<T> type = id.getType();
+        return findTempData(subSetMap(startTime, endTime, order).values(), id, startTime, endTime, limit, order,
+                pageSize);
+    }
 
+    @Override
+    public <T> Observable<Row> findBlockTempData(MetricId<T> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
         SortedMap<Long, Map<Integer, PreparedStatement>> statementMap = subSetMap(startTime, endTime, order);
-        Observable<Map<Integer, PreparedStatement>> buckets = Observable.from(statementMap.values());
+        return findTempData(statementMap.entrySet().stream()
+                        .filter(e -> e.getKey() != 0L)
+                        .map(Map.Entry::getValue)
+                        .collect(Collectors.toList()),
+                id, startTime, endTime, limit, order, pageSize);
+    }
+
+    @Override
+    public <T> Observable<Row> findOutOfOrderData(MetricId<T> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
+        return findTempData(Collections.singletonList(prepMap.get(0L)), id, startTime, endTime, limit, order,
+                pageSize);
+    }
+
+    private <T> Observable<Row> findTempData(Collection<Map<Integer, PreparedStatement>> tables, MetricId<T> id,
+            long startTime, long endTime, int limit, Order order, int pageSize) {
+        MetricType<T> type = id.getType();
+        Observable<Map<Integer, PreparedStatement>> buckets = Observable.from(tables);
 
         if (order == Order.ASC) {
             if (limit <= 0) {
@@ -1241,7 +1797,11 @@ public class DataAccessImpl implements DataAccess {
             return rxSession.execute(deleteMetricData.bind(id.getTenantId(), id.getType().getCode(), id.getName(), DPART));
         }
 
+        // The chunks of the write-ahead log would otherwise be compressed into the block
+        Observable<PreparedStatement> walDeletes = Observable.from(walPrepMap.values())
+                .map(statements -> statements.get(WalStatement.DELETE_CHUNKS));
         return getPrepForAllTempTables(TempStatement.DELETE_DATA)
+                .mergeWith(walDeletes)
                 .flatMap(p -> rxSession.execute(p.bind(id.getTenantId(), id.getType().getCode(), id.getName())));
     }
 
@@ -1336,18 +1896,42 @@ public class DataAccessImpl implements DataAccess {
             b = insertCompressedDataWithTags.bind()
                     .setInt(i, ttl)
                     .setBytes(i+1, cpc.getValueBuffer())
-                    .setBytes(i+2, cpc.getTagsBuffer());
-            mapper.accept(b, 3);
+                    .setBytes(i+3, cpc.getTagsBuffer());
+            mapper.accept(b, 4);
         } else {
             b = insertCompressedData.bind()
                     .setInt(i, ttl)
                     .setBytes(i+1, cpc.getValueBuffer());
-            mapper.accept(b, 2);
+            mapper.accept(b, 3);
+        }
+
+        // Leave the summary unset instead of writing a tombstone when the block has no summary
+        if(cpc.getSummaryBuffer() != null) {
+            b.setBytes(i+2, cpc.getSummaryBuffer());
+        } else {
+            b.unset(i+2);
         }
 
         return rxSession.execute(b);
     }
 
+    @Override
+    public Observable<ResultSet> insertRollups(MetricId<?> id, RollupTier tier, Map<Long, BlockSummary> summaries,
+                                               int ttl) {
+        // All the rows are in the same partition
+        return Observable.from(summaries.entrySet())
+                .map(entry -> (Statement) insertRollup.bind(ttl, entry.getValue().serialize(), id.getTenantId(),
+                        id.getType().getCode(), id.getName(), tier.getSeconds(), new Date(entry.getKey())))
+                .compose(new BatchStatementTransformer())
+                .concatMap(batch -> rxSession.execute(batch));
+    }
+
+    @Override
+    public Observable<Row> findRollups(MetricId<?> id, RollupTier tier, long startTime, long endTime) {
+        return rxSession.executeAndFetch(findRollupsByDateRangeExclusive.bind(id.getTenantId(),
+                id.getType().getCode(), id.getName(), tier.getSeconds(), new Date(startTime), new Date(endTime)));
+    }
+
     @Override
     public <T> Observable<ResultSet> deleteAndInsertCompressedGauge(MetricId<T> id, long timeslice,
                                                                     CompressedPointContainer cpc,
@@ -1376,10 +1960,16 @@ public class DataAccessImpl implements DataAccess {
         public void onTableAdded(TableMetadata tableMetadata) {
             log.debugf("Table added %s", tableMetadata.getName());
             long delay = Long.getLong("hawkular.metrics.cassandra.schema.refresh-delay", 5000);
-            if(tableMetadata.getName().startsWith(TEMP_TABLE_NAME_PROTOTYPE)) {
+            String tableName = tableMetadata.getName();
+            boolean tempTable = tableName.startsWith(TEMP_TABLE_NAME_PROTOTYPE);
+            if(tempTable || tableName.startsWith(WAL_TABLE_NAME_PROTOTYPE)) {
                 log.debugf("Registering prepared statements for table %s", tableMetadata.getName());
                 Observable.fromCallable(() -> {
-                    prepareTempStatements(tableMetadata.getName(), tableToMapKey(tableMetadata.getName()));
+                    if (tempTable) {
+                        prepareTempStatements(tableName, tableToMapKey(tableName));
+                    } else {
+                        prepareWalStatements(tableName, tableToMapKey(tableName));
+                    }
                     return null;
                 })
                         .subscribeOn(Schedulers.io())
@@ -1399,6 +1989,9 @@ public class DataAccessImpl implements DataAccess {
             if(tableMetadata.getName().startsWith(TEMP_TABLE_NAME_PROTOTYPE)) {
                 log.debugf("Removing prepared statements for table %s", tableMetadata.getName());
                 removeTempStatements(tableMetadata.getName());
+            } else if(tableMetadata.getName().startsWith(WAL_TABLE_NAME_PROTOTYPE)) {
+                walPrepMap.remove(tableToMapKey(tableMetadata.getName()));
+                updateFirstOpenTimeSlice();
             }
         }
 
@@ -1408,7 +2001,10 @@ public class DataAccessImpl implements DataAccess {
 
         @Override public void onKeyspaceRemoved(KeyspaceMetadata keyspaceMetadata) {}
 
-        @Override public void onKeyspaceChanged(KeyspaceMetadata keyspaceMetadata, KeyspaceMetadata keyspaceMetadata1) {}
+        @Override public void onKeyspaceChanged(KeyspaceMetadata keyspaceMetadata, KeyspaceMetadata keyspaceMetadata1) {
+            // The replication settings may have changed
+            tokenRing = null;
+        }
 
 
         @Override public void onTableChanged(TableMetadata tableMetadata, TableMetadata tableMetadata1) {
@@ -1435,11 +2031,13 @@ public class DataAccessImpl implements DataAccess {
         // Find the integer key and remove from prepMap
         Long mapKey = tableToMapKey(tableName);
         prepMap.remove(mapKey);
+        updateFirstOpenTimeSlice();
     }
 
     @Override public void shutdown() {
         session.getCluster().unregister(tableCreator);
         tableCreator = null;
+        session.getCluster().unregister(tokenRingRefresher);
     }
 
     public void setTempTableCreator(TemporaryTableStatementCreator creator) {
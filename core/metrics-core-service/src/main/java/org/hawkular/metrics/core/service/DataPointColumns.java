@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * The data points of one metric stored as parallel primitive arrays. This is what the binary ingestion path decodes
+ * into so that no {@link org.hawkular.metrics.model.DataPoint} has to be created per sample. Only gauges, counters
+ * and availability are supported and the points cannot carry tags.
+ */
+public class DataPointColumns {
+
+    private final MetricId<?> metricId;
+
+    private final long[] timestamps;
+
+    private final double[] doubleValues;
+
+    private final long[] longValues;
+
+    private final byte[] byteValues;
+
+    private DataPointColumns(MetricId<?> metricId, long[] timestamps, double[] doubleValues, long[] longValues,
+            byte[] byteValues, int valueCount) {
+        checkArgument(timestamps.length == valueCount, "Expected %s values, got %s", timestamps.length, valueCount);
+        this.metricId = metricId;
+        this.timestamps = timestamps;
+        this.doubleValues = doubleValues;
+        this.longValues = longValues;
+        this.byteValues = byteValues;
+    }
+
+    public static DataPointColumns gauge(MetricId<Double> id, long[] timestamps, double[] values) {
+        checkArgument(id.getType() == GAUGE, "%s is not a gauge", id);
+        return new DataPointColumns(id, timestamps, values, null, null, values.length);
+    }
+
+    public static DataPointColumns counter(MetricId<Long> id, long[] timestamps, long[] values) {
+        checkArgument(id.getType() == COUNTER, "%s is not a counter", id);
+        return new DataPointColumns(id, timestamps, null, values, null, values.length);
+    }
+
+    /**
+     * @param values the {@link AvailabilityType#getCode() codes} of the availability values
+     */
+    public static DataPointColumns availability(MetricId<AvailabilityType> id, long[] timestamps, byte[] values) {
+        checkArgument(id.getType() == AVAILABILITY, "%s is not an availability metric", id);
+        for (byte value : values) {
+            AvailabilityType.fromByte(value);
+        }
+        return new DataPointColumns(id, timestamps, null, null, values, values.length);
+    }
+
+    public MetricId<?> getMetricId() {
+        return metricId;
+    }
+
+    public MetricType<?> getType() {
+        return metricId.getType();
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public double getDouble(int i) {
+        return doubleValues[i];
+    }
+
+    public long getLong(int i) {
+        return longValues[i];
+    }
+
+    public byte getByte(int i) {
+        return byteValues[i];
+    }
+}
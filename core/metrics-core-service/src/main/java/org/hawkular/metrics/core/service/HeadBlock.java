@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hawkular.metrics.core.service.compress.CompressedBlockBuilder;
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.compress.DecompressedBlock;
+import org.hawkular.metrics.core.service.compress.TagsDeserializer;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Data points of a single gauge, counter or availability for one compression block. The points are kept sorted by
+ * timestamp in primitive columns, values are stored as longs: the raw bits of gauge values, counter values and
+ * availability codes. A point written again with the same timestamp replaces the earlier value, like an upsert in
+ * Cassandra.
+ */
+class HeadBlock {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final MetricType<?> type;
+    private final long blockStart;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private Map<Long, Map<String, String>> tags;
+    private int size;
+
+    HeadBlock(MetricType<?> type, long blockStart) {
+        this.type = type;
+        this.blockStart = blockStart;
+    }
+
+    /**
+     * Splits the points of a metric to one chunk per block, in ascending order.
+     */
+    static Collection<HeadBlock> split(Metric<?> metric, long blockSize) {
+        MetricType<?> type = metric.getMetricId().getType();
+        Map<Long, HeadBlock> chunks = new TreeMap<>();
+        for (DataPoint<?> dataPoint : metric.getDataPoints()) {
+            long timeslice = getBlockStart(dataPoint.getTimestamp(), blockSize);
+            chunks.computeIfAbsent(timeslice, t -> new HeadBlock(type, t)).add(dataPoint);
+        }
+        return chunks.values();
+    }
+
+    /**
+     * Splits the points of the columns to one chunk per block, in ascending order.
+     */
+    static Collection<HeadBlock> split(DataPointColumns columns, long blockSize) {
+        MetricId<?> id = columns.getMetricId();
+        Map<Long, HeadBlock> chunks = new TreeMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            long timeslice = getBlockStart(columns.getTimestamp(i), blockSize);
+            chunks.computeIfAbsent(timeslice, t -> new HeadBlock(id.getType(), t)).add(columns, i);
+        }
+        return chunks.values();
+    }
+
+    static long getBlockStart(long timestamp, long blockSize) {
+        return timestamp - Math.floorMod(timestamp, blockSize);
+    }
+
+    long getBlockStart() {
+        return blockStart;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Estimate of the memory used by the block in bytes
+     */
+    synchronized int weigh() {
+        // Object headers and references, plus the two columns
+        int weight = 64 + 16 * timestamps.length;
+        if (tags != null) {
+            for (Map<String, String> pointTags : tags.values()) {
+                weight += 64;
+                for (Map.Entry<String, String> tag : pointTags.entrySet()) {
+                    weight += 48 + 2 * (tag.getKey().length() + tag.getValue().length());
+                }
+            }
+        }
+        return weight;
+    }
+
+    synchronized void add(DataPoint<?> dataPoint) {
+        add(dataPoint.getTimestamp(), toBits(dataPoint.getValue()), dataPoint.getTags());
+    }
+
+    /**
+     * Adds the points of a chunk, the chunk must not be modified concurrently.
+     */
+    synchronized void addAll(HeadBlock chunk) {
+        for (int i = 0; i < chunk.size; i++) {
+            add(chunk.timestamps[i], chunk.values[i], chunk.tags == null ? null : chunk.tags.get(chunk.timestamps[i]));
+        }
+    }
+
+    /**
+     * Adds the point at index i of the columns.
+     */
+    synchronized void add(DataPointColumns columns, int i) {
+        long bits;
+        switch (type.getCode()) {
+            case 0: // GAUGE
+                bits = Double.doubleToRawLongBits(columns.getDouble(i));
+                break;
+            case 1: // AVAILABILITY
+                bits = columns.getByte(i);
+                break;
+            default: // COUNTER
+                bits = columns.getLong(i);
+        }
+        add(columns.getTimestamp(i), bits, null);
+    }
+
+    /**
+     * Adds the points of a compressed chunk or block of this block's time slice.
+     *
+     * @param value Compressed values, including the header byte
+     * @param tagsBuffer Serialized data point tags or null
+     */
+    synchronized void addCompressed(ByteBuffer value, ByteBuffer tagsBuffer) {
+        DecompressedBlock block = DecompressedBlock.decompress(value.duplicate(), blockStart, type);
+        Map<Long, Map<String, String>> blockTags = null;
+        if (tagsBuffer != null) {
+            blockTags = new TagsDeserializer(blockStart).deserialize(tagsBuffer.duplicate());
+        }
+        for (int i = 0; i < block.size(); i++) {
+            long bits;
+            switch (type.getCode()) {
+                case 0: // GAUGE
+                    bits = Double.doubleToRawLongBits(block.getDoubleValue(i));
+                    break;
+                case 1: // AVAILABILITY
+                    bits = block.getAvailabilityValue(i);
+                    break;
+                default: // COUNTER
+                    bits = block.getLongValue(i);
+            }
+            long timestamp = block.getTimestamp(i);
+            add(timestamp, bits, blockTags == null ? null : blockTags.get(timestamp));
+        }
+    }
+
+    private void add(long timestamp, long bits, Map<String, String> pointTags) {
+        int index;
+        if (size == 0 || timestamps[size - 1] < timestamp) {
+            // Points mostly arrive in order
+            index = size;
+        } else {
+            index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (index >= 0) {
+                values[index] = bits;
+                setTags(timestamp, pointTags);
+                return;
+            }
+            index = -index - 1;
+        }
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        timestamps[index] = timestamp;
+        values[index] = bits;
+        size++;
+        setTags(timestamp, pointTags);
+    }
+
+    private void setTags(long timestamp, Map<String, String> pointTags) {
+        if (pointTags != null && !pointTags.isEmpty()) {
+            if (tags == null) {
+                tags = new HashMap<>();
+            }
+            tags.put(timestamp, pointTags);
+        } else if (tags != null) {
+            tags.remove(timestamp);
+        }
+    }
+
+    /**
+     * @return The points inside the time range, in the requested order
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> List<DataPoint<T>> find(long start, long end, Order order) {
+        int first = lowerBound(start);
+        int last = lowerBound(end);
+        List<DataPoint<T>> dataPoints = new ArrayList<>(Math.max(0, last - first));
+        for (int j = first; j < last; j++) {
+            int i = order == ASC ? j : last - 1 - j + first;
+            Map<String, String> pointTags = tags == null ? null : tags.get(timestamps[i]);
+            T value = (T) fromBits(values[i]);
+            dataPoints.add(pointTags == null ? new DataPoint<>(timestamps[i], value) :
+                    new DataPoint<>(timestamps[i], value, pointTags));
+        }
+        return dataPoints;
+    }
+
+    private int lowerBound(long timestamp) {
+        int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Compresses the points in ascending order.
+     *
+     * @param summarize Whether the block summary and rollups are computed, chunks of the write-ahead log do not need
+     *                  them
+     */
+    synchronized CompressedPointContainer compress(boolean summarize) {
+        CompressedBlockBuilder builder = new CompressedBlockBuilder(blockStart, summarize);
+        for (int i = 0; i < size; i++) {
+            switch (type.getCode()) {
+                case 0: // GAUGE
+                    builder.add(timestamps[i], Double.longBitsToDouble(values[i]));
+                    break;
+                case 1: // AVAILABILITY
+                    builder.add(timestamps[i], AvailabilityType.fromByte((byte) values[i]));
+                    break;
+                default: // COUNTER
+                    builder.add(timestamps[i], values[i]);
+            }
+            if (tags != null) {
+                builder.addTags(timestamps[i], tags.get(timestamps[i]));
+            }
+        }
+        return builder.build();
+    }
+
+    private long toBits(Object value) {
+        switch (type.getCode()) {
+            case 0: // GAUGE
+                return Double.doubleToRawLongBits((Double) value);
+            case 1: // AVAILABILITY
+                return ((AvailabilityType) value).getCode();
+            default: // COUNTER
+                return (Long) value;
+        }
+    }
+
+    private Object fromBits(long bits) {
+        switch (type.getCode()) {
+            case 0: // GAUGE
+                return Double.longBitsToDouble(bits);
+            case 1: // AVAILABILITY
+                return AvailabilityType.fromByte((byte) bits);
+            default: // COUNTER
+                return bits;
+        }
+    }
+}
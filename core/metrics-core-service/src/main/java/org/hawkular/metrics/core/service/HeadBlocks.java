@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Observable;
+
+/**
+ * Head blocks hold the data points of the compression blocks that have not been compressed yet. The points of an
+ * ingestion request are appended to the write-ahead log table of their block as one compressed chunk per metric,
+ * instead of writing every point as its own row to the temp tables. The compression job builds the blocks from the
+ * chunks.
+ * <p>
+ * The points of a metric are only coalesced within a request, each request still appends a chunk per metric and
+ * block. Clients sending a few points per request produce many small chunks; the ingestion buffer
+ * (ingestion.buffer.window) merges the requests received within its window into larger chunks.
+ * <p>
+ * When every metric is written through a single node, the head blocks can also be kept in memory and the blocks
+ * that have not been compressed yet are read from memory. Otherwise they are read from the write-ahead log, as other
+ * nodes may have appended chunks of the same metric. The least recently used blocks are dropped from memory beyond
+ * the configured amount of blocks, they are read again from the write-ahead log when needed.
+ * <p>
+ * Points of blocks without a write-ahead log table, such as late points of blocks that have already been compressed,
+ * are written to the temp tables.
+ */
+class HeadBlocks {
+
+    private final DataAccess dataAccess;
+
+    private final long blockSize;
+
+    private final boolean inMemory;
+
+    /**
+     * In-memory head blocks, each loaded from the write-ahead log when it is first used
+     */
+    private final Cache<BlockKey, Observable<HeadBlock>> blocks;
+
+    /**
+     * @param blockSize Length of the compression blocks in milliseconds
+     * @param inMemory  Keep the head blocks in memory, only valid if every metric is written through this node
+     * @param maxBlocks Maximum amount of head blocks kept in memory
+     */
+    HeadBlocks(DataAccess dataAccess, long blockSize, boolean inMemory, long maxBlocks) {
+        this.dataAccess = dataAccess;
+        this.blockSize = blockSize;
+        this.inMemory = inMemory;
+        blocks = CacheBuilder.newBuilder()
+                .maximumSize(maxBlocks)
+                .build();
+    }
+
+    /**
+     * @return The amount of data points inserted
+     */
+    <T> Observable<Integer> insertData(Observable<Metric<T>> metrics) {
+        evictCompressedBlocks();
+        return metrics.collect(HashMap<MetricId<?>, Map<Long, HeadBlock>>::new,
+                (chunks, metric) -> merge(chunks, metric.getMetricId(), HeadBlock.split(metric, blockSize)))
+                .flatMap(this::insertChunks);
+    }
+
+    /**
+     * @return The amount of data points inserted
+     */
+    Observable<Integer> insertDataColumns(Observable<DataPointColumns> columns) {
+        evictCompressedBlocks();
+        return columns.collect(HashMap<MetricId<?>, Map<Long, HeadBlock>>::new,
+                (chunks, c) -> merge(chunks, c.getMetricId(), HeadBlock.split(c, blockSize)))
+                .flatMap(this::insertChunks);
+    }
+
+    /**
+     * Adds the chunks of a metric to the chunks of the request, the points of a metric listed more than once in the
+     * request are written as a single chunk per block.
+     */
+    private static void merge(Map<MetricId<?>, Map<Long, HeadBlock>> chunks, MetricId<?> id,
+            Collection<HeadBlock> metricChunks) {
+        Map<Long, HeadBlock> blockChunks = chunks.computeIfAbsent(id, key -> new TreeMap<>());
+        for (HeadBlock chunk : metricChunks) {
+            HeadBlock previous = blockChunks.putIfAbsent(chunk.getBlockStart(), chunk);
+            if (previous != null) {
+                previous.addAll(chunk);
+            }
+        }
+    }
+
+    private Observable<Integer> insertChunks(Map<MetricId<?>, Map<Long, HeadBlock>> chunks) {
+        return Observable.from(chunks.entrySet())
+                .flatMap(metricChunks -> insertChunks(metricChunks.getKey(), metricChunks.getValue().values()));
+    }
+
+    private <T> Observable<Integer> insertChunks(MetricId<T> id, Iterable<HeadBlock> chunks) {
+        List<DataPoint<T>> uncompressed = new ArrayList<>();
+        List<HeadBlock> appended = new ArrayList<>();
+        for (HeadBlock chunk : chunks) {
+            if (dataAccess.hasWalTable(chunk.getBlockStart())) {
+                appended.add(chunk);
+            } else {
+                uncompressed.addAll(chunk.find(Long.MIN_VALUE, Long.MAX_VALUE, ASC));
+            }
+        }
+        Observable<Integer> inserted = Observable.from(appended).flatMap(chunk -> append(id, chunk));
+        if (!uncompressed.isEmpty()) {
+            inserted = inserted.mergeWith(dataAccess.insertData(Observable.just(new Metric<>(id, uncompressed))));
+        }
+        return inserted;
+    }
+
+    private Observable<Integer> append(MetricId<?> id, HeadBlock chunk) {
+        int count = chunk.size();
+        Observable<Integer> appended = dataAccess.insertWalChunk(id, chunk.getBlockStart(), count,
+                chunk.compress(false))
+                .map(resultSet -> count);
+        if (inMemory) {
+            // Written to memory only once the chunk is durable, a block loaded after the write already contains it
+            appended = appended.concatMap(c -> getBlock(id, chunk.getBlockStart()).map(block -> {
+                block.addAll(chunk);
+                return c;
+            }));
+        }
+        return appended;
+    }
+
+    /**
+     * Finds the data points of the blocks that have not been compressed yet.
+     */
+    <T> Observable<DataPoint<T>> findData(MetricId<T> id, long start, long end, Order order) {
+        NavigableSet<Long> timeslices = dataAccess.findWalTables(start, end);
+        if (timeslices.isEmpty()) {
+            return Observable.empty();
+        }
+        return Observable.from(order == ASC ? timeslices : timeslices.descendingSet())
+                .concatMap(timeslice -> (inMemory ? getBlock(id, timeslice) : readBlock(id, timeslice))
+                        .flatMapIterable(block -> block.<T>find(start, end, order)));
+    }
+
+    /**
+     * Drops the in-memory head blocks of a deleted metric, its chunks are deleted from the write-ahead log.
+     */
+    void invalidate(MetricId<?> id) {
+        blocks.asMap().keySet().removeIf(key -> key.getMetricId().equals(id));
+    }
+
+    private Observable<HeadBlock> getBlock(MetricId<?> id, long timeslice) {
+        BlockKey key = new BlockKey(id, timeslice);
+        try {
+            return blocks.get(key, () -> readBlock(id, timeslice)
+                    .doOnError(t -> blocks.invalidate(key))
+                    .cache());
+        } catch (ExecutionException e) {
+            return Observable.error(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the head block from the chunks of the write-ahead log.
+     */
+    private Observable<HeadBlock> readBlock(MetricId<?> id, long timeslice) {
+        return dataAccess.findWalChunks(id, timeslice)
+                .collect(() -> new HeadBlock(id.getType(), timeslice),
+                        (block, row) -> block.addCompressed(row.getBytes(1), row.getBytes(2)));
+    }
+
+    /**
+     * The write-ahead log table of a block is dropped once the block has been compressed.
+     */
+    private void evictCompressedBlocks() {
+        if (inMemory) {
+            blocks.asMap().keySet().removeIf(key -> !dataAccess.hasWalTable(key.getTimeslice()));
+        }
+    }
+}
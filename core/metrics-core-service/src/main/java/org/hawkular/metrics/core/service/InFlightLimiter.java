@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.driver.core.exceptions.DriverException;
+
+import rx.Emitter;
+import rx.Observable;
+
+/**
+ * Bounds the number of concurrent writes sent to each group of replicas. The bound of every group is adjusted with
+ * an additive increase / multiplicative decrease loop: it grows by one for every round trip of writes completing under
+ * the target latency, and shrinks when writes are slower than the target or fail with a driver error (timeouts,
+ * overloaded or busy nodes). Decreases happen at most once per round trip, so that a burst of slow responses to the
+ * same load does not collapse the bound. Writes exceeding the bound wait for a slot instead of piling up in the driver
+ * queue.
+ */
+class InFlightLimiter {
+
+    static final double LATENCY_BACKOFF = 0.9;
+
+    static final double ERROR_BACKOFF = 0.5;
+
+    private final int maxInFlight;
+
+    private final long targetLatency;
+
+    private final ConcurrentMap<Object, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxInFlight   upper bound of concurrent writes per group, also the initial bound
+     * @param targetLatency latency above which the bound is decreased
+     */
+    InFlightLimiter(int maxInFlight, long targetLatency, TimeUnit unit) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.targetLatency = unit.toNanos(targetLatency);
+    }
+
+    /**
+     * Subscribes to {@code write} once the group identified by {@code key} has a free slot. Every subscription to
+     * the returned Observable, retries included, is counted separately.
+     */
+    <T> Observable<T> limit(Object key, Observable<T> write) {
+        return Observable.create(emitter -> {
+            Limit limit = limits.computeIfAbsent(key, k -> new Limit());
+            AtomicBoolean cancelled = new AtomicBoolean();
+            emitter.setCancellation(() -> cancelled.set(true));
+            limit.acquire(() -> {
+                if (cancelled.get()) {
+                    limit.release();
+                    return;
+                }
+                long start = System.nanoTime();
+                AtomicBoolean done = new AtomicBoolean();
+                emitter.setSubscription(write
+                        .doOnError(t -> {
+                            if (done.compareAndSet(false, true)) {
+                                limit.onFailure(start, t);
+                            }
+                        })
+                        .doOnCompleted(() -> {
+                            if (done.compareAndSet(false, true)) {
+                                limit.onSuccess(start, System.nanoTime());
+                            }
+                        })
+                        .doOnUnsubscribe(() -> {
+                            if (done.compareAndSet(false, true)) {
+                                limit.release();
+                            }
+                        })
+                        .subscribe(emitter::onNext, emitter::onError, emitter::onCompleted));
+            });
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    /**
+     * @return the current bound of the group, or the maximum if the group has not been used yet
+     */
+    int getLimit(Object key) {
+        Limit limit = limits.get(key);
+        return limit == null ? maxInFlight : limit.get();
+    }
+
+    private class Limit {
+
+        private double limit = maxInFlight;
+
+        private int inFlight;
+
+        private long lastDecrease = System.nanoTime();
+
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        void acquire(Runnable write) {
+            synchronized (this) {
+                waiting.add(write);
+            }
+            drain();
+        }
+
+        void onSuccess(long start, long end) {
+            synchronized (this) {
+                if (end - start > targetLatency) {
+                    decrease(start, LATENCY_BACKOFF);
+                } else {
+                    limit = Math.min(maxInFlight, limit + 1 / limit);
+                }
+            }
+            release();
+        }
+
+        void onFailure(long start, Throwable t) {
+            if (t instanceof DriverException) {
+                synchronized (this) {
+                    decrease(start, ERROR_BACKOFF);
+                }
+            }
+            release();
+        }
+
+        private void decrease(long start, double factor) {
+            // Only writes sent after the last decrease reflect the current bound
+            if (start - lastDecrease > 0) {
+                limit = Math.max(1, limit * factor);
+                lastDecrease = System.nanoTime();
+            }
+        }
+
+        void release() {
+            synchronized (this) {
+                inFlight--;
+            }
+            drain();
+        }
+
+        synchronized int get() {
+            return (int) limit;
+        }
+
+        /*
+         * Starts waiting writes while there are free slots. Writes may complete synchronously and call release()
+         * from within run(), so only one thread drains at a time and the others just signal it to loop again.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                for (;;) {
+                    Runnable next;
+                    synchronized (this) {
+                        if (inFlight >= (int) limit || waiting.isEmpty()) {
+                            break;
+                        }
+                        next = waiting.poll();
+                        inFlight++;
+                    }
+                    next.run();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.Metric;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+/**
+ * Coalesces the data points of concurrent ingestion requests, so that many small requests share the same token
+ * grouped batches instead of each sending its own. Points are held until the window started by the first of them
+ * elapses or until the buffer holds enough points, and are then written with a single call to the writer. Each
+ * request completes when the write of the points it contributed completes, and fails if that write fails.
+ */
+class IngestionBuffer {
+
+    private final Func1<List<Metric<?>>, Observable<Integer>> writer;
+
+    private final long window;
+
+    private final int maxPoints;
+
+    private final Scheduler.Worker worker;
+
+    private Batch current;
+
+    private boolean stopped;
+
+    /**
+     * @param writer    writes the points and emits the number of points written
+     * @param window    maximum time in milliseconds points are held before being written
+     * @param maxPoints number of points that triggers a write before the end of the window, requests with at least
+     *                  as many points are written directly
+     */
+    IngestionBuffer(Func1<List<Metric<?>>, Observable<Integer>> writer, long window, int maxPoints,
+            Scheduler scheduler) {
+        this.writer = writer;
+        this.window = window;
+        this.maxPoints = maxPoints;
+        this.worker = scheduler.createWorker();
+    }
+
+    /**
+     * @return an Observable emitting the number of data points of {@code metrics} once they have been written
+     */
+    Observable<Integer> add(List<? extends Metric<?>> metrics) {
+        return Observable.defer(() -> {
+            int points = 0;
+            for (Metric<?> metric : metrics) {
+                points += metric.getDataPoints().size();
+            }
+            if (points == 0) {
+                return Observable.empty();
+            }
+            if (points >= maxPoints) {
+                return writer.call(new ArrayList<>(metrics));
+            }
+
+            Batch batch;
+            boolean full = false;
+            synchronized (this) {
+                if (stopped) {
+                    // The timer is stopped, a held batch would never be written
+                    batch = null;
+                } else {
+                    if (current == null) {
+                        Batch started = new Batch();
+                        current = started;
+                        worker.schedule(() -> flush(started), window, TimeUnit.MILLISECONDS);
+                    }
+                    batch = current;
+                    batch.metrics.addAll(metrics);
+                    batch.points += points;
+                    if (batch.points >= maxPoints) {
+                        current = null;
+                        full = true;
+                    }
+                }
+            }
+            if (batch == null) {
+                return writer.call(new ArrayList<>(metrics));
+            }
+            if (full) {
+                write(batch);
+            }
+            int added = points;
+            return batch.written.map(total -> added);
+        });
+    }
+
+    /**
+     * Writes the points currently held and stops the timer. Points added afterwards are written directly.
+     */
+    void shutdown() {
+        Batch batch;
+        synchronized (this) {
+            batch = current;
+            current = null;
+            stopped = true;
+        }
+        if (batch != null) {
+            write(batch);
+        }
+        worker.unsubscribe();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (current != batch) {
+                // Already written because it was full
+                return;
+            }
+            current = null;
+        }
+        write(batch);
+    }
+
+    private void write(Batch batch) {
+        writer.call(batch.metrics)
+                .reduce(0, (total, written) -> total + written)
+                .subscribe(batch.written);
+    }
+
+    private static class Batch {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        int points;
+        final AsyncSubject<Integer> written = AsyncSubject.create();
+    }
+}
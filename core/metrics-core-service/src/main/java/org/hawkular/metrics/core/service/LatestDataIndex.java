@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.log.CoreLogger;
+import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.hawkular.metrics.model.NamedDataPoint;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * The latest data point of each gauge, counter and availability, stored in latest_data and cached in memory. The
+ * latest data point of each metric of an ingestion request is written with its timestamp as the write time, so that
+ * Cassandra keeps the latest one whatever the order of the writes.
+ * <p>
+ * The cached data points are updated with the data points written through this node, the ones written through other
+ * nodes are picked up when the entries expire. The writes are best effort: a data point that could not be written is
+ * logged and the next data point of its metric replaces it.
+ */
+class LatestDataIndex {
+
+    private static final CoreLogger log = CoreLogging.getCoreLogger(LatestDataIndex.class);
+
+    /**
+     * Number of metrics read by a single query
+     */
+    private static final int READ_BATCH_SIZE = 100;
+
+    private final DataAccess dataAccess;
+
+    private final Func1<MetricId<?>, Integer> ttl;
+
+    private final Cache<MetricId<?>, DataPoint<?>> latest;
+
+    /**
+     * @param ttl       data retention of a metric in seconds
+     * @param cacheSize maximum number of cached data points
+     * @param cacheTTL  time after which a data point is read again from latest_data
+     */
+    LatestDataIndex(DataAccess dataAccess, Func1<MetricId<?>, Integer> ttl, long cacheSize, long cacheTTL,
+            TimeUnit unit) {
+        this.dataAccess = dataAccess;
+        this.ttl = ttl;
+        latest = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTTL, unit)
+                .build();
+    }
+
+    static boolean isIndexed(MetricType<?> type) {
+        return type == GAUGE || type == COUNTER || type == AVAILABILITY;
+    }
+
+    /**
+     * Writes the latest data point of each metric.
+     */
+    Observable<Integer> update(Collection<? extends Metric<?>> metrics) {
+        Map<MetricId<?>, DataPoint<?>> latestPoints = new HashMap<>();
+        for (Metric<?> metric : metrics) {
+            if (isIndexed(metric.getMetricId().getType())) {
+                for (DataPoint<?> dataPoint : metric.getDataPoints()) {
+                    latestPoints.merge(metric.getMetricId(), dataPoint, LatestDataIndex::later);
+                }
+            }
+        }
+        return update(latestPoints);
+    }
+
+    /**
+     * Writes the latest data point of each of the columns.
+     */
+    Observable<Integer> updateColumns(Collection<DataPointColumns> columns) {
+        Map<MetricId<?>, DataPoint<?>> latestPoints = new HashMap<>();
+        for (DataPointColumns c : columns) {
+            if (isIndexed(c.getMetricId().getType()) && c.size() > 0) {
+                latestPoints.merge(c.getMetricId(), getLatest(c), LatestDataIndex::later);
+            }
+        }
+        return update(latestPoints);
+    }
+
+    /**
+     * Writes the data point unless a later one has been written.
+     */
+    <T> Observable<Integer> update(MetricId<T> id, DataPoint<T> dataPoint) {
+        return update(Collections.singletonMap(id, dataPoint));
+    }
+
+    /**
+     * The data points are written after their data, so a failure is logged instead of failing the ingestion. The
+     * cached data points of the metrics are dropped, Cassandra may or may not have kept the writes.
+     */
+    private Observable<Integer> update(Map<MetricId<?>, DataPoint<?>> latestPoints) {
+        if (latestPoints.isEmpty()) {
+            return Observable.empty();
+        }
+        return dataAccess.insertLatestData(latestPoints, ttl)
+                .doOnCompleted(() -> latestPoints.forEach((id, dataPoint) ->
+                        latest.asMap().computeIfPresent(id, (key, cached) -> later(cached, dataPoint))))
+                .onErrorResumeNext(t -> {
+                    log.warnLatestDataWriteFailed(latestPoints.size(), t);
+                    latest.invalidateAll(latestPoints.keySet());
+                    return Observable.empty();
+                });
+    }
+
+    /**
+     * @return the latest data points of the metrics which have one, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    <T> Observable<NamedDataPoint<T>> findLatest(List<MetricId<T>> ids) {
+        List<NamedDataPoint<T>> cached = new ArrayList<>();
+        List<MetricId<T>> missing = new ArrayList<>();
+        for (MetricId<T> id : ids) {
+            // Read once, the entry may expire between two reads
+            DataPoint<T> dataPoint = (DataPoint<T>) latest.getIfPresent(id);
+            if (dataPoint == null) {
+                missing.add(id);
+            } else {
+                cached.add(new NamedDataPoint<>(id.getName(), dataPoint));
+            }
+        }
+        Map<String, Map<MetricType<T>, List<String>>> missingNames = missing.stream()
+                .collect(groupingBy(MetricId::getTenantId,
+                        groupingBy(MetricId::getType, mapping(MetricId::getName, toList()))));
+        Observable<NamedDataPoint<T>> read = Observable.from(missingNames.entrySet())
+                .flatMap(tenant -> Observable.from(tenant.getValue().entrySet())
+                        .flatMap(type -> Observable.from(Lists.partition(type.getValue(), READ_BATCH_SIZE))
+                                .flatMap(names -> dataAccess.findLatestData(tenant.getKey(), type.getKey(), names))
+                                .map(row -> {
+                                    MetricId<T> id = new MetricId<>(tenant.getKey(), type.getKey(), row.getString(0));
+                                    DataPoint<T> dataPoint = toDataPoint(type.getKey(), row);
+                                    DataPoint<?> merged = latest.asMap().merge(id, dataPoint,
+                                            LatestDataIndex::later);
+                                    return new NamedDataPoint<>(id.getName(), (DataPoint<T>) merged);
+                                })));
+        return Observable.from(cached).concatWith(read);
+    }
+
+    /**
+     * Caches a data point read from the data tables and writes it, used to index metrics that have data but no
+     * latest data point yet. The data point is cached even if Cassandra keeps a later one, so that the data tables
+     * are not read again until it expires.
+     */
+    <T> Observable<Integer> backfill(MetricId<T> id, DataPoint<T> dataPoint) {
+        latest.asMap().merge(id, dataPoint, LatestDataIndex::later);
+        return update(id, dataPoint);
+    }
+
+    void invalidate(MetricId<?> id) {
+        latest.invalidate(id);
+    }
+
+    /**
+     * Deletes the latest data point of a metric, whether the index is enabled or not. It is read first, as the
+     * delete must not use a later write time than its data point.
+     */
+    static <T> Observable<ResultSet> delete(DataAccess dataAccess, MetricId<T> id) {
+        return dataAccess.findLatestData(id.getTenantId(), id.getType(), Collections.singletonList(id.getName()))
+                .flatMap(row -> dataAccess.deleteLatestData(id, row.getTimestamp(1).getTime()));
+    }
+
+    private static DataPoint<?> later(DataPoint<?> dataPoint, DataPoint<?> other) {
+        return dataPoint.getTimestamp() >= other.getTimestamp() ? dataPoint : other;
+    }
+
+    private static DataPoint<?> getLatest(DataPointColumns columns) {
+        int latestIndex = 0;
+        for (int i = 1; i < columns.size(); i++) {
+            if (columns.getTimestamp(i) > columns.getTimestamp(latestIndex)) {
+                latestIndex = i;
+            }
+        }
+        MetricType<?> type = columns.getMetricId().getType();
+        Object value;
+        if (type == GAUGE) {
+            value = columns.getDouble(latestIndex);
+        } else if (type == COUNTER) {
+            value = columns.getLong(latestIndex);
+        } else {
+            value = AvailabilityType.fromByte(columns.getByte(latestIndex));
+        }
+        return new DataPoint<>(columns.getTimestamp(latestIndex), value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> DataPoint<T> toDataPoint(MetricType<T> type, Row row) {
+        Object value;
+        if (type == GAUGE) {
+            value = row.getDouble(2);
+        } else if (type == COUNTER) {
+            value = row.getLong(2);
+        } else {
+            value = AvailabilityType.fromBytes(row.getBytes(2));
+        }
+        return new DataPoint<>(row.getTimestamp(1).getTime(), (T) value, row.getMap(3, String.class, String.class));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the definitions (tags and data retention) read from metrics_idx, bounded by an estimate of their size in
+ * memory. Definitions changed through this node are invalidated right away, changes made through other nodes are
+ * picked up when the entries expire.
+ */
+class MetricDefinitionCache {
+
+    private final Cache<MetricId<?>, Metric<?>> definitions;
+
+    /**
+     * Incremented by every invalidation, so that a definition read before a change cannot be cached after it.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxBytes estimated memory the cached definitions may use, 0 disables the cache
+     * @param ttl      time after which a definition is read again from metrics_idx
+     */
+    MetricDefinitionCache(long maxBytes, long ttl, TimeUnit unit) {
+        definitions = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((MetricId<?> id, Metric<?> metric) -> weigh(metric))
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> Metric<T> get(MetricId<T> id) {
+        return (Metric<T>) definitions.getIfPresent(id);
+    }
+
+    /**
+     * @return the value to pass to {@link #put(Metric, long)} once the definition has been read
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches {@code metric} unless a definition has been invalidated since {@code readGeneration}.
+     */
+    void put(Metric<?> metric, long readGeneration) {
+        if (generation.get() == readGeneration) {
+            definitions.put(metric.getMetricId(), metric);
+        }
+    }
+
+    void invalidate(MetricId<?> id) {
+        generation.incrementAndGet();
+        definitions.invalidate(id);
+    }
+
+    long size() {
+        return definitions.size();
+    }
+
+    static int weigh(Metric<?> metric) {
+        MetricId<?> id = metric.getMetricId();
+        // Object headers and references, plus two bytes per character
+        int weight = 96 + 2 * (id.getTenantId().length() + id.getName().length());
+        for (Map.Entry<String, String> tag : metric.getTags().entrySet()) {
+            weight += 48 + 2 * (tag.getKey().length() + tag.getValue().length());
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Completable;
+import rx.Observable;
+
+/**
+ * Registry of the metric ids of each tenant, so that listing the metrics of a tenant reads a single partition per
+ * type instead of scanning the partition keys of all the data tables. An id is written to metrics_registry when a
+ * node ingests data for it and has not registered it recently. The rows expire with the data of the metric, and are
+ * written again while data keeps coming in.
+ */
+class MetricIdRegistry {
+
+    private final DataAccess dataAccess;
+
+    private final int refreshSeconds;
+
+    /**
+     * Ids registered by this node, so that each one is only written once per refresh interval.
+     */
+    private final Cache<MetricId<?>, Boolean> registered;
+
+    /**
+     * False until the ids of the data written before the registry existed have been registered.
+     */
+    private volatile boolean complete;
+
+    /**
+     * @param maxIds  maximum number of ids remembered as registered
+     * @param refresh interval after which an id is registered again, extending the expiration of its row
+     */
+    MetricIdRegistry(DataAccess dataAccess, long maxIds, long refresh, TimeUnit unit) {
+        this.dataAccess = dataAccess;
+        this.refreshSeconds = (int) unit.toSeconds(refresh);
+        registered = CacheBuilder.newBuilder()
+                .maximumSize(maxIds)
+                .expireAfterWrite(refresh, unit)
+                .build();
+    }
+
+    /**
+     * @param ttl TTL of the data of the metric in seconds
+     */
+    Completable register(MetricId<?> id, int ttl) {
+        if (registered.getIfPresent(id) != null) {
+            return Completable.complete();
+        }
+        return dataAccess.insertIntoMetricsRegistry(id, ttl + refreshSeconds)
+                .doOnCompleted(() -> registered.put(id, Boolean.TRUE))
+                .toCompletable();
+    }
+
+    Observable<ResultSet> delete(MetricId<?> id) {
+        registered.invalidate(id);
+        return dataAccess.deleteFromMetricsRegistry(id);
+    }
+
+    <T> Observable<MetricId<T>> find(String tenantId, MetricType<T> type) {
+        return dataAccess.findMetricsInMetricsRegistry(tenantId, type)
+                .map(row -> new MetricId<>(tenantId, type, row.getString(0)));
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    void setComplete() {
+        complete = true;
+    }
+}
@@ -99,6 +99,14 @@ public interface MetricsService {
 
     Observable<MetricId<?>> findAllMetricIdentifiers();
 
+    /**
+     * Returns the ids of the tenant's metrics which have data or a definition. The results can be filtered using a
+     * type.
+     *
+     * @param type If type is null, the ids of all user definable metric types are returned.
+     */
+    <T> Observable<MetricId<T>> findMetricIdentifiers(String tenantId, MetricType<T> type);
+
     <T> Observable<Metric<T>> findMetric(MetricId<T> id);
 
     <T> Observable<Void> deleteMetric(MetricId<T> id);
@@ -161,6 +169,16 @@ public interface MetricsService {
      */
     <T> Observable<Void> addDataPoints(MetricType<T> metricType, Observable<Metric<T>> metrics);
 
+    /**
+     * Insert data points already laid out as columns. Unlike {@link #addDataPoints(MetricType, Observable)} the
+     * metrics may be of mixed types, but only gauges, counters and availability are accepted.
+     *
+     * @param columns the sources of data points
+     *
+     * @return an {@link Observable} emitting just one item on complete
+     */
+    Observable<Void> addDataPointColumns(Observable<DataPointColumns> columns);
+
     /**
      * Fetch data points for a single metric.
      *
@@ -183,11 +201,25 @@ public interface MetricsService {
      *
      * @param startTimeSlice
      * @param pageSize
-     * @param maxConcurrency How many reads are concurrently called from Cassandra
+     * @param maxConcurrency How many reads are concurrently called from each Cassandra host
      * @return
      */
     @SuppressWarnings("unchecked") Completable compressBlock(long startTimeSlice, int pageSize, int maxConcurrency);
 
+    /**
+     * Compresses all the expired temporary tables. Each table is scanned in token range splits which are processed
+     * in parallel, with a limited amount of concurrent scans per Cassandra host. Every finished split is
+     * checkpointed, so that a run that was interrupted continues from the splits that are still unprocessed. The
+     * split layout must be the same between the runs for the checkpoints to match.
+     *
+     * @param startTimeSlice Start time of the current block, every temporary table older than this is compressed
+     * @param pageSize Cassandra query parameter
+     * @param tokenSplits Minimum amount of splits the token ring is divided to, 0 uses the token ranges as is
+     * @param maxConcurrencyPerHost How many splits are concurrently read from each Cassandra host
+     * @return onComplete when job is done
+     */
+    Completable compressBlock(long startTimeSlice, int pageSize, int tokenSplits, int maxConcurrencyPerHost);
+
     /**
      * Compresses the given range between timestamps to a single block.
      *
@@ -203,6 +235,24 @@ public interface MetricsService {
     <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> ids, long start, long end, int limit,
                                                      Order order);
 
+    /**
+     * Fetch data points for multiple metrics. Up to {@code concurrency} metrics are read in parallel, the data points
+     * are still emitted grouped by metric, in the order of {@code ids}.
+     *
+     * @param concurrency number of metrics read in parallel, 0 for the configured default. It is capped by the
+     *                    configured maximum.
+     */
+    <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> ids, long start, long end, int limit,
+            Order order, int concurrency);
+
+    /**
+     * Fetch the latest data point of multiple metrics. It is read from the latest data index when it is enabled, the
+     * metrics missing from it are read from the data tables.
+     *
+     * @return the latest data point of each metric which has data, in no particular order
+     */
+    <T> Observable<NamedDataPoint<T>> findLatestDataPoints(List<MetricId<T>> ids);
+
     /**
      * Fetch data points for multiple metrics searched by tag.
      *
@@ -219,6 +269,14 @@ public interface MetricsService {
     <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
             String tagFilters, long start, long end, int limit, Order order);
 
+    /**
+     * Fetch data points for multiple metrics searched by tag, reading up to {@code concurrency} metrics in parallel.
+     *
+     * @see #findDataPoints(List, long, long, int, Order, int)
+     */
+    <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
+            String tagFilters, long start, long end, int limit, Order order, int concurrency);
+
     /**
      * This method applies one or more functions to an Observable that emits data points of a gauge metric. The data
      * points Observable is asynchronous. The functions however, are applied serially in the order specified.
@@ -327,6 +385,14 @@ public interface MetricsService {
     <T extends Number> Observable<NamedDataPoint<Double>> findRateData(List<MetricId<T>> ids, long start, long end,
             int limit, Order order);
 
+    /**
+     * Computes rates for multiple metrics, reading up to {@code concurrency} metrics in parallel.
+     *
+     * @see #findDataPoints(List, long, long, int, Order, int)
+     */
+    <T extends Number> Observable<NamedDataPoint<Double>> findRateData(List<MetricId<T>> ids, long start, long end,
+            int limit, Order order, int concurrency);
+
     /**
      * Computes stats on a counter or gauge rate.
      *
@@ -338,6 +404,20 @@ public interface MetricsService {
     Observable<List<NumericBucketPoint>> findRateStats(MetricId<? extends Number> id, BucketConfig bucketConfig,
                                                        List<Percentile> percentiles);
 
+    /**
+     * Computes both the stats and the rate stats on a counter or gauge. The data points are read once and fed to
+     * both aggregations, instead of being fetched separately by {@link #findCounterStats(MetricId, BucketConfig, List)}
+     * or {@link #findGaugeStats(MetricId, BucketConfig, List)} and {@link #findRateStats(MetricId, BucketConfig, List)}.
+     *
+     * @param id      counter or gauge metric id
+     * @param bucketConfig bucket configuration
+     *
+     * @return an {@link Observable} emitting a single {@link Map} with the stats keyed by the type of the metric and
+     * the rate stats keyed by {@link MetricType#COUNTER_RATE} or {@link MetricType#GAUGE_RATE}
+     */
+    Observable<Map<MetricType<?>, List<NumericBucketPoint>>> findStatsAndRateStats(MetricId<? extends Number> id,
+            BucketConfig bucketConfig, List<Percentile> percentiles);
+
     /**
      * <p>
      * For a specified date range, return a list of periods in which the predicate evaluates to true for each
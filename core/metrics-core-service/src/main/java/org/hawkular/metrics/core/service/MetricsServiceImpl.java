@@ -17,13 +17,17 @@
 package org.hawkular.metrics.core.service;
 
 import static java.time.ZoneOffset.UTC;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 import static org.hawkular.metrics.core.service.Functions.isValidTagMap;
 import static org.hawkular.metrics.core.service.Functions.makeSafe;
 import static org.hawkular.metrics.core.service.Order.ASC;
 import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
 import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.COUNTER_RATE;
 import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.hawkular.metrics.model.MetricType.GAUGE_RATE;
 import static org.hawkular.metrics.model.MetricType.STRING;
 import static org.hawkular.metrics.model.Utils.isValidTimeRange;
 
@@ -33,33 +37,48 @@ import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
 import org.hawkular.metrics.core.service.log.CoreLogger;
 import org.hawkular.metrics.core.service.log.CoreLogging;
+import org.hawkular.metrics.core.service.rollup.RollupTier;
 import org.hawkular.metrics.core.service.tags.ExpressionTagQueryParser;
 import org.hawkular.metrics.core.service.tags.SimpleTagQueryParser;
+import org.hawkular.metrics.core.service.tags.TagIndex;
 import org.hawkular.metrics.core.service.tags.TagsConverter;
 import org.hawkular.metrics.core.service.transformers.DataPointCompressTransformer;
 import org.hawkular.metrics.core.service.transformers.DataPointDecompressTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricFromDataRowTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricIdentifierFromFullDataRowTransformer;
 import org.hawkular.metrics.core.service.transformers.MetricsIndexRowTransformer;
+import org.hawkular.metrics.core.service.transformers.NumericBucketAggregator;
 import org.hawkular.metrics.core.service.transformers.NumericBucketPointTransformer;
 import org.hawkular.metrics.core.service.transformers.SortedMerge;
+import org.hawkular.metrics.core.service.transformers.SummaryBucketPointTransformer;
 import org.hawkular.metrics.core.service.transformers.TaggedBucketPointTransformer;
 import org.hawkular.metrics.core.service.transformers.TempTableCompressTransformer;
 import org.hawkular.metrics.datetime.DateTimeService;
@@ -107,7 +126,10 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import rx.Completable;
 import rx.Observable;
+import rx.Observable.Transformer;
+import rx.Subscription;
 import rx.functions.Func1;
+import rx.functions.Func2;
 import rx.functions.Func6;
 import rx.observable.ListenableFutureObservable;
 import rx.schedulers.Schedulers;
@@ -119,6 +141,19 @@ public class MetricsServiceImpl implements MetricsService {
     private static final CoreLogger log = CoreLogging.getCoreLogger(MetricsServiceImpl.class);
 
     private static final long DAY_TO_MILLIS = 24 * 3600 * 1000;
+
+    private static final Duration COMPRESSION_BLOCK_SIZE = Duration.standardHours(2);
+
+    /**
+     * Age of the heartbeat of the metric id backfill after which another node takes it over
+     */
+    private static final long METRIC_REGISTRY_BACKFILL_LEASE = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Initial capacity of the buffer of each metric read ahead by multi-metric queries, in data points
+     */
+    private static final int READ_AHEAD_CAPACITY = 128;
+
     public static final String SYSTEM_TENANT_ID = makeSafe("sysconfig");
 
     private static class DataRetentionKey {
@@ -190,6 +225,13 @@ public class MetricsServiceImpl implements MetricsService {
     private SimpleTagQueryParser tagQueryParser;
     private ExpressionTagQueryParser expresssionTagQueryParser;
 
+    /**
+     * In-memory inverted index of the metric tags, null when tag queries go to Cassandra
+     */
+    private TagIndex tagIndex;
+    private boolean tagIndexEnabled;
+    private long tagIndexTTL;
+
     private int defaultTTL = Duration.standardDays(7).toStandardSeconds().getSeconds();
     private int DEFAULT_RETENTION = (int) Duration.standardSeconds(defaultTTL).getStandardDays();
 
@@ -201,6 +243,56 @@ public class MetricsServiceImpl implements MetricsService {
 
     private int defaultPageSize;
 
+    /**
+     * Number of metrics read in parallel by multi-metric queries, and the maximum a query may ask for
+     */
+    private int queryConcurrency = 8;
+
+    private int maxQueryConcurrency = 32;
+
+    private Map<RollupTier, Integer> rollupTTLs = new EnumMap<>(RollupTier.class);
+
+    /**
+     * Coalesces gauge, counter and availability writes of concurrent requests, null when disabled.
+     */
+    private IngestionBuffer ingestionBuffer;
+
+    /**
+     * Write-ahead logged head blocks of the open compression blocks, only written to when enabled.
+     */
+    private HeadBlocks headBlocks;
+
+    private boolean headBlocksEnabled;
+
+    /**
+     * Temp table points of the recent blocks, null when disabled.
+     */
+    private RecentDataCache recentData;
+
+    /**
+     * Final compressed blocks, null when disabled.
+     */
+    private CompressedBlockCache blockCache;
+
+    /**
+     * Latest data point of each metric, null when disabled.
+     */
+    private LatestDataIndex latestData;
+
+    /**
+     * Ids of the metrics of each tenant, written on ingestion
+     */
+    private MetricIdRegistry metricIds;
+
+    /**
+     * Registers the ids of existing metrics on one node at a time and picks up their completion by another node,
+     * null once the registry is complete.
+     */
+    private Subscription metricIdsBackfill;
+
+    private MetricDefinitionCache metricDefinitions = new MetricDefinitionCache(16 * 1024 * 1024, 60,
+            TimeUnit.SECONDS);
+
     public void startUp(Session session, String keyspace, boolean resetDb, MetricRegistry metricRegistry) {
         startUp(session, keyspace, resetDb, true, metricRegistry);
     }
@@ -219,17 +311,17 @@ public class MetricsServiceImpl implements MetricsService {
                 .put(GAUGE, metric -> {
                     @SuppressWarnings("unchecked")
                     Observable<Metric<Double>> gauge = (Observable<Metric<Double>>) metric;
-                    return dataAccess.insertData(gauge);
+                    return insertData(gauge);
                 })
                 .put(COUNTER, metric -> {
                     @SuppressWarnings("unchecked")
                     Observable<Metric<Long>> counter = (Observable<Metric<Long>>) metric;
-                    return dataAccess.insertData(counter);
+                    return insertData(counter);
                 })
                 .put(AVAILABILITY, metric -> {
                     @SuppressWarnings("unchecked")
                     Observable<Metric<AvailabilityType>> avail = (Observable<Metric<AvailabilityType>>) metric;
-                    return dataAccess.insertData(avail);
+                    return insertData(avail);
                 })
                 .put(STRING, metric -> {
                     @SuppressWarnings("unchecked")
@@ -271,6 +363,16 @@ public class MetricsServiceImpl implements MetricsService {
         tagQueryParser = new SimpleTagQueryParser(this.dataAccess, this, disableACostOptimization, defaultPageSize,
                 pageThreshold);
         expresssionTagQueryParser = new ExpressionTagQueryParser(this.dataAccess, this);
+
+        if (!metricIds.isComplete()) {
+            registerExistingMetrics();
+        }
+
+        if (tagIndexEnabled) {
+            tagIndex = new TagIndex(this.dataAccess, tagIndexTTL, TimeUnit.SECONDS);
+            tagQueryParser.setTagIndex(tagIndex);
+            expresssionTagQueryParser.setTagIndex(tagIndex);
+        }
     }
 
     void loadDataRetentions() {
@@ -337,8 +439,74 @@ public class MetricsServiceImpl implements MetricsService {
         insertMaxRetries = Integer.parseInt(configuration.get("ingestion.retry.max-retries", "5"));
         log.infoInsertRetryConfig(insertMaxRetries, insertRetryMaxDelay);
 
+        long bufferWindow = Long.parseLong(configuration.get("ingestion.buffer.window", "0"));
+        if (bufferWindow > 0) {
+            int bufferMaxPoints = Integer.parseInt(configuration.get("ingestion.buffer.max-points", "5000"));
+            ingestionBuffer = new IngestionBuffer(this::insertBufferedData, bufferWindow, bufferMaxPoints,
+                    Schedulers.computation());
+            log.infoIngestionBufferConfig(bufferWindow, bufferMaxPoints);
+        }
+
+        // Head blocks are only served from memory when this is the only node writing, other nodes' points would be
+        // missing from them
+        headBlocksEnabled = Boolean.parseBoolean(configuration.get("ingestion.head-block.enabled", "false"));
+        boolean headBlocksInMemory = headBlocksEnabled
+                && Boolean.parseBoolean(configuration.get("ingestion.head-block.single-writer", "false"));
+        long headBlocksMaxBlocks = Long.parseLong(configuration.get("ingestion.head-block.max-blocks", "50000"));
+        headBlocks = new HeadBlocks(dataAccess, COMPRESSION_BLOCK_SIZE.getMillis(), headBlocksInMemory,
+                headBlocksMaxBlocks);
+        if (headBlocksEnabled) {
+            log.infoHeadBlockConfig(headBlocksInMemory);
+        }
+
+        long recentCacheSize = Long.parseLong(configuration.get("query.recent-cache.max-bytes", "0"));
+        if (recentCacheSize > 0) {
+            long recentCacheTTL = Long.parseLong(configuration.get("query.recent-cache.ttl", "30"));
+            recentData = new RecentDataCache(dataAccess, this::findTempData, COMPRESSION_BLOCK_SIZE.getMillis(),
+                    recentCacheSize, recentCacheTTL, TimeUnit.SECONDS);
+            log.infoRecentDataCacheConfig(recentCacheSize, recentCacheTTL);
+        }
+
+        long blockCacheSize = Long.parseLong(configuration.get("query.block-cache.max-bytes", "0"));
+        if (blockCacheSize > 0) {
+            long blockCacheTTL = Long.parseLong(configuration.get("query.block-cache.ttl", "60"));
+            blockCache = new CompressedBlockCache(dataAccess, COMPRESSION_BLOCK_SIZE.getMillis(), blockCacheSize,
+                    blockCacheTTL, TimeUnit.SECONDS);
+            log.infoBlockCacheConfig(blockCacheSize, blockCacheTTL);
+        }
+
+        if (Boolean.parseBoolean(configuration.get("ingestion.latest-data.enabled", "false"))) {
+            long latestCacheSize = Long.parseLong(configuration.get("query.latest-data.cache-size", "100000"));
+            long latestCacheTTL = Long.parseLong(configuration.get("query.latest-data.cache-ttl", "10"));
+            latestData = new LatestDataIndex(dataAccess, this::getTTL, latestCacheSize, latestCacheTTL,
+                    TimeUnit.SECONDS);
+            log.infoLatestDataConfig(latestCacheSize, latestCacheTTL);
+        }
+
         defaultPageSize = Integer.parseInt(configuration.get("page-size", "5000"));
+        queryConcurrency = Math.max(1, Integer.parseInt(configuration.get("query.concurrency", "8")));
+        maxQueryConcurrency = Math.max(queryConcurrency,
+                Integer.parseInt(configuration.get("query.max-concurrency", "32")));
         disableACostOptimization = Boolean.parseBoolean(configuration.get("disable.parser.optimization", "false"));
+
+        metricDefinitions = new MetricDefinitionCache(
+                Long.parseLong(configuration.get("metric-cache.max-size", Integer.toString(16 * 1024 * 1024))),
+                Long.parseLong(configuration.get("metric-cache.ttl", "60")), TimeUnit.SECONDS);
+
+        metricIds = new MetricIdRegistry(dataAccess,
+                Long.parseLong(configuration.get("metric-registry.max-ids", "1000000")),
+                Long.parseLong(configuration.get("metric-registry.refresh", "86400")), TimeUnit.SECONDS);
+        if (Boolean.parseBoolean(configuration.get("metric-registry.complete", "false"))) {
+            metricIds.setComplete();
+        }
+
+        tagIndexEnabled = Boolean.parseBoolean(configuration.get("tag-index.enabled", "false"));
+        tagIndexTTL = Long.parseLong(configuration.get("tag-index.ttl", "300"));
+
+        for (RollupTier tier : RollupTier.values()) {
+            rollupTTLs.put(tier, Integer.parseInt(configuration.get("rollup." + tier.getInterval() + ".ttl",
+                    Integer.toString(tier.getDefaultTTL()))));
+        }
     }
 
     private void setDefaultTTL(Session session, String keyspace) {
@@ -460,7 +628,7 @@ public class MetricsServiceImpl implements MetricsService {
         ResultSetFuture future = dataAccess.insertMetricInMetricsIndex(metric, overwrite);
 
         Observable<ResultSet> indexUpdated = ListenableFutureObservable.from(future, metricsTasks);
-        return Observable.create(subscriber -> indexUpdated.subscribe(resultSet -> {
+        return Observable.<Void>create(subscriber -> indexUpdated.subscribe(resultSet -> {
             if (!overwrite && !resultSet.wasApplied()) {
                 subscriber.onError(new MetricAlreadyExistsException(metric));
             } else {
@@ -482,7 +650,11 @@ public class MetricsServiceImpl implements MetricsService {
 
                 Observable.merge(updates).subscribe(new VoidSubscriber<>(subscriber));
             }
-        }));
+        })).doOnCompleted(() -> {
+            if (tagIndex != null) {
+                tagIndex.metricCreated(metric);
+            }
+        }).doOnTerminate(() -> metricDefinitions.invalidate(metric.getMetricId()));
     }
 
     private Observable<ResultSet> updateRetentionsIndex(Metric<?> metric) {
@@ -498,12 +670,105 @@ public class MetricsServiceImpl implements MetricsService {
                 .distinct();
     }
 
+    /**
+     * Registers the ids of the metrics that got data before metrics_registry existed. Until this has completed once,
+     * metric listings scan the data tables.
+     * <p>
+     * Every minute, the node reloads the completion flag, which is set by the node that completed the backfill. The
+     * node running the backfill writes a heartbeat on each check, another node takes over when the heartbeat is
+     * older than {@link #METRIC_REGISTRY_BACKFILL_LEASE}, for example after a failure.
+     */
+    private void registerExistingMetrics() {
+        AtomicBoolean running = new AtomicBoolean();
+        metricIdsBackfill = Observable.interval(0, 1, TimeUnit.MINUTES, Schedulers.computation())
+                .onBackpressureDrop()
+                .concatMap(tick -> configurationService.load("org.hawkular.metrics")
+                        .onErrorResumeNext(Observable.empty()))
+                .doOnNext(config -> {
+                    if (Boolean.parseBoolean(config.get("metric-registry.complete", "false"))) {
+                        metricIds.setComplete();
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    long heartbeat = Long.parseLong(config.get("metric-registry.backfill-heartbeat", "0"));
+                    if (running.get() || now - heartbeat > METRIC_REGISTRY_BACKFILL_LEASE) {
+                        configurationService.save("org.hawkular.metrics", "metric-registry.backfill-heartbeat",
+                                Long.toString(now))
+                                .subscribe(v -> {}, t -> log.debug("Failed to write the backfill heartbeat", t));
+                        if (running.compareAndSet(false, true)) {
+                            backfillMetricIds(running);
+                        }
+                    }
+                })
+                .takeUntil(config -> metricIds.isComplete())
+                .subscribe(config -> {}, t -> {});
+    }
+
+    private void backfillMetricIds(AtomicBoolean running) {
+        log.infoMetricRegistryBackfillStarted();
+        AtomicLong count = new AtomicLong();
+        findAllMetricIdentifiers()
+                .filter(id -> id.getType().isUserType())
+                .flatMap(id -> metricIds.register(id, getTTL(id)).<Void>toObservable()
+                        .doOnCompleted(count::incrementAndGet), 16)
+                .concatWith(configurationService.save("org.hawkular.metrics", "metric-registry.complete", "true"))
+                .subscribe(
+                        v -> {},
+                        t -> {
+                            log.warnMetricRegistryBackfillFailed(t);
+                            running.set(false);
+                        },
+                        () -> {
+                            metricIds.setComplete();
+                            log.infoMetricRegistryBackfillFinished(count.get());
+                        });
+    }
+
+    /**
+     * Registers the id of a metric receiving data. The data is written even if this fails, the id is registered
+     * again with the next data points of the metric.
+     */
+    private Completable registerMetricId(MetricId<?> id) {
+        return metricIds.register(id, getTTL(id))
+                .onErrorComplete(t -> {
+                    log.warnMetricRegistrationFailed(id, t);
+                    return true;
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Observable<MetricId<T>> findMetricIdentifiers(String tenantId, MetricType<T> type) {
+        if (!metricIds.isComplete()) {
+            return dataAccess.findAllMetricIdentifiersInData()
+                    .filter(row -> tenantId.equals(row.getString(0)))
+                    .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
+                    .filter(id -> (type == null && id.getType().isUserType()) || id.getType() == type)
+                    .distinct()
+                    .map(id -> (MetricId<T>) id);
+        }
+        if (type == null) {
+            return Observable.from(MetricType.userTypes())
+                    .concatMap(userType -> metricIds.find(tenantId, (MetricType<T>) userType));
+        }
+        return metricIds.find(tenantId, type);
+    }
+
     public <T> Observable.Transformer<MetricId<T>, Metric<T>> enrichToMetric() {
         return t -> t
-                .flatMap(id -> dataAccess.findMetricInMetricsIndex(id)
-                        .compose(new MetricsIndexRowTransformer<>(id.getTenantId(), id.getType(), defaultTTL))
-                        .switchIfEmpty(dataAccess.findMetricInData(id) // This only verifies it exists..
-                                .compose(new MetricFromDataRowTransformer<>(id.getTenantId(), id.getType(), defaultTTL))));
+                .flatMap(id -> {
+                    Metric<T> cached = metricDefinitions.get(id);
+                    if (cached != null) {
+                        return Observable.just(cached);
+                    }
+                    long generation = metricDefinitions.getGeneration();
+                    return dataAccess.findMetricInMetricsIndex(id)
+                            .compose(new MetricsIndexRowTransformer<>(id.getTenantId(), id.getType(), defaultTTL))
+                            .switchIfEmpty(dataAccess.findMetricInData(id) // This only verifies it exists..
+                                    .compose(new MetricFromDataRowTransformer<>(id.getTenantId(), id.getType(),
+                                            defaultTTL)))
+                            .doOnNext(metric -> metricDefinitions.put(metric, generation));
+                });
     }
 
     @Override
@@ -516,11 +781,7 @@ public class MetricsServiceImpl implements MetricsService {
     @Override
     public <T> Observable<Metric<T>> findMetrics(String tenantId, MetricType<T> metricType) {
         Observable<Metric<T>> setFromMetricsIndex = null;
-        Observable<Metric<T>> setFromData = dataAccess.findAllMetricIdentifiersInData()
-                .doOnError(Throwable::printStackTrace)
-                .filter(row -> tenantId.equals(row.getString(0)))
-                .compose(new MetricIdentifierFromFullDataRowTransformer(defaultTTL))
-                .distinct()
+        Observable<Metric<T>> setFromData = findMetricIdentifiers(tenantId, metricType)
                 .map(m -> new Metric(m, DEFAULT_RETENTION));
 
         if (metricType == null) {
@@ -531,8 +792,6 @@ public class MetricsServiceImpl implements MetricsService {
         } else {
             setFromMetricsIndex = dataAccess.findMetricsInMetricsIndex(tenantId, metricType)
                     .compose(new MetricsIndexRowTransformer<>(tenantId, metricType, defaultTTL));
-
-            setFromData = setFromData.filter(m -> metricType.equals(m.getType()));
         }
 
         return setFromMetricsIndex.concatWith(setFromData).distinct(Metric::getMetricId);
@@ -590,6 +849,11 @@ public class MetricsServiceImpl implements MetricsService {
 
     @Override
     public Observable<Map<String, String>> getMetricTags(MetricId<?> id) {
+        Metric<?> cached = metricDefinitions.get(id);
+        if (cached != null) {
+            // Callers may modify the returned map
+            return Observable.just(new HashMap<>(cached.getTags()));
+        }
         return dataAccess.getMetricTags(id)
                 .take(1)
                 .map(row -> row.getMap(0, String.class, String.class))
@@ -614,7 +878,14 @@ public class MetricsServiceImpl implements MetricsService {
         }
 
         return dataAccess.insertIntoMetricsTagsIndex(metric, tags).concatWith(dataAccess.addTags(metric, tags))
-                .toList().map(l -> null);
+                .toList()
+                .doOnCompleted(() -> {
+                    if (tagIndex != null) {
+                        tagIndex.tagsAdded(metric.getMetricId(), tags);
+                    }
+                })
+                .doOnTerminate(() -> metricDefinitions.invalidate(metric.getMetricId()))
+                .map(l -> null);
     }
 
     @Override
@@ -624,21 +895,85 @@ public class MetricsServiceImpl implements MetricsService {
                     loadedTags.keySet().retainAll(tags);
                     return loadedTags;
                 })
-                .flatMap(tagsToDelete -> {
+                .<Void>flatMap(tagsToDelete -> {
                     return dataAccess.deleteTags(metric, tagsToDelete.keySet()).mergeWith(
                             dataAccess.deleteFromMetricsTagsIndex(metric.getMetricId(), tagsToDelete)).toList()
+                            .doOnCompleted(() -> {
+                                if (tagIndex != null) {
+                                    tagIndex.tagsDeleted(metric.getMetricId(), tagsToDelete.keySet());
+                                }
+                            })
                             .map(r -> null);
-                });
+                })
+                .doOnTerminate(() -> metricDefinitions.invalidate(metric.getMetricId()));
     }
 
     @Override
     public <T> Observable<Void> addDataPoints(MetricType<T> metricType, Observable<Metric<T>> metrics) {
         checkArgument(metricType != null, "metricType is null");
 
-        return pointsInserter
-                .get(metricType)
-                .call(metrics
-                        .filter(metric -> !metric.getDataPoints().isEmpty()))
+        Observable<Metric<T>> nonEmpty = metrics.filter(metric -> !metric.getDataPoints().isEmpty())
+                .flatMap(metric -> registerMetricId(metric.getMetricId()).andThen(Observable.just(metric)));
+        Observable<Integer> inserted;
+        if (ingestionBuffer != null && metricType != STRING) {
+            inserted = nonEmpty.toList().flatMap(ingestionBuffer::add);
+        } else {
+            inserted = pointsInserter.get(metricType).call(nonEmpty);
+        }
+        return inserted
+                .doOnNext(getDataPointsInserted()::mark)
+                .map(i -> null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Observable<Integer> insertBufferedData(List<Metric<?>> metrics) {
+        // Temp table inserts are bound per metric, so the buffered metrics can be of different types
+        Observable<Metric<Object>> points = (Observable) Observable.from(metrics);
+        return insertData(points);
+    }
+
+    private <T> Observable<Integer> insertData(Observable<Metric<T>> metrics) {
+        if (recentData == null && latestData == null) {
+            return headBlocksEnabled ? headBlocks.insertData(metrics) : dataAccess.insertData(metrics);
+        }
+        // The points are added to the recent data and the latest data once they have been written
+        return metrics.toList().flatMap(written -> {
+            Observable<Metric<T>> points = Observable.from(written);
+            Observable<Integer> inserted = (headBlocksEnabled ? headBlocks.insertData(points)
+                    : dataAccess.insertData(points));
+            if (recentData != null) {
+                inserted = inserted.doOnCompleted(() -> written.forEach(recentData::addData));
+            }
+            if (latestData != null) {
+                inserted = inserted.concatWith(latestData.update(written).ignoreElements());
+            }
+            return inserted;
+        });
+    }
+
+    @Override
+    public Observable<Void> addDataPointColumns(Observable<DataPointColumns> columns) {
+        Observable<DataPointColumns> nonEmpty = columns.filter(c -> c.size() > 0)
+                .flatMap(c -> registerMetricId(c.getMetricId()).andThen(Observable.just(c)));
+        Observable<Integer> inserted;
+        if (recentData == null && latestData == null) {
+            inserted = headBlocksEnabled ? headBlocks.insertDataColumns(nonEmpty)
+                    : dataAccess.insertDataColumns(nonEmpty);
+        } else {
+            inserted = nonEmpty.toList().flatMap(written -> {
+                Observable<DataPointColumns> points = Observable.from(written);
+                Observable<Integer> writes = headBlocksEnabled ? headBlocks.insertDataColumns(points)
+                        : dataAccess.insertDataColumns(points);
+                if (recentData != null) {
+                    writes = writes.doOnCompleted(() -> written.forEach(recentData::addDataColumns));
+                }
+                if (latestData != null) {
+                    writes = writes.concatWith(latestData.updateColumns(written).ignoreElements());
+                }
+                return writes;
+            });
+        }
+        return inserted
                 .doOnNext(getDataPointsInserted()::mark)
                 .map(i -> null);
     }
@@ -660,44 +995,140 @@ public class MetricsServiceImpl implements MetricsService {
         Func1<Row, DataPoint<T>> mapper = getDataPointMapper(metricType);
 
         if (metricType == GAUGE || metricType == AVAILABILITY || metricType == COUNTER) {
-            long sliceStart = DateTimeService.getTimeSlice(start, Duration.standardHours(2));
+            Observable<DataPoint<T>> dataPoints;
+            NavigableSet<Long> boundaries = limit > 0 ? getOpenBlockBoundaries(start, end)
+                    : Collections.emptyNavigableSet();
+            if (boundaries.size() > 2) {
+                // Each range is read once the previous ones did not reach the limit, newest first with DESC
+                NavigableSet<Long> rangeStarts = boundaries.headSet(end, false);
+                dataPoints = Observable.from(safeOrder == ASC ? rangeStarts : rangeStarts.descendingSet())
+                        .concatMap(rangeStart -> findRangeData(metricId, rangeStart, boundaries.higher(rangeStart),
+                                limit, safeOrder, pageSize))
+                        .take(limit);
+            } else {
+                dataPoints = findStoredData(metricId, start, end, limit, safeOrder, pageSize, true);
+            }
+
+            if (latestData != null && limit == 1 && safeOrder == Order.DESC) {
+                // The latest data point answers the query unless it is after the end of the range
+                dataPoints = latestData.findLatest(Collections.singletonList(metricId))
+                        .map(p -> new DataPoint<>(p.getTimestamp(), p.getValue(), p.getTags()))
+                        .filter(dataPoint -> dataPoint.getTimestamp() >= start && dataPoint.getTimestamp() < end)
+                        .switchIfEmpty(dataPoints);
+            }
+
+            return dataPoints;
+        }
+        Func6<MetricId<T>, Long, Long, Integer, Order, Integer, Observable<Row>> finder =
+                getDataPointFinder(metricType);
 
-            Func1<Row, DataPoint<T>> tempMapper = (Func1<Row, DataPoint<T>>) tempDataPointMappers.get(metricType);
+        Observable<DataPoint<T>> results =
+                finder.call(metricId, start, end, limit, safeOrder, pageSize).map(mapper);
+        return results.doOnCompleted(context::stop);
+    }
 
-            // Calls mostly deprecated methods..
+    /**
+     * Reads one range of a limited query. The out-of-order table is read for the range too, it may also hold points
+     * of the open blocks, written by a node whose list of temp tables was stale.
+     */
+    private <T> Observable<DataPoint<T>> findRangeData(MetricId<T> metricId, long start, long end, int limit,
+            Order safeOrder, int pageSize) {
+        Comparator<DataPoint<T>> comparator = getDataPointComparator(safeOrder);
+        List<Observable<? extends DataPoint<T>>> sources = Arrays.asList(
+                findStoredData(metricId, start, end, limit, safeOrder, pageSize, false),
+                findOutOfOrderData(metricId, start, end, limit, safeOrder, pageSize));
+        return SortedMerge.create(sources, comparator, false)
+                .distinctUntilChanged((tDataPoint, tDataPoint2) -> comparator.compare(tDataPoint, tDataPoint2) == 0)
+                .take(limit);
+    }
+
+    /**
+     * @param outOfOrder read the out-of-order table too, when the range starts before the first temp table
+     */
+    private <T> Observable<DataPoint<T>> findStoredData(MetricId<T> metricId, long start, long end, int limit,
+            Order safeOrder, int pageSize, boolean outOfOrder) {
+        // Calls mostly deprecated methods..
 //            Observable<DataPoint<T>> uncompressedPoints = dataAccess.findOldData(metricId, start, end, limit, safeOrder,
 //                    pageSize).map(mapper).doOnError(Throwable::printStackTrace);
 
-            Observable<DataPoint<T>> compressedPoints =
-                    dataAccess.findCompressedData(metricId, sliceStart, end, limit, safeOrder)
-                            .compose(new DataPointDecompressTransformer(metricType, safeOrder, limit, start, end));
+        Observable<DataPoint<T>> compressedPoints = findCompressedData(metricId, start, end, limit, safeOrder);
 
-            Observable<DataPoint<T>> tempStoragePoints = dataAccess.findTempData(metricId, start, end, limit,
-                    safeOrder, pageSize)
-                    .map(tempMapper);
+        Observable<DataPoint<T>> tempStoragePoints;
+        if (outOfOrder) {
+            tempStoragePoints = recentData == null
+                    ? findTempData(metricId, start, end, limit, safeOrder, pageSize)
+                    : recentData.findData(metricId, start, end, safeOrder);
+        } else {
+            tempStoragePoints = recentData == null
+                    ? dataAccess.findBlockTempData(metricId, start, end, limit, safeOrder, pageSize)
+                            .map(getTempDataPointMapper(metricId.getType()))
+                    : recentData.findBlockData(metricId, start, end, safeOrder);
+        }
 
-            Comparator<DataPoint<T>> comparator = getDataPointComparator(safeOrder);
-            List<Observable<? extends DataPoint<T>>> sources = new ArrayList<>(3);
+        Comparator<DataPoint<T>> comparator = getDataPointComparator(safeOrder);
+        List<Observable<? extends DataPoint<T>>> sources = new ArrayList<>(3);
 //            sources.add(uncompressedPoints);
-            sources.add(compressedPoints);
-            sources.add(tempStoragePoints);
+        sources.add(compressedPoints);
+        sources.add(tempStoragePoints);
+        sources.add(headBlocks.findData(metricId, start, end, safeOrder));
 
-            Observable<DataPoint<T>> dataPoints = SortedMerge.create(sources, comparator, false)
-                    .distinctUntilChanged(
-                            (tDataPoint, tDataPoint2) -> comparator.compare(tDataPoint, tDataPoint2) == 0);
+        Observable<DataPoint<T>> dataPoints = SortedMerge.create(sources, comparator, false)
+                .distinctUntilChanged(
+                        (tDataPoint, tDataPoint2) -> comparator.compare(tDataPoint, tDataPoint2) == 0);
 
-            if (limit > 0) {
-                dataPoints = dataPoints.take(limit);
-            }
+        if (limit > 0) {
+            dataPoints = dataPoints.take(limit);
+        }
+        return dataPoints;
+    }
 
-            return dataPoints;
+    /**
+     * Splits a time range at the starts of the blocks that still have a temp or write-ahead log table. The older
+     * part of the range, read from the compressed blocks, is the first range. Each open block is a range of its own,
+     * so that a query with a small limit only reads the blocks it needs.
+     *
+     * @return the start of each range followed by the end of the time range
+     */
+    private NavigableSet<Long> getOpenBlockBoundaries(long start, long end) {
+        NavigableSet<Long> openBlocks = new TreeSet<>(dataAccess.findTempTables(start, end));
+        openBlocks.addAll(dataAccess.findWalTables(start, end));
+        NavigableSet<Long> boundaries = new TreeSet<>(openBlocks.subSet(start, false, end, false));
+        boundaries.add(start);
+        boundaries.add(end);
+        return boundaries;
+    }
+
+    private <T> Observable<DataPoint<T>> findCompressedData(MetricId<T> metricId, long start, long end, int limit,
+            Order order) {
+        long sliceStart = DateTimeService.getTimeSlice(start, COMPRESSION_BLOCK_SIZE);
+        DataPointDecompressTransformer<T> decompressor = new DataPointDecompressTransformer<>(metricId.getType(),
+                order, limit, start, end);
+        if (blockCache == null) {
+            return dataAccess.findCompressedData(metricId, sliceStart, end, limit, order).compose(decompressor);
         }
-        Func6<MetricId<T>, Long, Long, Integer, Order, Integer, Observable<Row>> finder =
-                getDataPointFinder(metricType);
+        return decompressor.decompress(blockCache.findBlocks(metricId, sliceStart, end, limit, order));
+    }
 
-        Observable<DataPoint<T>> results =
-                finder.call(metricId, start, end, limit, safeOrder, pageSize).map(mapper);
-        return results.doOnCompleted(context::stop);
+    private Observable<? extends DataPoint<?>> findTempData(MetricId<?> metricId, long start, long end,
+            Order order) {
+        return findTempData(metricId, start, end, 0, order, defaultPageSize);
+    }
+
+    private <T> Observable<DataPoint<T>> findTempData(MetricId<T> metricId, long start, long end, int limit,
+            Order order, int pageSize) {
+        return dataAccess.findTempData(metricId, start, end, limit, order, pageSize)
+                .map(getTempDataPointMapper(metricId.getType()));
+    }
+
+    private <T> Observable<DataPoint<T>> findOutOfOrderData(MetricId<T> metricId, long start, long end, int limit,
+            Order order, int pageSize) {
+        return dataAccess.findOutOfOrderData(metricId, start, end, limit, order, pageSize)
+                .map(getTempDataPointMapper(metricId.getType()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Func1<Row, DataPoint<T>> getTempDataPointMapper(MetricType<T> type) {
+        return (Func1<Row, DataPoint<T>>) tempDataPointMappers.get(type);
     }
 
     private <T> Comparator<DataPoint<T>> getDataPointComparator(Order safeOrder) {
@@ -758,49 +1189,177 @@ public class MetricsServiceImpl implements MetricsService {
             startTime = startTime.plus(2, ChronoUnit.HOURS);
         }
 
-        return Completable.fromObservable(dataAccess.createTempTablesIfNotExists(timestamps));
+        Completable tempTables = Completable.fromObservable(dataAccess.createTempTablesIfNotExists(timestamps));
+        if (headBlocksEnabled) {
+            return tempTables.andThen(Completable.fromObservable(dataAccess.createWalTablesIfNotExists(timestamps)));
+        }
+        return tempTables;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Completable compressBlock(long jobStartTimeSlice, int pageSize, int maxConcurrency) {
+        return compressBlock(jobStartTimeSlice, pageSize, 0, maxConcurrency);
+    }
+
+    @Override
+    public Completable compressBlock(long jobStartTimeSlice, int pageSize, int tokenSplits,
+                                     int maxConcurrencyPerHost) {
         return Completable.fromObservable(
                 Observable.from(dataAccess.findExpiredTables(jobStartTimeSlice))
-                        .concatMap(startTimeSlice ->
-                                dataAccess.findAllDataFromBucket(startTimeSlice, pageSize, maxConcurrency)
-                                        .switchIfEmpty(Observable.empty())
-                                        .flatMap(rows -> rows
-                                                // Each time the tokenrange changes inside the query, create new window, publish allows
-                                                // reuse of the observable in two distinct processing phases
-                                                .publish(p -> p.window(
-                                                        p.map(Row::getPartitionKeyToken)
-                                                                .distinctUntilChanged()))
-                                                // ConcatMap so we don't mess the order as that's important in the compression job
-                                                .concatMap(o -> {
-                                                    // Cache the first key from the observable so we can use it to create a key later
-                                                    Observable<Row> sharedRows = o.share();
-                                                    Observable<CompressedPointContainer> compressed =
-                                                            sharedRows.compose(new TempTableCompressTransformer(startTimeSlice));
-                                                    Observable<Row> keyTake = sharedRows.take(1);
-
-                                                    // Merge the first row with the compressed package to be able to write to Cassandra
-                                                    return compressed.zipWith(keyTake, (cpc, r) -> {
-                                                        MetricId<?> metricId =
-                                                                new MetricId(r.getString(0), MetricType.fromCode(r.getByte(1)),
-                                                                        r.getString(2));
-                                                        return dataAccess.insertCompressedData(metricId, startTimeSlice, cpc,
-                                                                getTTL(metricId));
-                                                    });
-                                                }), maxConcurrency)
-                                        .flatMap(rs -> rs)
-                                        .doOnCompleted(() -> dataAccess.dropTempTable(startTimeSlice)
-                                                .compose(applyRetryPolicy())
-                                                .subscribeOn(Schedulers.io())
-                                                .subscribe())
+                        .concatMap(startTimeSlice -> dataAccess.findCompressionCheckpoints(startTimeSlice)
+                                .compose(applyRetryPolicy())
+                                .toList()
+                                .map(HashSet::new)
+                                .flatMap(finishedSplits -> Observable
+                                        .from(dataAccess.findTokenSplits(tokenSplits).values())
+                                        // Each host processes its own splits, limiting the concurrent scans per host
+                                        .flatMap(hostSplits -> Observable.from(hostSplits)
+                                                // Splits finished by an earlier, interrupted run are not reprocessed
+                                                .filter(split -> !finishedSplits.contains(split))
+                                                .flatMap(split -> dataAccess
+                                                        .findAllDataFromBucket(startTimeSlice, split, pageSize)
+                                                        .compose(compressPartitions(startTimeSlice))
+                                                        .ignoreElements()
+                                                        // Merged with the blocks written from the temp table
+                                                        .concatWith(dataAccess
+                                                                .findAllWalChunks(startTimeSlice, split, pageSize)
+                                                                .compose(compressWalPartitions(startTimeSlice))
+                                                                .ignoreElements())
+                                                        .concatWith(dataAccess
+                                                                .insertCompressionCheckpoint(startTimeSlice, split)
+                                                                .compose(applyRetryPolicy())),
+                                                        maxConcurrencyPerHost)))
+                                // Every block of the day has been compressed once the job is past its last block
+                                .concatWith(rollUpDay(startTimeSlice, pageSize, maxConcurrencyPerHost))
+                                .doOnCompleted(() -> dataAccess.dropTempTable(startTimeSlice)
+                                        .concatWith(dataAccess.dropWalTable(startTimeSlice))
+                                        .concatWith(dataAccess.deleteCompressionCheckpoints(startTimeSlice))
+                                        .compose(applyRetryPolicy())
+                                        .subscribeOn(Schedulers.io())
+                                        .subscribe())
                         )
         );
     }
 
+    /**
+     * Compresses the rows of a single token range scan. The rows arrive in token order, so each partition is a
+     * consecutive set of rows.
+     */
+    @SuppressWarnings("unchecked")
+    private Observable.Transformer<Row, ResultSet> compressPartitions(long startTimeSlice) {
+        return rows -> rows
+                // Each time the tokenrange changes inside the query, create new window, publish allows
+                // reuse of the observable in two distinct processing phases
+                .publish(p -> p.window(
+                        p.map(Row::getPartitionKeyToken)
+                                .distinctUntilChanged()))
+                // ConcatMap so we don't mess the order as that's important in the compression job
+                .concatMap(o -> {
+                    // Cache the first key from the observable so we can use it to create a key later
+                    Observable<Row> sharedRows = o.share();
+                    Observable<CompressedPointContainer> compressed =
+                            sharedRows.compose(new TempTableCompressTransformer(startTimeSlice));
+                    Observable<Row> keyTake = sharedRows.take(1);
+
+                    // Merge the first row with the compressed package to be able to write to Cassandra
+                    return compressed.zipWith(keyTake, (cpc, r) -> {
+                        MetricId<?> metricId =
+                                new MetricId(r.getString(0), MetricType.fromCode(r.getByte(1)),
+                                        r.getString(2));
+                        return insertCompressedBlock(metricId, startTimeSlice, cpc);
+                    });
+                })
+                .flatMap(rs -> rs);
+    }
+
+    /**
+     * Compresses the write-ahead log chunks of a single token range scan. The chunks of a metric are merged on top of
+     * the block already compressed from its temp table rows, if there is one.
+     */
+    @SuppressWarnings("unchecked")
+    private Observable.Transformer<Row, ResultSet> compressWalPartitions(long startTimeSlice) {
+        long blockEnd = startTimeSlice + COMPRESSION_BLOCK_SIZE.getMillis();
+        return rows -> rows
+                .publish(p -> p.window(
+                        p.map(Row::getPartitionKeyToken)
+                                .distinctUntilChanged()))
+                .concatMap(Observable::toList)
+                .filter(chunks -> !chunks.isEmpty())
+                .concatMap(chunks -> {
+                    Row r = chunks.get(0);
+                    MetricId<?> metricId = new MetricId(r.getString(0), MetricType.fromCode(r.getByte(1)),
+                            r.getString(2));
+                    return dataAccess.findCompressedData(metricId, startTimeSlice, blockEnd, 0, ASC)
+                            .filter(row -> !row.isNull("c_value"))
+                            .collect(() -> new HeadBlock(metricId.getType(), startTimeSlice),
+                                    (block, row) -> block.addCompressed(row.getBytes("c_value"),
+                                            row.getBytes("tags")))
+                            .concatMap(block -> {
+                                chunks.forEach(chunk -> block.addCompressed(chunk.getBytes(5), chunk.getBytes(6)));
+                                return insertCompressedBlock(metricId, startTimeSlice, block.compress(true));
+                            });
+                });
+    }
+
+    private Observable<ResultSet> insertCompressedBlock(MetricId<?> metricId, long startTimeSlice,
+            CompressedPointContainer cpc) {
+        // The rollups are written before the block summary, a block with a summary always has its hour rollups
+        if (blockCache != null) {
+            blockCache.invalidate(metricId, startTimeSlice);
+        }
+        Observable<ResultSet> inserts = Observable.from(cpc.getRollups().entrySet())
+                .concatMap(rollup -> dataAccess.insertRollups(metricId, rollup.getKey(), rollup.getValue(),
+                        getRollupTTL(metricId, rollup.getKey())))
+                .concatWith(dataAccess.insertCompressedData(metricId, startTimeSlice, cpc, getTTL(metricId)));
+        if (cpc.getSummaryBuffer() != null) {
+            inserts = inserts.concatWith(dataAccess.insertDayRollupMetric(
+                    RollupTier.DAY.getIntervalStart(startTimeSlice), metricId));
+        }
+        return inserts;
+    }
+
+    /**
+     * Rolls up the day of every metric with block summaries in it, once the last block of the day has been
+     * compressed. The metrics do not need data in that last block.
+     */
+    @SuppressWarnings("unchecked")
+    private Observable<ResultSet> rollUpDay(long startTimeSlice, int pageSize, int maxConcurrency) {
+        long blockEnd = startTimeSlice + COMPRESSION_BLOCK_SIZE.getMillis();
+        if (blockEnd % RollupTier.DAY.getLength() != 0) {
+            return Observable.empty();
+        }
+        long dayStart = RollupTier.DAY.getIntervalStart(startTimeSlice);
+        return dataAccess.findDayRollupMetrics(dayStart, pageSize)
+                .map(row -> (MetricId<?>) new MetricId(row.getString(0), MetricType.fromCode(row.getByte(1)),
+                        row.getString(2)))
+                .flatMap(metricId -> insertDayRollup(metricId, dayStart), Math.max(1, maxConcurrency))
+                .concatWith(dataAccess.deleteDayRollupMetrics(dayStart))
+                .compose(applyRetryPolicy());
+    }
+
+    /**
+     * Merges the block summaries of the day to the day rollup. Days that have blocks without a summary are not
+     * rolled up.
+     */
+    private Observable<ResultSet> insertDayRollup(MetricId<?> metricId, long dayStart) {
+        return dataAccess.findCompressedSummaries(metricId, dayStart, dayStart + RollupTier.DAY.getLength())
+                .toList()
+                .filter(rows -> !rows.isEmpty() && rows.stream().noneMatch(row -> row.isNull(1)))
+                .flatMap(rows -> {
+                    BlockSummary daySummary = new BlockSummary();
+                    rows.forEach(row -> daySummary.merge(BlockSummary.deserialize(row.getBytes(1))));
+                    return dataAccess.insertRollups(metricId, RollupTier.DAY,
+                            Collections.singletonMap(dayStart, daySummary), getRollupTTL(metricId, RollupTier.DAY));
+                });
+    }
+
+    /**
+     * Rollups are kept at least as long as the compressed blocks they summarize.
+     */
+    private int getRollupTTL(MetricId<?> metricId, RollupTier tier) {
+        return Math.max(rollupTTLs.get(tier), getTTL(metricId));
+    }
+
     @Override
     @Deprecated
     @SuppressWarnings("unchecked")
@@ -814,23 +1373,79 @@ public class MetricsServiceImpl implements MetricsService {
                         .compose(new DataPointCompressTransformer(metricId.getType(), startTimeSlice))
                         .concatMap(cpc -> dataAccess.deleteAndInsertCompressedGauge(metricId, startTimeSlice,
                                 (CompressedPointContainer) cpc, startTimeSlice, endTimeSlice, getTTL(metricId))
-                                .compose(applyRetryPolicy()))));
+                                .compose(applyRetryPolicy())
+                                .doOnCompleted(() -> {
+                                    if (blockCache != null) {
+                                        blockCache.invalidate(metricId, startTimeSlice);
+                                    }
+                                }))));
     }
 
     @Override
     public <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> metricIds, long start,
             long end, int limit, Order order) {
+        return findDataPoints(metricIds, start, end, limit, order, 0);
+    }
+
+    @Override
+    public <T> Observable<NamedDataPoint<T>> findDataPoints(List<MetricId<T>> metricIds, long start, long end,
+            int limit, Order order, int concurrency) {
         return Observable.from(metricIds)
-                .concatMap(id -> findDataPoints(id, start, end, limit, order)
-                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+                .compose(readConcurrently(id -> findDataPoints(id, start, end, limit, order), concurrency));
     }
 
     @Override
     public <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
             String tagFilters, long start, long end, int limit, Order order) {
+        return findDataPoints(tenantId, metricType, tagFilters, start, end, limit, order, 0);
+    }
+
+    @Override
+    public <T> Observable<NamedDataPoint<T>> findDataPoints(String tenantId, MetricType<T> metricType,
+            String tagFilters, long start, long end, int limit, Order order, int concurrency) {
         return findMetricIdentifiersWithFilters(tenantId, metricType, tagFilters)
-                .concatMap(id -> findDataPoints(id, start, end, limit, order)
-                        .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+                .compose(readConcurrently(id -> findDataPoints(id, start, end, limit, order), concurrency));
+    }
+
+    @Override
+    public <T> Observable<NamedDataPoint<T>> findLatestDataPoints(List<MetricId<T>> metricIds) {
+        long now = System.currentTimeMillis() + 1;
+        if (latestData == null) {
+            return findDataPoints(metricIds, 0, now, 1, Order.DESC);
+        }
+        return latestData.findLatest(metricIds).toList().flatMap(found -> {
+            Set<String> indexed = found.stream().map(NamedDataPoint::getName).collect(toSet());
+            List<MetricId<T>> missing = metricIds.stream()
+                    .filter(id -> !indexed.contains(id.getName()))
+                    .collect(toList());
+            // Metrics without a latest data point have no data or have not received any since it is indexed
+            Observable<NamedDataPoint<T>> read = Observable.from(missing)
+                    .compose(readConcurrently(id -> findDataPoints(id, 0, now, 1, Order.DESC)
+                            .flatMap(dataPoint -> latestData.backfill(id, dataPoint).ignoreElements()
+                                    .map(rs -> dataPoint).concatWith(Observable.just(dataPoint))), 0));
+            return Observable.from(found).concatWith(read);
+        });
+    }
+
+    /**
+     * Reads the data points of up to {@code concurrency} metrics in parallel. The data points of the metrics read
+     * ahead are buffered, so that they are still emitted grouped by metric in the order of the ids.
+     */
+    private <T, R> Observable.Transformer<MetricId<T>, NamedDataPoint<R>> readConcurrently(
+            Func1<MetricId<T>, Observable<DataPoint<R>>> reader, int concurrency) {
+        return readConcurrently(reader, concurrency, queryConcurrency, maxQueryConcurrency);
+    }
+
+    /**
+     * @param defaultConcurrency used when {@code concurrency} is 0 or less
+     * @param maxConcurrency     cap of {@code concurrency}
+     */
+    static <T, R> Observable.Transformer<MetricId<T>, NamedDataPoint<R>> readConcurrently(
+            Func1<MetricId<T>, Observable<DataPoint<R>>> reader, int concurrency, int defaultConcurrency,
+            int maxConcurrency) {
+        int maxConcurrent = concurrency <= 0 ? defaultConcurrency : Math.min(concurrency, maxConcurrency);
+        return ids -> ids.concatMapEager(id -> reader.call(id)
+                .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)), READ_AHEAD_CAPACITY, maxConcurrent);
     }
 
     @SuppressWarnings("unchecked")
@@ -862,13 +1477,20 @@ public class MetricsServiceImpl implements MetricsService {
         // We can't set the limit here, because some pairs can be discarded (counter resets)
         // But since the loading is reactive, we're not going to fetch more pages than needed (see #take at the end)
         Observable<DataPoint<Double>> dataPoints = this.findDataPoints(id, start, end, 0, order)
+                .compose(toRates(id.getType(), order));
+        return limit <= 0 ? dataPoints : dataPoints.take(limit);
+    }
+
+    private static Transformer<DataPoint<? extends Number>, DataPoint<Double>> toRates(MetricType<?> type,
+            Order order) {
+        return dataPoints -> dataPoints
                 .buffer(2, 1) // emit previous/next pairs
                 // adapt pair to the order of traversal
                 .map(l -> order == ASC ? l : Lists.reverse(l))
                 // Drop the last buffer
                 .filter(l -> l.size() == 2)
                 // Filter out counter resets
-                .filter(l -> id.getType() != COUNTER
+                .filter(l -> type != COUNTER
                         || l.get(1).getValue().longValue() >= l.get(0).getValue().longValue())
                 .map(l -> {
                     DataPoint<? extends Number> point1 = l.get(0);
@@ -879,14 +1501,19 @@ public class MetricsServiceImpl implements MetricsService {
                     double rate = 60_000D * value_diff / time_diff;
                     return new DataPoint<>(timestamp, rate);
                 });
-        return limit <= 0 ? dataPoints : dataPoints.take(limit);
     }
 
     @Override
     public <T extends Number> Observable<NamedDataPoint<Double>> findRateData(List<MetricId<T>> ids, long start,
                                                                      long end, int limit, Order order) {
-        return Observable.from(ids).concatMap(id -> findRateData(id, start, end, limit, order)
-                .map(dataPoint -> new NamedDataPoint<>(id.getName(), dataPoint)));
+        return findRateData(ids, start, end, limit, order, 0);
+    }
+
+    @Override
+    public <T extends Number> Observable<NamedDataPoint<Double>> findRateData(List<MetricId<T>> ids, long start,
+            long end, int limit, Order order, int concurrency) {
+        return Observable.from(ids)
+                .compose(readConcurrently(id -> findRateData(id, start, end, limit, order), concurrency));
     }
 
     @Override
@@ -898,6 +1525,39 @@ public class MetricsServiceImpl implements MetricsService {
                 .compose(new NumericBucketPointTransformer(bucketConfig.getBuckets(), percentiles));
     }
 
+    @Override
+    public Observable<Map<MetricType<?>, List<NumericBucketPoint>>> findStatsAndRateStats(
+            MetricId<? extends Number> id, BucketConfig bucketConfig, List<Percentile> percentiles) {
+        TimeRange timeRange = bucketConfig.getTimeRange();
+        checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
+        checkArgument(id.getType() == COUNTER || id.getType() == GAUGE, "Unsupported metric type: %s", id.getType());
+        MetricType<Double> rateType = id.getType() == COUNTER ? COUNTER_RATE : GAUGE_RATE;
+        Buckets buckets = bucketConfig.getBuckets();
+
+        Func2<List<NumericBucketPoint>, List<NumericBucketPoint>, Map<MetricType<?>, List<NumericBucketPoint>>>
+                toStatsMap = (stats, rateStats) -> {
+                    Map<MetricType<?>, List<NumericBucketPoint>> statsMap = new HashMap<>();
+                    statsMap.put(id.getType(), stats);
+                    statsMap.put(rateType, rateStats);
+                    return statsMap;
+                };
+
+        if (!isReadAsDataPoints(buckets)) {
+            // The stats are mostly answered from the block summaries and rollups, only the rates need the raw data
+            return Observable.zip(
+                    findNumericBucketStats(id, timeRange.getStart(), timeRange.getEnd(), buckets, percentiles),
+                    findRateStats(id, bucketConfig, percentiles),
+                    toStatsMap);
+        }
+        // Both aggregations subscribe to the same read, the data points are not buffered beyond the rate pairs
+        return findDataPoints(id, timeRange.getStart(), timeRange.getEnd(), 0, ASC)
+                .publish(dataPoints -> Observable.zip(
+                        dataPoints.compose(new NumericBucketPointTransformer(buckets, percentiles)),
+                        dataPoints.compose(toRates(id.getType(), ASC))
+                                .compose(new NumericBucketPointTransformer(buckets, percentiles)),
+                        toStatsMap));
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> Observable<T> findGaugeData(MetricId<Double> id, long start, long end,
@@ -911,8 +1571,8 @@ public class MetricsServiceImpl implements MetricsService {
                 List<Percentile> percentiles) {
         TimeRange timeRange = bucketConfig.getTimeRange();
         checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
-        return findDataPoints(metricId, timeRange.getStart(), timeRange.getEnd(), 0, Order.DESC)
-                .compose(new NumericBucketPointTransformer(bucketConfig.getBuckets(), percentiles));
+        return findNumericBucketStats(metricId, timeRange.getStart(), timeRange.getEnd(), bucketConfig.getBuckets(),
+                percentiles);
     }
 
     @Override
@@ -930,15 +1590,21 @@ public class MetricsServiceImpl implements MetricsService {
         // TODO Stats needs fixing to understand compressed values also..
         checkArgument(isValidTimeRange(start, end), "Invalid time range");
         if (!stacked) {
+            // Each metric is aggregated to its own buckets and the partial buckets are merged, the sources do not
+            // share any state while they are read in parallel
+            Observable<NumericBucketAggregator> aggregators;
             if (!isRate) {
-                return Observable.from(metrics)
-                        .flatMap(metricId -> findDataPoints(metricId, start, end, 0, Order.DESC))
-                        .compose(new NumericBucketPointTransformer(buckets, percentiles));
+                aggregators = Observable.from(metrics)
+                        .flatMap(metricId -> findDataPoints(metricId, start, end, 0, Order.DESC)
+                                .compose(NumericBucketPointTransformer.aggregate(buckets, percentiles)));
             } else {
-                return Observable.from(metrics)
-                        .flatMap(metricId -> findRateData(metricId, start, end, 0, ASC))
-                        .compose(new NumericBucketPointTransformer(buckets, percentiles));
+                aggregators = Observable.from(metrics)
+                        .flatMap(metricId -> findRateData(metricId, start, end, 0, ASC)
+                                .compose(NumericBucketPointTransformer.aggregate(buckets, percentiles)));
             }
+            return aggregators
+                    .collect(() -> new NumericBucketAggregator(buckets, percentiles), NumericBucketAggregator::merge)
+                    .map(NumericBucketAggregator::toBucketPoints);
         } else {
             Observable<Observable<NumericBucketPoint>> individualStats;
             if (!isRate) {
@@ -1011,9 +1677,143 @@ public class MetricsServiceImpl implements MetricsService {
             percentiles) {
         TimeRange timeRange = bucketConfig.getTimeRange();
         checkArgument(isValidTimeRange(timeRange.getStart(), timeRange.getEnd()), "Invalid time range");
-        return findDataPoints(id, timeRange.getStart(), timeRange.getEnd(), 0, ASC)
-                .doOnError(Throwable::printStackTrace)
-                .compose(new NumericBucketPointTransformer(bucketConfig.getBuckets(), percentiles));
+        return findNumericBucketStats(id, timeRange.getStart(), timeRange.getEnd(), bucketConfig.getBuckets(),
+                percentiles)
+                .doOnError(Throwable::printStackTrace);
+    }
+
+    /**
+     * Buckets that are shorter than a compression block and not aligned with a rollup tier cannot use the block
+     * summaries, their stats are computed from the data points only.
+     */
+    private static boolean isReadAsDataPoints(Buckets buckets) {
+        return RollupTier.select(buckets) == null && buckets.getStep() < COMPRESSION_BLOCK_SIZE.getMillis();
+    }
+
+    /**
+     * Compressed blocks that are fully inside a single bucket are answered from the block summaries, without
+     * decompressing the blocks. When the buckets are aligned with a rollup tier, the blocks spanning several buckets
+     * are answered from the tier's rollups and with daily buckets whole days are answered from the day rollups.
+     * Everything else is read as data points and merged to the buckets.
+     */
+    private <T extends Number> Observable<List<NumericBucketPoint>> findNumericBucketStats(MetricId<T> id,
+            long start, long end, Buckets buckets, List<Percentile> percentiles) {
+        long blockSize = COMPRESSION_BLOCK_SIZE.getMillis();
+        RollupTier tier = RollupTier.select(buckets);
+
+        if (isReadAsDataPoints(buckets)) {
+            return findDataPoints(id, start, end, 0, ASC)
+                    .compose(new NumericBucketPointTransformer(buckets, percentiles));
+        }
+
+        // Blocks that still have a temp table might not have been compressed completely
+        Set<Long> tempTables = dataAccess.findExpiredTables(end);
+
+        Observable<Map<Long, BlockSummary>> days;
+        if (tier == RollupTier.DAY) {
+            long dayLength = RollupTier.DAY.getLength();
+            days = dataAccess.findRollups(id, RollupTier.DAY, start, end)
+                    .filter(row -> {
+                        long dayStart = row.getTimestamp(0).getTime();
+                        return dayStart + dayLength <= end && tempTables.stream()
+                                .noneMatch(table -> table >= dayStart && table < dayStart + dayLength);
+                    })
+                    .toMap(row -> row.getTimestamp(0).getTime(), row -> BlockSummary.deserialize(row.getBytes(1)));
+        } else {
+            days = Observable.just(Collections.emptyMap());
+        }
+
+        return days.flatMap(daySummaries -> dataAccess.findCompressedSummaries(id, start, end)
+                .filter(row -> !row.isNull(1))
+                .filter(row -> {
+                    long blockStart = row.getTimestamp(0).getTime();
+                    return blockStart + blockSize <= end && !tempTables.contains(blockStart)
+                            && !daySummaries.containsKey(RollupTier.DAY.getIntervalStart(blockStart));
+                })
+                .toMap(row -> row.getTimestamp(0).getTime(), row -> BlockSummary.deserialize(row.getBytes(1)))
+                .flatMap(blockSummaries -> {
+                    Map<Integer, BlockSummary> bucketSummaries = new HashMap<>();
+                    SortedMap<Long, Long> summarizedRanges = new TreeMap<>();
+                    SortedSet<Long> rolledUpBlocks = new TreeSet<>();
+
+                    daySummaries.forEach((dayStart, summary) -> {
+                        mergeSummary(bucketSummaries, buckets.getIndex(dayStart), summary);
+                        summarizedRanges.put(dayStart, dayStart + RollupTier.DAY.getLength());
+                    });
+                    blockSummaries.forEach((blockStart, summary) -> {
+                        long blockEnd = blockStart + blockSize;
+                        if (buckets.getIndex(blockStart) == buckets.getIndex(blockEnd - 1)) {
+                            mergeSummary(bucketSummaries, buckets.getIndex(blockStart), summary);
+                            summarizedRanges.put(blockStart, blockEnd);
+                        } else if (tier != null && tier.getLength() < blockSize) {
+                            rolledUpBlocks.add(blockStart);
+                            summarizedRanges.put(blockStart, blockEnd);
+                        }
+                    });
+
+                    Observable<Row> rollups = Observable.empty();
+                    if (!rolledUpBlocks.isEmpty()) {
+                        rollups = dataAccess.findRollups(id, tier, rolledUpBlocks.first(),
+                                rolledUpBlocks.last() + blockSize)
+                                .filter(row -> rolledUpBlocks.contains(DateTimeService.getTimeSlice(
+                                        row.getTimestamp(0).getTime(), COMPRESSION_BLOCK_SIZE)));
+                    }
+
+                    return rollups
+                            .doOnNext(row -> mergeSummary(bucketSummaries,
+                                    buckets.getIndex(row.getTimestamp(0).getTime()),
+                                    BlockSummary.deserialize(row.getBytes(1))))
+                            .toList()
+                            .flatMap(rows -> findDataPointsOutsideRanges(id, start, end, summarizedRanges)
+                                    .compose(new SummaryBucketPointTransformer(buckets, percentiles,
+                                            bucketSummaries)));
+                }));
+    }
+
+    private static void mergeSummary(Map<Integer, BlockSummary> bucketSummaries, int bucket, BlockSummary summary) {
+        bucketSummaries.merge(bucket, summary, (s1, s2) -> {
+            s1.merge(s2);
+            return s1;
+        });
+    }
+
+    /**
+     * Finds the data points of the time range in ascending order, except the compressed data points of the given
+     * block aligned ranges. Temp table data points are always included.
+     *
+     * @param excludedRanges The start and end of each excluded range, the ranges must not overlap
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Observable<DataPoint<T>> findDataPointsOutsideRanges(MetricId<T> id, long start, long end,
+                                                                     SortedMap<Long, Long> excludedRanges) {
+        MetricType<T> metricType = id.getType();
+
+        List<long[]> ranges = new ArrayList<>();
+        long rangeStart = start;
+        for (Map.Entry<Long, Long> excluded : excludedRanges.entrySet()) {
+            if (excluded.getKey() > rangeStart) {
+                ranges.add(new long[]{rangeStart, excluded.getKey()});
+            }
+            rangeStart = excluded.getValue();
+        }
+        if (rangeStart < end) {
+            ranges.add(new long[]{rangeStart, end});
+        }
+
+        Observable<DataPoint<T>> compressedPoints = Observable.from(ranges)
+                .concatMap(range -> findCompressedData(id, range[0], range[1], 0, ASC));
+
+        Observable<DataPoint<T>> tempStoragePoints = dataAccess.findTempData(id, start, end, 0, ASC,
+                defaultPageSize)
+                .map((Func1<Row, DataPoint<T>>) tempDataPointMappers.get(metricType));
+
+        Comparator<DataPoint<T>> comparator = getDataPointComparator(ASC);
+        List<Observable<? extends DataPoint<T>>> sources = new ArrayList<>(2);
+        sources.add(compressedPoints);
+        sources.add(tempStoragePoints);
+
+        return SortedMerge.create(sources, comparator, false)
+                .distinctUntilChanged((tDataPoint, tDataPoint2) -> comparator.compare(tDataPoint, tDataPoint2) == 0);
     }
 
     @Override
@@ -1067,6 +1867,12 @@ public class MetricsServiceImpl implements MetricsService {
     }
 
     public void shutdown() {
+        if (ingestionBuffer != null) {
+            ingestionBuffer.shutdown();
+        }
+        if (metricIdsBackfill != null) {
+            metricIdsBackfill.unsubscribe();
+        }
         metricsTasks.shutdown();
         unloadDataRetentions();
 //        dataAccess.shutdown();
@@ -1093,11 +1899,31 @@ public class MetricsServiceImpl implements MetricsService {
                 .map(r -> null);
         Observable<Void> indexes = Observable.merge(
                 dataAccess.deleteMetricFromMetricsIndex(id),
+                metricIds.delete(id),
                 dataAccess.deleteMetricData(id),
-                dataAccess.deleteMetricFromRetentionIndex(id))
+                dataAccess.deleteMetricFromRetentionIndex(id),
+                LatestDataIndex.delete(dataAccess, id))
                 .map(r -> null);
 
-        return result.concatWith(indexes);
+        return result.concatWith(indexes)
+                .doOnCompleted(() -> {
+                    if (tagIndex != null) {
+                        tagIndex.metricDeleted(id);
+                    }
+                })
+                .doOnTerminate(() -> {
+                    metricDefinitions.invalidate(id);
+                    headBlocks.invalidate(id);
+                    if (recentData != null) {
+                        recentData.invalidate(id);
+                    }
+                    if (blockCache != null) {
+                        blockCache.invalidate(id);
+                    }
+                    if (latestData != null) {
+                        latestData.invalidate(id);
+                    }
+                });
     }
 
 }
@@ -17,12 +17,11 @@
 package org.hawkular.metrics.core.service;
 
 /**
- * We use the org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile class for computing percentiles. The
- * order in which values are added to PSquarePercentile can effect the results. This can make automated testing
- * difficult in scenarios in which values are added from different threads concurrently. For those scenarios
- * org.apache.commons.math3.stat.descriptive.rank.Percentile works better as it stores all values in memory and the
- * order in which it consumes values does not effect the result. Unfortunately, these two classes do not share a common
- * interface that we can use, so interface is used to facilitate testing.
+ * Percentiles are estimated with a mergeable sketch whose results do not depend on the order in which values are
+ * added. Tests that need exact percentiles can replace the estimator through
+ * {@link org.hawkular.metrics.core.service.transformers.NumericBucketAggregator#createPercentile}, for example
+ * with org.apache.commons.math3.stat.descriptive.rank.Percentile which stores all values in memory. This interface
+ * is used to facilitate testing.
  *
  * @author jsanda
  */
@@ -32,4 +31,9 @@ public interface PercentileWrapper {
 
     double getResult();
 
+    /**
+     * Adds the values of another estimator of the same percentile to this one.
+     */
+    void merge(PercentileWrapper other);
+
 }
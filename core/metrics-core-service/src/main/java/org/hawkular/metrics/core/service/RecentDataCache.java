@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.core.service.Order.ASC;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import rx.Observable;
+import rx.functions.Func4;
+
+/**
+ * Caches the points of the temp tables per metric and block, so that dashboards refreshing the last hours of a
+ * metric do not read every temp table each time. A block is read from its temp table on the first query, the points
+ * written through this node are added to the cached blocks. Points written through other nodes are picked up when the
+ * blocks expire.
+ * <p>
+ * The cache is bounded by an estimate of the blocks' size in memory, the blocks are weighed again as written points
+ * are added. The table of out-of-order points is not cached.
+ */
+class RecentDataCache {
+
+    private final DataAccess dataAccess;
+
+    /**
+     * Reads the temp table points of a metric between start (inclusive) and end (exclusive) in the given order
+     */
+    private final Func4<MetricId<?>, Long, Long, Order, Observable<? extends DataPoint<?>>> loader;
+
+    private final long blockSize;
+
+    private final long ttlNanos;
+
+    private final Cache<BlockKey, CachedBlock> blocks;
+
+    /**
+     * Blocks being read, the points written meanwhile are added once the read completes
+     */
+    private final ConcurrentMap<BlockKey, Observable<HeadBlock>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * A block and the time it was read. Growing blocks are put again to be weighed, which restarts the cache's
+     * expiration, the block is read again based on the time of the read instead.
+     */
+    private static class CachedBlock {
+        final HeadBlock block;
+        final long readTime;
+
+        CachedBlock(HeadBlock block, long readTime) {
+            this.block = block;
+            this.readTime = readTime;
+        }
+    }
+
+    /**
+     * @param blockSize Length of the temp tables in milliseconds
+     * @param maxBytes  Estimated memory the cached blocks may use
+     * @param ttl       Time after which a block is read again from its temp table
+     */
+    RecentDataCache(DataAccess dataAccess, Func4<MetricId<?>, Long, Long, Order,
+            Observable<? extends DataPoint<?>>> loader, long blockSize, long maxBytes, long ttl, TimeUnit unit) {
+        this.dataAccess = dataAccess;
+        this.loader = loader;
+        this.blockSize = blockSize;
+        ttlNanos = unit.toNanos(ttl);
+        blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((BlockKey key, CachedBlock cached) -> cached.block.weigh())
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Finds the temp table points of the time range, the points of the out-of-order table are read from Cassandra.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Observable<DataPoint<T>> findData(MetricId<T> id, long start, long end, Order order) {
+        NavigableSet<Long> timeslices = dataAccess.findTempTables(start, end);
+        Observable<DataPoint<T>> cached = findBlockData(id, start, end, order);
+        if (!timeslices.isEmpty() && timeslices.first() <= start) {
+            return cached;
+        }
+        long outOfOrderEnd = timeslices.isEmpty() ? end : timeslices.first();
+        Observable<DataPoint<T>> outOfOrder = (Observable<DataPoint<T>>) loader.call(id, start, outOfOrderEnd, order);
+        return order == ASC ? outOfOrder.concatWith(cached) : cached.concatWith(outOfOrder);
+    }
+
+    /**
+     * Finds the temp table points of the time range, without the points of the out-of-order table.
+     */
+    <T> Observable<DataPoint<T>> findBlockData(MetricId<T> id, long start, long end, Order order) {
+        NavigableSet<Long> timeslices = dataAccess.findTempTables(start, end);
+        return Observable.from(order == ASC ? timeslices : timeslices.descendingSet())
+                .concatMap(timeslice -> getBlock(id, timeslice))
+                .concatMapIterable(block -> block.<T>find(start, end, order));
+    }
+
+    /**
+     * Adds the points written through this node to the cached blocks.
+     */
+    void addData(Metric<?> metric) {
+        for (HeadBlock chunk : HeadBlock.split(metric, blockSize)) {
+            addChunk(metric.getMetricId(), chunk);
+        }
+    }
+
+    void addDataColumns(DataPointColumns columns) {
+        for (HeadBlock chunk : HeadBlock.split(columns, blockSize)) {
+            addChunk(columns.getMetricId(), chunk);
+        }
+    }
+
+    /**
+     * Drops the cached blocks of a deleted metric, including the blocks being read.
+     */
+    void invalidate(MetricId<?> id) {
+        blocks.asMap().keySet().removeIf(key -> key.getMetricId().equals(id));
+        loading.keySet().removeIf(key -> key.getMetricId().equals(id));
+    }
+
+    long size() {
+        return blocks.size();
+    }
+
+    private void addChunk(MetricId<?> id, HeadBlock chunk) {
+        BlockKey key = new BlockKey(id, chunk.getBlockStart());
+        // A read is moved to the cache before it is removed from loading, checking loading first cannot miss both
+        Observable<HeadBlock> pending = loading.get(key);
+        if (pending != null) {
+            pending.subscribe(block -> grow(key, block, chunk), t -> {});
+            return;
+        }
+        CachedBlock cached = blocks.getIfPresent(key);
+        if (cached != null) {
+            grow(key, cached.block, chunk);
+        }
+    }
+
+    private void grow(BlockKey key, HeadBlock block, HeadBlock chunk) {
+        block.addAll(chunk);
+        // Put again to be weighed with the added points, unless it has been evicted or invalidated meanwhile
+        CachedBlock cached = blocks.getIfPresent(key);
+        if (cached != null && cached.block == block) {
+            blocks.asMap().replace(key, cached, cached);
+        }
+    }
+
+    private Observable<HeadBlock> getBlock(MetricId<?> id, long timeslice) {
+        BlockKey key = new BlockKey(id, timeslice);
+        CachedBlock cached = blocks.getIfPresent(key);
+        if (cached != null) {
+            if (System.nanoTime() - cached.readTime < ttlNanos) {
+                return Observable.just(cached.block);
+            }
+            blocks.asMap().remove(key, cached);
+        }
+        return loading.computeIfAbsent(key, k -> load(id, k));
+    }
+
+    private Observable<HeadBlock> load(MetricId<?> id, BlockKey key) {
+        AtomicReference<Observable<HeadBlock>> read = new AtomicReference<>();
+        long readTime = System.nanoTime();
+        read.set(loader.call(id, key.getTimeslice(), key.getTimeslice() + blockSize, ASC)
+                .collect(() -> new HeadBlock(id.getType(), key.getTimeslice()), HeadBlock::add)
+                // A read of an invalidated metric is not cached, it may have been done before the metric was deleted
+                .doOnNext(loaded -> {
+                    if (loading.get(key) == read.get()) {
+                        blocks.put(key, new CachedBlock(loaded, readTime));
+                    }
+                })
+                .doOnTerminate(() -> loading.remove(key, read.get()))
+                .cache());
+        return read.get();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.Token;
+import com.datastax.driver.core.TokenRange;
+
+/**
+ * Immutable snapshot of the token ring of a keyspace, used to route writes without scanning every token range.
+ * The end tokens of the ranges are kept sorted so a token is resolved with a binary search. Ranges that have the
+ * same replicas share a replica group, so statements of one group can be batched and sent to any of those replicas.
+ */
+class TokenRing {
+
+    private final Token[] ends;
+
+    private final int[] groups;
+
+    private final List<Set<Host>> replicaGroups;
+
+    /**
+     * @param rangeReplicas the replicas of each token range, keyed by the (inclusive) end token of the range
+     */
+    TokenRing(SortedMap<Token, Set<Host>> rangeReplicas) {
+        ends = new Token[rangeReplicas.size()];
+        groups = new int[rangeReplicas.size()];
+        replicaGroups = new ArrayList<>();
+        Map<Set<Host>, Integer> groupIds = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<Token, Set<Host>> entry : rangeReplicas.entrySet()) {
+            ends[i] = entry.getKey();
+            groups[i] = groupIds.computeIfAbsent(entry.getValue(), replicas -> {
+                replicaGroups.add(replicas);
+                return replicaGroups.size() - 1;
+            });
+            i++;
+        }
+    }
+
+    static TokenRing build(Metadata metadata, String keyspace) {
+        SortedMap<Token, Set<Host>> rangeReplicas = new TreeMap<>();
+        for (TokenRange range : metadata.getTokenRanges()) {
+            rangeReplicas.put(range.getEnd(), metadata.getReplicas(keyspace, range));
+        }
+        return new TokenRing(rangeReplicas);
+    }
+
+    /**
+     * @return the replica group owning {@code token}, or 0 if the ring is not known yet
+     */
+    int getReplicaGroup(Token token) {
+        if (ends.length == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(ends, token);
+        if (i < 0) {
+            i = -i - 1;
+            if (i == ends.length) {
+                // Past the last end token, so in the range that wraps around the ring
+                i = 0;
+            }
+        }
+        return groups[i];
+    }
+
+    Set<Host> getReplicas(int replicaGroup) {
+        return replicaGroups.get(replicaGroup);
+    }
+
+    int getReplicaGroupCount() {
+        return replicaGroups.size();
+    }
+}
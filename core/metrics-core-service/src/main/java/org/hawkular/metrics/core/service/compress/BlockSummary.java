@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Aggregates of a compressed block, stored in the summary column beside c_value. Summaries of multiple blocks can
+ * be merged to answer the statistics of a longer time range without decompressing the blocks.
+ */
+public class BlockSummary {
+
+    private static final byte SERIALIZATION_VERSION = 0x01;
+
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum = 0;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private QuantileSketch sketch;
+
+    public BlockSummary() {
+        this(new QuantileSketch());
+    }
+
+    private BlockSummary(QuantileSketch sketch) {
+        this.sketch = sketch;
+    }
+
+    /**
+     * NaN values are skipped. Infinite values are part of the count, min, max and sum but not of the sketch.
+     */
+    public void add(long timestamp, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        firstTimestamp = Math.min(firstTimestamp, timestamp);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        sketch.add(value);
+    }
+
+    public void merge(BlockSummary other) {
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+        firstTimestamp = Math.min(firstTimestamp, other.firstTimestamp);
+        lastTimestamp = Math.max(lastTimestamp, other.lastTimestamp);
+        sketch.merge(other.sketch);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getAvg() {
+        return sum / count;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
+    public ByteBuffer serialize() {
+        ByteBuffer sketchBuffer = sketch.serialize();
+        ByteBuffer bb = ByteBuffer.allocate(1 + 8 + 8 * 3 + 8 * 2 + sketchBuffer.remaining());
+        bb.put(SERIALIZATION_VERSION);
+        bb.putLong(count);
+        bb.putDouble(min);
+        bb.putDouble(max);
+        bb.putDouble(sum);
+        bb.putLong(firstTimestamp);
+        bb.putLong(lastTimestamp);
+        bb.put(sketchBuffer);
+        return (ByteBuffer) bb.flip();
+    }
+
+    public static BlockSummary deserialize(ByteBuffer bb) {
+        byte version = bb.get();
+        if (version != SERIALIZATION_VERSION) {
+            throw new IllegalArgumentException("Unknown block summary version " + version);
+        }
+        long count = bb.getLong();
+        double min = bb.getDouble();
+        double max = bb.getDouble();
+        double sum = bb.getDouble();
+        long firstTimestamp = bb.getLong();
+        long lastTimestamp = bb.getLong();
+
+        BlockSummary summary = new BlockSummary(QuantileSketch.deserialize(bb));
+        summary.count = count;
+        summary.min = min;
+        summary.max = max;
+        summary.sum = sum;
+        summary.firstTimestamp = firstTimestamp;
+        summary.lastTimestamp = lastTimestamp;
+        return summary;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compressed block as stored in data_compressed: the compressed values and the serialized data point tags of the
+ * block starting at blockStart.
+ */
+public class CompressedBlock {
+
+    private final long blockStart;
+    private final ByteBuffer valueBuffer;
+    private final ByteBuffer tagsBuffer;
+
+    /**
+     * @param tagsBuffer Serialized data point tags or null
+     */
+    public CompressedBlock(long blockStart, ByteBuffer valueBuffer, ByteBuffer tagsBuffer) {
+        this.blockStart = blockStart;
+        this.valueBuffer = valueBuffer;
+        this.tagsBuffer = tagsBuffer;
+    }
+
+    public long getBlockStart() {
+        return blockStart;
+    }
+
+    /**
+     * @return A view of the compressed values, reading it does not change this block
+     */
+    public ByteBuffer getValueBuffer() {
+        return valueBuffer.duplicate();
+    }
+
+    /**
+     * @return A view of the serialized tags or null, reading it does not change this block
+     */
+    public ByteBuffer getTagsBuffer() {
+        return tagsBuffer == null ? null : tagsBuffer.duplicate();
+    }
+
+    /**
+     * @return A copy of the block stored outside of the heap
+     */
+    public CompressedBlock copyOffHeap() {
+        return new CompressedBlock(blockStart, copyOffHeap(valueBuffer), copyOffHeap(tagsBuffer));
+    }
+
+    /**
+     * @return Memory used by the buffers in bytes
+     */
+    public int size() {
+        return valueBuffer.capacity() + (tagsBuffer == null ? 0 : tagsBuffer.capacity());
+    }
+
+    private static ByteBuffer copyOffHeap(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer copy = ByteBuffer.allocateDirect(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+}
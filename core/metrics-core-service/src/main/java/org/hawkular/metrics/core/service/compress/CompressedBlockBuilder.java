@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hawkular.metrics.core.service.rollup.RollupTier;
+import org.hawkular.metrics.model.AvailabilityType;
+
+/**
+ * Builds a GORILLA_V2 block together with its data point tags. Numeric blocks are also summarized to the block
+ * summary and the hour rollups, availability blocks have neither.
+ */
+public class CompressedBlockBuilder {
+
+    private final long blockStart;
+    private final boolean summarize;
+
+    private final GorillaV2Compressor compressor;
+    private final BlockSummary summary = new BlockSummary();
+    private final Map<Long, BlockSummary> hourRollups = new TreeMap<>();
+    private TagsSerializer tagsSerializer;
+
+    /**
+     * @param blockStart Start time of the block
+     * @param summarize Set false to skip the summary and the rollups, such as for chunks that are merged to a block
+     *                  later on
+     */
+    public CompressedBlockBuilder(long blockStart, boolean summarize) {
+        this.blockStart = blockStart;
+        this.summarize = summarize;
+        this.compressor = new GorillaV2Compressor(blockStart);
+    }
+
+    public void add(long timestamp, double value) {
+        compressor.addValue(timestamp, value);
+        summarize(timestamp, value);
+    }
+
+    public void add(long timestamp, long value) {
+        compressor.addValue(timestamp, value);
+        summarize(timestamp, value);
+    }
+
+    public void add(long timestamp, AvailabilityType value) {
+        compressor.addValue(timestamp, value);
+    }
+
+    public void addTags(long timestamp, Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return;
+        }
+        if (tagsSerializer == null) {
+            tagsSerializer = new TagsSerializer(blockStart);
+        }
+        tagsSerializer.addDataPointTags(timestamp, tags);
+    }
+
+    private void summarize(long timestamp, double value) {
+        if (summarize) {
+            summary.add(timestamp, value);
+            hourRollups.computeIfAbsent(RollupTier.HOUR.getIntervalStart(timestamp), start -> new BlockSummary())
+                    .add(timestamp, value);
+        }
+    }
+
+    /**
+     * Compresses the added points, the builder can not be used afterwards.
+     */
+    public CompressedPointContainer build() {
+        CompressedPointContainer cpc = new CompressedPointContainer();
+        cpc.setValueBuffer(compressor.compress());
+        if (summary.getCount() > 0) {
+            // Numeric blocks only
+            cpc.setSummaryBuffer(summary.serialize());
+            cpc.setRollups(RollupTier.HOUR, hourRollups);
+        }
+        if (tagsSerializer != null) {
+            cpc.setTagsBuffer((ByteBuffer) tagsSerializer.getByteBuffer().flip());
+        }
+        return cpc;
+    }
+}
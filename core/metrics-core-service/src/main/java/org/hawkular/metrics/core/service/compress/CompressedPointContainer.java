@@ -17,6 +17,10 @@
 package org.hawkular.metrics.core.service.compress;
 
 import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.rollup.RollupTier;
 
 /**
  * Holds references to the row's byteBuffers. If only value is set, then that should include all the necessary
@@ -29,6 +33,8 @@ public class CompressedPointContainer {
     private ByteBuffer valueBuffer = null;
     private ByteBuffer timestampBuffer = null;
     private ByteBuffer tagsBuffer = null;
+    private ByteBuffer summaryBuffer = null;
+    private Map<RollupTier, Map<Long, BlockSummary>> rollups = new EnumMap<>(RollupTier.class);
 
     public ByteBuffer getValueBuffer() {
         return valueBuffer;
@@ -53,4 +59,23 @@ public class CompressedPointContainer {
     public void setTagsBuffer(ByteBuffer tagsBuffer) {
         this.tagsBuffer = tagsBuffer;
     }
+
+    public ByteBuffer getSummaryBuffer() {
+        return summaryBuffer;
+    }
+
+    public void setSummaryBuffer(ByteBuffer summaryBuffer) {
+        this.summaryBuffer = summaryBuffer;
+    }
+
+    /**
+     * @return The rollup summaries of the block per tier, keyed by the start of the rollup interval
+     */
+    public Map<RollupTier, Map<Long, BlockSummary>> getRollups() {
+        return rollups;
+    }
+
+    public void setRollups(RollupTier tier, Map<Long, BlockSummary> summaries) {
+        rollups.put(tier, summaries);
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.MetricType;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
+import fi.iki.yak.ts.compression.gorilla.Decompressor;
+import fi.iki.yak.ts.compression.gorilla.Pair;
+
+/**
+ * Compressed block decoded into primitive column buffers. Points are kept in ascending timestamp order, values are
+ * only boxed when requested with {@link #getValue(int)}.
+ */
+public class DecompressedBlock {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private MetricType<?> metricType;
+    private long[] timestamps;
+    private double[] doubleValues;
+    private long[] longValues;
+    private byte[] availabilityValues;
+    private int size;
+    private boolean ascending = true;
+
+    private DecompressedBlock(MetricType<?> metricType) {
+        this.metricType = metricType;
+    }
+
+    /**
+     * @param compressedValue c_value of the row, including the header byte
+     * @param blockStart Start time of the block, the time column of the row
+     * @param metricType Type of the stored values
+     * @return Decoded block in ascending timestamp order
+     */
+    public static DecompressedBlock decompress(ByteBuffer compressedValue, long blockStart,
+                                               MetricType<?> metricType) {
+        DecompressedBlock block = new DecompressedBlock(metricType);
+
+        byte header = compressedValue.get();
+        switch(CompressorHeader.getCompressor(header)) {
+            case GORILLA:
+                block.readGorilla(compressedValue);
+                break;
+            case GORILLA_V2:
+                block.readGorillaV2(compressedValue, header, blockStart);
+                break;
+            default:
+                throw new RuntimeException("Unsupported compression method " +
+                        CompressorHeader.getCompressor(header));
+        }
+
+        // Blocks compressed from the temp tables are in descending order
+        if (block.size > 1 && block.timestamps[0] > block.timestamps[block.size - 1]) {
+            block.reverseColumns();
+        }
+        return block;
+    }
+
+    private void readGorilla(ByteBuffer compressedValue) {
+        timestamps = new long[INITIAL_CAPACITY];
+        double[] values = new double[INITIAL_CAPACITY];
+
+        Decompressor d = new Decompressor(new ByteBufferBitInput(compressedValue));
+        Pair pair;
+        while ((pair = d.readPair()) != null) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = pair.getTimestamp();
+            values[size] = pair.getDoubleValue();
+            size++;
+        }
+
+        // The first format stored every value as a double
+        switch(metricType.getCode()) {
+            case 0: // GAUGE
+                doubleValues = values;
+                break;
+            case 1: // AVAILABILITY
+                availabilityValues = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    availabilityValues[i] = (byte) values[i];
+                }
+                break;
+            case 2: // COUNTER
+                longValues = new long[size];
+                for (int i = 0; i < size; i++) {
+                    longValues[i] = (long) values[i];
+                }
+                break;
+            default:
+                throw unsupportedType();
+        }
+    }
+
+    private void readGorillaV2(ByteBuffer compressedValue, byte header, long blockStart) {
+        GorillaV2Decompressor d = new GorillaV2Decompressor(compressedValue, header, blockStart);
+        timestamps = d.getTimestamps();
+        size = d.size();
+
+        switch(metricType.getCode()) {
+            case 0: // GAUGE
+                doubleValues = d.readDoubleValues();
+                break;
+            case 1: // AVAILABILITY
+                availabilityValues = d.readAvailabilityValues();
+                break;
+            case 2: // COUNTER
+                longValues = d.readLongValues();
+                break;
+            default:
+                throw unsupportedType();
+        }
+    }
+
+    private RuntimeException unsupportedType() {
+        return new RuntimeException("Metric of type " + metricType.getText() + " is not supported in " +
+                "decompression");
+    }
+
+    /**
+     * Reverses the order of the points in place
+     */
+    public void reverse() {
+        reverseColumns();
+        ascending = !ascending;
+    }
+
+    private void reverseColumns() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            long timestamp = timestamps[i];
+            timestamps[i] = timestamps[j];
+            timestamps[j] = timestamp;
+
+            if (doubleValues != null) {
+                double value = doubleValues[i];
+                doubleValues[i] = doubleValues[j];
+                doubleValues[j] = value;
+            } else if (longValues != null) {
+                long value = longValues[i];
+                longValues[i] = longValues[j];
+                longValues[j] = value;
+            } else {
+                byte value = availabilityValues[i];
+                availabilityValues[i] = availabilityValues[j];
+                availabilityValues[j] = value;
+            }
+        }
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getDoubleValue(int index) {
+        return doubleValues[index];
+    }
+
+    public long getLongValue(int index) {
+        return longValues[index];
+    }
+
+    public byte getAvailabilityValue(int index) {
+        return availabilityValues[index];
+    }
+
+    /**
+     * @return Boxed value of the point in the type used by the DataPoints of the metric type
+     */
+    public Object getValue(int index) {
+        if (doubleValues != null) {
+            return doubleValues[index];
+        } else if (longValues != null) {
+            return longValues[index];
+        }
+        return AvailabilityType.fromByte(availabilityValues[index]);
+    }
+
+    /**
+     * @return Index of the first point that is inside the time range in the current order of the block
+     */
+    public int firstIndex(long start, long end) {
+        return ascending ? lowerBound(start) : size - lowerBound(end);
+    }
+
+    /**
+     * @return Index after the last point that is inside the time range in the current order of the block
+     */
+    public int lastIndex(long start, long end) {
+        return ascending ? lowerBound(end) : size - lowerBound(start);
+    }
+
+    /**
+     * Position of the first timestamp that is equal or larger than the given timestamp, counted from the smallest
+     * timestamp.
+     */
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long midTimestamp = ascending ? timestamps[mid] : timestamps[size - 1 - mid];
+            if (midTimestamp < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.MetricType;
+
+import fi.iki.yak.ts.compression.gorilla.BitOutput;
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitOutput;
+
+/**
+ * Compressor for the GORILLA_V2 format. Values are stored in their native type: gauges as XOR encoded doubles,
+ * counters as delta-of-delta encoded longs and availabilities as run-length encoded 2 bit codes. Timestamps are
+ * delta-of-delta encoded and stored with second precision if every timestamp of the block allows it.
+ *
+ * Points are buffered until {@link #compress()} as the header can only be written once every point is known. The
+ * block is written column wise: amount of points, timestamps and then values.
+ */
+public class GorillaV2Compressor {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long blockStart;
+    private MetricType<?> type;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private boolean secondPrecision = true;
+
+    public GorillaV2Compressor(long blockStart) {
+        this.blockStart = blockStart;
+    }
+
+    public void addValue(long timestamp, double value) {
+        add(MetricType.GAUGE, timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    public void addValue(long timestamp, long value) {
+        add(MetricType.COUNTER, timestamp, value);
+    }
+
+    public void addValue(long timestamp, AvailabilityType value) {
+        add(MetricType.AVAILABILITY, timestamp, value.getCode());
+    }
+
+    private void add(MetricType<?> valueType, long timestamp, long value) {
+        if (type == null) {
+            type = valueType;
+        } else if (type != valueType) {
+            throw new IllegalStateException("Can not mix values of type " + type.getText() + " and " +
+                    valueType.getText() + " in a single block");
+        }
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+
+        secondPrecision &= (timestamp % 1000 == 0);
+    }
+
+    /**
+     * Compresses the buffered points, the compressor can not be used afterwards.
+     *
+     * @return Flipped buffer with the header byte followed by the compressed block
+     */
+    public ByteBuffer compress() {
+        EnumSet<CompressorHeader.GorillaSettings> settings = EnumSet.noneOf(CompressorHeader.GorillaSettings.class);
+        if (secondPrecision && blockStart % 1000 == 0) {
+            settings.add(CompressorHeader.GorillaSettings.SECOND_PRECISION);
+        }
+        if (type != null && type != MetricType.GAUGE) {
+            settings.add(CompressorHeader.GorillaSettings.LONG_VALUES);
+        }
+
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA_V2, settings));
+
+        writeSigned(out, size);
+
+        long unit = settings.contains(CompressorHeader.GorillaSettings.SECOND_PRECISION) ? 1000 : 1;
+        if (unit > 1) {
+            for (int i = 0; i < size; i++) {
+                timestamps[i] /= unit;
+            }
+        }
+        writeDeltaOfDeltas(out, timestamps, size, blockStart / unit);
+
+        if (type == MetricType.GAUGE) {
+            writeXors(out, values, size);
+        } else if (type == MetricType.COUNTER) {
+            writeDeltaOfDeltas(out, values, size, 0);
+        } else if (type == MetricType.AVAILABILITY) {
+            writeRuns(out, values, size);
+        }
+
+        out.flush();
+        return (ByteBuffer) out.getByteBuffer().flip();
+    }
+
+    private static void writeDeltaOfDeltas(BitOutput out, long[] values, int count, long reference) {
+        long previous = reference;
+        long previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = values[i] - previous;
+            writeSigned(out, delta - previousDelta);
+            previous = values[i];
+            previousDelta = delta;
+        }
+    }
+
+    private static void writeXors(BitOutput out, long[] values, int count) {
+        if (count == 0) {
+            return;
+        }
+        out.writeBits(values[0], 64);
+
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            long xor = values[i] ^ values[i - 1];
+            if (xor == 0) {
+                out.skipBit();
+                continue;
+            }
+            out.writeBit();
+
+            int leading = Long.numberOfLeadingZeros(xor);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading != -1 && leading >= previousLeading && trailing >= previousTrailing) {
+                // Meaningful bits fit inside the previous window
+                out.skipBit();
+                out.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                out.writeBit();
+                int significant = 64 - leading - trailing;
+                out.writeBits(leading, 6);
+                out.writeBits(significant - 1, 6);
+                out.writeBits(xor >>> trailing, significant);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    private static void writeRuns(BitOutput out, long[] values, int count) {
+        int i = 0;
+        while (i < count) {
+            int runEnd = i + 1;
+            while (runEnd < count && values[runEnd] == values[i]) {
+                runEnd++;
+            }
+            out.writeBits(values[i], 2);
+            writeSigned(out, runEnd - i - 1);
+            i = runEnd;
+        }
+    }
+
+    /**
+     * Writes a zigzag encoded value using a variable length prefix: 0, 10 + 7 bits, 110 + 12 bits, 1110 + 20 bits,
+     * 11110 + 32 bits and 11111 + 64 bits.
+     */
+    static void writeSigned(BitOutput out, long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        if (zigZag == 0) {
+            out.skipBit();
+        } else if (zigZag >>> 7 == 0) {
+            out.writeBits(0b10, 2);
+            out.writeBits(zigZag, 7);
+        } else if (zigZag >>> 12 == 0) {
+            out.writeBits(0b110, 3);
+            out.writeBits(zigZag, 12);
+        } else if (zigZag >>> 20 == 0) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(zigZag, 20);
+        } else if (zigZag >>> 32 == 0) {
+            out.writeBits(0b11110, 5);
+            out.writeBits(zigZag, 32);
+        } else {
+            out.writeBits(0b11111, 5);
+            out.writeBits(zigZag, 64);
+        }
+    }
+}
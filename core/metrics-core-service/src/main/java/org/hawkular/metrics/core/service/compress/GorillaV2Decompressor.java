@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+
+import fi.iki.yak.ts.compression.gorilla.BitInput;
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
+
+/**
+ * Decompressor for blocks written by {@link GorillaV2Compressor}. Timestamps are decoded when the decompressor is
+ * created, values are decoded by calling the method matching the metric type of the block.
+ */
+public class GorillaV2Decompressor {
+
+    private BitInput in;
+    private long[] timestamps;
+    private int size;
+
+    /**
+     * @param compressedValue Buffer positioned after the header byte
+     * @param header Header byte of the block
+     * @param blockStart Start time of the block
+     */
+    public GorillaV2Decompressor(ByteBuffer compressedValue, byte header, long blockStart) {
+        in = new ByteBufferBitInput(compressedValue);
+
+        long unit = 1;
+        if ((header & CompressorHeader.GorillaSettings.SECOND_PRECISION.getByteValue()) != 0) {
+            unit = 1000;
+        }
+
+        size = (int) readSigned(in);
+        timestamps = readDeltaOfDeltas(in, size, blockStart / unit);
+        if (unit > 1) {
+            for (int i = 0; i < size; i++) {
+                timestamps[i] *= unit;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    public double[] readDoubleValues() {
+        double[] values = new double[size];
+        if (size == 0) {
+            return values;
+        }
+        long previous = in.getLong(64);
+        values[0] = Double.longBitsToDouble(previous);
+
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < size; i++) {
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.getLong(6);
+                    trailing = 64 - leading - ((int) in.getLong(6) + 1);
+                }
+                previous ^= in.getLong(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+        return values;
+    }
+
+    public long[] readLongValues() {
+        return readDeltaOfDeltas(in, size, 0);
+    }
+
+    public byte[] readAvailabilityValues() {
+        byte[] values = new byte[size];
+        int i = 0;
+        while (i < size) {
+            byte code = (byte) in.getLong(2);
+            int runEnd = i + (int) readSigned(in) + 1;
+            while (i < runEnd) {
+                values[i++] = code;
+            }
+        }
+        return values;
+    }
+
+    private static long[] readDeltaOfDeltas(BitInput in, int count, long reference) {
+        long[] values = new long[count];
+        long previous = reference;
+        long previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = previousDelta + readSigned(in);
+            previous += delta;
+            values[i] = previous;
+            previousDelta = delta;
+        }
+        return values;
+    }
+
+    static long readSigned(BitInput in) {
+        long zigZag;
+        if (!in.readBit()) {
+            return 0;
+        } else if (!in.readBit()) {
+            zigZag = in.getLong(7);
+        } else if (!in.readBit()) {
+            zigZag = in.getLong(12);
+        } else if (!in.readBit()) {
+            zigZag = in.getLong(20);
+        } else if (!in.readBit()) {
+            zigZag = in.getLong(32);
+        } else {
+            zigZag = in.getLong(64);
+        }
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.compress;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with a bounded relative error. Values are counted in logarithmically sized bins, so the
+ * sketches of separate blocks can be merged without losing accuracy and the result does not depend on the order of
+ * the values.
+ *
+ * Values with an absolute value below {@link #MIN_INDEXABLE_VALUE} are counted as zeros. NaN and infinite values
+ * have no bin and are not counted. If the bins would cover more than {@link #MAX_BINS} indexes, the bins of the
+ * smallest absolute values are collapsed together.
+ */
+public class QuantileSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final double MIN_INDEXABLE_VALUE = 1e-9;
+    public static final int MAX_BINS = 2048;
+
+    private static final byte SERIALIZATION_VERSION = 0x01;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    private final Bins positive = new Bins();
+    private final Bins negative = new Bins();
+    private long zeroCount = 0;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public QuantileSketch(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value >= MIN_INDEXABLE_VALUE) {
+            positive.add(index(value), 1);
+        } else if (value <= -MIN_INDEXABLE_VALUE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+    }
+
+    /**
+     * Adds the values of another sketch to this one. Both sketches must have the same relative accuracy.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Can not merge sketches with relative accuracies of " +
+                    relativeAccuracy + " and " + other.relativeAccuracy);
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    public long getCount() {
+        return positive.total + negative.total + zeroCount;
+    }
+
+    /**
+     * @param quantile Between 0 and 1
+     * @return Estimated value of the quantile, NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1));
+
+        // Negative values from the largest absolute value to the smallest
+        if (rank < negative.total) {
+            long seen = 0;
+            for (int i = negative.counts.length - 1; i >= 0; i--) {
+                seen += negative.counts[i];
+                if (seen > rank) {
+                    return -value(negative.offset + i);
+                }
+            }
+        }
+        rank -= negative.total;
+
+        if (rank < zeroCount) {
+            return 0;
+        }
+        rank -= zeroCount;
+
+        long seen = 0;
+        for (int i = 0; i < positive.counts.length; i++) {
+            seen += positive.counts[i];
+            if (seen > rank) {
+                return value(positive.offset + i);
+            }
+        }
+        return value(positive.offset + positive.counts.length - 1);
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        // Middle of the bin, keeps the relative error of every value in the bin below the relative accuracy. Capped
+        // because the middle of the bin of the largest doubles overflows
+        return Math.min(2 * Math.pow(gamma, index) / (gamma + 1), Double.MAX_VALUE);
+    }
+
+    public ByteBuffer serialize() {
+        ByteBuffer bb = ByteBuffer.allocate(1 + 8 + 8 + positive.serializedSize() + negative.serializedSize());
+        bb.put(SERIALIZATION_VERSION);
+        bb.putDouble(relativeAccuracy);
+        bb.putLong(zeroCount);
+        positive.serialize(bb);
+        negative.serialize(bb);
+        return (ByteBuffer) bb.flip();
+    }
+
+    public static QuantileSketch deserialize(ByteBuffer bb) {
+        byte version = bb.get();
+        if (version != SERIALIZATION_VERSION) {
+            throw new IllegalArgumentException("Unknown quantile sketch version " + version);
+        }
+        QuantileSketch sketch = new QuantileSketch(bb.getDouble());
+        sketch.zeroCount = bb.getLong();
+        sketch.positive.deserialize(bb);
+        sketch.negative.deserialize(bb);
+        return sketch;
+    }
+
+    /**
+     * Dense bin counts, counts[i] holds the count of bin index offset + i.
+     */
+    private static class Bins {
+        private long[] counts = new long[0];
+        private int offset = 0;
+        private long total = 0;
+
+        void add(int index, long count) {
+            if (counts.length == 0) {
+                counts = new long[1];
+                offset = index;
+            } else if (index < offset) {
+                // Never more than MAX_BINS, an index below the collapsed bins is counted in the lowest bin
+                int grow = (int) Math.min((long) offset - index, MAX_BINS - counts.length);
+                if (grow > 0) {
+                    long[] grown = new long[counts.length + grow];
+                    System.arraycopy(counts, 0, grown, grow, counts.length);
+                    counts = grown;
+                    offset -= grow;
+                }
+                index = Math.max(index, offset);
+            } else if ((long) index - offset >= counts.length) {
+                long length = (long) index - offset + 1;
+                if (length > MAX_BINS) {
+                    collapse(index - MAX_BINS + 1);
+                } else {
+                    counts = Arrays.copyOf(counts, (int) length);
+                }
+            }
+            counts[index - offset] += count;
+            total += count;
+        }
+
+        /**
+         * Moves the lowest bin to newOffset, the counts of the bins below it are added to it.
+         */
+        private void collapse(int newOffset) {
+            long[] collapsed = new long[MAX_BINS];
+            for (int i = 0; i < counts.length; i++) {
+                collapsed[Math.max(offset + i - newOffset, 0)] += counts[i];
+            }
+            counts = collapsed;
+            offset = newOffset;
+        }
+
+        void merge(Bins other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] > 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        int serializedSize() {
+            int size = 4 + 4;
+            for (long count : counts) {
+                size += varLongSize(count);
+            }
+            return size;
+        }
+
+        void serialize(ByteBuffer bb) {
+            bb.putInt(offset);
+            bb.putInt(counts.length);
+            for (long count : counts) {
+                putVarLong(bb, count);
+            }
+        }
+
+        void deserialize(ByteBuffer bb) {
+            offset = bb.getInt();
+            counts = new long[bb.getInt()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = getVarLong(bb);
+                total += counts[i];
+            }
+        }
+    }
+
+    // Counts are mostly small, so they are stored as variable length 7 bit groups
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarLong(ByteBuffer bb, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bb.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bb.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer bb) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bb.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
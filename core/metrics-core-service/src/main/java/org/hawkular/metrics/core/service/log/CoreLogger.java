@@ -19,6 +19,7 @@ package org.hawkular.metrics.core.service.log;
 import static org.jboss.logging.Logger.Level.INFO;
 import static org.jboss.logging.Logger.Level.WARN;
 
+import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.annotations.Cause;
@@ -72,4 +73,46 @@ public interface CoreLogger extends BasicLogger {
     @Message(id = 100009, value = "Using max number of retries %d and max retry delay of %d ms for inserting data " +
             "points")
     void infoInsertRetryConfig(int maxRetries, long maxRetryDelay);
+
+    @LogMessage(level = INFO)
+    @Message(id = 100010, value = "Buffering ingested data points for up to %d ms or %d data points")
+    void infoIngestionBufferConfig(long window, int maxPoints);
+
+    @LogMessage(level = INFO)
+    @Message(id = 100011, value = "Registering the ids of existing metrics, metric listings scan the data tables " +
+            "until this is done")
+    void infoMetricRegistryBackfillStarted();
+
+    @LogMessage(level = INFO)
+    @Message(id = 100012, value = "Registered the ids of %d existing metrics")
+    void infoMetricRegistryBackfillFinished(long count);
+
+    @LogMessage(level = WARN)
+    @Message(id = 100013, value = "Failed to register the ids of existing metrics, metric listings keep scanning " +
+            "the data tables")
+    void warnMetricRegistryBackfillFailed(@Cause Throwable t);
+
+    @LogMessage(level = INFO)
+    @Message(id = 100014, value = "Writing ingested data points to head blocks, reads served from memory: %s")
+    void infoHeadBlockConfig(boolean inMemory);
+
+    @LogMessage(level = INFO)
+    @Message(id = 100015, value = "Caching the temp table data points of recent blocks in up to %d bytes, for %d s")
+    void infoRecentDataCacheConfig(long maxBytes, long ttl);
+
+    @LogMessage(level = INFO)
+    @Message(id = 100016, value = "Caching final compressed blocks in up to %d bytes, for %d s")
+    void infoBlockCacheConfig(long maxBytes, long ttl);
+
+    @LogMessage(level = INFO)
+    @Message(id = 100017, value = "Indexing the latest data points, caching up to %d of them for %d s")
+    void infoLatestDataConfig(long cacheSize, long ttl);
+
+    @LogMessage(level = WARN)
+    @Message(id = 100018, value = "Failed to write the latest data points of %d metrics")
+    void warnLatestDataWriteFailed(int metrics, @Cause Throwable t);
+
+    @LogMessage(level = WARN)
+    @Message(id = 100019, value = "Failed to register the id of metric %s, it is registered with its next data points")
+    void warnMetricRegistrationFailed(MetricId<?> id, @Cause Throwable t);
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.rollup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.Interval;
+import org.joda.time.Duration;
+
+/**
+ * The resolutions of the pre-computed numeric aggregates. Each rollup row holds the summary of the data points of
+ * one interval, the intervals are aligned to the epoch. The hour rollups are written by the compression job with
+ * each block, the day rollups are merged from the block summaries once the last block of the day has been
+ * compressed. There are no rollups shorter than an hour, buckets shorter than a block are computed from the data
+ * points of the blocks.
+ */
+public enum RollupTier {
+
+    HOUR(Interval.parse("1hr"), Duration.standardHours(1), Duration.standardDays(180)),
+
+    DAY(Interval.parse("1d"), Duration.standardDays(1), Duration.standardDays(730));
+
+    private static final List<RollupTier> COARSEST_FIRST;
+
+    static {
+        List<RollupTier> tiers = Arrays.asList(values());
+        Collections.reverse(tiers);
+        COARSEST_FIRST = Collections.unmodifiableList(tiers);
+    }
+
+    private final Interval interval;
+    private final long length;
+    private final int defaultTTL;
+
+    RollupTier(Interval interval, Duration length, Duration defaultTTL) {
+        this.interval = interval;
+        this.length = length.getMillis();
+        this.defaultTTL = defaultTTL.toStandardSeconds().getSeconds();
+    }
+
+    public Interval getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return The length of a single rollup interval in milliseconds
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return The value of the rollup column, the length of the interval in seconds
+     */
+    public int getSeconds() {
+        return (int) (length / 1000);
+    }
+
+    /**
+     * @return The TTL in seconds used when the tier's TTL is not configured
+     */
+    public int getDefaultTTL() {
+        return defaultTTL;
+    }
+
+    /**
+     * @return The start of the interval the timestamp belongs to
+     */
+    public long getIntervalStart(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, length);
+    }
+
+    /**
+     * Picks the coarsest tier whose intervals never cross a bucket boundary, that is the bucket step is a multiple of
+     * the interval length and the buckets start at an interval boundary.
+     *
+     * @return The coarsest usable tier or null if the buckets are not aligned with any of the tiers
+     */
+    public static RollupTier select(Buckets buckets) {
+        for (RollupTier tier : COARSEST_FIRST) {
+            if (buckets.getStep() % tier.length == 0 && buckets.getStart() % tier.length == 0) {
+                return tier;
+            }
+        }
+        return null;
+    }
+}
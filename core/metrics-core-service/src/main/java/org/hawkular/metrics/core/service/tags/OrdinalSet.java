@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Set of metric ordinals of a {@link TenantTagIndex} posting list. Most tag values, like pod ids, are shared by a
+ * handful of metrics, so small sets are kept as a sorted array and only sets that would use more memory that way
+ * are converted to a bitmap.
+ */
+class OrdinalSet {
+
+    /**
+     * Past this size a sorted array takes more memory than a bitmap of 2^17 metrics.
+     */
+    static final int MAX_ARRAY_SIZE = 4096;
+
+    private int[] ordinals = new int[2];
+
+    private int size;
+
+    private BitSet bits;
+
+    void add(int ordinal) {
+        if (bits != null) {
+            if (!bits.get(ordinal)) {
+                bits.set(ordinal);
+                size++;
+            }
+            return;
+        }
+        int i = Arrays.binarySearch(ordinals, 0, size, ordinal);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        if (size == MAX_ARRAY_SIZE) {
+            BitSet converted = new BitSet();
+            orInto(converted);
+            converted.set(ordinal);
+            bits = converted;
+            ordinals = null;
+            size++;
+            return;
+        }
+        if (size == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, Math.min(MAX_ARRAY_SIZE, size * 2));
+        }
+        System.arraycopy(ordinals, i, ordinals, i + 1, size - i);
+        ordinals[i] = ordinal;
+        size++;
+    }
+
+    void remove(int ordinal) {
+        if (bits != null) {
+            if (bits.get(ordinal)) {
+                bits.clear(ordinal);
+                size--;
+            }
+            return;
+        }
+        int i = Arrays.binarySearch(ordinals, 0, size, ordinal);
+        if (i >= 0) {
+            System.arraycopy(ordinals, i + 1, ordinals, i, size - i - 1);
+            size--;
+        }
+    }
+
+    boolean contains(int ordinal) {
+        return bits != null ? bits.get(ordinal) : Arrays.binarySearch(ordinals, 0, size, ordinal) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void orInto(BitSet target) {
+        if (bits != null) {
+            target.or(bits);
+        } else {
+            for (int i = 0; i < size; i++) {
+                target.set(ordinals[i]);
+            }
+        }
+    }
+
+    boolean intersects(BitSet other) {
+        if (bits != null) {
+            return bits.intersects(other);
+        }
+        for (int i = 0; i < size; i++) {
+            if (other.get(ordinals[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    BitSet toBitSet() {
+        BitSet result = new BitSet();
+        orInto(result);
+        return result;
+    }
+}
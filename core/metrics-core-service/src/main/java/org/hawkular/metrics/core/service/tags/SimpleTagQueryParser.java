@@ -20,6 +20,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -28,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import org.hawkular.metrics.core.service.DataAccess;
@@ -62,6 +64,7 @@ public class SimpleTagQueryParser {
     private boolean enableACostQueries;
     private int pageSize;
     private int pageThreshold;
+    private TagIndex tagIndex;
 
     public SimpleTagQueryParser(DataAccess dataAccess, MetricsService metricsService, boolean disableACostQueries,
             int pageSize, int pageThreshold) {
@@ -72,6 +75,13 @@ public class SimpleTagQueryParser {
         this.pageThreshold = pageThreshold;
     }
 
+    /**
+     * @param tagIndex when not null, queries are evaluated against the in-memory index instead of Cassandra
+     */
+    public void setTagIndex(TagIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
     static class Query {
         private String tagName;
         private String tagValueMatcher;
@@ -236,6 +246,10 @@ public class SimpleTagQueryParser {
         logger.debugf("Preparing to optimize and execute %s for tenant %s and for metric type %s", tagsQueries,
                 tenantId, metricType);
 
+        if (tagIndex != null) {
+            return findWithIndex(tenantId, metricType, tagsQueries);
+        }
+
         Map<Long, List<Query>> costSortedMap =
                 QueryOptimizer.reOrderTagsQuery(tagsQueries, enableACostQueries);
 
@@ -417,9 +431,8 @@ public class SimpleTagQueryParser {
                     .compose(new TagsIndexRowTransformerFilter<>(metricType))
                     .filter(mId -> mId.getTenantId().equals(tenantId));
 
-            Observable<MetricId<?>> dataMetrics = metricsService.findAllMetricIdentifiers()
-                    .filter(m -> m.getTenantId().equals(tenantId))
-                    .filter(metricTypeFilter(metricType));
+            Observable<? extends MetricId<?>> dataMetrics = metricsService.findMetricIdentifiers(tenantId,
+                    metricType);
 
             AtomicLong count = new AtomicLong();
             groupMetrics = applyCFilters(
@@ -438,6 +451,71 @@ public class SimpleTagQueryParser {
         return groupMetrics;
     }
 
+    /**
+     * Evaluates the tag queries with the same semantics as the Cassandra based path, but against the in-memory
+     * {@link TagIndex}. Metrics which have data but no definition in metrics_idx are not part of the index, so when
+     * only tag absence is queried, those are added the same way as in the Option C path above.
+     */
+    private Observable<MetricId<?>> findWithIndex(String tenantId, MetricType<?> metricType,
+            Map<String, String> tagsQueries) {
+        List<Function<TenantTagIndex, BitSet>> filters = new ArrayList<>(tagsQueries.size());
+        List<String> absentTags = new ArrayList<>();
+
+        for (Map.Entry<String, String> tagQuery : tagsQueries.entrySet()) {
+            String tagName = tagQuery.getKey();
+            String tagValue = tagQuery.getValue();
+            if (tagName.startsWith("!")) {
+                absentTags.add(tagName.substring(1));
+            } else if (enableACostQueries && !QueryOptimizer.isRegExp(tagValue)) {
+                filters.add(index -> index.withValue(tagName, tagValue));
+            } else if (QueryOptimizer.optimalStrategy(tagValue) == QueryOptimizer.RegExpOptimizer.OR_SINGLE_SEEK) {
+                String[] values = tagValue.split("\\|");
+                filters.add(index -> {
+                    BitSet result = new BitSet();
+                    for (String value : values) {
+                        result.or(index.withValue(tagName, value));
+                    }
+                    return result;
+                });
+            } else {
+                boolean positive = (!tagValue.startsWith("!"));
+                Pattern p = PatternUtil.filterPattern(tagValue);
+                filters.add(index -> index.matching(tagName, v -> positive == p.matcher(v).matches())); // XNOR
+            }
+        }
+
+        Function<TenantTagIndex, BitSet> query = index -> {
+            BitSet result = null;
+            for (Function<TenantTagIndex, BitSet> filter : filters) {
+                if (result == null) {
+                    result = filter.apply(index);
+                } else {
+                    result.and(filter.apply(index));
+                }
+                if (result.isEmpty()) {
+                    return result;
+                }
+            }
+            if (result == null) {
+                result = index.all();
+            }
+            for (String absentTag : absentTags) {
+                result.andNot(index.withTag(absentTag));
+            }
+            return result;
+        };
+
+        return tagIndex.get(tenantId).flatMap(index -> {
+            Observable<MetricId<?>> indexed = Observable.from(index.query(metricType, query));
+            if (!filters.isEmpty()) {
+                return indexed;
+            }
+            Observable<? extends MetricId<?>> dataMetrics = metricsService.findMetricIdentifiers(tenantId, metricType)
+                    .filter(m -> !index.contains(m));
+            return indexed.concatWith(dataMetrics).distinct();
+        });
+    }
+
     private void logQuery(String tenantId, Query query, String queryType, Set<? extends MetricId<?>> metricIds) {
         // If debug is enabled, then always log the query info; otherwise, only log query info if the page threshold
         // is exceeded so as to avoid spamming the log file. The page threshold is a simple mechanism to let us know
@@ -471,6 +549,9 @@ public class SimpleTagQueryParser {
 
     public Observable<Map<String, Set<String>>> getTagValues(String tenantId, MetricType<?> metricType,
                                                              Map<String, String> tagsQueries) {
+        if (tagIndex != null) {
+            return tagIndex.get(tenantId).map(index -> index.tagValues(metricType, tagsQueries));
+        }
 
         // Row: 0 = type, 1 = metricName, 2 = tagValue, e.getKey = tagName, e.getValue = regExp
         return Observable.from(tagsQueries.entrySet())
@@ -526,6 +607,12 @@ public class SimpleTagQueryParser {
     }
 
     public Observable<String> getTagNames(String tenantId, MetricType<?> metricType, String filter) {
+        if (tagIndex != null) {
+            Func1<String, Boolean> nameFilter = tagNameFilter(filter);
+            return tagIndex.get(tenantId)
+                    .flatMapIterable(index -> index.tagNames(metricType, nameFilter::call));
+        }
+
         Observable<String> tagNames;
         if(metricType == null) {
             tagNames = dataAccess.getTagNames()
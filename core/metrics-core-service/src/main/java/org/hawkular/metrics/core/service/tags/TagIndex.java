@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.jboss.logging.Logger;
+
+import rx.Observable;
+
+/**
+ * Optional in-memory inverted tag indexes, one per tenant, used by the tag query parsers instead of reading the tag
+ * index tables. The index of a tenant is loaded from metrics_idx by its first query and kept current by the tag
+ * write paths of this node. Changes made through other nodes are picked up by reloading the index in the background
+ * once it is older than the configured TTL; queries keep using the previous index until the reload completes.
+ * <p>
+ * The indexes also serve the tag name and tag value listings, which are otherwise read from the tag index tables on
+ * every call.
+ */
+public class TagIndex {
+
+    private static final Logger logger = Logger.getLogger(TagIndex.class);
+
+    private final DataAccess dataAccess;
+
+    private final long ttl;
+
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    public TagIndex(DataAccess dataAccess, long ttl, TimeUnit unit) {
+        this.dataAccess = dataAccess;
+        this.ttl = unit.toMillis(ttl);
+    }
+
+    Observable<TenantTagIndex> get(String tenantId) {
+        Tenant tenant = tenants.computeIfAbsent(tenantId, Tenant::new);
+        TenantTagIndex current = tenant.current;
+        if (current == null) {
+            return tenant.firstLoad;
+        }
+        if (System.currentTimeMillis() - tenant.loadedAt > ttl && tenant.reloading.compareAndSet(false, true)) {
+            tenant.reload();
+        }
+        return Observable.just(current);
+    }
+
+    public void metricCreated(Metric<?> metric) {
+        forEachIndex(metric.getMetricId().getTenantId(), index -> index.setTags(metric.getMetricId(),
+                metric.getTags()));
+    }
+
+    public void tagsAdded(MetricId<?> id, Map<String, String> tags) {
+        forEachIndex(id.getTenantId(), index -> index.addTags(id, tags));
+    }
+
+    public void tagsDeleted(MetricId<?> id, Set<String> tagNames) {
+        forEachIndex(id.getTenantId(), index -> index.deleteTags(id, tagNames));
+    }
+
+    public void metricDeleted(MetricId<?> id) {
+        forEachIndex(id.getTenantId(), index -> index.remove(id));
+    }
+
+    private void forEachIndex(String tenantId, Consumer<TenantTagIndex> update) {
+        Tenant tenant = tenants.get(tenantId);
+        if (tenant == null) {
+            // Not loaded yet, the change will be read from Cassandra
+            return;
+        }
+        TenantTagIndex current = tenant.current;
+        TenantTagIndex pending = tenant.pending;
+        if (current != null) {
+            update.accept(current);
+        }
+        if (pending != null && pending != current) {
+            update.accept(pending);
+        }
+    }
+
+    private Observable<TenantTagIndex> load(String tenantId, TenantTagIndex index) {
+        return Observable.from(MetricType.userTypes())
+                .concatMap(type -> dataAccess.findMetricsInMetricsIndex(tenantId, type)
+                        .doOnNext(row -> index.load(new MetricId<>(tenantId, type, row.getString(0)),
+                                row.getMap(1, String.class, String.class))))
+                .ignoreElements()
+                .map(row -> index)
+                .concatWith(Observable.defer(() -> {
+                    index.loaded();
+                    return Observable.just(index);
+                }));
+    }
+
+    private class Tenant {
+        private final String tenantId;
+        private final Observable<TenantTagIndex> firstLoad;
+        private final AtomicBoolean reloading = new AtomicBoolean();
+        private volatile TenantTagIndex current;
+        private volatile TenantTagIndex pending;
+        private volatile long loadedAt;
+
+        Tenant(String tenantId) {
+            this.tenantId = tenantId;
+            TenantTagIndex index = new TenantTagIndex();
+            pending = index;
+            firstLoad = load(tenantId, index)
+                    .doOnNext(this::swap)
+                    .doOnError(t -> {
+                        logger.warnf(t, "Failed to load the tag index of tenant %s", tenantId);
+                        tenants.remove(tenantId, this);
+                    })
+                    .cache();
+        }
+
+        void reload() {
+            TenantTagIndex index = new TenantTagIndex();
+            pending = index;
+            load(tenantId, index).subscribe(
+                    this::swap,
+                    t -> {
+                        logger.warnf(t, "Failed to reload the tag index of tenant %s", tenantId);
+                        pending = null;
+                        reloading.set(false);
+                    },
+                    () -> reloading.set(false));
+        }
+
+        private void swap(TenantTagIndex index) {
+            current = index;
+            pending = null;
+            loadedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.transformers.MetricIdFromMetricIndexRowTransformer;
+import org.hawkular.metrics.core.service.transformers.TagsIndexRowTransformerFilter;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+import rx.Observable;
+
+/**
+ * Evaluates a {@link TagQueryPlan} against the tag index tables. Every node evaluates to a list of metric ids sorted
+ * with {@link #ORDER}, so that AND and OR are merges of sorted lists instead of grouping the ids of both sides.
+ * <p>
+ * The operands of an AND are evaluated most selective first. Once few metrics are left, fetching their definitions
+ * and testing their tags is cheaper than reading the index rows of the remaining operands, so these are only probed
+ * for the surviving metrics.
+ */
+class TagQueryExecutor<T> {
+
+    /**
+     * Metric ids of a tenant in type, then name order.
+     */
+    static final Comparator<MetricId<?>> ORDER = Comparator.<MetricId<?>>comparingInt(id -> id.getType().getCode())
+            .thenComparing(MetricId::getName);
+
+    /**
+     * Relative cost of fetching a metric definition compared to reading one index row, which is paged. The
+     * definitions are read from metrics_idx rather than through the definition cache, so that probes see the current
+     * tags like the tags index does.
+     */
+    static final long PROBE_COST = 10;
+
+    private static final int PROBE_CONCURRENCY = 64;
+
+    private final DataAccess dataAccess;
+    private final String tenantId;
+    private final MetricType<T> metricType;
+
+    TagQueryExecutor(DataAccess dataAccess, String tenantId, MetricType<T> metricType) {
+        this.dataAccess = dataAccess;
+        this.tenantId = tenantId;
+        this.metricType = metricType;
+    }
+
+    Observable<MetricId<T>> execute(TagQueryPlan plan) {
+        return evaluate(plan).flatMapIterable(ids -> ids);
+    }
+
+    private Observable<List<MetricId<T>>> evaluate(TagQueryPlan plan) {
+        if (plan instanceof TagQueryPlan.And) {
+            return evaluateAnd(((TagQueryPlan.And) plan).getOrderedOperands());
+        } else if (plan instanceof TagQueryPlan.Or) {
+            return Observable.from(((TagQueryPlan.Or) plan).getOperands())
+                    .flatMap(this::evaluate)
+                    .reduce(TagQueryExecutor::union);
+        }
+        return fetch((TagQueryPlan.Leaf) plan);
+    }
+
+    private Observable<List<MetricId<T>>> evaluateAnd(List<TagQueryPlan> operands) {
+        return evaluate(operands.get(0)).flatMap(survivors -> filter(survivors, operands.subList(1, operands.size())));
+    }
+
+    private Observable<List<MetricId<T>>> filter(List<MetricId<T>> survivors, List<TagQueryPlan> operands) {
+        if (survivors.isEmpty() || operands.isEmpty()) {
+            return Observable.just(survivors);
+        }
+        TagQueryPlan next = operands.get(0);
+        if (survivors.size() * PROBE_COST < next.estimate()) {
+            return probe(survivors, new TagQueryPlan.And(operands));
+        }
+        return evaluate(next)
+                .flatMap(ids -> filter(intersect(survivors, ids), operands.subList(1, operands.size())));
+    }
+
+    private Observable<List<MetricId<T>>> probe(List<MetricId<T>> survivors, TagQueryPlan plan) {
+        return Observable.from(survivors)
+                .concatMapEager(id -> dataAccess.findMetricInMetricsIndex(id)
+                        .filter(row -> plan.test(row.getMap(1, String.class, String.class)))
+                        .map(row -> id), PROBE_CONCURRENCY, PROBE_CONCURRENCY)
+                .toList();
+    }
+
+    private Observable<List<MetricId<T>>> fetch(TagQueryPlan.Leaf leaf) {
+        Observable<MetricId<T>> ids;
+        if (leaf.isAbsent()) {
+            ids = Observable.from(types())
+                    .concatMap(type -> fetchAbsent(leaf, type));
+        } else if (leaf.getValues() != null) {
+            ids = dataAccess.findMetricsByTagNameValue(tenantId, leaf.getTagName(),
+                    leaf.getValues().toArray(new String[leaf.getValues().size()]))
+                    .compose(new TagsIndexRowTransformerFilter<>(metricType));
+        } else {
+            ids = dataAccess.findMetricsByTagName(tenantId, leaf.getTagName())
+                    .filter(row -> leaf.getValuePredicate() == null || leaf.getValuePredicate().test(row.getString(3)))
+                    .compose(new TagsIndexRowTransformerFilter<>(metricType));
+        }
+        return ids.toSortedList(ORDER::compare).map(TagQueryExecutor::dedupe);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Observable<MetricId<T>> fetchAbsent(TagQueryPlan.Leaf leaf, MetricType<?> type) {
+        return dataAccess.findMetricsInMetricsIndex(tenantId, type)
+                .filter(row -> !row.getMap(1, String.class, String.class).containsKey(leaf.getTagName()))
+                .compose(new MetricIdFromMetricIndexRowTransformer(tenantId, type));
+    }
+
+    private List<MetricType<?>> types() {
+        List<MetricType<?>> types = new ArrayList<>();
+        if (metricType == null) {
+            types.addAll(MetricType.userTypes());
+        } else {
+            types.add(metricType);
+        }
+        return types;
+    }
+
+    private static <T> List<MetricId<T>> dedupe(List<MetricId<T>> sorted) {
+        List<MetricId<T>> result = new ArrayList<>(sorted.size());
+        for (MetricId<T> id : sorted) {
+            if (result.isEmpty() || ORDER.compare(result.get(result.size() - 1), id) != 0) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    static <T> List<MetricId<T>> intersect(List<MetricId<T>> left, List<MetricId<T>> right) {
+        List<MetricId<T>> result = new ArrayList<>(Math.min(left.size(), right.size()));
+        int i = 0;
+        int j = 0;
+        while (i < left.size() && j < right.size()) {
+            int c = ORDER.compare(left.get(i), right.get(j));
+            if (c == 0) {
+                result.add(left.get(i));
+                i++;
+                j++;
+            } else if (c < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    static <T> List<MetricId<T>> union(List<MetricId<T>> left, List<MetricId<T>> right) {
+        List<MetricId<T>> result = new ArrayList<>(left.size() + right.size());
+        int i = 0;
+        int j = 0;
+        while (i < left.size() || j < right.size()) {
+            int c;
+            if (i == left.size()) {
+                c = 1;
+            } else if (j == right.size()) {
+                c = -1;
+            } else {
+                c = ORDER.compare(left.get(i), right.get(j));
+            }
+            if (c <= 0) {
+                result.add(left.get(i++));
+                if (c == 0) {
+                    j++;
+                }
+            } else {
+                result.add(right.get(j++));
+            }
+        }
+        return result;
+    }
+}
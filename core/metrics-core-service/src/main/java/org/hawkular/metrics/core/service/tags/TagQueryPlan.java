@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Plan of a tag query of the expression tag query language. Leaves are the tag pairs of the query, inner nodes the
+ * AND and OR operators. Nested operators of the same kind are flattened, so that an AND node can order all its
+ * operands by their estimated cardinality and evaluate the most selective one first.
+ */
+abstract class TagQueryPlan {
+
+    /**
+     * Estimated number of metrics sharing a tag value. A lookup by tag value reads a single partition of
+     * metrics_tags_idx.
+     */
+    static final long VALUE_CARDINALITY = 10;
+
+    /**
+     * Estimated number of metrics having a tag. Any other tag predicate reads all the values of the tag name.
+     */
+    static final long TAG_CARDINALITY = 1000;
+
+    /**
+     * Estimated number of metrics of a tenant. Tag absence can only be evaluated by reading all of metrics_idx.
+     */
+    static final long TENANT_CARDINALITY = 100_000;
+
+    static final Comparator<TagQueryPlan> BY_ESTIMATE = Comparator.comparingLong(TagQueryPlan::estimate);
+
+    private static final Pattern REGEXP_CHARS = Pattern.compile("[.\\[\\]{}()\\\\*+?^$|]|^!");
+
+    /**
+     * @return the estimated number of metrics matching this plan, only meaningful relative to other plans
+     */
+    abstract long estimate();
+
+    /**
+     * @return true if a metric with the given tags matches this plan
+     */
+    abstract boolean test(Map<String, String> tags);
+
+    abstract BitSet evaluate(TenantTagIndex index);
+
+    static TagQueryPlan and(TagQueryPlan left, TagQueryPlan right) {
+        List<TagQueryPlan> operands = new ArrayList<>();
+        addOperands(operands, left, And.class);
+        addOperands(operands, right, And.class);
+        return new And(operands);
+    }
+
+    static TagQueryPlan or(TagQueryPlan left, TagQueryPlan right) {
+        List<TagQueryPlan> operands = new ArrayList<>();
+        addOperands(operands, left, Or.class);
+        addOperands(operands, right, Or.class);
+        return new Or(operands);
+    }
+
+    private static void addOperands(List<TagQueryPlan> operands, TagQueryPlan plan,
+            Class<? extends Operator> operator) {
+        if (operator.isInstance(plan)) {
+            operands.addAll(((Operator) plan).operands);
+        } else {
+            operands.add(plan);
+        }
+    }
+
+    /**
+     * @return true if {@code value} only matches itself when used as a pattern, so it can be looked up directly
+     */
+    static boolean isLiteral(String value) {
+        return !REGEXP_CHARS.matcher(value).find();
+    }
+
+    /**
+     * A single tag pair of the query.
+     */
+    static class Leaf extends TagQueryPlan {
+        private final String tagName;
+        private final List<String> values;
+        private final Predicate<String> valuePredicate;
+        private final boolean absent;
+
+        private Leaf(String tagName, List<String> values, Predicate<String> valuePredicate, boolean absent) {
+            this.tagName = tagName;
+            this.values = values;
+            this.valuePredicate = valuePredicate;
+            this.absent = absent;
+        }
+
+        /**
+         * Metrics having the tag, whatever its value.
+         */
+        static Leaf tag(String tagName) {
+            return new Leaf(tagName, null, null, false);
+        }
+
+        /**
+         * Metrics not having the tag.
+         */
+        static Leaf absent(String tagName) {
+            return new Leaf(tagName, null, null, true);
+        }
+
+        /**
+         * Metrics having the tag with one of the given values.
+         */
+        static Leaf values(String tagName, List<String> values) {
+            return new Leaf(tagName, values, values::contains, false);
+        }
+
+        /**
+         * Metrics having the tag with a value accepted by {@code valuePredicate}.
+         */
+        static Leaf matching(String tagName, Predicate<String> valuePredicate) {
+            return new Leaf(tagName, null, valuePredicate, false);
+        }
+
+        String getTagName() {
+            return tagName;
+        }
+
+        /**
+         * @return the values to look up, null if the leaf cannot be evaluated by looking up tag values
+         */
+        List<String> getValues() {
+            return values;
+        }
+
+        /**
+         * @return the predicate on the tag value, null if any value matches
+         */
+        Predicate<String> getValuePredicate() {
+            return valuePredicate;
+        }
+
+        boolean isAbsent() {
+            return absent;
+        }
+
+        @Override
+        long estimate() {
+            if (values != null) {
+                return Math.min(TAG_CARDINALITY, values.size() * VALUE_CARDINALITY);
+            }
+            return absent ? TENANT_CARDINALITY : TAG_CARDINALITY;
+        }
+
+        @Override
+        boolean test(Map<String, String> tags) {
+            String value = tags.get(tagName);
+            if (absent) {
+                return value == null;
+            }
+            return value != null && (valuePredicate == null || valuePredicate.test(value));
+        }
+
+        @Override
+        BitSet evaluate(TenantTagIndex index) {
+            if (absent) {
+                BitSet result = index.all();
+                result.andNot(index.withTag(tagName));
+                return result;
+            } else if (values != null) {
+                BitSet result = new BitSet();
+                for (String value : values) {
+                    result.or(index.withValue(tagName, value));
+                }
+                return result;
+            } else if (valuePredicate != null) {
+                return index.matching(tagName, valuePredicate);
+            }
+            return index.withTag(tagName);
+        }
+    }
+
+    abstract static class Operator extends TagQueryPlan {
+        final List<TagQueryPlan> operands;
+
+        Operator(List<TagQueryPlan> operands) {
+            this.operands = Collections.unmodifiableList(operands);
+        }
+
+        List<TagQueryPlan> getOperands() {
+            return operands;
+        }
+    }
+
+    static class And extends Operator {
+
+        And(List<TagQueryPlan> operands) {
+            super(operands);
+        }
+
+        /**
+         * @return the operands, most selective first
+         */
+        List<TagQueryPlan> getOrderedOperands() {
+            List<TagQueryPlan> ordered = new ArrayList<>(operands);
+            ordered.sort(BY_ESTIMATE);
+            return ordered;
+        }
+
+        @Override
+        long estimate() {
+            return operands.stream().mapToLong(TagQueryPlan::estimate).min().orElse(0);
+        }
+
+        @Override
+        boolean test(Map<String, String> tags) {
+            for (TagQueryPlan operand : operands) {
+                if (!operand.test(tags)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        BitSet evaluate(TenantTagIndex index) {
+            BitSet result = null;
+            for (TagQueryPlan operand : getOrderedOperands()) {
+                if (result == null) {
+                    result = operand.evaluate(index);
+                } else {
+                    result.and(operand.evaluate(index));
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+
+    static class Or extends Operator {
+
+        Or(List<TagQueryPlan> operands) {
+            super(operands);
+        }
+
+        @Override
+        long estimate() {
+            return Math.min(TENANT_CARDINALITY, operands.stream().mapToLong(TagQueryPlan::estimate).sum());
+        }
+
+        @Override
+        boolean test(Map<String, String> tags) {
+            for (TagQueryPlan operand : operands) {
+                if (operand.test(tags)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        BitSet evaluate(TenantTagIndex index) {
+            BitSet result = new BitSet();
+            for (TagQueryPlan operand : operands) {
+                result.or(operand.evaluate(index));
+            }
+            return result;
+        }
+    }
+}
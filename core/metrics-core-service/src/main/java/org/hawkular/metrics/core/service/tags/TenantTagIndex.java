@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.hawkular.metrics.core.service.PatternUtil;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+
+/**
+ * Inverted index of the tags of the metrics of one tenant: tag name -> tag value -> set of metric ordinals. Every
+ * metric in metrics_idx gets an ordinal, so tag queries are answered with bitmap operations instead of reading and
+ * filtering the tag index tables row by row, and a regular expression is evaluated once per distinct tag value
+ * instead of once per metric.
+ * <p>
+ * Tag names and values are kept sorted, so the index also serves as a catalog of the tenant's tags for listing tag
+ * names and looking up tag values by prefix.
+ */
+class TenantTagIndex {
+
+    private final List<MetricId<?>> ids = new ArrayList<>();
+
+    private final List<Map<String, String>> tags = new ArrayList<>();
+
+    private final Map<MetricId<?>, Integer> ordinals = new HashMap<>();
+
+    private final NavigableMap<String, NavigableMap<String, OrdinalSet>> postings = new TreeMap<>();
+
+    private final BitSet live = new BitSet();
+
+    private final Map<MetricType<?>, BitSet> types = new HashMap<>();
+
+    /**
+     * Metrics changed while the index is loaded, the rows read from Cassandra for them are outdated.
+     */
+    private Set<MetricId<?>> changedWhileLoading = new HashSet<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds a metric read from metrics_idx, unless it has been changed through this node since the load started.
+     */
+    void load(MetricId<?> id, Map<String, String> metricTags) {
+        lock.writeLock().lock();
+        try {
+            if (changedWhileLoading != null && !changedWhileLoading.contains(id)) {
+                put(id, metricTags, false);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void loaded() {
+        lock.writeLock().lock();
+        try {
+            changedWhileLoading = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void setTags(MetricId<?> id, Map<String, String> metricTags) {
+        update(id, () -> put(id, metricTags, false));
+    }
+
+    void addTags(MetricId<?> id, Map<String, String> newTags) {
+        update(id, () -> put(id, newTags, true));
+    }
+
+    void deleteTags(MetricId<?> id, Collection<String> tagNames) {
+        update(id, () -> {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal != null && live.get(ordinal)) {
+                Map<String, String> metricTags = new HashMap<>(tags.get(ordinal));
+                metricTags.keySet().removeAll(tagNames);
+                put(id, metricTags, false);
+            }
+        });
+    }
+
+    void remove(MetricId<?> id) {
+        update(id, () -> {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal != null) {
+                unindex(ordinal);
+                live.clear(ordinal);
+            }
+        });
+    }
+
+    private void update(MetricId<?> id, Runnable update) {
+        lock.writeLock().lock();
+        try {
+            if (changedWhileLoading != null) {
+                changedWhileLoading.add(id);
+            }
+            update.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void put(MetricId<?> id, Map<String, String> metricTags, boolean merge) {
+        Integer ordinal = ordinals.get(id);
+        Map<String, String> newTags;
+        if (ordinal == null) {
+            ordinal = ids.size();
+            ids.add(id);
+            tags.add(Collections.emptyMap());
+            ordinals.put(id, ordinal);
+            types.computeIfAbsent(id.getType(), type -> new BitSet()).set(ordinal);
+            newTags = new HashMap<>(metricTags);
+        } else {
+            newTags = merge ? new HashMap<>(tags.get(ordinal)) : new HashMap<>();
+            newTags.putAll(metricTags);
+            unindex(ordinal);
+        }
+        tags.set(ordinal, newTags);
+        live.set(ordinal);
+        for (Map.Entry<String, String> tag : newTags.entrySet()) {
+            postings.computeIfAbsent(tag.getKey(), name -> new TreeMap<>())
+                    .computeIfAbsent(tag.getValue(), value -> new OrdinalSet())
+                    .add(ordinal);
+        }
+    }
+
+    private void unindex(int ordinal) {
+        for (Map.Entry<String, String> tag : tags.get(ordinal).entrySet()) {
+            Map<String, OrdinalSet> values = postings.get(tag.getKey());
+            OrdinalSet set = values.get(tag.getValue());
+            set.remove(ordinal);
+            if (set.isEmpty()) {
+                values.remove(tag.getValue());
+                if (values.isEmpty()) {
+                    postings.remove(tag.getKey());
+                }
+            }
+        }
+        tags.set(ordinal, Collections.emptyMap());
+    }
+
+    /**
+     * Evaluates {@code query} against a consistent view of the index.
+     *
+     * @param type type of the metrics to return, null for all the user types
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<MetricId<T>> query(MetricType<T> type, Function<TenantTagIndex, BitSet> query) {
+        lock.readLock().lock();
+        try {
+            BitSet result = query.apply(this);
+            result.and(live);
+            List<MetricId<T>> found = new ArrayList<>(result.cardinality());
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                MetricId<?> id = ids.get(i);
+                if ((type == null && id.getType().isUserType()) || id.getType() == type) {
+                    found.add((MetricId<T>) id);
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param type   type of the metrics whose tags are listed, null for all the user types
+     * @param filter filter of the tag names
+     * @return the sorted names of the tags of live metrics
+     */
+    List<String> tagNames(MetricType<?> type, Predicate<String> filter) {
+        lock.readLock().lock();
+        try {
+            BitSet metrics = ofType(type);
+            List<String> names = new ArrayList<>();
+            for (Map.Entry<String, NavigableMap<String, OrdinalSet>> tag : postings.entrySet()) {
+                if (filter.test(tag.getKey()) && tag.getValue().values().stream().anyMatch(
+                        set -> set.intersects(metrics))) {
+                    names.add(tag.getKey());
+                }
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the values of the queried tags, for the metrics having all of them with a value matching the query.
+     *
+     * @param type    type of the metrics, null for all the user types
+     * @param queries tag name -> regular expression of the tag values, negated when starting with !
+     * @return tag name -> sorted matching values, only for the tags having any
+     */
+    Map<String, Set<String>> tagValues(MetricType<?> type, Map<String, String> queries) {
+        lock.readLock().lock();
+        try {
+            // The tags with the fewest metrics reduce the candidates the most, evaluate these first
+            List<Map.Entry<String, String>> ordered = new ArrayList<>(queries.entrySet());
+            ordered.sort(Comparator.comparingLong(query -> cardinality(query.getKey())));
+
+            BitSet metrics = ofType(type);
+            Map<String, Map<String, OrdinalSet>> candidates = new HashMap<>();
+            for (Map.Entry<String, String> query : ordered) {
+                Map<String, OrdinalSet> values = candidateValues(query.getKey(), query.getValue());
+                BitSet matching = new BitSet();
+                values.values().forEach(set -> set.orInto(matching));
+                metrics.and(matching);
+                if (metrics.isEmpty()) {
+                    return Collections.emptyMap();
+                }
+                candidates.put(query.getKey(), values);
+            }
+
+            Map<String, Set<String>> result = new HashMap<>();
+            candidates.forEach((name, values) -> values.forEach((value, set) -> {
+                if (set.intersects(metrics)) {
+                    result.computeIfAbsent(name, n -> new TreeSet<>()).add(value);
+                }
+            }));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of metrics having the tag
+     */
+    private long cardinality(String name) {
+        return postings.getOrDefault(name, Collections.emptyNavigableMap()).values().stream()
+                .mapToLong(OrdinalSet::size)
+                .sum();
+    }
+
+    private Map<String, OrdinalSet> candidateValues(String name, String regexp) {
+        NavigableMap<String, OrdinalSet> values = postings.getOrDefault(name, Collections.emptyNavigableMap());
+        boolean positive = !regexp.startsWith("!");
+        Pattern p = PatternUtil.filterPattern(regexp);
+        if (positive) {
+            String prefix = literalPrefix(p.pattern());
+            if (!prefix.isEmpty()) {
+                String end = prefixEnd(prefix);
+                values = end == null ? values.tailMap(prefix, true) : values.subMap(prefix, true, end, false);
+            }
+        }
+        Map<String, OrdinalSet> result = new HashMap<>();
+        values.forEach((value, set) -> {
+            if (positive == p.matcher(value).matches()) {
+                result.put(value, set);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return a prefix of all the strings fully matching {@code regexp}, possibly empty
+     */
+    static String literalPrefix(String regexp) {
+        if (regexp.indexOf('|') >= 0) {
+            return "";
+        }
+        int start = regexp.startsWith("^") ? 1 : 0;
+        StringBuilder prefix = new StringBuilder();
+        for (int i = start; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (".[]{}()\\*+?^$".indexOf(c) >= 0) {
+                if ((c == '?' || c == '*' || c == '{') && prefix.length() > 0) {
+                    // The last character is optional or repeated
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * @return the least string greater than all the strings starting with {@code prefix}, or null if there is none
+     */
+    static String prefixEnd(String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    private BitSet ofType(MetricType<?> type) {
+        BitSet result = new BitSet();
+        types.forEach((metricType, metrics) -> {
+            if ((type == null && metricType.isUserType()) || metricType == type) {
+                result.or(metrics);
+            }
+        });
+        result.and(live);
+        return result;
+    }
+
+    boolean contains(MetricId<?> id) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            return ordinal != null && live.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The following are only meant to be called from a query function
+
+    BitSet all() {
+        return (BitSet) live.clone();
+    }
+
+    BitSet withTag(String name) {
+        return matching(name, value -> true);
+    }
+
+    BitSet withValue(String name, String value) {
+        Map<String, OrdinalSet> values = postings.getOrDefault(name, Collections.emptyNavigableMap());
+        OrdinalSet set = values.get(value);
+        return set == null ? new BitSet() : set.toBitSet();
+    }
+
+    /**
+     * @return the metrics having tag {@code name} with a value accepted by {@code predicate}
+     */
+    BitSet matching(String name, Predicate<String> predicate) {
+        BitSet result = new BitSet();
+        NavigableMap<String, OrdinalSet> values = postings.getOrDefault(name, Collections.emptyNavigableMap());
+        for (Map.Entry<String, OrdinalSet> value : values.entrySet()) {
+            if (predicate.test(value.getKey())) {
+                value.getValue().orInto(result);
+            }
+        }
+        return result;
+    }
+}
@@ -18,8 +18,16 @@ package org.hawkular.metrics.core.service.transformers;
 
 import static com.datastax.driver.core.BatchStatement.Type.UNLOGGED;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ProtocolVersion;
 import com.datastax.driver.core.Statement;
 
 import rx.Observable;
@@ -27,7 +35,9 @@ import rx.Observable.Transformer;
 import rx.functions.Func0;
 
 /**
- * Groups {@link Statement} items into {@link BatchStatement} items.
+ * Groups {@link Statement} items into {@link BatchStatement} items. A batch is closed when it reaches the maximum
+ * number of statements, or optionally the maximum serialized size of the bound values or the maximum number of
+ * distinct partitions.
  *
  * @author Thomas Segismont
  */
@@ -39,8 +49,21 @@ public class BoundBatchStatementTransformer implements Transformer<BoundStatemen
      */
     public static final Func0<BatchStatement> DEFAULT_BATCH_STATEMENT_FACTORY = () -> new BatchStatement(UNLOGGED);
 
+    /**
+     * Default limit of the bound values size, Cassandra warns about batches above 5 kB.
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 5 * 1024;
+
+    /**
+     * Default limit of distinct partitions, Cassandra warns about unlogged batches spanning more than 10.
+     */
+    public static final int DEFAULT_MAX_BATCH_PARTITIONS = 10;
+
     private final Func0<BatchStatement> batchStatementFactory;
     private final int batchSize;
+    private final int maxBatchBytes;
+    private final int maxBatchPartitions;
+    private final CodecRegistry codecRegistry;
 
     /**
      * Creates a new transformer using the {@link #DEFAULT_BATCH_STATEMENT_FACTORY}.
@@ -54,15 +77,85 @@ public class BoundBatchStatementTransformer implements Transformer<BoundStatemen
      * @param batchSize             maximum number of statements in the batch
      */
     public BoundBatchStatementTransformer(Func0<BatchStatement> batchStatementFactory, int batchSize) {
+        this(batchStatementFactory, batchSize, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param batchStatementFactory function used to initialize a new {@link BatchStatement}
+     * @param batchSize             maximum number of statements in the batch
+     * @param maxBatchBytes         maximum size of the bound values in the batch
+     * @param maxBatchPartitions    maximum number of distinct partitions in the batch
+     * @param codecRegistry         used to compute the routing keys of the statements
+     */
+    public BoundBatchStatementTransformer(Func0<BatchStatement> batchStatementFactory, int batchSize,
+            int maxBatchBytes, int maxBatchPartitions, CodecRegistry codecRegistry) {
         this.batchSize = batchSize;
 //        checkArgument(batchSize <= DEFAULT_BATCH_SIZE, "batchSize exceeds limit");
         this.batchStatementFactory = batchStatementFactory;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchPartitions = maxBatchPartitions;
+        this.codecRegistry = codecRegistry;
     }
 
     @Override
     public Observable<BatchStatement> call(Observable<BoundStatement> statements) {
-        return statements
-                .window(batchSize)
-                .flatMap(window -> window.collect(batchStatementFactory, BatchStatement::add));
+        if (maxBatchBytes == Integer.MAX_VALUE && maxBatchPartitions == Integer.MAX_VALUE) {
+            return statements
+                    .window(batchSize)
+                    .flatMap(window -> window.collect(batchStatementFactory, BatchStatement::add));
+        }
+        return Observable.defer(() -> {
+            BatchBuilder builder = new BatchBuilder();
+            return statements
+                    .flatMapIterable(builder::add)
+                    .concatWith(Observable.defer(builder::flush));
+        });
+    }
+
+    static int sizeOf(BoundStatement statement) {
+        int size = 0;
+        int variables = statement.preparedStatement().getVariables().size();
+        for (int i = 0; i < variables; i++) {
+            ByteBuffer value = statement.getBytesUnsafe(i);
+            // Every value is prefixed by its length
+            size += 4 + (value == null ? 0 : value.remaining());
+        }
+        return size;
+    }
+
+    private class BatchBuilder {
+        private BatchStatement batch;
+        private int bytes;
+        private final Set<ByteBuffer> partitions = new HashSet<>();
+
+        List<BatchStatement> add(BoundStatement statement) {
+            int size = sizeOf(statement);
+            ByteBuffer partition = null;
+            if (maxBatchPartitions != Integer.MAX_VALUE) {
+                partition = statement.getRoutingKey(ProtocolVersion.NEWEST_SUPPORTED, codecRegistry);
+            }
+            List<BatchStatement> full = Collections.emptyList();
+            if (batch != null && (batch.size() >= batchSize || bytes + size > maxBatchBytes ||
+                    (partition != null && partitions.size() >= maxBatchPartitions
+                            && !partitions.contains(partition)))) {
+                full = Collections.singletonList(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = batchStatementFactory.call();
+                bytes = 0;
+                partitions.clear();
+            }
+            batch.add(statement);
+            bytes += size;
+            if (partition != null) {
+                partitions.add(partition);
+            }
+            return full;
+        }
+
+        Observable<BatchStatement> flush() {
+            return batch == null ? Observable.empty() : Observable.just(batch);
+        }
     }
 }
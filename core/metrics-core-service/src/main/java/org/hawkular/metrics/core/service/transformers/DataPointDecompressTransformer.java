@@ -20,21 +20,16 @@ import static org.hawkular.metrics.core.service.Order.ASC;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.hawkular.metrics.core.service.Order;
+import org.hawkular.metrics.core.service.compress.CompressedBlock;
+import org.hawkular.metrics.core.service.compress.DecompressedBlock;
 import org.hawkular.metrics.core.service.compress.TagsDeserializer;
-import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.MetricType;
 
 import com.datastax.driver.core.Row;
 
-import fi.iki.yak.ts.compression.gorilla.BitInput;
-import fi.iki.yak.ts.compression.gorilla.ByteBufferBitInput;
-import fi.iki.yak.ts.compression.gorilla.Decompressor;
-import fi.iki.yak.ts.compression.gorilla.Pair;
 import rx.Observable;
 
 /**
@@ -59,77 +54,45 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Observable<DataPoint<T>> call(Observable<Row> rows) {
+        return decompress(rows
+                .filter(r -> r.getBytes("c_value") != null)
+                .map(r -> new CompressedBlock(r.getTimestamp("time").toInstant().toEpochMilli(),
+                        r.getBytes("c_value"), r.getBytes("tags"))));
+    }
+
+    /**
+     * Same as {@link #call(Observable)}, for blocks that are not read from Cassandra
+     */
+    @SuppressWarnings("unchecked")
+    public Observable<DataPoint<T>> decompress(Observable<CompressedBlock> blocks) {
 
+        // ConcatMap keeps the order of the blocks, each block emits its points lazily in the requested order
         Observable<DataPoint<T>> datapoints =
-                rows.flatMap(r -> {
-                    Stream.Builder<DataPoint<T>> dataPointStreamBuilder = Stream.builder();
-
-                    ByteBuffer tagsBuffer = r.getBytes("tags");
-                    ByteBuffer compressedValue = r.getBytes("c_value");
-
-                    if (compressedValue != null) {
-                        // Read the HWKMETRICS internal header here, but don't process as of now
-                        compressedValue.get();
-
-                        BitInput in = new ByteBufferBitInput(compressedValue);
-
-                        Map<Long, Map<String, String>> tagMap = null;
-                        if(tagsBuffer != null) {
-                            long blockStart = r.getTimestamp("time").toInstant().toEpochMilli();
-                            TagsDeserializer deserializer = new TagsDeserializer(blockStart);
-                            tagMap = deserializer.deserialize(tagsBuffer);
-                        }
-
-                        Decompressor d = new Decompressor(in);
-                        Pair pair;
-                        while ((pair = d.readPair()) != null) {
-                            if (pair.getTimestamp() >= start && pair.getTimestamp() < end) {
-                                DataPoint<T> dataPoint = null;
-
-                                switch(metricType.getCode()) {
-                                    case 0: // GAUGE
-                                        dataPoint = new DataPoint(pair.getTimestamp(), pair.getDoubleValue());
-                                        break;
-                                    case 1: // AVAILABILITY
-                                        dataPoint = new DataPoint(pair.getTimestamp(), AvailabilityType.fromByte(
-                                                ((Double) pair.getDoubleValue()).byteValue()));
-                                        break;
-                                    case 2: // COUNTER
-                                        dataPoint = new DataPoint(pair.getTimestamp(), ((Double) pair.getDoubleValue
-                                                ()).longValue());
-                                        break;
-                                    default:
-                                        // Not supported yet
-                                        throw new RuntimeException(
-                                                "Metric of type " + metricType.getText() + " is not supported " +
-                                                        "in decompression");
-                                }
-
-                                // Add tags from the serialized tags
-                                if(tagMap != null) {
-                                    Long key = pair.getTimestamp();
-
-                                    if (tagMap.containsKey(key)) {
-                                        Map<String, String> dpTags = tagMap.get(key);
-                                        dataPoint = new DataPoint(dataPoint.getTimestamp(), dataPoint
-                                                .getValue(), dpTags);
-                                    }
-                                }
-
-                                dataPointStreamBuilder.add(dataPoint);
-                            }
-                        }
+                blocks.concatMap(b -> {
+                    ByteBuffer tagsBuffer = b.getTagsBuffer();
+                    long blockStart = b.getBlockStart();
+
+                    Map<Long, Map<String, String>> tagMap = null;
+                    if(tagsBuffer != null) {
+                        TagsDeserializer deserializer = new TagsDeserializer(blockStart);
+                        tagMap = deserializer.deserialize(tagsBuffer);
+                    }
+                    Map<Long, Map<String, String>> blockTags = tagMap;
+
+                    DecompressedBlock block = DecompressedBlock.decompress(b.getValueBuffer(), blockStart, metricType);
+                    if (order != ASC) {
+                        block.reverse();
                     }
-                    return Observable.from(dataPointStreamBuilder.build()
-                            .sorted((d1, d2) -> {
-                                if (order == ASC) {
-                                    return (d1.getTimestamp() > d2.getTimestamp()) ? 1 : -1;
-                                }
-                                return (d1.getTimestamp() < d2.getTimestamp()) ? 1 : -1;
-                            })
-                            .collect(Collectors.toList()));
+
+                    int first = block.firstIndex(start, end);
+                    int last = block.lastIndex(start, end);
+                    if (first >= last) {
+                        return Observable.empty();
+                    }
+
+                    return Observable.range(first, last - first)
+                            .map(i -> createDataPoint(block.getTimestamp(i), (T) block.getValue(i), blockTags));
                 });
         if(limit > 0) {
             // TODO What about the min-max timestamp case when requesting metric info (MiQ)? Should we store it on
@@ -139,4 +102,15 @@ public class DataPointDecompressTransformer<T> implements Observable.Transformer
 
         return datapoints;
     }
+
+    private DataPoint<T> createDataPoint(long timestamp, T value, Map<Long, Map<String, String>> tagMap) {
+        // Add tags from the serialized tags
+        if(tagMap != null) {
+            Map<String, String> dpTags = tagMap.get(timestamp);
+            if (dpTags != null) {
+                return new DataPoint<>(timestamp, value, dpTags);
+            }
+        }
+        return new DataPoint<>(timestamp, value);
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.hawkular.metrics.core.service.PercentileWrapper;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.QuantileSketch;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+/**
+ * Aggregates numeric values of all the buckets in a single pass. The statistics are kept in primitive arrays indexed
+ * by the bucket index and the percentiles of a bucket are answered from a single {@link QuantileSketch}, which is
+ * created when the first value of the bucket arrives. Aggregators of the same buckets can be merged.
+ */
+public final class NumericBucketAggregator {
+
+    /**
+     * Percentiles estimated from a {@link QuantileSketch}. The aggregator uses its own sketches for all the
+     * percentiles as long as {@link #createPercentile} is not replaced.
+     */
+    public static final Function<Double, PercentileWrapper> SKETCH_PERCENTILE = SketchPercentile::new;
+
+    /**
+     * This is a test hook. See {@link Percentile} for details.
+     */
+    public static Function<Double, PercentileWrapper> createPercentile = SKETCH_PERCENTILE;
+
+    private final Buckets buckets;
+    private final List<Percentile> percentiles;
+
+    private final long[] counts;
+    private final double[] min;
+    private final double[] max;
+    private final double[] sum;
+    private final QuantileSketch[] sketches;
+
+    // Only used when the percentile test hook has been replaced, buckets merged from summaries use the sketches
+    private final PercentileWrapper[][] percentileWrappers;
+    private final boolean[] summarized;
+
+    public NumericBucketAggregator(Buckets buckets, List<Percentile> percentiles) {
+        this.buckets = buckets;
+        this.percentiles = percentiles;
+        int count = buckets.getCount();
+        counts = new long[count];
+        min = new double[count];
+        max = new double[count];
+        sum = new double[count];
+        sketches = new QuantileSketch[count];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        if (createPercentile != SKETCH_PERCENTILE) {
+            percentileWrappers = new PercentileWrapper[count][];
+            summarized = new boolean[count];
+        } else {
+            percentileWrappers = null;
+            summarized = null;
+        }
+    }
+
+    public void add(DataPoint<? extends Number> dataPoint) {
+        add(dataPoint.getTimestamp(), dataPoint.getValue().doubleValue());
+    }
+
+    /**
+     * NaN values are skipped, as in {@link BlockSummary#add(long, double)}.
+     */
+    public void add(long timestamp, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        int i = buckets.getIndex(timestamp);
+        counts[i]++;
+        if (value < min[i]) {
+            min[i] = value;
+        }
+        if (value > max[i]) {
+            max[i] = value;
+        }
+        sum[i] += value;
+        sketch(i).add(value);
+        if (percentileWrappers != null) {
+            for (PercentileWrapper wrapper : percentileWrappers(i)) {
+                wrapper.addValue(value);
+            }
+        }
+    }
+
+    /**
+     * Adds the values of a block summary to a bucket.
+     */
+    public void add(int bucketIndex, BlockSummary summary) {
+        int i = bucketIndex;
+        counts[i] += summary.getCount();
+        min[i] = Math.min(min[i], summary.getMin());
+        max[i] = Math.max(max[i], summary.getMax());
+        sum[i] += summary.getSum();
+        sketch(i).merge(summary.getSketch());
+        if (summarized != null) {
+            summarized[i] = true;
+        }
+    }
+
+    /**
+     * Adds the values of another aggregator of the same buckets to this one.
+     */
+    public void merge(NumericBucketAggregator other) {
+        for (int i = 0; i < counts.length; i++) {
+            if (other.counts[i] == 0) {
+                continue;
+            }
+            counts[i] += other.counts[i];
+            min[i] = Math.min(min[i], other.min[i]);
+            max[i] = Math.max(max[i], other.max[i]);
+            sum[i] += other.sum[i];
+            sketch(i).merge(other.sketches[i]);
+            if (percentileWrappers != null) {
+                summarized[i] |= other.summarized[i];
+                if (other.percentileWrappers[i] != null) {
+                    PercentileWrapper[] wrappers = percentileWrappers(i);
+                    for (int j = 0; j < wrappers.length; j++) {
+                        wrappers[j].merge(other.percentileWrappers[i][j]);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<NumericBucketPoint> toBucketPoints() {
+        List<NumericBucketPoint> points = new ArrayList<>(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            long from = buckets.getBucketStart(i);
+            long to = from + buckets.getStep();
+            if (counts[i] == 0) {
+                points.add(new NumericBucketPoint.Builder(from, to).build());
+                continue;
+            }
+
+            boolean useWrappers = percentileWrappers != null && !summarized[i];
+            List<Percentile> percentileReturns = new ArrayList<>(percentiles.size());
+            for (int j = 0; j < percentiles.size(); j++) {
+                Percentile p = percentiles.get(j);
+                double value = useWrappers ? percentileWrappers[i][j].getResult()
+                        : sketches[i].getQuantile(p.getQuantile() / 100);
+                percentileReturns.add(new Percentile(p.getOriginalQuantile(), value));
+            }
+            double median = useWrappers ? percentileWrappers[i][percentiles.size()].getResult()
+                    : sketches[i].getQuantile(0.5);
+
+            points.add(new NumericBucketPoint.Builder(from, to)
+                    .setMin(min[i])
+                    .setAvg(sum[i] / counts[i])
+                    .setMedian(median)
+                    .setMax(max[i])
+                    .setSum(sum[i])
+                    .setSamples((int) counts[i])
+                    .setPercentiles(percentileReturns)
+                    .build());
+        }
+        return points;
+    }
+
+    private QuantileSketch sketch(int i) {
+        if (sketches[i] == null) {
+            sketches[i] = new QuantileSketch();
+        }
+        return sketches[i];
+    }
+
+    private PercentileWrapper[] percentileWrappers(int i) {
+        if (percentileWrappers[i] == null) {
+            PercentileWrapper[] wrappers = new PercentileWrapper[percentiles.size() + 1];
+            for (int j = 0; j < percentiles.size(); j++) {
+                wrappers[j] = createPercentile.apply(percentiles.get(j).getQuantile());
+            }
+            wrappers[percentiles.size()] = createPercentile.apply(50.0); // Important to be the last one
+            percentileWrappers[i] = wrappers;
+        }
+        return percentileWrappers[i];
+    }
+
+    private static class SketchPercentile implements PercentileWrapper {
+
+        private final double percentile;
+        private final QuantileSketch sketch = new QuantileSketch();
+
+        SketchPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        @Override
+        public void addValue(double value) {
+            sketch.add(value);
+        }
+
+        @Override
+        public double getResult() {
+            return sketch.getQuantile(percentile / 100);
+        }
+
+        @Override
+        public void merge(PercentileWrapper other) {
+            sketch.merge(((SketchPercentile) other).sketch);
+        }
+    }
+}
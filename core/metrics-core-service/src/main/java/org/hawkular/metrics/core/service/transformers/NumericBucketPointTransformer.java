@@ -44,12 +44,17 @@ public class NumericBucketPointTransformer
     @Override
     public Observable<List<NumericBucketPoint>> call(Observable<DataPoint<? extends Number>> dataPoints) {
         return dataPoints
-                .groupBy(dataPoint -> buckets.getIndex(dataPoint.getTimestamp()))
-                .flatMap(group -> group.collect(()
-                                -> new NumericDataPointCollector(buckets, group.getKey(), percentiles),
-                        NumericDataPointCollector::increment))
-                .map(NumericDataPointCollector::toBucketPoint)
-                .toMap(NumericBucketPoint::getStart)
-                .map(pointMap -> NumericBucketPoint.toList(pointMap, buckets));
+                .compose(aggregate(buckets, percentiles))
+                .map(NumericBucketAggregator::toBucketPoints);
+    }
+
+    /**
+     * Aggregates all the data points to a single {@link NumericBucketAggregator}. The aggregators of different
+     * sources can be merged before the bucket points are created.
+     */
+    public static <T extends DataPoint<? extends Number>> Transformer<T, NumericBucketAggregator> aggregate(
+            Buckets buckets, List<Percentile> percentiles) {
+        return dataPoints -> dataPoints.collect(() -> new NumericBucketAggregator(buckets, percentiles),
+                NumericBucketAggregator::add);
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+
+import rx.Observable;
+import rx.Observable.Transformer;
+
+/**
+ * Calculates bucket points from data points and compressed block summaries. The summaries of each bucket are merged
+ * to the aggregated data points of the bucket.
+ */
+public class SummaryBucketPointTransformer
+        implements Transformer<DataPoint<? extends Number>, List<NumericBucketPoint>> {
+
+    private final Buckets buckets;
+    private final List<Percentile> percentiles;
+    private final Map<Integer, BlockSummary> bucketSummaries;
+
+    /**
+     * @param bucketSummaries Merged block summaries per bucket index
+     */
+    public SummaryBucketPointTransformer(Buckets buckets, List<Percentile> percentiles,
+                                         Map<Integer, BlockSummary> bucketSummaries) {
+        this.buckets = buckets;
+        this.percentiles = percentiles;
+        this.bucketSummaries = bucketSummaries;
+    }
+
+    @Override
+    public Observable<List<NumericBucketPoint>> call(Observable<DataPoint<? extends Number>> dataPoints) {
+        return dataPoints
+                .collect(() -> {
+                    NumericBucketAggregator aggregator = new NumericBucketAggregator(buckets, percentiles);
+                    bucketSummaries.forEach(aggregator::add);
+                    return aggregator;
+                }, NumericBucketAggregator::add)
+                .map(NumericBucketAggregator::toBucketPoints);
+    }
+}
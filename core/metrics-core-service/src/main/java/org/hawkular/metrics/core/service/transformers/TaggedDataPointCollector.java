@@ -17,17 +17,15 @@
 
 package org.hawkular.metrics.core.service.transformers;
 
-import static org.hawkular.metrics.core.service.transformers.NumericDataPointCollector.createPercentile;
+import static org.hawkular.metrics.core.service.transformers.NumericBucketAggregator.SKETCH_PERCENTILE;
+import static org.hawkular.metrics.core.service.transformers.NumericBucketAggregator.createPercentile;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.math3.stat.descriptive.moment.Mean;
-import org.apache.commons.math3.stat.descriptive.rank.Max;
-import org.apache.commons.math3.stat.descriptive.rank.Min;
-import org.apache.commons.math3.stat.descriptive.summary.Sum;
 import org.hawkular.metrics.core.service.PercentileWrapper;
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Percentile;
 import org.hawkular.metrics.model.TaggedBucketPoint;
@@ -40,47 +38,44 @@ public class TaggedDataPointCollector {
     // These are the tags that define this bucket.
     private Map<String, String> tags;
 
-    private int samples = 0;
-    private Min min = new Min();
-    private Mean average = new Mean();
-    private Max max = new Max();
-    private Sum sum = new Sum();
+    private BlockSummary summary = new BlockSummary();
     private List<PercentileWrapper> percentiles;
     private List<Percentile> percentileList;
 
     public TaggedDataPointCollector(Map<String, String> tags, List<Percentile> percentilesList) {
         this.tags = tags;
-        this.percentiles = new ArrayList<>(percentilesList.size() + 1);
         this.percentileList = percentilesList;
-        percentilesList.stream().forEach(d -> percentiles.add(createPercentile.apply(d.getQuantile())));
-        percentiles.add(createPercentile.apply(50.0)); // Important to be the last one
+        if (createPercentile != SKETCH_PERCENTILE) {
+            this.percentiles = new ArrayList<>(percentilesList.size() + 1);
+            percentilesList.stream().forEach(d -> percentiles.add(createPercentile.apply(d.getQuantile())));
+            percentiles.add(createPercentile.apply(50.0)); // Important to be the last one
+        }
     }
 
     public void increment(DataPoint<? extends Number> dataPoint) {
-        Number value = dataPoint.getValue();
-        min.increment(value.doubleValue());
-        average.increment(value.doubleValue());
-        max.increment(value.doubleValue());
-        sum.increment(value.doubleValue());
-        samples++;
-        percentiles.stream().forEach(p -> p.addValue(value.doubleValue()));
+        double value = dataPoint.getValue().doubleValue();
+        summary.add(dataPoint.getTimestamp(), value);
+        if (percentiles != null) {
+            percentiles.stream().forEach(p -> p.addValue(value));
+        }
     }
 
     public TaggedBucketPoint toBucketPoint() {
 
         List<Percentile> percentileReturns = new ArrayList<>(percentileList.size());
 
-        if(percentileList.size() > 0) {
-            for(int i = 0; i < percentileList.size(); i++) {
-                Percentile p = percentileList.get(i);
-                PercentileWrapper pw = percentiles.get(i);
-                percentileReturns.add(new Percentile(p.getOriginalQuantile(), pw.getResult()));
-            }
+        for(int i = 0; i < percentileList.size(); i++) {
+            Percentile p = percentileList.get(i);
+            double value = percentiles == null ? summary.getSketch().getQuantile(p.getQuantile() / 100)
+                    : percentiles.get(i).getResult();
+            percentileReturns.add(new Percentile(p.getOriginalQuantile(), value));
         }
 
-        return new TaggedBucketPoint(tags, min.getResult(), average.getResult(),
-                this.percentiles.get(this.percentiles.size() - 1).getResult(), max.getResult(), sum.getResult(),
-                samples, percentileReturns);
+        double median = percentiles == null ? summary.getSketch().getQuantile(0.5)
+                : percentiles.get(percentiles.size() - 1).getResult();
+
+        return new TaggedBucketPoint(tags, summary.getMin(), summary.getAvg(), median, summary.getMax(),
+                summary.getSum(), (int) summary.getCount(), percentileReturns);
     }
 
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.core.service.compress.QuantileSketch;
+import org.junit.Test;
+
+public class BlockSummaryTest {
+
+    @Test
+    public void mergedSummariesMatchSingleSummary() {
+        Random random = new Random(7);
+        BlockSummary all = new BlockSummary();
+        BlockSummary first = new BlockSummary();
+        BlockSummary second = new BlockSummary();
+
+        for (int i = 0; i < 2000; i++) {
+            double value = random.nextGaussian() * 100;
+            all.add(i, value);
+            (i < 1000 ? first : second).add(i, value);
+        }
+
+        BlockSummary merged = BlockSummary.deserialize(first.serialize());
+        merged.merge(BlockSummary.deserialize(second.serialize()));
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMin(), merged.getMin(), 0.0);
+        assertEquals(all.getMax(), merged.getMax(), 0.0);
+        assertEquals(all.getSum(), merged.getSum(), 1e-9);
+        assertEquals(0, merged.getFirstTimestamp());
+        assertEquals(1999, merged.getLastTimestamp());
+        assertEquals(all.getSketch().getQuantile(0.5), merged.getSketch().getQuantile(0.5), 0.0);
+    }
+
+    @Test
+    public void sketchQuantilesStayInsideRelativeAccuracy() {
+        Random random = new Random(3);
+        int size = 10001;
+        double[] values = new double[size];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < size; i++) {
+            values[i] = (random.nextBoolean() ? 1 : -1) * Math.exp(random.nextDouble() * 20);
+            sketch.add(values[i]);
+        }
+        sketch = QuantileSketch.deserialize(sketch.serialize());
+        Arrays.sort(values);
+
+        for (double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            double expected = values[(int) (q * (size - 1))];
+            double estimate = sketch.getQuantile(q);
+            assertTrue("Quantile " + q + " estimate " + estimate + " expected " + expected,
+                    Math.abs(estimate - expected) <= Math.abs(expected) * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        }
+    }
+
+    @Test
+    public void zerosAndEmptySketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+
+        sketch.add(0);
+        sketch.add(0);
+        sketch.add(5);
+        assertEquals(3, sketch.getCount());
+        assertEquals(0, sketch.getQuantile(0.5), 0.0);
+        assertEquals(5, sketch.getQuantile(1), 5 * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void nonFiniteValuesAreNotCountedInSketch() {
+        QuantileSketch finite = new QuantileSketch();
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 100; i++) {
+            finite.add(i);
+            sketch.add(i);
+        }
+        sketch.add(Double.POSITIVE_INFINITY);
+        sketch.add(Double.NEGATIVE_INFINITY);
+        sketch.add(Double.NaN);
+
+        QuantileSketch merged = new QuantileSketch();
+        merged.merge(QuantileSketch.deserialize(sketch.serialize()));
+
+        assertEquals(100, merged.getCount());
+        for (double q : new double[]{0, 0.5, 1}) {
+            assertEquals(finite.getQuantile(q), merged.getQuantile(q), 0.0);
+        }
+    }
+
+    @Test
+    public void nanValuesAreSkippedInSummary() {
+        BlockSummary summary = new BlockSummary();
+        summary.add(1, 2);
+        summary.add(2, Double.NaN);
+        summary.add(3, Double.POSITIVE_INFINITY);
+
+        summary = BlockSummary.deserialize(summary.serialize());
+
+        assertEquals(2, summary.getCount());
+        assertEquals(2, summary.getMin(), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, summary.getMax(), 0.0);
+        assertEquals(1, summary.getSketch().getCount());
+    }
+
+    @Test
+    public void binsStayBoundedForDistantValues() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(1);
+        sketch.add(Double.MAX_VALUE);
+        sketch.add(QuantileSketch.MIN_INDEXABLE_VALUE);
+
+        QuantileSketch merged = new QuantileSketch();
+        merged.add(-Double.MAX_VALUE);
+        merged.merge(sketch);
+
+        assertEquals(4, merged.getCount());
+        assertEquals(Double.MAX_VALUE, merged.getQuantile(1),
+                Double.MAX_VALUE * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        assertTrue(merged.serialize().remaining() < 4 * QuantileSketch.MAX_BINS);
+    }
+}
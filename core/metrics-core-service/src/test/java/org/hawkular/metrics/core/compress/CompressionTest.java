@@ -95,7 +95,11 @@ public class CompressionTest extends BaseMetricsITest {
     }
 
     private void compressData(long start) {
-        Completable completable = metricsService.compressBlock(start, 2000, 2);
+        compressData(start, 0);
+    }
+
+    private void compressData(long start, int tokenSplits) {
+        Completable completable = metricsService.compressBlock(start, 2000, tokenSplits, 2);
 
         TestSubscriber<Row> tsr = new TestSubscriber<>();
         completable.subscribe(tsr);
@@ -158,6 +162,61 @@ public class CompressionTest extends BaseMetricsITest {
         }
     }
 
+    @Test
+    public void compressDataInTokenSplits() throws Exception {
+        // Use the next block, the current one might have been compressed and dropped already
+        long start = now().plusHours(2).getMillis();
+
+        int amountOfMetrics = 500;
+        int datapointsPerMetric = 5;
+
+        createAndInsertMetrics(start, amountOfMetrics, datapointsPerMetric);
+
+        // Far more splits than there are token ranges in the test cluster
+        compressData(start, 4096);
+
+        TestSubscriber<Integer> ts = new TestSubscriber<>();
+        rxSession.executeAndFetch("SELECT tenant_id FROM data_compressed")
+                .filter(r -> tenantId.equals(r.getString(0)))
+                .count()
+                .subscribe(ts);
+
+        ts.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        ts.assertNoErrors();
+        ts.assertCompleted();
+        assertEquals(ts.getOnNextEvents().get(0).intValue(), amountOfMetrics);
+    }
+
+    @Test
+    public void skipCheckpointedTokenRanges() throws Exception {
+        long start = now().plusHours(4).getMillis();
+        int tokenSplits = 256;
+
+        createAndInsertMetrics(start, 100, 5);
+
+        // Pretend an earlier run finished every split but failed before dropping the table
+        long tableStart = dataAccess.findExpiredTables(start).stream().mapToLong(Long::longValue).max()
+                .getAsLong();
+        Observable.from(dataAccess.findTokenSplits(tokenSplits).values())
+                .flatMap(Observable::from)
+                .flatMap(split -> dataAccess.insertCompressionCheckpoint(tableStart, split))
+                .toCompletable()
+                .await(10, TimeUnit.SECONDS);
+
+        compressData(start, tokenSplits);
+
+        TestSubscriber<Integer> ts = new TestSubscriber<>();
+        rxSession.executeAndFetch("SELECT tenant_id FROM data_compressed")
+                .filter(r -> tenantId.equals(r.getString(0)))
+                .count()
+                .subscribe(ts);
+
+        ts.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        ts.assertNoErrors();
+        ts.assertCompleted();
+        assertEquals(ts.getOnNextEvents().get(0).intValue(), 0);
+    }
+
     @Test
     public void testNonExistantCompression() throws Exception {
         // Write to past .. should go to data_0 table
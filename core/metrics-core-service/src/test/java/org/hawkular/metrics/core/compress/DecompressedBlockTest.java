@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.hawkular.metrics.core.service.compress.DecompressedBlock;
+import org.hawkular.metrics.core.service.compress.GorillaV2Compressor;
+import org.hawkular.metrics.model.MetricType;
+import org.junit.Test;
+
+import fi.iki.yak.ts.compression.gorilla.ByteBufferBitOutput;
+import fi.iki.yak.ts.compression.gorilla.Compressor;
+
+public class DecompressedBlockTest {
+
+    private static final long BLOCK_START = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    @Test
+    public void descendingBlockIsReadInAscendingOrder() {
+        // Temp table partitions are scanned in descending time order
+        GorillaV2Compressor compressor = new GorillaV2Compressor(BLOCK_START);
+        for (int i = 99; i >= 0; i--) {
+            compressor.addValue(BLOCK_START + i * 1000L, (long) i);
+        }
+
+        DecompressedBlock block = DecompressedBlock.decompress(compressor.compress(), BLOCK_START,
+                MetricType.COUNTER);
+
+        assertTrue(block.isAscending());
+        assertEquals(100, block.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(BLOCK_START + i * 1000L, block.getTimestamp(i));
+            assertEquals((long) i, block.getLongValue(i));
+        }
+    }
+
+    @Test
+    public void timeRangeIndexesInBothOrders() {
+        GorillaV2Compressor compressor = new GorillaV2Compressor(BLOCK_START);
+        for (int i = 0; i < 100; i++) {
+            compressor.addValue(BLOCK_START + i * 1000L, i * 1.5);
+        }
+
+        DecompressedBlock block = DecompressedBlock.decompress(compressor.compress(), BLOCK_START,
+                MetricType.GAUGE);
+
+        long start = BLOCK_START + 10500;
+        long end = BLOCK_START + 20000;
+
+        // Points 11..19 are inside the range
+        assertEquals(11, block.firstIndex(start, end));
+        assertEquals(20, block.lastIndex(start, end));
+        assertEquals(11 * 1.5, block.getDoubleValue(block.firstIndex(start, end)), 0.0);
+
+        block.reverse();
+        assertFalse(block.isAscending());
+        assertEquals(80, block.firstIndex(start, end));
+        assertEquals(89, block.lastIndex(start, end));
+        assertEquals(BLOCK_START + 19000, block.getTimestamp(block.firstIndex(start, end)));
+        assertEquals(BLOCK_START + 11000, block.getTimestamp(block.lastIndex(start, end) - 1));
+
+        assertEquals(block.firstIndex(0, BLOCK_START), block.lastIndex(0, BLOCK_START));
+    }
+
+    @Test
+    public void gorillaBlocksAreReadToNativeTypes() {
+        ByteBufferBitOutput out = new ByteBufferBitOutput();
+        out.getByteBuffer().put(CompressorHeader.getHeader(CompressorHeader.Compressor.GORILLA,
+                EnumSet.noneOf(CompressorHeader.GorillaSettings.class)));
+        Compressor compressor = new Compressor(BLOCK_START, out);
+        for (int i = 0; i < 10; i++) {
+            compressor.addValue(BLOCK_START + i, (double) (i % 4));
+        }
+        compressor.close();
+        ByteBuffer compressed = (ByteBuffer) out.getByteBuffer().flip();
+
+        DecompressedBlock block = DecompressedBlock.decompress(compressed, BLOCK_START, MetricType.AVAILABILITY);
+
+        assertEquals(10, block.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals((byte) (i % 4), block.getAvailabilityValue(i));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.hawkular.metrics.core.service.compress.CompressorHeader;
+import org.hawkular.metrics.core.service.compress.GorillaV2Compressor;
+import org.hawkular.metrics.core.service.compress.GorillaV2Decompressor;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.junit.Test;
+
+public class GorillaV2CompressorTest {
+
+    private static final long BLOCK_START = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    @Test
+    public void gaugeValuesWithMillisecondPrecision() {
+        Random random = new Random(1);
+        int size = 1000;
+        long[] timestamps = new long[size];
+        double[] values = new double[size];
+
+        GorillaV2Compressor compressor = new GorillaV2Compressor(BLOCK_START);
+        long timestamp = BLOCK_START + 17;
+        for (int i = 0; i < size; i++) {
+            timestamp += 1000 + random.nextInt(50);
+            timestamps[i] = timestamp;
+            values[i] = (i % 10 == 0) ? values[Math.max(0, i - 1)] : random.nextDouble() * 100;
+            compressor.addValue(timestamps[i], values[i]);
+        }
+
+        GorillaV2Decompressor decompressor = decompress(compressor.compress(), false, false);
+        assertArrayEquals(timestamps, decompressor.getTimestamps());
+        double[] decompressed = decompressor.readDoubleValues();
+        for (int i = 0; i < size; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decompressed[i]));
+        }
+    }
+
+    @Test
+    public void counterValuesWithSecondPrecision() {
+        int size = 720;
+        long[] timestamps = new long[size];
+        long[] values = new long[size];
+
+        GorillaV2Compressor compressor = new GorillaV2Compressor(BLOCK_START);
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = BLOCK_START + i * 10000L;
+            values[i] = (i == size / 2) ? 0 : Long.MAX_VALUE / 2 + i * 1000L;
+            compressor.addValue(timestamps[i], values[i]);
+        }
+
+        ByteBuffer compressed = compressor.compress();
+        // Regular intervals and steadily growing values need only a few bits per point
+        assertTrue(compressed.remaining() < size / 2);
+
+        GorillaV2Decompressor decompressor = decompress(compressed, true, true);
+        assertArrayEquals(timestamps, decompressor.getTimestamps());
+        assertArrayEquals(values, decompressor.readLongValues());
+    }
+
+    @Test
+    public void availabilityValuesAreRunLengthEncoded() {
+        int size = 10000;
+        long[] timestamps = new long[size];
+        byte[] values = new byte[size];
+
+        GorillaV2Compressor compressor = new GorillaV2Compressor(BLOCK_START);
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = BLOCK_START + i * 500L;
+            AvailabilityType availability = (i / 1000 % 2 == 0) ? AvailabilityType.UP : AvailabilityType.ADMIN;
+            values[i] = availability.getCode();
+            compressor.addValue(timestamps[i], availability);
+        }
+
+        ByteBuffer compressed = compressor.compress();
+        assertTrue(compressed.remaining() < size / 8 + 100);
+
+        GorillaV2Decompressor decompressor = decompress(compressed, false, true);
+        assertArrayEquals(timestamps, decompressor.getTimestamps());
+        assertArrayEquals(values, decompressor.readAvailabilityValues());
+    }
+
+    @Test
+    public void emptyBlock() {
+        GorillaV2Compressor compressor = new GorillaV2Compressor(BLOCK_START);
+        GorillaV2Decompressor decompressor = decompress(compressor.compress(), true, false);
+        assertEquals(0, decompressor.size());
+        assertEquals(0, decompressor.readDoubleValues().length);
+    }
+
+    private GorillaV2Decompressor decompress(ByteBuffer compressed, boolean secondPrecision, boolean longValues) {
+        byte header = compressed.get();
+        assertEquals(CompressorHeader.Compressor.GORILLA_V2, CompressorHeader.getCompressor(header));
+        assertEquals(secondPrecision,
+                (header & CompressorHeader.GorillaSettings.SECOND_PRECISION.getByteValue()) != 0);
+        assertEquals(longValues, (header & CompressorHeader.GorillaSettings.LONG_VALUES.getByteValue()) != 0);
+        return new GorillaV2Decompressor(compressed, header, BLOCK_START);
+    }
+}
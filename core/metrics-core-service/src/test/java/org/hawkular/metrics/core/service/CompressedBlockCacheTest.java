@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.compress.CompressedBlock;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+import rx.Observable;
+
+public class CompressedBlockCacheTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long BLOCK_START = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    private MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+    private DataAccess dataAccess;
+
+    private CompressedBlockCache cache;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        // The first two blocks are final
+        when(dataAccess.findFirstOpenTimeSlice()).thenReturn(BLOCK_START + 2 * BLOCK_SIZE);
+        when(dataAccess.findCompressedData(id, BLOCK_START, BLOCK_START + 2 * BLOCK_SIZE, 0, Order.ASC))
+                .thenAnswer(invocation -> Observable.just(row(BLOCK_START, 1, 2, 3)));
+        when(dataAccess.findCompressedData(id, BLOCK_START + 2 * BLOCK_SIZE, BLOCK_START + 3 * BLOCK_SIZE, 0,
+                Order.ASC)).thenAnswer(invocation -> Observable.just(row(BLOCK_START + 2 * BLOCK_SIZE, 4, 5)));
+        cache = new CompressedBlockCache(dataAccess, BLOCK_SIZE, 1024 * 1024, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void finalBlocksAreReadOnce() {
+        List<CompressedBlock> blocks = find(BLOCK_START + 2 * BLOCK_SIZE);
+        assertEquals(1, blocks.size());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), blocks.get(0).getValueBuffer());
+        assertEquals(find(BLOCK_START + 2 * BLOCK_SIZE).get(0).getValueBuffer(), blocks.get(0).getValueBuffer());
+
+        // The block and the empty time slice after it
+        assertEquals(2, cache.size());
+        verify(dataAccess, times(1)).findCompressedData(id, BLOCK_START, BLOCK_START + 2 * BLOCK_SIZE, 0,
+                Order.ASC);
+    }
+
+    @Test
+    public void openBlocksAreNotCached() {
+        assertEquals(2, find(BLOCK_START + 3 * BLOCK_SIZE).size());
+        assertEquals(2, find(BLOCK_START + 3 * BLOCK_SIZE).size());
+
+        verify(dataAccess, times(1)).findCompressedData(id, BLOCK_START, BLOCK_START + 2 * BLOCK_SIZE, 0,
+                Order.ASC);
+        verify(dataAccess, times(2)).findCompressedData(id, BLOCK_START + 2 * BLOCK_SIZE,
+                BLOCK_START + 3 * BLOCK_SIZE, 0, Order.ASC);
+    }
+
+    @Test
+    public void readAgainAfterInvalidation() {
+        find(BLOCK_START + 2 * BLOCK_SIZE);
+        cache.invalidate(id, BLOCK_START + BLOCK_SIZE);
+        find(BLOCK_START + 2 * BLOCK_SIZE);
+        cache.invalidate(id);
+        assertEquals(0, cache.size());
+        find(BLOCK_START + 2 * BLOCK_SIZE);
+
+        verify(dataAccess, times(3)).findCompressedData(id, BLOCK_START, BLOCK_START + 2 * BLOCK_SIZE, 0,
+                Order.ASC);
+    }
+
+    private List<CompressedBlock> find(long end) {
+        return cache.findBlocks(id, BLOCK_START, end, 0, Order.ASC).toList().toBlocking().single();
+    }
+
+    private static Row row(long blockStart, int... value) {
+        byte[] bytes = new byte[value.length];
+        for (int i = 0; i < value.length; i++) {
+            bytes[i] = (byte) value[i];
+        }
+        Row row = mock(Row.class);
+        when(row.isNull("c_value")).thenReturn(false);
+        when(row.getTimestamp("time")).thenReturn(new Date(blockStart));
+        when(row.getBytes("c_value")).thenReturn(ByteBuffer.wrap(bytes));
+        return row;
+    }
+}
@@ -18,6 +18,7 @@ package org.hawkular.metrics.core.service;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 
 import static org.hawkular.metrics.model.AvailabilityType.UP;
 import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
@@ -276,4 +277,23 @@ public class DataAccessITest extends BaseITest {
         tsr.assertNoErrors();
         tsr.assertValueCount(amountOfMetrics);
     }
+
+    @Test
+    public void latestDataOfRecreatedMetricIsWritten() throws Exception {
+        MetricId<Double> id = new MetricId<>("tenant-1", GAUGE, "latest-1");
+        long start = now.getMillis();
+        int ttl = (int) TimeUnit.DAYS.toSeconds(7);
+
+        dataAccess.insertLatestData(singletonMap(id, new DataPoint<>(start, 1.1)), metricId -> ttl).toBlocking()
+                .lastOrDefault(null);
+        LatestDataIndex.delete(dataAccess, id).toBlocking().lastOrDefault(null);
+        assertEquals(toList(dataAccess.findLatestData("tenant-1", GAUGE, singletonList("latest-1"))).size(), 0);
+
+        // The delete only hides data points up to the deleted one, a later data point of the new metric is written
+        dataAccess.insertLatestData(singletonMap(id, new DataPoint<>(start + 1000, 2.2)), metricId -> ttl)
+                .toBlocking().lastOrDefault(null);
+        List<Row> rows = toList(dataAccess.findLatestData("tenant-1", GAUGE, singletonList("latest-1")));
+        assertEquals(rows.size(), 1);
+        assertEquals(rows.get(0).getDouble(2), 2.2);
+    }
 }
@@ -16,21 +16,29 @@
  */
 package org.hawkular.metrics.core.service;
 
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.function.Function;
 
+import org.hawkular.metrics.core.service.compress.BlockSummary;
 import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.core.service.rollup.RollupTier;
+import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.Tenant;
 
+import com.datastax.driver.core.Host;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TokenRange;
 
 import rx.Observable;
+import rx.functions.Func1;
 
 /**
  * @author John Sanda
@@ -116,6 +124,37 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findMetricsInMetricsIndex(tenantId, type);
     }
 
+    @Override
+    public <T> Observable<ResultSet> insertIntoMetricsRegistry(MetricId<T> id, int ttl) {
+        return delegate.insertIntoMetricsRegistry(id, ttl);
+    }
+
+    @Override
+    public <T> Observable<Row> findMetricsInMetricsRegistry(String tenantId, MetricType<T> type) {
+        return delegate.findMetricsInMetricsRegistry(tenantId, type);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteFromMetricsRegistry(MetricId<T> id) {
+        return delegate.deleteFromMetricsRegistry(id);
+    }
+
+    @Override
+    public Observable<Integer> insertLatestData(Map<MetricId<?>, DataPoint<?>> latest,
+            Func1<MetricId<?>, Integer> ttl) {
+        return delegate.insertLatestData(latest, ttl);
+    }
+
+    @Override
+    public <T> Observable<Row> findLatestData(String tenantId, MetricType<T> type, List<String> metrics) {
+        return delegate.findLatestData(tenantId, type, metrics);
+    }
+
+    @Override
+    public <T> Observable<ResultSet> deleteLatestData(MetricId<T> id, long timestamp) {
+        return delegate.deleteLatestData(id, timestamp);
+    }
+
     @Override public Set<Long> findExpiredTables(long startTime) {
         return delegate.findExpiredTables(startTime);
     }
@@ -124,10 +163,79 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findAllDataFromBucket(timestamp, pageSize, maxConcurrency);
     }
 
+    @Override public Observable<Row> findAllDataFromBucket(long timestamp, TokenRange tokenRange, int pageSize) {
+        return delegate.findAllDataFromBucket(timestamp, tokenRange, pageSize);
+    }
+
+    @Override public Map<Host, List<TokenRange>> findTokenSplits(int splits) {
+        return delegate.findTokenSplits(splits);
+    }
+
     @Override public Observable<ResultSet> dropTempTable(long timestamp) {
         return delegate.dropTempTable(timestamp);
     }
 
+    @Override public Observable<ResultSet> createWalTablesIfNotExists(Set<Long> timestamps) {
+        return delegate.createWalTablesIfNotExists(timestamps);
+    }
+
+    @Override public NavigableSet<Long> findTempTables(long startTime, long endTime) {
+        return delegate.findTempTables(startTime, endTime);
+    }
+
+    @Override public boolean hasWalTable(long timeslice) {
+        return delegate.hasWalTable(timeslice);
+    }
+
+    @Override public NavigableSet<Long> findWalTables(long startTime, long endTime) {
+        return delegate.findWalTables(startTime, endTime);
+    }
+
+    @Override public long findFirstOpenTimeSlice() {
+        return delegate.findFirstOpenTimeSlice();
+    }
+
+    @Override public <T> Observable<ResultSet> insertWalChunk(MetricId<T> id, long timeslice, int count,
+            CompressedPointContainer chunk) {
+        return delegate.insertWalChunk(id, timeslice, count, chunk);
+    }
+
+    @Override public <T> Observable<Row> findWalChunks(MetricId<T> id, long timeslice) {
+        return delegate.findWalChunks(id, timeslice);
+    }
+
+    @Override public Observable<Row> findAllWalChunks(long timeslice, TokenRange tokenRange, int pageSize) {
+        return delegate.findAllWalChunks(timeslice, tokenRange, pageSize);
+    }
+
+    @Override public Observable<ResultSet> dropWalTable(long timestamp) {
+        return delegate.dropWalTable(timestamp);
+    }
+
+    @Override public Observable<TokenRange> findCompressionCheckpoints(long timestamp) {
+        return delegate.findCompressionCheckpoints(timestamp);
+    }
+
+    @Override public Observable<ResultSet> insertCompressionCheckpoint(long timestamp, TokenRange tokenRange) {
+        return delegate.insertCompressionCheckpoint(timestamp, tokenRange);
+    }
+
+    @Override public Observable<ResultSet> deleteCompressionCheckpoints(long timestamp) {
+        return delegate.deleteCompressionCheckpoints(timestamp);
+    }
+
+    @Override public Observable<ResultSet> insertDayRollupMetric(long day, MetricId<?> id) {
+        return delegate.insertDayRollupMetric(day, id);
+    }
+
+    @Override public Observable<Row> findDayRollupMetrics(long day, int pageSize) {
+        return delegate.findDayRollupMetrics(day, pageSize);
+    }
+
+    @Override public Observable<ResultSet> deleteDayRollupMetrics(long day) {
+        return delegate.deleteDayRollupMetrics(day);
+    }
+
 //    @Override public Completable resetTempTable(long timestamp) {
 //        return delegate.resetTempTable(timestamp);
 //    }
@@ -142,6 +250,11 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.insertData(metrics);
     }
 
+    @Override
+    public Observable<Integer> insertDataColumns(Observable<DataPointColumns> columns) {
+        return delegate.insertDataColumns(columns);
+    }
+
     @Override
     public Observable<Integer> insertStringDatas(Observable<Metric<String>> strings,
             Function<MetricId<String>, Integer> ttlFetcher, int maxSize) {
@@ -153,12 +266,29 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.findCompressedData(id, startTime, endTime, limit, order);
     }
 
+    @Override
+    public Observable<Row> findCompressedSummaries(MetricId<?> id, long startTime, long endTime) {
+        return delegate.findCompressedSummaries(id, startTime, endTime);
+    }
+
     @Override
     public <T> Observable<Row> findTempData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
                                             int pageSize) {
         return delegate.findTempData(id, startTime, endTime, limit, order, pageSize);
     }
 
+    @Override
+    public <T> Observable<Row> findBlockTempData(MetricId<T> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
+        return delegate.findBlockTempData(id, startTime, endTime, limit, order, pageSize);
+    }
+
+    @Override
+    public <T> Observable<Row> findOutOfOrderData(MetricId<T> id, long startTime, long endTime, int limit,
+            Order order, int pageSize) {
+        return delegate.findOutOfOrderData(id, startTime, endTime, limit, order, pageSize);
+    }
+
 //    @Override
 //    public <T> Observable<Row> findOldData(MetricId<T> id, long startTime, long endTime, int limit, Order order,
 //                                           int pageSize) {
@@ -249,6 +379,17 @@ public class DelegatingDataAccess implements DataAccess {
         return delegate.insertCompressedData(id, timeslice, cpc, ttl);
     }
 
+    @Override
+    public Observable<ResultSet> insertRollups(MetricId<?> id, RollupTier tier, Map<Long, BlockSummary> summaries,
+                                               int ttl) {
+        return delegate.insertRollups(id, tier, summaries, ttl);
+    }
+
+    @Override
+    public Observable<Row> findRollups(MetricId<?> id, RollupTier tier, long startTime, long endTime) {
+        return delegate.findRollups(id, tier, startTime, endTime);
+    }
+
     @Override public void shutdown() {
         delegate.shutdown();
     }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.AVAILABILITY;
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.compress.CompressedPointContainer;
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class HeadBlockTest {
+
+    private static final long BLOCK_START = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    @Test
+    public void pointsAreSortedAndReplaced() {
+        HeadBlock block = new HeadBlock(GAUGE, BLOCK_START);
+        block.add(new DataPoint<>(BLOCK_START + 3000, 3.0));
+        block.add(new DataPoint<>(BLOCK_START + 1000, 1.0));
+        block.add(new DataPoint<>(BLOCK_START + 2000, 2.0));
+        block.add(new DataPoint<>(BLOCK_START + 1000, 1.5));
+
+        assertEquals(3, block.size());
+        List<DataPoint<Double>> asc = block.find(BLOCK_START, BLOCK_START + 3000, Order.ASC);
+        assertEquals(asList(new DataPoint<>(BLOCK_START + 1000, 1.5), new DataPoint<>(BLOCK_START + 2000, 2.0)), asc);
+
+        List<DataPoint<Double>> desc = block.find(BLOCK_START + 1500, BLOCK_START + 4000, Order.DESC);
+        assertEquals(asList(new DataPoint<>(BLOCK_START + 3000, 3.0), new DataPoint<>(BLOCK_START + 2000, 2.0)),
+                desc);
+    }
+
+    @Test
+    public void compressedChunksAreMerged() {
+        Map<String, String> tags = ImmutableMap.of("x", "1");
+        HeadBlock chunk = new HeadBlock(COUNTER, BLOCK_START);
+        chunk.add(new DataPoint<>(BLOCK_START + 1000, 10L));
+        chunk.add(new DataPoint<>(BLOCK_START + 2000, 20L, tags));
+        CompressedPointContainer compressed = chunk.compress(false);
+        assertNull(compressed.getSummaryBuffer());
+
+        // A later chunk overwrites the points of an earlier one
+        HeadBlock later = new HeadBlock(COUNTER, BLOCK_START);
+        later.add(new DataPoint<>(BLOCK_START + 2000, 25L));
+        later.add(new DataPoint<>(BLOCK_START + 500, 5L));
+
+        HeadBlock block = new HeadBlock(COUNTER, BLOCK_START);
+        block.addCompressed(compressed.getValueBuffer(), compressed.getTagsBuffer());
+        CompressedPointContainer laterCompressed = later.compress(true);
+        assertNotNull(laterCompressed.getSummaryBuffer());
+        block.addCompressed(laterCompressed.getValueBuffer(), laterCompressed.getTagsBuffer());
+
+        List<DataPoint<Long>> points = block.find(BLOCK_START, BLOCK_START + 3000, Order.ASC);
+        assertEquals(asList(new DataPoint<>(BLOCK_START + 500, 5L), new DataPoint<>(BLOCK_START + 1000, 10L),
+                new DataPoint<>(BLOCK_START + 2000, 25L)), points);
+
+        HeadBlock tagged = new HeadBlock(COUNTER, BLOCK_START);
+        tagged.addCompressed(compressed.getValueBuffer(), compressed.getTagsBuffer());
+        assertEquals(tags, tagged.<Long> find(BLOCK_START + 2000, BLOCK_START + 2001, Order.ASC).get(0).getTags());
+    }
+
+    @Test
+    public void availabilityRoundtrip() {
+        HeadBlock chunk = new HeadBlock(AVAILABILITY, BLOCK_START);
+        chunk.add(new DataPoint<>(BLOCK_START + 1000, AvailabilityType.DOWN));
+        chunk.add(new DataPoint<>(BLOCK_START, AvailabilityType.UP));
+        CompressedPointContainer compressed = chunk.compress(false);
+
+        HeadBlock block = new HeadBlock(AVAILABILITY, BLOCK_START);
+        block.addCompressed(compressed.getValueBuffer(), null);
+        assertEquals(asList(new DataPoint<>(BLOCK_START + 1000, AvailabilityType.DOWN),
+                new DataPoint<>(BLOCK_START, AvailabilityType.UP)),
+                block.find(BLOCK_START, BLOCK_START + 2000, Order.DESC));
+    }
+}
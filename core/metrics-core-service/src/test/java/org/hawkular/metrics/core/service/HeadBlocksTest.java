@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Collections.singletonList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+
+import rx.Observable;
+
+public class HeadBlocksTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long BLOCK_START = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    private MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+    private DataAccess dataAccess;
+
+    private HeadBlocks headBlocks;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.hasWalTable(BLOCK_START)).thenReturn(true);
+        when(dataAccess.findWalTables(anyLong(), anyLong())).thenReturn(new TreeSet<>(singletonList(BLOCK_START)));
+        when(dataAccess.insertWalChunk(eq(id), eq(BLOCK_START), anyInt(), any()))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+        // The write-ahead log has no chunks, as when they have been deleted
+        when(dataAccess.findWalChunks(id, BLOCK_START)).thenReturn(Observable.empty());
+        headBlocks = new HeadBlocks(dataAccess, BLOCK_SIZE, true, 1000);
+    }
+
+    @Test
+    public void invalidatedBlocksAreReadAgain() {
+        DataPoint<Double> dataPoint = new DataPoint<>(BLOCK_START + 1000, 1.0);
+        headBlocks.insertData(Observable.just(new Metric<>(id, singletonList(dataPoint)))).toBlocking()
+                .lastOrDefault(null);
+        assertEquals(singletonList(dataPoint), find());
+
+        headBlocks.invalidate(id);
+        assertEquals(Collections.emptyList(), find());
+    }
+
+    @Test
+    public void chunksOfTheSameMetricAreCoalesced() {
+        DataPoint<Double> first = new DataPoint<>(BLOCK_START + 1000, 1.0);
+        DataPoint<Double> second = new DataPoint<>(BLOCK_START + 2000, 2.0);
+        headBlocks.insertData(Observable.just(new Metric<>(id, singletonList(second)),
+                new Metric<>(id, singletonList(first)))).toBlocking().lastOrDefault(null);
+
+        verify(dataAccess, times(1)).insertWalChunk(eq(id), eq(BLOCK_START), eq(2), any());
+        assertEquals(Arrays.asList(first, second), find());
+    }
+
+    private List<DataPoint<Double>> find() {
+        return headBlocks.findData(id, BLOCK_START, BLOCK_START + BLOCK_SIZE, Order.ASC).toList().toBlocking()
+                .single();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.exceptions.DriverException;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+public class InFlightLimiterTest {
+
+    @Test
+    public void waitForFreeSlot() {
+        InFlightLimiter limiter = new InFlightLimiter(2, 1, TimeUnit.HOURS);
+        PublishSubject<Integer> first = PublishSubject.create();
+        PublishSubject<Integer> second = PublishSubject.create();
+        PublishSubject<Integer> third = PublishSubject.create();
+
+        TestSubscriber<Integer> s1 = new TestSubscriber<>();
+        TestSubscriber<Integer> s2 = new TestSubscriber<>();
+        TestSubscriber<Integer> s3 = new TestSubscriber<>();
+        limiter.limit("a", first).subscribe(s1);
+        limiter.limit("a", second).subscribe(s2);
+        limiter.limit("a", third).subscribe(s3);
+
+        assertTrue(first.hasObservers());
+        assertTrue(second.hasObservers());
+        assertTrue(!third.hasObservers());
+
+        first.onNext(1);
+        first.onCompleted();
+        s1.assertValue(1);
+        assertTrue(third.hasObservers());
+
+        third.onNext(3);
+        third.onCompleted();
+        s3.assertValue(3);
+        s3.assertCompleted();
+    }
+
+    @Test
+    public void groupsAreIndependent() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 1, TimeUnit.HOURS);
+        PublishSubject<Integer> first = PublishSubject.create();
+        PublishSubject<Integer> second = PublishSubject.create();
+
+        limiter.limit("a", first).subscribe();
+        limiter.limit("b", second).subscribe();
+
+        assertTrue(first.hasObservers());
+        assertTrue(second.hasObservers());
+    }
+
+    @Test
+    public void decreaseOnDriverErrorsAndRecover() {
+        InFlightLimiter limiter = new InFlightLimiter(8, 1, TimeUnit.HOURS);
+
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        limiter.limit("a", Observable.error(new DriverException("timeout"))).subscribe(subscriber);
+        subscriber.assertError(DriverException.class);
+        assertEquals(4, limiter.getLimit("a"));
+
+        // Other errors say nothing about the load of the replicas
+        limiter.limit("a", Observable.error(new IllegalStateException())).subscribe(new TestSubscriber<>());
+        assertEquals(4, limiter.getLimit("a"));
+
+        for (int i = 0; i < 40; i++) {
+            limiter.limit("a", Observable.just(i)).subscribe();
+        }
+        assertEquals(8, limiter.getLimit("a"));
+    }
+
+    @Test
+    public void decreaseWhenSlowerThanTarget() {
+        InFlightLimiter limiter = new InFlightLimiter(10, 0, TimeUnit.NANOSECONDS);
+
+        limiter.limit("a", Observable.timer(1, TimeUnit.MILLISECONDS)).toBlocking().subscribe();
+        assertEquals(9, limiter.getLimit("a"));
+    }
+
+    @Test
+    public void releaseSlotOnUnsubscribe() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 1, TimeUnit.HOURS);
+        PublishSubject<Integer> first = PublishSubject.create();
+        PublishSubject<Integer> second = PublishSubject.create();
+
+        TestSubscriber<Integer> s1 = new TestSubscriber<>();
+        limiter.limit("a", first).subscribe(s1);
+        limiter.limit("a", second).subscribe();
+        assertTrue(!second.hasObservers());
+
+        s1.unsubscribe();
+        assertTrue(second.hasObservers());
+    }
+}
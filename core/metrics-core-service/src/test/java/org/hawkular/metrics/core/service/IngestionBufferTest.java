@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+public class IngestionBufferTest {
+
+    private TestScheduler scheduler;
+    private List<List<Metric<?>>> writes;
+    private IngestionBuffer buffer;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestScheduler();
+        writes = new ArrayList<>();
+        buffer = new IngestionBuffer(metrics -> {
+            writes.add(metrics);
+            return Observable.from(metrics).map(m -> m.getDataPoints().size());
+        }, 5, 10, scheduler);
+    }
+
+    @Test
+    public void coalesceRequestsWithinWindow() {
+        TestSubscriber<Integer> first = new TestSubscriber<>();
+        TestSubscriber<Integer> second = new TestSubscriber<>();
+        buffer.add(singletonList(gauge("g1", 2))).subscribe(first);
+        buffer.add(singletonList(gauge("g2", 3))).subscribe(second);
+
+        assertEquals(0, writes.size());
+        first.assertNoTerminalEvent();
+
+        scheduler.advanceTimeBy(5, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, writes.size());
+        assertEquals(2, writes.get(0).size());
+        first.assertValue(2);
+        first.assertCompleted();
+        second.assertValue(3);
+        second.assertCompleted();
+    }
+
+    @Test
+    public void writeWhenFull() {
+        TestSubscriber<Integer> first = new TestSubscriber<>();
+        TestSubscriber<Integer> second = new TestSubscriber<>();
+        buffer.add(singletonList(gauge("g1", 6))).subscribe(first);
+        buffer.add(singletonList(gauge("g2", 4))).subscribe(second);
+
+        assertEquals(1, writes.size());
+        first.assertValue(6);
+        second.assertValue(4);
+
+        // The timer of the written batch does not write anything
+        scheduler.advanceTimeBy(5, TimeUnit.MILLISECONDS);
+        assertEquals(1, writes.size());
+    }
+
+    @Test
+    public void writeLargeRequestsDirectly() {
+        TestSubscriber<Integer> small = new TestSubscriber<>();
+        TestSubscriber<Integer> large = new TestSubscriber<>();
+        buffer.add(singletonList(gauge("g1", 1))).subscribe(small);
+        buffer.add(asList(gauge("g2", 6), gauge("g3", 6))).subscribe(large);
+
+        assertEquals(1, writes.size());
+        large.assertValues(6, 6);
+        large.assertCompleted();
+        small.assertNoTerminalEvent();
+    }
+
+    @Test
+    public void failAllRequestsOfFailedWrite() {
+        buffer = new IngestionBuffer(metrics -> Observable.error(new RuntimeException("write failed")), 5, 10,
+                scheduler);
+        TestSubscriber<Integer> first = new TestSubscriber<>();
+        TestSubscriber<Integer> second = new TestSubscriber<>();
+        buffer.add(singletonList(gauge("g1", 2))).subscribe(first);
+        buffer.add(singletonList(gauge("g2", 3))).subscribe(second);
+
+        scheduler.advanceTimeBy(5, TimeUnit.MILLISECONDS);
+
+        first.assertError(RuntimeException.class);
+        second.assertError(RuntimeException.class);
+    }
+
+    @Test
+    public void writePendingPointsOnShutdown() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        buffer.add(singletonList(gauge("g1", 2))).subscribe(subscriber);
+
+        buffer.shutdown();
+
+        assertEquals(1, writes.size());
+        subscriber.assertValue(2);
+    }
+
+    @Test
+    public void writeDirectlyAfterShutdown() {
+        buffer.shutdown();
+
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        buffer.add(singletonList(gauge("g1", 2))).subscribe(subscriber);
+
+        assertEquals(1, writes.size());
+        subscriber.assertValue(2);
+        subscriber.assertCompleted();
+    }
+
+    private static Metric<Double> gauge(String name, int points) {
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            dataPoints.add(new DataPoint<>((long) i + 1, (double) i));
+        }
+        return new Metric<>(new MetricId<>("t", GAUGE, name), dataPoints);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.NamedDataPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+public class LatestDataIndexTest {
+
+    private static final int TTL = 3600;
+
+    private MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+    private DataAccess dataAccess;
+
+    private LatestDataIndex index;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.insertLatestData(any(), any())).thenReturn(Observable.just(1));
+        Row row = mock(Row.class);
+        when(row.getString(0)).thenReturn("g1");
+        when(row.getTimestamp(1)).thenReturn(new Date(2000));
+        when(row.getDouble(2)).thenReturn(2.0);
+        when(row.getMap(3, String.class, String.class)).thenReturn(new HashMap<>());
+        when(dataAccess.findLatestData("t", GAUGE, singletonList("g1"))).thenReturn(Observable.just(row));
+        index = new LatestDataIndex(dataAccess, metricId -> TTL, 100, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void latestDataPointIsWritten() {
+        Metric<Double> metric = new Metric<>(id, asList(new DataPoint<>(3000L, 3.0), new DataPoint<>(1000L, 1.0)));
+
+        MetricId<Double> other = new MetricId<>("t", GAUGE, "g2");
+        Metric<Double> otherMetric = new Metric<>(other, singletonList(new DataPoint<>(5000L, 5.0)));
+
+        index.update(asList(metric, otherMetric)).toBlocking().lastOrDefault(null);
+
+        Map<MetricId<?>, DataPoint<?>> expected = new HashMap<>();
+        expected.put(id, new DataPoint<>(3000L, 3.0));
+        expected.put(other, new DataPoint<>(5000L, 5.0));
+        verify(dataAccess).insertLatestData(eq(expected), any());
+    }
+
+    @Test
+    public void failedWriteDoesNotFailAndDropsCachedDataPoint() {
+        findLatest();
+        when(dataAccess.insertLatestData(any(), any())).thenReturn(Observable.error(new RuntimeException()));
+
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        index.update(id, new DataPoint<>(4000L, 4.0)).subscribe(subscriber);
+
+        subscriber.assertNoErrors();
+        subscriber.assertCompleted();
+        findLatest();
+        verify(dataAccess, times(2)).findLatestData("t", GAUGE, singletonList("g1"));
+    }
+
+    @Test
+    public void latestDataPointIsReadOnce() {
+        List<NamedDataPoint<Double>> expected = singletonList(new NamedDataPoint<>("g1", new DataPoint<>(2000L, 2.0)));
+
+        assertEquals(expected, findLatest());
+        assertEquals(expected, findLatest());
+        verify(dataAccess, times(1)).findLatestData("t", GAUGE, singletonList("g1"));
+    }
+
+    @Test
+    public void cachedDataPointIsReplacedByLaterOne() {
+        findLatest();
+
+        index.update(id, new DataPoint<>(1000L, 1.0)).toBlocking().lastOrDefault(null);
+        assertEquals(singletonList(new NamedDataPoint<>("g1", new DataPoint<>(2000L, 2.0))), findLatest());
+
+        index.update(id, new DataPoint<>(4000L, 4.0)).toBlocking().lastOrDefault(null);
+        assertEquals(singletonList(new NamedDataPoint<>("g1", new DataPoint<>(4000L, 4.0))), findLatest());
+    }
+
+    @Test
+    public void deleteUsesTimestampOfLatestDataPoint() {
+        when(dataAccess.deleteLatestData(id, 2000L)).thenReturn(Observable.just(mock(ResultSet.class)));
+
+        LatestDataIndex.delete(dataAccess, id).toBlocking().lastOrDefault(null);
+
+        verify(dataAccess).deleteLatestData(id, 2000L);
+    }
+
+    @Test
+    public void backfilledDataPointIsCached() {
+        MetricId<Double> other = new MetricId<>("t", GAUGE, "g2");
+        when(dataAccess.findLatestData("t", GAUGE, singletonList("g2"))).thenReturn(Observable.empty());
+
+        index.backfill(other, new DataPoint<>(1000L, 1.0)).toBlocking().lastOrDefault(null);
+
+        assertEquals(singletonList(new NamedDataPoint<>("g2", new DataPoint<>(1000L, 1.0))),
+                index.findLatest(singletonList(other)).toList().toBlocking().single());
+        verify(dataAccess, never()).findLatestData("t", GAUGE, singletonList("g2"));
+    }
+
+    private List<NamedDataPoint<Double>> findLatest() {
+        return index.findLatest(singletonList(id)).toList().toBlocking().single();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class MetricDefinitionCacheTest {
+
+    @Test
+    public void cacheAndInvalidate() {
+        MetricDefinitionCache cache = new MetricDefinitionCache(1024 * 1024, 1, TimeUnit.HOURS);
+        MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+        Metric<Double> metric = new Metric<>(id, ImmutableMap.of("pod_id", "p1"), 7);
+
+        cache.put(metric, cache.getGeneration());
+        assertSame(metric, cache.get(id));
+
+        cache.invalidate(id);
+        assertNull(cache.get(id));
+    }
+
+    @Test
+    public void doNotCacheDefinitionsReadBeforeInvalidation() {
+        MetricDefinitionCache cache = new MetricDefinitionCache(1024 * 1024, 1, TimeUnit.HOURS);
+        MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+        long generation = cache.getGeneration();
+        // Tags updated while the old definition was being read
+        cache.invalidate(id);
+        cache.put(new Metric<>(id, ImmutableMap.of("pod_id", "old")), generation);
+
+        assertNull(cache.get(id));
+    }
+
+    @Test
+    public void boundBySize() {
+        int weight = MetricDefinitionCache.weigh(new Metric<>(new MetricId<>("t", GAUGE, "g0"),
+                ImmutableMap.of("pod_id", "p0")));
+        MetricDefinitionCache cache = new MetricDefinitionCache(10 * weight, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 100; i++) {
+            cache.put(new Metric<>(new MetricId<>("t", GAUGE, "g" + (i % 10)), ImmutableMap.of("pod_id", "p" + i)),
+                    cache.getGeneration());
+        }
+        assertTrue(cache.size() <= 10);
+
+        MetricDefinitionCache disabled = new MetricDefinitionCache(0, 1, TimeUnit.HOURS);
+        disabled.put(new Metric<>(new MetricId<>("t", GAUGE, "g0")), disabled.getGeneration());
+        assertEquals(0, disabled.size());
+    }
+}
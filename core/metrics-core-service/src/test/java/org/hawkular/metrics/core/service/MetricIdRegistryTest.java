@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+
+import rx.Observable;
+
+public class MetricIdRegistryTest {
+
+    private DataAccess dataAccess;
+
+    private MetricIdRegistry registry;
+
+    @Before
+    public void setUp() {
+        dataAccess = mock(DataAccess.class);
+        when(dataAccess.insertIntoMetricsRegistry(any(), anyInt())).thenReturn(Observable.just(mock(ResultSet.class)));
+        when(dataAccess.deleteFromMetricsRegistry(any())).thenReturn(Observable.just(mock(ResultSet.class)));
+        registry = new MetricIdRegistry(dataAccess, 100, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void registerEachIdOnce() {
+        MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+        registry.register(id, 600).await();
+        registry.register(id, 600).await();
+        registry.register(new MetricId<>("t", GAUGE, "g2"), 600).await();
+
+        // The row outlives the data by the refresh interval, it is written again before it expires
+        verify(dataAccess, times(1)).insertIntoMetricsRegistry(id, 600 + 3600);
+        verify(dataAccess, times(2)).insertIntoMetricsRegistry(any(), anyInt());
+    }
+
+    @Test
+    public void registerAgainAfterDelete() {
+        MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+        registry.register(id, 600).await();
+        assertEquals(1, registry.delete(id).count().toBlocking().single().intValue());
+        registry.register(id, 600).await();
+
+        verify(dataAccess, times(2)).insertIntoMetricsRegistry(id, 600 + 3600);
+    }
+
+    @Test
+    public void doNotRememberFailedRegistrations() {
+        MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+        when(dataAccess.insertIntoMetricsRegistry(id, 600 + 3600))
+                .thenReturn(Observable.error(new RuntimeException("write failed")))
+                .thenReturn(Observable.just(mock(ResultSet.class)));
+
+        registry.register(id, 600).onErrorComplete().await();
+        registry.register(id, 600).await();
+        registry.register(id, 600).await();
+
+        verify(dataAccess, times(2)).insertIntoMetricsRegistry(id, 600 + 3600);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.stream.Collectors.toList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.NamedDataPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+public class ReadConcurrentlyTest {
+
+    private static final int METRICS = 6;
+
+    private TestScheduler scheduler;
+
+    private AtomicInteger inFlight;
+
+    private AtomicInteger peakInFlight;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestScheduler();
+        inFlight = new AtomicInteger();
+        peakInFlight = new AtomicInteger();
+    }
+
+    @Test
+    public void dataPointsAreGroupedByMetricInIdOrder() {
+        List<NamedDataPoint<Double>> dataPoints = read(3, 8, 32);
+
+        List<String> expected = IntStream.range(0, METRICS)
+                .mapToObj(i -> "m" + i)
+                .flatMap(name -> IntStream.range(0, 2).mapToObj(j -> name))
+                .collect(toList());
+        assertEquals(expected, dataPoints.stream().map(NamedDataPoint::getName).collect(toList()));
+        assertEquals(3, peakInFlight.get());
+    }
+
+    @Test
+    public void defaultConcurrencyIsUsedWithoutConcurrency() {
+        read(0, 2, 32);
+
+        assertEquals(2, peakInFlight.get());
+    }
+
+    @Test
+    public void concurrencyIsCapped() {
+        read(100, 2, 4);
+
+        assertEquals(4, peakInFlight.get());
+    }
+
+    private List<NamedDataPoint<Double>> read(int concurrency, int defaultConcurrency, int maxConcurrency) {
+        TestSubscriber<NamedDataPoint<Double>> subscriber = new TestSubscriber<>();
+        Observable.range(0, METRICS)
+                .map(i -> new MetricId<>("t", GAUGE, "m" + i))
+                .compose(MetricsServiceImpl.readConcurrently(this::find, concurrency, defaultConcurrency,
+                        maxConcurrency))
+                .subscribe(subscriber);
+        scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        subscriber.assertCompleted();
+        return subscriber.getOnNextEvents();
+    }
+
+    /**
+     * The later metrics are read faster, so their reads finish first.
+     */
+    private Observable<DataPoint<Double>> find(MetricId<Double> id) {
+        long delay = METRICS - Integer.parseInt(id.getName().substring(1));
+        return Observable.just(new DataPoint<>(1000L, 1.0), new DataPoint<>(2000L, 2.0))
+                .delay(delay, TimeUnit.SECONDS, scheduler)
+                .doOnSubscribe(() -> peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                .doOnTerminate(inFlight::decrementAndGet);
+    }
+}
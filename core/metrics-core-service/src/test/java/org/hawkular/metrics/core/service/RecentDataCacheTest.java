@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.Observable;
+
+public class RecentDataCacheTest {
+
+    private static final long BLOCK_SIZE = TimeUnit.HOURS.toMillis(2);
+    private static final long BLOCK_START = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    private MetricId<Double> id = new MetricId<>("t", GAUGE, "g1");
+
+    private List<List<Long>> reads;
+
+    private RecentDataCache cache;
+
+    @Before
+    public void setUp() {
+        DataAccess dataAccess = mock(DataAccess.class);
+        when(dataAccess.findTempTables(BLOCK_START - 1000, BLOCK_START + 5000))
+                .thenReturn(new TreeSet<>(singletonList(BLOCK_START)));
+        when(dataAccess.findTempTables(BLOCK_START, BLOCK_START + 5000))
+                .thenReturn(new TreeSet<>(singletonList(BLOCK_START)));
+        reads = new ArrayList<>();
+        cache = new RecentDataCache(dataAccess, (metricId, start, end, order) -> {
+            reads.add(asList(start, end));
+            if (start < BLOCK_START) {
+                return Observable.just(new DataPoint<>(BLOCK_START - 500, 0.5));
+            }
+            return Observable.just(new DataPoint<>(BLOCK_START + 1000, 1.0), new DataPoint<>(BLOCK_START + 2000, 2.0));
+        }, BLOCK_SIZE, 1024 * 1024, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void blockIsReadOnce() {
+        List<DataPoint<Double>> expected = asList(new DataPoint<>(BLOCK_START + 1000, 1.0),
+                new DataPoint<>(BLOCK_START + 2000, 2.0));
+
+        assertEquals(expected, find(BLOCK_START, Order.ASC));
+        assertEquals(expected, find(BLOCK_START, Order.ASC));
+        assertEquals(singletonList(asList(BLOCK_START, BLOCK_START + BLOCK_SIZE)), reads);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void writtenPointsAreAddedToCachedBlocks() {
+        // Not cached yet, read with the block
+        cache.addData(new Metric<>(id, singletonList(new DataPoint<>(BLOCK_START + 4000, 4.0))));
+        find(BLOCK_START, Order.ASC);
+
+        cache.addData(new Metric<>(id, singletonList(new DataPoint<>(BLOCK_START + 3000, 3.0))));
+
+        assertEquals(asList(new DataPoint<>(BLOCK_START + 3000, 3.0), new DataPoint<>(BLOCK_START + 2000, 2.0),
+                new DataPoint<>(BLOCK_START + 1000, 1.0)), find(BLOCK_START, Order.DESC));
+    }
+
+    @Test
+    public void growingBlocksAreWeighedAgain() {
+        DataAccess dataAccess = mock(DataAccess.class);
+        when(dataAccess.findTempTables(BLOCK_START, BLOCK_START + 5000))
+                .thenReturn(new TreeSet<>(singletonList(BLOCK_START)));
+        cache = new RecentDataCache(dataAccess, (metricId, start, end, order) -> Observable.empty(), BLOCK_SIZE, 4096,
+                1, TimeUnit.HOURS);
+        find(BLOCK_START, Order.ASC);
+        assertEquals(1, cache.size());
+
+        List<DataPoint<Double>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dataPoints.add(new DataPoint<>(BLOCK_START + i, (double) i));
+        }
+        cache.addData(new Metric<>(id, dataPoints));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void outOfOrderPointsAreNotCached() {
+        List<DataPoint<Double>> expected = asList(new DataPoint<>(BLOCK_START - 500, 0.5),
+                new DataPoint<>(BLOCK_START + 1000, 1.0), new DataPoint<>(BLOCK_START + 2000, 2.0));
+
+        assertEquals(expected, find(BLOCK_START - 1000, Order.ASC));
+        assertEquals(expected, find(BLOCK_START - 1000, Order.ASC));
+        assertEquals(asList(asList(BLOCK_START - 1000, BLOCK_START), asList(BLOCK_START, BLOCK_START + BLOCK_SIZE),
+                asList(BLOCK_START - 1000, BLOCK_START)), reads);
+    }
+
+    @Test
+    public void invalidatedBlocksAreReadAgain() {
+        find(BLOCK_START, Order.ASC);
+        cache.invalidate(id);
+
+        assertEquals(0, cache.size());
+        find(BLOCK_START, Order.ASC);
+        assertEquals(asList(asList(BLOCK_START, BLOCK_START + BLOCK_SIZE), asList(BLOCK_START,
+                BLOCK_START + BLOCK_SIZE)), reads);
+    }
+
+    private List<DataPoint<Double>> find(long start, Order order) {
+        return cache.findData(id, start, BLOCK_START + 5000, order).toList().toBlocking().single();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Covers the lookup of the temp tables that {@link DataAccessImpl#findTempData} and
+ * {@link DataAccessImpl#findBlockTempData} read for a time range.
+ */
+public class TempTableRangeTest {
+
+    private static final long BLOCK = TimeUnit.HOURS.toMillis(2);
+
+    private final NavigableMap<Long, String> tables = new TreeMap<>();
+
+    public TempTableRangeTest() {
+        // The out-of-order table is at key 0
+        tables.put(0L, "data_0");
+        tables.put(BLOCK, "block 1");
+        tables.put(2 * BLOCK, "block 2");
+        tables.put(3 * BLOCK, "block 3");
+    }
+
+    @Test
+    public void tableStartingAtEndIsNotRead() {
+        assertEquals(asList(BLOCK), keys(BLOCK, 2 * BLOCK, Order.ASC));
+        assertEquals(asList(BLOCK, 2 * BLOCK), keys(BLOCK, 3 * BLOCK, Order.ASC));
+    }
+
+    @Test
+    public void tableHoldingEndIsRead() {
+        assertEquals(asList(BLOCK, 2 * BLOCK), keys(BLOCK + 1, 2 * BLOCK + 1, Order.ASC));
+    }
+
+    @Test
+    public void outOfOrderTableHoldsRangeBeforeFirstBlock() {
+        assertEquals(asList(0L, BLOCK), keys(BLOCK / 2, BLOCK + 1, Order.ASC));
+        assertEquals(asList(0L), keys(BLOCK / 2, BLOCK, Order.ASC));
+    }
+
+    @Test
+    public void lastTableHoldsRangeAfterIt() {
+        assertEquals(asList(3 * BLOCK), keys(4 * BLOCK, 5 * BLOCK, Order.ASC));
+    }
+
+    @Test
+    public void emptyRangeReadsTableHoldingStart() {
+        assertEquals(asList(2 * BLOCK), keys(2 * BLOCK, 2 * BLOCK, Order.ASC));
+    }
+
+    @Test
+    public void descendingOrder() {
+        assertEquals(asList(2 * BLOCK, BLOCK), keys(BLOCK, 3 * BLOCK, Order.DESC));
+        assertEquals(asList(BLOCK, 0L), keys(BLOCK / 2, BLOCK + 1, Order.DESC));
+    }
+
+    private List<Long> keys(long start, long end, Order order) {
+        return new ArrayList<>(DataAccessImpl.subSetMap(tables, start, end, order).keySet());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Token;
+import com.google.common.collect.ImmutableSet;
+
+public class TokenRingTest {
+
+    private final Host h1 = mock(Host.class);
+    private final Host h2 = mock(Host.class);
+    private final Host h3 = mock(Host.class);
+
+    @Test
+    public void findRangeOwningToken() {
+        SortedMap<Token, Set<Host>> ranges = new TreeMap<>();
+        ranges.put(token(-100), ImmutableSet.of(h1, h2));
+        ranges.put(token(0), ImmutableSet.of(h2, h3));
+        ranges.put(token(100), ImmutableSet.of(h3, h1));
+        ranges.put(token(200), ImmutableSet.of(h1, h2));
+        TokenRing ring = new TokenRing(ranges);
+
+        assertEquals(3, ring.getReplicaGroupCount());
+        int g12 = ring.getReplicaGroup(token(-100));
+        int g23 = ring.getReplicaGroup(token(-99));
+        int g31 = ring.getReplicaGroup(token(1));
+
+        assertEquals(ImmutableSet.of(h1, h2), ring.getReplicas(g12));
+        assertEquals(ImmutableSet.of(h2, h3), ring.getReplicas(g23));
+        assertEquals(ImmutableSet.of(h3, h1), ring.getReplicas(g31));
+
+        assertEquals(g23, ring.getReplicaGroup(token(0)));
+        assertEquals(g31, ring.getReplicaGroup(token(100)));
+        // (100, 200] and (200, -100] have the same replicas
+        assertEquals(g12, ring.getReplicaGroup(token(150)));
+        assertEquals(g12, ring.getReplicaGroup(token(201)));
+        assertEquals(g12, ring.getReplicaGroup(token(Long.MIN_VALUE)));
+        assertNotEquals(g12, g23);
+    }
+
+    @Test
+    public void singleRangeOwnsWholeRing() {
+        TokenRing ring = new TokenRing(new TreeMap<>(Collections.singletonMap(token(42), ImmutableSet.of(h1))));
+
+        assertEquals(0, ring.getReplicaGroup(token(Long.MIN_VALUE)));
+        assertEquals(0, ring.getReplicaGroup(token(42)));
+        assertEquals(0, ring.getReplicaGroup(token(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void emptyRing() {
+        TokenRing ring = new TokenRing(new TreeMap<>());
+
+        assertEquals(0, ring.getReplicaGroupCount());
+        assertEquals(0, ring.getReplicaGroup(token(1)));
+    }
+
+    private static Token token(long value) {
+        return new LongToken(value);
+    }
+
+    private static class LongToken extends Token {
+
+        private final long value;
+
+        LongToken(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public DataType getType() {
+            return DataType.bigint();
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public ByteBuffer serialize(ProtocolVersion protocolVersion) {
+            return ByteBuffer.allocate(8).putLong(0, value);
+        }
+
+        @Override
+        public int compareTo(Token other) {
+            return Long.compare(value, ((LongToken) other).value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LongToken && ((LongToken) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(value);
+        }
+    }
+}
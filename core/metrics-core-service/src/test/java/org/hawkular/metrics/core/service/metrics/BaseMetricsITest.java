@@ -36,7 +36,7 @@ import org.hawkular.metrics.core.service.DelegatingDataAccess;
 import org.hawkular.metrics.core.service.MetricsServiceImpl;
 import org.hawkular.metrics.core.service.PercentileWrapper;
 import org.hawkular.metrics.core.service.TestDataAccessFactory;
-import org.hawkular.metrics.core.service.transformers.NumericDataPointCollector;
+import org.hawkular.metrics.core.service.transformers.NumericBucketAggregator;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
@@ -79,7 +79,7 @@ public abstract class BaseMetricsITest extends BaseITest {
         ConfigurationService configurationService = new ConfigurationService() ;
         configurationService.init(rxSession);
 
-        defaultCreatePercentile = NumericDataPointCollector.createPercentile;
+        defaultCreatePercentile = NumericBucketAggregator.createPercentile;
 
         metricsService = new MetricsServiceImpl();
         metricsService.setDataAccess(this.dataAccess);
@@ -107,7 +107,7 @@ public abstract class BaseMetricsITest extends BaseITest {
             }
         }
 
-        NumericDataPointCollector.createPercentile = defaultCreatePercentile;
+        NumericBucketAggregator.createPercentile = defaultCreatePercentile;
     }
 
     @AfterClass(alwaysRun = true)
@@ -125,7 +125,7 @@ public abstract class BaseMetricsITest extends BaseITest {
                 .max((x, y) -> Double.compare(x.getValue().doubleValue(), y.getValue().doubleValue()))
                 .get()
                 .getValue();
-        PercentileWrapper expectedMedian = NumericDataPointCollector.createPercentile.apply(50.0);
+        PercentileWrapper expectedMedian = NumericBucketAggregator.createPercentile.apply(50.0);
         Mean expectedAverage = new Mean();
         Sum expectedSamples = new Sum();
         Sum expectedSum = new Sum();
@@ -299,6 +299,10 @@ public abstract class BaseMetricsITest extends BaseITest {
             values.add(value);
         }
 
+        @Override public void merge(PercentileWrapper other) {
+            values.addAll(((InMemoryPercentileWrapper) other).values);
+        }
+
         @Override public double getResult() {
             org.apache.commons.math3.stat.descriptive.rank.Percentile percentileCalculator =
                     new org.apache.commons.math3.stat.descriptive.rank.Percentile(percentile);
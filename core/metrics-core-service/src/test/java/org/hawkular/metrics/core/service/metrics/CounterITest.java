@@ -42,14 +42,15 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile;
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
 import org.hawkular.metrics.core.service.Order;
-import org.hawkular.metrics.core.service.transformers.NumericDataPointCollector;
+import org.hawkular.metrics.core.service.PercentileWrapper;
+import org.hawkular.metrics.core.service.transformers.NumericBucketAggregator;
 import org.hawkular.metrics.model.Buckets;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
 import org.hawkular.metrics.model.NumericBucketPoint;
 import org.hawkular.metrics.model.Percentile;
 import org.hawkular.metrics.model.Retention;
@@ -202,11 +203,11 @@ public class CounterITest extends BaseMetricsITest {
         int testSize = 100;
         List<DataPoint<Long>> counterList = new ArrayList<>(testSize);
 
-        PSquarePercentile top = new PSquarePercentile(99.9);
+        PercentileWrapper top = NumericBucketAggregator.createPercentile.apply(99.9);
 
         for (long i = 0; i < testSize; i++) {
             counterList.add(new DataPoint<>(now + 60000 + i, i));
-            top.increment(i);
+            top.addValue(i);
         }
 
         List<Percentile> percentiles = asList(new Percentile("50.0"), new Percentile("90.0"), new Percentile("99.0"),
@@ -241,6 +242,38 @@ public class CounterITest extends BaseMetricsITest {
         assertEquals(top.getResult(), bucket.getPercentiles().get(3).getValue());
     }
 
+    @Test
+    public void findCounterStatsAndRateStatsWithSingleRead() throws Exception {
+        String tenantId = "counter-stats-and-rates";
+        DateTime start = now().minusMinutes(10);
+
+        Metric<Long> counter = new Metric<>(new MetricId<>(tenantId, COUNTER, "C1"), asList(
+                new DataPoint<>(start.getMillis(), 10L),
+                new DataPoint<>(start.plusMinutes(1).getMillis(), 20L),
+                new DataPoint<>(start.plusMinutes(2).getMillis(), 5L),
+                new DataPoint<>(start.plusMinutes(3).getMillis(), 35L),
+                new DataPoint<>(start.plusMinutes(4).getMillis(), 50L)));
+        doAction(() -> metricsService.addDataPoints(COUNTER, Observable.just(counter)));
+
+        BucketConfig bucketConfig = mock(BucketConfig.class);
+        when(bucketConfig.getTimeRange()).thenReturn(new TimeRange(start.getMillis(),
+                start.plusMinutes(5).getMillis()));
+        when(bucketConfig.getBuckets()).thenReturn(Buckets.fromCount(start.getMillis(),
+                start.plusMinutes(5).getMillis(), 5));
+
+        List<NumericBucketPoint> expectedStats = metricsService.findCounterStats(counter.getMetricId(),
+                bucketConfig, emptyList()).toBlocking().single();
+        List<NumericBucketPoint> expectedRateStats = metricsService.findRateStats(counter.getMetricId(),
+                bucketConfig, emptyList()).toBlocking().single();
+
+        Map<MetricType<?>, List<NumericBucketPoint>> actual = metricsService.findStatsAndRateStats(
+                counter.getMetricId(), bucketConfig, emptyList()).toBlocking().single();
+
+        assertEquals(actual.keySet(), ImmutableSet.of(COUNTER, COUNTER_RATE));
+        assertNumericBucketsEquals(actual.get(COUNTER), expectedStats);
+        assertNumericBucketsEquals(actual.get(COUNTER_RATE), expectedRateStats);
+    }
+
 //    @Test
 //    public void addAndCompressData() throws Exception {
 //        String tenantId = "t1-counter";
@@ -303,7 +336,7 @@ public class CounterITest extends BaseMetricsITest {
     @Test
     public void findSimpleCounterStats() {
         //Setup the counter data
-        NumericDataPointCollector.createPercentile = InMemoryPercentileWrapper::new;
+        NumericBucketAggregator.createPercentile = InMemoryPercentileWrapper::new;
 
         Random r = new Random(123);
         List<Long> randomList = new ArrayList<>();
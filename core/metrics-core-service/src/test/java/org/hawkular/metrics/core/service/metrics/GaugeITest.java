@@ -36,8 +36,9 @@ import java.util.stream.Stream;
 
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
 import org.hawkular.metrics.core.service.Aggregate;
+import org.hawkular.metrics.core.service.DataAccessImpl;
 import org.hawkular.metrics.core.service.Order;
-import org.hawkular.metrics.core.service.transformers.NumericDataPointCollector;
+import org.hawkular.metrics.core.service.transformers.NumericBucketAggregator;
 import org.hawkular.metrics.model.Buckets;
 import org.hawkular.metrics.model.DataPoint;
 import org.hawkular.metrics.model.Metric;
@@ -185,7 +186,7 @@ public class GaugeITest extends BaseMetricsITest {
 
     @Test
     public void findStackedGaugeStatsByMetricNames() {
-        NumericDataPointCollector.createPercentile = InMemoryPercentileWrapper::new;
+        NumericBucketAggregator.createPercentile = InMemoryPercentileWrapper::new;
 
         DateTime start = now().minusMinutes(10);
 
@@ -230,7 +231,7 @@ public class GaugeITest extends BaseMetricsITest {
 
     @Test
     public void findSimpleGaugeStatsByMetricNames() {
-        NumericDataPointCollector.createPercentile = InMemoryPercentileWrapper::new;
+        NumericBucketAggregator.createPercentile = InMemoryPercentileWrapper::new;
 
         DateTime start = now().minusMinutes(10);
 
@@ -263,7 +264,7 @@ public class GaugeITest extends BaseMetricsITest {
 
     @Test
     public void findStackedGaugeStatsByTags() {
-        NumericDataPointCollector.createPercentile = InMemoryPercentileWrapper::new;
+        NumericBucketAggregator.createPercentile = InMemoryPercentileWrapper::new;
 
         DateTime start = now().minusMinutes(10);
 
@@ -401,6 +402,50 @@ public class GaugeITest extends BaseMetricsITest {
 //        assertEquals(actual, expected);
     }
 
+    @Test
+    public void findWithLimitAcrossOpenBlocksAndOutOfOrderData() throws Exception {
+        metricsService.createTenant(new Tenant(tenantId), false).toBlocking().lastOrDefault(null);
+
+        DateTime start = now().minusDays(1);
+        DateTime end = now().plusMinutes(1);
+        MetricId<Double> mId = new MetricId<>(tenantId, GAUGE, "m1");
+        // The first two points are older than the temp tables and go to the out-of-order table
+        List<DataPoint<Double>> dataPoints = asList(
+                new DataPoint<>(start.getMillis(), 1.1),
+                new DataPoint<>(start.plusHours(1).getMillis(), 2.2),
+                new DataPoint<>(now().minusMinutes(2).getMillis(), 3.3),
+                new DataPoint<>(now().minusMinutes(1).getMillis(), 4.4));
+        metricsService.addDataPoints(GAUGE, Observable.just(new Metric<>(mId, dataPoints))).toBlocking()
+                .lastOrDefault(null);
+
+        assertEquals(toList(metricsService.findDataPoints(mId, start.getMillis(), end.getMillis(), 2, Order.DESC)),
+                asList(dataPoints.get(3), dataPoints.get(2)));
+        assertEquals(toList(metricsService.findDataPoints(mId, start.getMillis(), end.getMillis(), 3, Order.DESC)),
+                asList(dataPoints.get(3), dataPoints.get(2), dataPoints.get(1)));
+        assertEquals(toList(metricsService.findDataPoints(mId, start.getMillis(), end.getMillis(), 3, Order.ASC)),
+                dataPoints.subList(0, 3));
+    }
+
+    @Test
+    public void findWithLimitIncludesOutOfOrderPointsOfOpenBlocks() throws Exception {
+        metricsService.createTenant(new Tenant(tenantId), false).toBlocking().lastOrDefault(null);
+
+        DateTime start = now().minusDays(1);
+        DateTime end = now().plusMinutes(1);
+        MetricId<Double> mId = new MetricId<>(tenantId, GAUGE, "m1");
+        DataPoint<Double> inOrder = new DataPoint<>(now().minusMinutes(2).getMillis(), 1.1);
+        metricsService.addDataPoints(GAUGE, Observable.just(new Metric<>(mId, singletonList(inOrder)))).toBlocking()
+                .lastOrDefault(null);
+        // Written by a node whose list of temp tables was stale
+        DataPoint<Double> outOfOrder = new DataPoint<>(now().minusMinutes(1).getMillis(), 2.2);
+        session.execute(String.format("INSERT INTO %s (tenant_id, type, metric, time, n_value) " +
+                "VALUES ('%s', %d, 'm1', %d, 2.2)", DataAccessImpl.OUT_OF_ORDER_TABLE_NAME, tenantId, GAUGE.getCode(),
+                outOfOrder.getTimestamp()));
+
+        assertEquals(toList(metricsService.findDataPoints(mId, start.getMillis(), end.getMillis(), 2, Order.DESC)),
+                asList(outOfOrder, inOrder));
+    }
+
     @SuppressWarnings("unchecked")
     private <T> List<DataPoint<T>> getDataPointList(String name, DateTime start) {
         switch (name) {
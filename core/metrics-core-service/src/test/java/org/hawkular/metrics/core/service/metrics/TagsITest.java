@@ -46,7 +46,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.hawkular.metrics.core.service.Order;
-import org.hawkular.metrics.core.service.transformers.NumericDataPointCollector;
+import org.hawkular.metrics.core.service.transformers.NumericBucketAggregator;
 import org.hawkular.metrics.core.service.transformers.TaggedDataPointCollector;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.Buckets;
@@ -671,7 +671,7 @@ public class TagsITest extends BaseMetricsITest {
 
     @Test
     public void findSimpleGaugeStatsByTags() {
-        NumericDataPointCollector.createPercentile = InMemoryPercentileWrapper::new;
+        NumericBucketAggregator.createPercentile = InMemoryPercentileWrapper::new;
 
         String tenantId = "findGaugeStatsByTags";
         DateTime start = now().minusMinutes(10);
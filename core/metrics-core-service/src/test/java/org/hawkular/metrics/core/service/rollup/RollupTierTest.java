@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.hawkular.metrics.model.Buckets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+public class RollupTierTest {
+
+    private static final long START = new DateTime(2018, 3, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+    @Test
+    public void selectCoarsestAlignedTier() {
+        assertEquals(RollupTier.DAY, RollupTier.select(new Buckets(START, Duration.standardDays(7).getMillis(), 4)));
+        assertEquals(RollupTier.HOUR, RollupTier.select(new Buckets(START, Duration.standardHours(6).getMillis(), 4)));
+    }
+
+    @Test
+    public void noTierForUnalignedBuckets() {
+        assertNull(RollupTier.select(new Buckets(START + 1, Duration.standardHours(1).getMillis(), 4)));
+        assertNull(RollupTier.select(new Buckets(START, Duration.standardMinutes(5).getMillis(), 4)));
+        // Buckets starting in the middle of an hour
+        assertNull(RollupTier.select(new Buckets(START + Duration.standardMinutes(30).getMillis(),
+                Duration.standardHours(1).getMillis(), 4)));
+        assertNull(RollupTier.select(new Buckets(START, Duration.standardSeconds(30).getMillis(), 4)));
+        assertNull(RollupTier.select(new Buckets(START, Duration.standardSeconds(90).getMillis(), 4)));
+    }
+
+    @Test
+    public void intervalStart() {
+        long timestamp = START + Duration.standardHours(5).getMillis() + Duration.standardMinutes(7).getMillis()
+                + 1234;
+        assertEquals(START + Duration.standardHours(5).getMillis(), RollupTier.HOUR.getIntervalStart(timestamp));
+        assertEquals(START, RollupTier.DAY.getIntervalStart(timestamp));
+        assertEquals(86400, RollupTier.DAY.getSeconds());
+    }
+}
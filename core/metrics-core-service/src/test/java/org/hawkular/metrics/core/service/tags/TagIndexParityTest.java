@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.hawkular.metrics.model.MetricType.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+import com.google.common.collect.ImmutableMap;
+
+import rx.Observable;
+
+/**
+ * Runs the same tag queries against the tag index tables and against the in-memory {@link TagIndex}, the results
+ * must not depend on whether the index is enabled.
+ */
+public class TagIndexParityTest {
+
+    private static final String TENANT = "t";
+
+    private static final List<MetricType<?>> TYPES = Arrays.asList(null, GAUGE, COUNTER);
+
+    /**
+     * Metrics of metrics_idx with their tags
+     */
+    private final Map<MetricId<?>, Map<String, String>> definitions = new LinkedHashMap<>();
+
+    /**
+     * Metrics which have data, some of them without a definition
+     */
+    private final Set<MetricId<?>> withData = new HashSet<>();
+
+    private SimpleTagQueryParser simpleParser;
+    private SimpleTagQueryParser simpleIndexParser;
+    private ExpressionTagQueryParser expressionParser;
+    private ExpressionTagQueryParser expressionIndexParser;
+
+    @Before
+    public void setUp() {
+        define(GAUGE, "g1", ImmutableMap.of("app", "a", "pod", "p1", "env", "prod"));
+        define(GAUGE, "g2", ImmutableMap.of("app", "a", "pod", "x1"));
+        define(GAUGE, "g3", ImmutableMap.of("app", "b", "pod", "p2", "env", "dev"));
+        define(GAUGE, "g4", Collections.emptyMap());
+        define(COUNTER, "c1", ImmutableMap.of("app", "a", "pod", "p3", "env", "prod"));
+        define(COUNTER, "c2", ImmutableMap.of("app", "c"));
+        define(STRING, "s1", ImmutableMap.of("app", "a", "pod", "p1"));
+        withData.add(new MetricId<>(TENANT, GAUGE, "g5"));
+        withData.add(new MetricId<>(TENANT, COUNTER, "c3"));
+
+        DataAccess dataAccess = mock(DataAccess.class);
+        MetricsService metricsService = mock(MetricsService.class);
+
+        when(dataAccess.findMetricsByTagName(eq(TENANT), anyString())).then(invocation ->
+                Observable.from(tagRows(invocation.getArgumentAt(1, String.class), null)));
+        when(dataAccess.findMetricsByTagNameValue(eq(TENANT), anyString(), anyVararg())).then(invocation -> {
+            Object[] arguments = invocation.getArguments();
+            List<Row> rows = new ArrayList<>();
+            for (int i = 2; i < arguments.length; i++) {
+                rows.addAll(tagRows((String) arguments[1], (String) arguments[i]));
+            }
+            return Observable.from(rows);
+        });
+        when(dataAccess.findAllMetricsFromTagsIndex()).then(invocation -> {
+            List<Row> rows = new ArrayList<>();
+            definitions.forEach((id, tags) -> tags.forEach((name, value) -> rows.add(tagRow(id, value))));
+            return Observable.from(rows);
+        });
+        when(dataAccess.findMetricsInMetricsIndex(eq(TENANT), any())).then(invocation -> {
+            MetricType<?> type = invocation.getArgumentAt(1, MetricType.class);
+            List<Row> rows = new ArrayList<>();
+            definitions.forEach((id, tags) -> {
+                if (id.getType() == type) {
+                    Row row = mock(Row.class);
+                    when(row.getString(0)).thenReturn(id.getName());
+                    when(row.getMap(1, String.class, String.class)).thenReturn(tags);
+                    rows.add(row);
+                }
+            });
+            return Observable.from(rows);
+        });
+        when(metricsService.findMetric(any())).then(invocation -> {
+            @SuppressWarnings("unchecked")
+            MetricId<Object> id = invocation.getArgumentAt(0, MetricId.class);
+            Map<String, String> tags = definitions.get(id);
+            if (tags == null) {
+                // Like a metric read from the data table
+                return withData.contains(id) ? Observable.just(new Metric<>(id, Collections.emptyMap(), null))
+                        : Observable.empty();
+            }
+            return Observable.just(new Metric<>(id, tags, null));
+        });
+        when(dataAccess.findMetricInMetricsIndex(any())).then(invocation -> {
+            Map<String, String> tags = definitions.get(invocation.getArgumentAt(0, MetricId.class));
+            if (tags == null) {
+                return Observable.empty();
+            }
+            Row row = mock(Row.class);
+            when(row.getMap(1, String.class, String.class)).thenReturn(tags);
+            return Observable.just(row);
+        });
+        when(metricsService.findMetricIdentifiers(eq(TENANT), any())).then(invocation -> {
+            MetricType<?> type = invocation.getArgumentAt(1, MetricType.class);
+            return Observable.from(withData)
+                    .filter(id -> (type == null && id.getType().isUserType()) || id.getType() == type);
+        });
+
+        TagIndex tagIndex = new TagIndex(dataAccess, 1, TimeUnit.HOURS);
+        simpleParser = new SimpleTagQueryParser(dataAccess, metricsService, false, 1000, 10);
+        simpleIndexParser = new SimpleTagQueryParser(dataAccess, metricsService, false, 1000, 10);
+        simpleIndexParser.setTagIndex(tagIndex);
+        expressionParser = new ExpressionTagQueryParser(dataAccess, metricsService);
+        expressionIndexParser = new ExpressionTagQueryParser(dataAccess, metricsService);
+        expressionIndexParser.setTagIndex(tagIndex);
+    }
+
+    private void define(MetricType<?> type, String name, Map<String, String> tags) {
+        MetricId<?> id = new MetricId<>(TENANT, type, name);
+        definitions.put(id, tags);
+        withData.add(id);
+    }
+
+    private List<Row> tagRows(String tagName, String tagValue) {
+        List<Row> rows = new ArrayList<>();
+        definitions.forEach((id, tags) -> {
+            String value = tags.get(tagName);
+            if (value != null && (tagValue == null || tagValue.equals(value))) {
+                rows.add(tagRow(id, value));
+            }
+        });
+        return rows;
+    }
+
+    private static Row tagRow(MetricId<?> id, String value) {
+        Row row = mock(Row.class);
+        when(row.getString(0)).thenReturn(id.getTenantId());
+        when(row.getByte(1)).thenReturn(id.getType().getCode());
+        when(row.getString(2)).thenReturn(id.getName());
+        when(row.getString(3)).thenReturn(value);
+        return row;
+    }
+
+    @Test
+    public void simpleTagQueries() {
+        List<Map<String, String>> queries = Arrays.asList(
+                ImmutableMap.of("app", "a"),
+                ImmutableMap.of("app", "a|b"),
+                ImmutableMap.of("pod", "p.*"),
+                ImmutableMap.of("pod", "*"),
+                ImmutableMap.of("pod", "!p1"),
+                ImmutableMap.of("app", "a", "pod", "p.*"),
+                ImmutableMap.of("app", "a|c", "pod", "!x1"),
+                ImmutableMap.of("!env", ""),
+                ImmutableMap.of("app", "a", "!env", ""),
+                ImmutableMap.of("env", "prod|dev", "!missing", ""),
+                ImmutableMap.of("!missing", ""),
+                ImmutableMap.of("missing", "x"),
+                ImmutableMap.of("missing", ".*"),
+                ImmutableMap.of("app", "a", "missing", "!x"));
+
+        for (Map<String, String> query : queries) {
+            for (MetricType<?> type : TYPES) {
+                Set<MetricId<?>> expected = new HashSet<>(simpleParser
+                        .findMetricIdentifiersWithFilters(TENANT, type, query).toList().toBlocking().single());
+                Set<MetricId<?>> actual = new HashSet<>(simpleIndexParser
+                        .findMetricIdentifiersWithFilters(TENANT, type, query).toList().toBlocking().single());
+                assertEquals(query + " of type " + type, expected, actual);
+            }
+        }
+
+        // The metrics which only have data are found when only the absence of a tag is queried
+        assertEquals(new HashSet<>(Arrays.asList(new MetricId<>(TENANT, GAUGE, "g2"),
+                new MetricId<>(TENANT, GAUGE, "g4"), new MetricId<>(TENANT, GAUGE, "g5"))),
+                new HashSet<>(simpleIndexParser.findMetricIdentifiersWithFilters(TENANT, GAUGE,
+                        ImmutableMap.of("!env", "")).toList().toBlocking().single()));
+    }
+
+    @Test
+    public void expressionTagQueries() {
+        List<String> queries = Arrays.asList(
+                "app = 'a'",
+                "app != 'a'",
+                "pod ~ 'p.*'",
+                "pod !~ 'p.*'",
+                "app IN ['a', 'c']",
+                "app NOT IN ['a', 'b.*']",
+                "NOT env",
+                "env",
+                "app = 'a' AND NOT env",
+                "(app = 'a' OR app = 'b') AND pod ~ 'p[12]'",
+                "pod ~ 'p.*' OR NOT pod",
+                "missing",
+                "NOT missing",
+                "missing = 'x' OR app = 'c'",
+                "missing !~ 'x' AND app = 'a'");
+
+        for (String query : queries) {
+            for (MetricType<?> type : TYPES) {
+                List<? extends MetricId<?>> expected = expressionParser.parse(TENANT, type, query)
+                        .toList().toBlocking().single();
+                List<? extends MetricId<?>> actual = expressionIndexParser.parse(TENANT, type, query)
+                        .toList().toBlocking().single();
+                assertEquals(query + " of type " + type, new HashSet<>(expected), new HashSet<>(actual));
+            }
+        }
+    }
+
+    @Test
+    public void tagValueQueries() {
+        List<Map<String, String>> queries = Arrays.asList(
+                ImmutableMap.of("app", "*"),
+                ImmutableMap.of("pod", "p.*"),
+                ImmutableMap.of("pod", "!p1"),
+                ImmutableMap.of("app", "a|c", "env", "*"),
+                ImmutableMap.of("env", "prod", "pod", "!x.*"),
+                ImmutableMap.of("missing", "*"),
+                ImmutableMap.of("app", "a", "missing", "*"));
+
+        for (Map<String, String> query : queries) {
+            for (MetricType<?> type : TYPES) {
+                Map<String, Set<String>> expected = simpleParser.getTagValues(TENANT, type, query)
+                        .toBlocking().single();
+                Map<String, Set<String>> actual = simpleIndexParser.getTagValues(TENANT, type, query)
+                        .toBlocking().single();
+                assertEquals(query + " of type " + type, expected, actual);
+            }
+        }
+
+        assertFalse(simpleIndexParser.getTagValues(TENANT, null, ImmutableMap.of("pod", "p.*"))
+                .toBlocking().single().isEmpty());
+    }
+}
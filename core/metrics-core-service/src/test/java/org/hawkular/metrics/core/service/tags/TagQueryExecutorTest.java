@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.metrics.core.service.DataAccess;
+import org.hawkular.metrics.core.service.MetricsService;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import rx.Observable;
+
+public class TagQueryExecutorTest {
+
+    private static final String TENANT = "t";
+
+    private final Map<MetricId<?>, Map<String, String>> metrics = new HashMap<>();
+
+    private DataAccess dataAccess;
+
+    private MetricsService metricsService;
+
+    private ExpressionTagQueryParser parser;
+
+    @Before
+    public void setUp() {
+        metrics.clear();
+        dataAccess = mock(DataAccess.class);
+        metricsService = mock(MetricsService.class);
+        parser = new ExpressionTagQueryParser(dataAccess, metricsService);
+
+        when(dataAccess.findMetricsByTagName(eq(TENANT), anyString())).then(invocation -> {
+            String tagName = invocation.getArgumentAt(1, String.class);
+            return Observable.from(rows(tagName, null));
+        });
+        when(dataAccess.findMetricsByTagNameValue(eq(TENANT), anyString(), anyVararg())).then(invocation -> {
+            Object[] arguments = invocation.getArguments();
+            List<Row> rows = new ArrayList<>();
+            for (int i = 2; i < arguments.length; i++) {
+                rows.addAll(rows((String) arguments[1], (String) arguments[i]));
+            }
+            return Observable.from(rows);
+        });
+        when(dataAccess.findMetricInMetricsIndex(any())).then(invocation -> {
+            Map<String, String> tags = metrics.get(invocation.getArgumentAt(0, MetricId.class));
+            if (tags == null) {
+                return Observable.empty();
+            }
+            Row row = mock(Row.class);
+            when(row.getMap(1, String.class, String.class)).thenReturn(tags);
+            return Observable.just(row);
+        });
+    }
+
+    private List<Row> rows(String tagName, String tagValue) {
+        List<Row> rows = new ArrayList<>();
+        metrics.forEach((id, tags) -> {
+            String value = tags.get(tagName);
+            if (value != null && (tagValue == null || tagValue.equals(value))) {
+                Row row = mock(Row.class);
+                when(row.getString(0)).thenReturn(id.getTenantId());
+                when(row.getByte(1)).thenReturn(id.getType().getCode());
+                when(row.getString(2)).thenReturn(id.getName());
+                when(row.getString(3)).thenReturn(value);
+                rows.add(row);
+            }
+        });
+        return rows;
+    }
+
+    private <T> MetricId<T> metric(MetricType<T> type, String name, Map<String, String> tags) {
+        MetricId<T> id = new MetricId<>(TENANT, type, name);
+        metrics.put(id, tags);
+        return id;
+    }
+
+    private <T> List<MetricId<T>> query(MetricType<T> type, String expression) {
+        return parser.parse(TENANT, type, expression).toList().toBlocking().single();
+    }
+
+    @Test
+    public void orderAndOperandsByEstimate() {
+        TagQueryPlan plan = parser.plan("pod ~ 'p.*' AND NOT env AND (host = 'h1' OR host = 'h2') AND app = 'a'");
+        assertTrue(plan instanceof TagQueryPlan.And);
+
+        List<TagQueryPlan> ordered = ((TagQueryPlan.And) plan).getOrderedOperands();
+        assertEquals(4, ordered.size());
+        assertEquals("app", ((TagQueryPlan.Leaf) ordered.get(0)).getTagName());
+        assertTrue(ordered.get(1) instanceof TagQueryPlan.Or);
+        assertEquals("pod", ((TagQueryPlan.Leaf) ordered.get(2)).getTagName());
+        assertTrue(((TagQueryPlan.Leaf) ordered.get(3)).isAbsent());
+    }
+
+    @Test
+    public void probeSurvivorsOfSelectiveLeaf() {
+        MetricId<Double> g1 = metric(GAUGE, "g1", ImmutableMap.of("app", "a", "pod", "p1"));
+        metric(GAUGE, "g2", ImmutableMap.of("app", "a", "pod", "x1"));
+        metric(GAUGE, "g3", ImmutableMap.of("app", "b", "pod", "p2"));
+        MetricId<Long> c1 = metric(COUNTER, "c1", ImmutableMap.of("app", "a", "pod", "p3"));
+
+        List<MetricId<Object>> result = query(null, "pod ~ 'p.*' AND app = 'a'");
+        assertEquals(ImmutableSet.of(g1, c1), new HashSet<>(result));
+
+        // Two survivors of app = 'a' are cheaper to probe than reading all the pod tags
+        verify(dataAccess, never()).findMetricsByTagName(TENANT, "pod");
+
+        assertEquals(Collections.singletonList(g1), query(GAUGE, "pod ~ 'p.*' AND app = 'a'"));
+    }
+
+    @Test
+    public void mergeSortedIdLists() {
+        List<MetricId<Double>> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String app = i % 2 == 0 ? "even" : "odd";
+            String pod = i % 3 == 0 ? "three" : "other";
+            MetricId<Double> id = metric(GAUGE, String.format("g%03d", i), ImmutableMap.of("app", app, "pod", pod));
+            if (i % 6 == 0 || i % 2 == 1) {
+                expected.add(id);
+            }
+        }
+
+        // Both sides read from the index tables and intersected, the result is in sorted order
+        List<MetricId<Double>> result = query(GAUGE, "(app = 'even' AND pod IN ['three', 'none']) OR app != 'even'");
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void intersectAndUnion() {
+        MetricId<Double> a = new MetricId<>(TENANT, GAUGE, "a");
+        MetricId<Double> b = new MetricId<>(TENANT, GAUGE, "b");
+        MetricId<Double> c = new MetricId<>(TENANT, GAUGE, "c");
+
+        assertEquals(asList(b), TagQueryExecutor.intersect(asList(a, b), asList(b, c)));
+        assertEquals(asList(a, b, c), TagQueryExecutor.union(asList(a, b), asList(b, c)));
+        assertEquals(asList(a, c), TagQueryExecutor.union(Collections.emptyList(), asList(a, c)));
+    }
+
+    @Test
+    public void evaluateAgainstTagIndex() {
+        TenantTagIndex index = new TenantTagIndex();
+        index.load(new MetricId<>(TENANT, GAUGE, "g1"), ImmutableMap.of("app", "a", "pod", "p1"));
+        index.load(new MetricId<>(TENANT, GAUGE, "g2"), ImmutableMap.of("app", "a"));
+        index.load(new MetricId<>(TENANT, GAUGE, "g3"), ImmutableMap.of("app", "b", "pod", "p2"));
+        index.loaded();
+
+        TagQueryPlan plan = parser.plan("app IN ['a', 'c'] AND (NOT pod OR pod = 'p1')");
+        assertEquals(asList(new MetricId<>(TENANT, GAUGE, "g1"), new MetricId<>(TENANT, GAUGE, "g2")),
+                index.query(GAUGE, plan::evaluate));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.tags;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.model.MetricType.COUNTER;
+import static org.hawkular.metrics.model.MetricType.GAUGE;
+import static org.hawkular.metrics.model.MetricType.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hawkular.metrics.model.MetricId;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class TenantTagIndexTest {
+
+    private final MetricId<Double> g1 = new MetricId<>("t", GAUGE, "g1");
+    private final MetricId<Double> g2 = new MetricId<>("t", GAUGE, "g2");
+    private final MetricId<Long> c1 = new MetricId<>("t", COUNTER, "c1");
+    private final MetricId<String> s1 = new MetricId<>("t", STRING, "s1");
+
+    private TenantTagIndex newIndex() {
+        TenantTagIndex index = new TenantTagIndex();
+        index.load(g1, ImmutableMap.of("pod", "a", "env", "prod"));
+        index.load(g2, ImmutableMap.of("pod", "b"));
+        index.load(c1, ImmutableMap.of("pod", "a", "env", "dev"));
+        index.load(s1, ImmutableMap.of("pod", "a"));
+        index.loaded();
+        return index;
+    }
+
+    @Test
+    public void queryByValueAndType() {
+        TenantTagIndex index = newIndex();
+
+        assertEquals(ImmutableSet.of(g1, c1, s1), new HashSet<>(index.query(null, i -> i.withValue("pod", "a"))));
+        assertEquals(ImmutableSet.of(g1), new HashSet<>(index.query(GAUGE, i -> i.withValue("pod", "a"))));
+        assertEquals(ImmutableSet.of(g1, g2, c1, s1), new HashSet<>(index.query(null, TenantTagIndex::all)));
+        assertTrue(index.query(null, i -> i.withValue("pod", "c")).isEmpty());
+        assertTrue(index.query(null, i -> i.withTag("missing")).isEmpty());
+    }
+
+    @Test
+    public void combineQueries() {
+        TenantTagIndex index = newIndex();
+
+        List<MetricId<Object>> result = index.query(null, i -> {
+            BitSet bits = i.withValue("pod", "a");
+            bits.and(i.matching("env", v -> v.startsWith("p")));
+            return bits;
+        });
+        assertEquals(Collections.singletonList(g1), result);
+
+        result = index.query(null, i -> {
+            BitSet bits = i.all();
+            bits.andNot(i.withTag("env"));
+            return bits;
+        });
+        assertEquals(ImmutableSet.of(g2, s1), new HashSet<>(result));
+    }
+
+    @Test
+    public void applyTagUpdates() {
+        TenantTagIndex index = newIndex();
+
+        index.addTags(g2, ImmutableMap.of("env", "prod"));
+        assertEquals(ImmutableSet.of(g1, g2), new HashSet<>(index.query(null, i -> i.withValue("env", "prod"))));
+        assertEquals(ImmutableSet.of(g2), new HashSet<>(index.query(null, i -> i.withValue("pod", "b"))));
+
+        index.deleteTags(g1, Collections.singleton("env"));
+        assertEquals(ImmutableSet.of(g2), new HashSet<>(index.query(null, i -> i.withValue("env", "prod"))));
+
+        index.setTags(c1, ImmutableMap.of("pod", "b"));
+        assertEquals(ImmutableSet.of(g2, c1), new HashSet<>(index.query(null, i -> i.withValue("pod", "b"))));
+        assertTrue(index.query(null, i -> i.withValue("env", "dev")).isEmpty());
+
+        index.remove(g2);
+        assertFalse(index.contains(g2));
+        assertEquals(ImmutableSet.of(c1), new HashSet<>(index.query(null, i -> i.withValue("pod", "b"))));
+
+        // Deleting tags of a deleted metric must not bring it back
+        index.deleteTags(g2, Collections.singleton("pod"));
+        assertFalse(index.contains(g2));
+    }
+
+    @Test
+    public void ignoreRowsOfMetricsChangedWhileLoading() {
+        TenantTagIndex index = new TenantTagIndex();
+        index.setTags(g1, ImmutableMap.of("pod", "new"));
+        index.load(g1, ImmutableMap.of("pod", "old"));
+        index.load(g2, ImmutableMap.of("pod", "old"));
+        index.loaded();
+
+        assertEquals(Collections.singletonList(g1), index.query(null, i -> i.withValue("pod", "new")));
+        assertEquals(Collections.singletonList(g2), index.query(null, i -> i.withValue("pod", "old")));
+    }
+
+    @Test
+    public void listTagNames() {
+        TenantTagIndex index = newIndex();
+
+        assertEquals(asList("env", "pod"), index.tagNames(null, name -> true));
+        assertEquals(Collections.singletonList("pod"), index.tagNames(STRING, name -> true));
+        assertEquals(Collections.singletonList("env"), index.tagNames(COUNTER, name -> name.startsWith("e")));
+
+        index.deleteTags(c1, Collections.singleton("env"));
+        assertEquals(Collections.singletonList("pod"), index.tagNames(COUNTER, name -> true));
+    }
+
+    @Test
+    public void findTagValues() {
+        TenantTagIndex index = newIndex();
+        index.addTags(g2, ImmutableMap.of("env", "prod"));
+
+        Map<String, Set<String>> values = index.tagValues(GAUGE, ImmutableMap.of("pod", "*"));
+        assertEquals(ImmutableMap.of("pod", ImmutableSet.of("a", "b")), values);
+
+        values = index.tagValues(null, ImmutableMap.of("env", "pr.*", "pod", "!b"));
+        assertEquals(ImmutableMap.of("env", ImmutableSet.of("prod"), "pod", ImmutableSet.of("a")), values);
+
+        values = index.tagValues(null, ImmutableMap.of("env", "d.v", "pod", "b"));
+        assertTrue(values.isEmpty());
+    }
+
+    @Test
+    public void extractLiteralPrefixes() {
+        assertEquals("abc", TenantTagIndex.literalPrefix("abc"));
+        assertEquals("abc", TenantTagIndex.literalPrefix("^abc.*"));
+        assertEquals("ab", TenantTagIndex.literalPrefix("abc?d"));
+        assertEquals("ab", TenantTagIndex.literalPrefix("abc*"));
+        assertEquals("abc", TenantTagIndex.literalPrefix("abc+"));
+        assertEquals("", TenantTagIndex.literalPrefix("abc|abd"));
+        assertEquals("", TenantTagIndex.literalPrefix("(?i)abc"));
+        assertEquals("", TenantTagIndex.literalPrefix(".*"));
+    }
+
+    @Test
+    public void findValuesAfterThePrefixEnd() {
+        TenantTagIndex index = newIndex();
+        // Values starting with the prefix followed by U+FFFF are not below the prefix plus U+FFFF
+        index.addTags(g2, ImmutableMap.of("env", "pr\uD83D\uDE00"));
+        index.addTags(c1, ImmutableMap.of("env", "pr\uFFFF"));
+
+        Map<String, Set<String>> values = index.tagValues(null, ImmutableMap.of("env", "pr.*"));
+        assertEquals(ImmutableMap.of("env", ImmutableSet.of("prod", "pr\uD83D\uDE00", "pr\uFFFF")), values);
+
+        assertEquals("ps", TenantTagIndex.prefixEnd("pr"));
+        assertEquals("q", TenantTagIndex.prefixEnd("p\uFFFF"));
+        assertEquals(null, TenantTagIndex.prefixEnd("\uFFFF"));
+    }
+
+    @Test
+    public void convertLargeOrdinalSets() {
+        OrdinalSet set = new OrdinalSet();
+        int count = OrdinalSet.MAX_ARRAY_SIZE * 2;
+        for (int i = count - 1; i >= 0; i--) {
+            set.add(i * 3);
+        }
+        set.add(0);
+        assertEquals(count, set.size());
+        set.remove(3);
+        set.remove(4);
+        assertEquals(count - 1, set.size());
+
+        BitSet bits = set.toBitSet();
+        assertEquals(count - 1, bits.cardinality());
+        assertTrue(bits.get(0));
+        assertFalse(bits.get(3));
+        assertTrue(bits.get((count - 1) * 3));
+        assertTrue(set.contains(6));
+    }
+}
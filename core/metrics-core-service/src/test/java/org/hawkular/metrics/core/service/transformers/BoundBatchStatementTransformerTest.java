@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+
+import static org.hawkular.metrics.core.service.transformers.BoundBatchStatementTransformer.DEFAULT_BATCH_STATEMENT_FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+
+import rx.Observable;
+
+public class BoundBatchStatementTransformerTest {
+
+    @Test
+    public void closeBatchesOnSize() {
+        // Each statement has 2 values of 2 bytes, so 12 bytes with the length prefixes
+        List<BatchStatement> batches = Observable.range(0, 10)
+                .map(i -> statement(i, 2))
+                .compose(new BoundBatchStatementTransformer(DEFAULT_BATCH_STATEMENT_FACTORY, 50, 60,
+                        Integer.MAX_VALUE, CodecRegistry.DEFAULT_INSTANCE))
+                .toList().toBlocking().single();
+
+        assertEquals(asList(5, 5), sizes(batches));
+    }
+
+    @Test
+    public void closeBatchesOnPartitions() {
+        List<BatchStatement> batches = Observable.range(0, 10)
+                .map(i -> statement(i % 4, 2))
+                .compose(new BoundBatchStatementTransformer(DEFAULT_BATCH_STATEMENT_FACTORY, 50, Integer.MAX_VALUE,
+                        3, CodecRegistry.DEFAULT_INSTANCE))
+                .toList().toBlocking().single();
+
+        // Partitions 0, 1, 2 | 3, 0, 1 | 2, 3, 0 | 1
+        assertEquals(asList(3, 3, 3, 1), sizes(batches));
+    }
+
+    @Test
+    public void closeBatchesOnCount() {
+        List<BatchStatement> batches = Observable.range(0, 7)
+                .map(i -> statement(i % 2, 2))
+                .compose(new BoundBatchStatementTransformer(DEFAULT_BATCH_STATEMENT_FACTORY, 3, Integer.MAX_VALUE,
+                        Integer.MAX_VALUE - 1, CodecRegistry.DEFAULT_INSTANCE))
+                .toList().toBlocking().single();
+
+        assertEquals(asList(3, 3, 1), sizes(batches));
+    }
+
+    private static List<Integer> sizes(List<BatchStatement> batches) {
+        return batches.stream().map(BatchStatement::size).collect(Collectors.toList());
+    }
+
+    private static BoundStatement statement(int partition, int values) {
+        ColumnDefinitions variables = mock(ColumnDefinitions.class);
+        when(variables.size()).thenReturn(values);
+        PreparedStatement prepared = mock(PreparedStatement.class);
+        when(prepared.getVariables()).thenReturn(variables);
+        BoundStatement statement = mock(BoundStatement.class);
+        when(statement.preparedStatement()).thenReturn(prepared);
+        when(statement.getBytesUnsafe(anyInt())).thenAnswer(invocation -> ByteBuffer.allocate(2));
+        when(statement.getRoutingKey(any(ProtocolVersion.class), any(CodecRegistry.class)))
+                .thenAnswer(invocation -> ByteBuffer.allocate(4).putInt(0, partition));
+        return statement;
+    }
+}
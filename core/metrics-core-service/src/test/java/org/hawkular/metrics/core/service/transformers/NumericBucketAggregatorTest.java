@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.core.service.transformers;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.hawkular.metrics.core.service.compress.BlockSummary;
+import org.hawkular.metrics.model.Buckets;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.NumericBucketPoint;
+import org.hawkular.metrics.model.Percentile;
+import org.junit.Test;
+
+public class NumericBucketAggregatorTest {
+
+    private final Buckets buckets = new Buckets(1000, 100, 10);
+    private final List<Percentile> percentiles = asList(new Percentile("50"), new Percentile("95"));
+
+    @Test
+    public void aggregatedBucketsMatchSummaries() {
+        Random random = new Random(5);
+        NumericBucketAggregator aggregator = new NumericBucketAggregator(buckets, percentiles);
+        BlockSummary[] summaries = new BlockSummary[buckets.getCount()];
+
+        // Bucket 4 is left empty
+        for (long timestamp = 1000; timestamp < 2000; timestamp += 3) {
+            int index = buckets.getIndex(timestamp);
+            if (index == 4) {
+                continue;
+            }
+            DataPoint<Double> dataPoint = new DataPoint<>(timestamp, random.nextGaussian() * 10);
+            aggregator.add(dataPoint);
+            if (summaries[index] == null) {
+                summaries[index] = new BlockSummary();
+            }
+            summaries[index].add(timestamp, dataPoint.getValue());
+        }
+
+        List<NumericBucketPoint> points = aggregator.toBucketPoints();
+        assertEquals(buckets.getCount(), points.size());
+        for (int i = 0; i < buckets.getCount(); i++) {
+            NumericBucketPoint actual = points.get(i);
+            assertEquals(buckets.getBucketStart(i), actual.getStart());
+            if (summaries[i] == null) {
+                assertTrue(actual.isEmpty());
+                continue;
+            }
+            BlockSummary expected = summaries[i];
+            assertEquals(expected.getCount(), (long) actual.getSamples());
+            assertEquals(expected.getMin(), actual.getMin(), 0.0);
+            assertEquals(expected.getMax(), actual.getMax(), 0.0);
+            assertEquals(expected.getSum(), actual.getSum(), 1e-9);
+            assertEquals(expected.getAvg(), actual.getAvg(), 1e-9);
+            assertEquals(expected.getSketch().getQuantile(0.5), actual.getMedian(), 0.0);
+            assertEquals(expected.getSketch().getQuantile(0.95), actual.getPercentiles().get(1).getValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void percentilesDoNotDependOnInsertionOrder() {
+        NumericBucketAggregator ascending = new NumericBucketAggregator(buckets, percentiles);
+        NumericBucketAggregator descending = new NumericBucketAggregator(buckets, percentiles);
+        for (int i = 0; i < 500; i++) {
+            ascending.add(1000, i);
+            descending.add(1000, 499 - i);
+        }
+
+        NumericBucketPoint expected = ascending.toBucketPoints().get(0);
+        NumericBucketPoint actual = descending.toBucketPoints().get(0);
+
+        assertEquals(expected.getMedian(), actual.getMedian(), 0.0);
+        assertEquals(249, expected.getMedian(), 249 * 0.01);
+        assertEquals(expected.getPercentiles().get(1).getValue(), actual.getPercentiles().get(1).getValue(), 0.0);
+    }
+
+    @Test
+    public void mergeAggregatorsAndSummaries() {
+        NumericBucketAggregator all = new NumericBucketAggregator(buckets, percentiles);
+        NumericBucketAggregator first = new NumericBucketAggregator(buckets, percentiles);
+        NumericBucketAggregator second = new NumericBucketAggregator(buckets, percentiles);
+        BlockSummary summary = new BlockSummary();
+
+        for (long timestamp = 1000; timestamp < 2000; timestamp++) {
+            double value = timestamp % 97;
+            all.add(timestamp, value);
+            if (timestamp < 1200) {
+                summary.add(timestamp, value);
+            } else if (timestamp % 2 == 0) {
+                first.add(timestamp, value);
+            } else {
+                second.add(timestamp, value);
+            }
+        }
+
+        // The summary covers the first two buckets
+        BlockSummary firstBucket = new BlockSummary();
+        BlockSummary secondBucket = new BlockSummary();
+        for (long timestamp = 1000; timestamp < 1200; timestamp++) {
+            (timestamp < 1100 ? firstBucket : secondBucket).add(timestamp, timestamp % 97);
+        }
+        first.add(0, firstBucket);
+        first.add(1, secondBucket);
+        first.merge(second);
+
+        List<NumericBucketPoint> expected = all.toBucketPoints();
+        List<NumericBucketPoint> actual = first.toBucketPoints();
+        for (int i = 0; i < buckets.getCount(); i++) {
+            assertBucketEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertBucketEquals(NumericBucketPoint expected, NumericBucketPoint actual) {
+        assertEquals(expected.getSamples(), actual.getSamples());
+        assertEquals(expected.getMin(), actual.getMin(), 0.0);
+        assertEquals(expected.getMax(), actual.getMax(), 0.0);
+        assertEquals(expected.getSum(), actual.getSum(), 1e-9);
+        assertEquals(expected.getAvg(), actual.getAvg(), 1e-9);
+        assertEquals(expected.getMedian(), actual.getMedian(), 0.0);
+        for (int i = 0; i < expected.getPercentiles().size(); i++) {
+            assertEquals(expected.getPercentiles().get(i).getValue(), actual.getPercentiles().get(i).getValue(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+schemaChange {
+    version '10.0'
+    author 'hawkular'
+    tags '0.32.x'
+    cql """
+CREATE TABLE compression_checkpoints (
+    time_slice timestamp,
+    range_start text,
+    range_end text,
+    PRIMARY KEY (time_slice, range_start, range_end)
+) WITH compaction = { 'class': 'LeveledCompactionStrategy' } AND default_time_to_live = 604800
+"""
+    verify { tableExists(keyspace, 'compression_checkpoints') }
+}
+
+schemaChange {
+    version '10.1'
+    author 'hawkular'
+    tags '0.32.x'
+    cql "ALTER TABLE data_compressed ADD summary blob"
+    verify { columnExists(keyspace, 'data_compressed', 'summary') }
+}
+
+schemaChange {
+    version '10.2'
+    author 'hawkular'
+    tags '0.32.x'
+    cql """
+CREATE TABLE rollups (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    rollup int,
+    time timestamp,
+    summary blob,
+    PRIMARY KEY ((tenant_id, type, metric, rollup), time)
+)
+"""
+    verify { tableExists(keyspace, 'rollups') }
+}
+
+schemaChange {
+    version '10.3'
+    author 'hawkular'
+    tags '0.32.x'
+    cql """
+CREATE TABLE metrics_registry (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    PRIMARY KEY ((tenant_id, type), metric)
+) WITH compaction = { 'class': 'LeveledCompactionStrategy' }
+"""
+    verify { tableExists(keyspace, 'metrics_registry') }
+}
+
+schemaChange {
+    version '10.4'
+    author 'hawkular'
+    tags '0.32.x'
+    cql """
+CREATE TABLE latest_data (
+    tenant_id text,
+    type tinyint,
+    metric text,
+    time timestamp,
+    n_value double,
+    l_value bigint,
+    availability blob,
+    tags frozen<map<text, text>>,
+    PRIMARY KEY ((tenant_id, type), metric)
+) WITH compaction = { 'class': 'LeveledCompactionStrategy' }
+"""
+    verify { tableExists(keyspace, 'latest_data') }
+}
+
+schemaChange {
+    version '10.5'
+    author 'hawkular'
+    tags '0.32.x'
+    cql """
+CREATE TABLE day_rollup_metrics (
+    day timestamp,
+    tenant_id text,
+    type tinyint,
+    metric text,
+    PRIMARY KEY (day, tenant_id, type, metric)
+) WITH compaction = { 'class': 'LeveledCompactionStrategy' } AND default_time_to_live = 604800
+"""
+    verify { tableExists(keyspace, 'day_rollup_metrics') }
+}
@@ -25,7 +25,6 @@ import static org.junit.Assert.assertTrue
 import org.apache.commons.math3.stat.descriptive.moment.Mean
 import org.apache.commons.math3.stat.descriptive.rank.Max
 import org.apache.commons.math3.stat.descriptive.rank.Min
-import org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile
 import org.apache.commons.math3.stat.descriptive.summary.Sum
 import org.hawkular.metrics.datetime.DateTimeService
 import org.joda.time.DateTime
@@ -118,7 +117,7 @@ class GaugeMetricStatisticsITest extends RESTTest {
         query: [start: start.millis, end: end.millis, buckets: 10], headers: [(tenantHeaderName): tenantId])
     assertEquals(200, response.status)
 
-    def avg0 = new Mean(), sum0 = new Sum(), med0 = new PSquarePercentile(50.0), perc95th0 = new PSquarePercentile(95.0)
+    def avg0 = new Mean(), sum0 = new Sum(), med0 = new SketchPercentile(50.0), perc95th0 = new SketchPercentile(95.0)
     [12.22, 15.37].each { value ->
       avg0.increment(value)
       med0.increment(value)
@@ -126,7 +125,7 @@ class GaugeMetricStatisticsITest extends RESTTest {
       perc95th0.increment(value)
     }
 
-    def avg9 = new Mean(), sum9 = new Sum(), med9 = new PSquarePercentile(50.0), perc95th9 = new PSquarePercentile(95.0)
+    def avg9 = new Mean(), sum9 = new Sum(), med9 = new SketchPercentile(50.0), perc95th9 = new SketchPercentile(95.0)
     [18.367, 19.01].each { value ->
       avg9.increment(value)
       med9.increment(value)
@@ -185,8 +184,8 @@ class GaugeMetricStatisticsITest extends RESTTest {
       def sample = createSample(sampleSize)
 
       def data = [];
-      def min = new Min(), avg = new Mean(), median = new PSquarePercentile(50.0), max = new Max(), sum = new Sum(),
-          perc95th = new PSquarePercentile(95.0)
+      def min = new Min(), avg = new Mean(), median = new SketchPercentile(50.0), max = new Max(), sum = new Sum(),
+          perc95th = new SketchPercentile(95.0)
 
       for (int i in 0..sample.size() - 1) {
         data.add([timestamp: bucketStart.plus(i * interval).millis, value: sample[i]])
@@ -1169,7 +1168,7 @@ class GaugeMetricStatisticsITest extends RESTTest {
   }
 
   static double median(double... values) {
-    def median = new PSquarePercentile(50.0)
+    def median = new SketchPercentile(50.0)
     values.each { median.increment(it) }
     return median.getResult()
   }
@@ -25,7 +25,6 @@ import groovyx.net.http.HttpResponseDecorator
 import groovyx.net.http.HttpResponseException
 import groovyx.net.http.RESTClient
 import org.apache.commons.math3.stat.descriptive.moment.Mean
-import org.apache.commons.math3.stat.descriptive.rank.PSquarePercentile
 import org.joda.time.DateTime
 import org.junit.BeforeClass
 
@@ -240,13 +239,13 @@ Actual: ${actual}
   }
 
   static double median(List values) {
-    PSquarePercentile median = new PSquarePercentile(50.0)
+    SketchPercentile median = new SketchPercentile(50.0)
     values.each { median.increment(it as double) }
     return median.result
   }
 
   static double percentile(double p, List values) {
-    PSquarePercentile percentile = new PSquarePercentile(p)
+    SketchPercentile percentile = new SketchPercentile(p)
     values.each { percentile.increment(it as double) }
     return percentile.result
   }
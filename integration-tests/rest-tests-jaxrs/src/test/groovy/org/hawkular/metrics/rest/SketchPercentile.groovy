@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.rest
+
+import org.hawkular.metrics.core.service.compress.QuantileSketch
+
+/**
+ * Computes the expected percentiles the same way as the server does.
+ */
+class SketchPercentile {
+
+  private final double quantile
+  private final QuantileSketch sketch = new QuantileSketch()
+
+  SketchPercentile(double percentile) {
+    quantile = percentile / 100
+  }
+
+  void increment(double value) {
+    sketch.add(value)
+  }
+
+  double getResult() {
+    return sketch.getQuantile(quantile)
+  }
+}